@@ -0,0 +1,244 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.gui.jmapviewer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openstreetmap.gui.jmapviewer.interfaces.TileCache;
+import org.openstreetmap.gui.jmapviewer.interfaces.TileSource;
+
+/**
+ * {@link TileCache} implementation that stores {@link Tile} objects in memory
+ * up to a budget of decoded image bytes ({@link #getMaxBytes()}).
+ * <p>
+ * Lookups and insertions do not lock, so painting does not wait for the tile
+ * loader threads. When the budget is exceeded, one thread evicts tiles until
+ * the cache is below 90% of the budget: first the least recently used tiles
+ * outside of the viewport (see {@link #setViewport}), then the least recently
+ * used tiles in it.
+ * <p>
+ * A tile is accounted with the size of its image, or with the size of a
+ * decoded image of its tile source while it has none.
+ */
+public class ConcurrentTileCache implements TileCache {
+
+    /**
+     * A cached tile.
+     */
+    private static class CacheEntry {
+        final Tile tile;
+        /** The access stamp, a greater stamp is a more recent access */
+        volatile long lastAccess;
+        /** The bytes accounted for this entry, guarded by the entry */
+        long bytes;
+        /** Whether the entry has left the cache, guarded by the entry */
+        boolean removed;
+
+        CacheEntry(Tile tile, long bytes) {
+            this.tile = tile;
+            this.bytes = bytes;
+        }
+    }
+
+    private final ConcurrentHashMap<String, CacheEntry> hash = new ConcurrentHashMap<String, CacheEntry>(256);
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private volatile long maxBytes;
+    private volatile TileViewport viewport;
+
+    /**
+     * Constructs a new {@code ConcurrentTileCache}.
+     * @param maxBytes the maximum number of bytes of the tile images
+     */
+    public ConcurrentTileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public void addTile(Tile tile) {
+        CacheEntry entry = new CacheEntry(tile, getBytes(tile));
+        entry.lastAccess = clock.incrementAndGet();
+        usedBytes.addAndGet(entry.bytes);
+        CacheEntry old = hash.put(tile.getKey(), entry);
+        if (old != null) {
+            release(old);
+        }
+        if (usedBytes.get() > maxBytes) {
+            removeOldEntries();
+        }
+    }
+
+    /**
+     * Adds a tile to the cache unless it already holds a tile with the same
+     * key, atomically.
+     *
+     * @param tile the tile to be added
+     * @return the tile already in the cache, or {@code null} if the given tile
+     *         was added
+     */
+    public Tile addTileIfAbsent(Tile tile) {
+        CacheEntry entry = new CacheEntry(tile, getBytes(tile));
+        entry.lastAccess = clock.incrementAndGet();
+        usedBytes.addAndGet(entry.bytes);
+        CacheEntry old = hash.putIfAbsent(tile.getKey(), entry);
+        if (old != null) {
+            usedBytes.addAndGet(-entry.bytes);
+            old.lastAccess = clock.incrementAndGet();
+            return old.tile;
+        }
+        if (usedBytes.get() > maxBytes) {
+            removeOldEntries();
+        }
+        return null;
+    }
+
+    @Override
+    public Tile getTile(TileSource source, int x, int y, int z) {
+        CacheEntry entry = hash.get(Tile.getTileKey(source, x, y, z));
+        if (entry == null)
+            return null;
+        // We don't care about placeholder tiles and hourglass image tiles, the
+        // important tiles are the loaded ones
+        if (entry.tile.isLoaded()) {
+            entry.lastAccess = clock.incrementAndGet();
+        }
+        return entry.tile;
+    }
+
+    /**
+     * Sets the tiles which are evicted last: the tiles of the given range and
+     * the tiles of lower zoom levels covering it, which are painted while the
+     * tiles of the range are loading.
+     *
+     * @param viewport the tiles shown on the screen
+     * @see TileViewport#covers(Tile)
+     */
+    public void setViewport(TileViewport viewport) {
+        this.viewport = viewport;
+    }
+
+    /**
+     * Removes tiles until the cache is below 90% of the budget. Does nothing if
+     * another thread is already removing tiles.
+     */
+    protected void removeOldEntries() {
+        if (!evictionLock.tryLock())
+            return;
+        try {
+            TileViewport vp = viewport;
+            List<CacheEntry> entries = new ArrayList<CacheEntry>(hash.values());
+            // the images of the tiles may have been loaded or replaced since they were added
+            for (CacheEntry entry : entries) {
+                long bytes = getBytes(entry.tile);
+                synchronized (entry) {
+                    if (!entry.removed) {
+                        usedBytes.addAndGet(bytes - entry.bytes);
+                        entry.bytes = bytes;
+                    }
+                }
+            }
+            long target = maxBytes / 10 * 9;
+            if (usedBytes.get() <= target)
+                return;
+            List<CacheEntry> candidates = new ArrayList<CacheEntry>(entries.size());
+            List<CacheEntry> protectedEntries = new ArrayList<CacheEntry>();
+            for (CacheEntry entry : entries) {
+                (vp != null && vp.covers(entry.tile) ? protectedEntries : candidates).add(entry);
+            }
+            Comparator<CacheEntry> lru = new Comparator<CacheEntry>() {
+                @Override
+                public int compare(CacheEntry e1, CacheEntry e2) {
+                    return e1.lastAccess < e2.lastAccess ? -1 : e1.lastAccess == e2.lastAccess ? 0 : 1;
+                }
+            };
+            Collections.sort(candidates, lru);
+            Collections.sort(protectedEntries, lru);
+            candidates.addAll(protectedEntries);
+            for (CacheEntry entry : candidates) {
+                if (usedBytes.get() <= target) {
+                    break;
+                }
+                if (hash.remove(entry.tile.getKey(), entry)) {
+                    release(entry);
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void release(CacheEntry entry) {
+        synchronized (entry) {
+            if (!entry.removed) {
+                entry.removed = true;
+                usedBytes.addAndGet(-entry.bytes);
+            }
+        }
+    }
+
+    /**
+     * Replies the number of bytes accounted for a tile: the size of its image,
+     * or the size of a decoded image of its tile source while it has none.
+     * @param tile the tile
+     * @return the number of bytes of the tile image
+     */
+    protected static long getBytes(Tile tile) {
+        BufferedImage image = tile.getImage();
+        if (image == null) {
+            long size = tile.getSource().getTileSize();
+            return size * size * 4;
+        }
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    /**
+     * Clears the cache deleting all tiles from memory
+     */
+    public void clear() {
+        for (CacheEntry entry : hash.values()) {
+            if (hash.remove(entry.tile.getKey(), entry)) {
+                release(entry);
+            }
+        }
+    }
+
+    @Override
+    public int getTileCount() {
+        return hash.size();
+    }
+
+    /**
+     * @return the number of bytes of the tile images currently accounted
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    /**
+     * @return the maximum number of bytes of the tile images
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Changes the maximum number of bytes of the tile images this cache holds.
+     *
+     * @param maxBytes the new maximum number of bytes
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        if (usedBytes.get() > maxBytes) {
+            removeOldEntries();
+        }
+    }
+}
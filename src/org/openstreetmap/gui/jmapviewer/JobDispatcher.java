@@ -2,11 +2,17 @@ package org.openstreetmap.gui.jmapviewer;
 
 //License: GPL. Copyright 2008 by Jan Peter Stotz
 
-import java.util.concurrent.BlockingDeque;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.TimeUnit;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.WeakHashMap;
 
 import org.openstreetmap.gui.jmapviewer.interfaces.TileJob;
+import org.openstreetmap.gui.jmapviewer.interfaces.TileSource;
 
 /**
  * A generic class that processes a list of {@link Runnable} one-by-one using
@@ -14,6 +20,18 @@ import org.openstreetmap.gui.jmapviewer.interfaces.TileJob;
  * 1 and {@link #workerThreadMaxCount} (default: 8). If an instance is idle
  * more than {@link #workerThreadTimeout} seconds (default: 30), the instance
  * ends itself.
+ * <p>
+ * Jobs are not run in the order they were added: if the tiles shown for a tile
+ * source are known (see {@link #setViewport}), the jobs for visible tiles come
+ * first, then the jobs at the displayed zoom level, then the jobs for the tiles
+ * closest to the centre of the screen. Jobs for tiles which scrolled out of view
+ * wait until no visible tile is left to load. Among equivalent jobs the queue is
+ * FIFO or LIFO (see {@link #setLIFO}). At most {@link #maxJobsPerHost} jobs load
+ * tiles from the same host at a time.
+ * <p>
+ * The jobs are kept in one priority queue per host, so taking the next job only
+ * compares the heads of the queues. The queues are reordered when a viewport or
+ * the mode changes.
  *
  * @author Jan Peter Stotz
  */
@@ -32,10 +50,51 @@ public class JobDispatcher {
         addWorkerThread().firstThread = true;
     }
 
-    protected BlockingDeque<TileJob> jobQueue = new LinkedBlockingDeque<TileJob>();
+    /**
+     * A job waiting in the queue.
+     */
+    protected static class QueuedJob {
+        final TileJob job;
+        final String host;
+        long sequence;
+
+        QueuedJob(TileJob job, String host, long sequence) {
+            this.job = job;
+            this.host = host;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * The queued jobs by host (<code>null</code> for jobs without a host), ordered by {@link #compare}
+     */
+    protected final Map<String, PriorityQueue<QueuedJob>> jobQueues = new HashMap<String, PriorityQueue<QueuedJob>>();
+
+    private final Comparator<QueuedJob> jobComparator = new Comparator<QueuedJob>() {
+        @Override
+        public int compare(QueuedJob j1, QueuedJob j2) {
+            return JobDispatcher.this.compare(j1, j2);
+        }
+    };
+
+    /**
+     * The queued jobs by tile, for merging the jobs of the same tile
+     */
+    protected final Map<Tile, QueuedJob> queuedTiles = new IdentityHashMap<Tile, QueuedJob>();
+
+    /**
+     * The number of jobs currently running by host
+     */
+    protected final Map<String, Integer> runningJobsByHost = new HashMap<String, Integer>();
+
+    protected final Map<TileSource, TileViewport> viewports = new WeakHashMap<TileSource, TileViewport>();
+
+    protected long sequence = 0;
 
     protected static int workerThreadMaxCount = 8;
 
+    protected static int maxJobsPerHost = Integer.MAX_VALUE;
+
     /**
      * Specifies the time span in seconds that a worker thread waits for new
      * jobs to perform. If the time span has elapsed the worker thread
@@ -67,8 +126,9 @@ public class JobDispatcher {
     /**
      * Removes all jobs from the queue that are currently not being processed.
      */
-    public void cancelOutstandingJobs() {
-        jobQueue.clear();
+    public synchronized void cancelOutstandingJobs() {
+        jobQueues.clear();
+        queuedTiles.clear();
     }
 
     /**
@@ -78,35 +138,179 @@ public class JobDispatcher {
         workerThreadMaxCount = workers;
     }
 
+    /**
+     * Function to set the maximum number of jobs loading tiles from the same host at a time.
+     */
+    static public void setMaxJobsPerHost(int jobs) {
+        synchronized (instance) {
+            maxJobsPerHost = jobs;
+            instance.notifyAll();
+        }
+    }
+
     /**
      * Function to set the LIFO/FIFO mode for tile loading job.
      *
      * @param lifo <code>true</code> for LIFO mode, <code>false</code> for FIFO mode
      */
-    public void setLIFO(boolean lifo) {
-        modeLIFO = lifo;
+    public synchronized void setLIFO(boolean lifo) {
+        if (modeLIFO != lifo) {
+            modeLIFO = lifo;
+            reorderJobs();
+        }
+    }
+
+    /**
+     * Sets the tiles shown on the screen for a tile source, which decides the order
+     * of the queued jobs for the tiles of this source.
+     *
+     * @param viewport the tiles shown on the screen
+     */
+    public synchronized void setViewport(TileViewport viewport) {
+        TileSource source = viewport.getSource();
+        if (source != null && !viewport.equals(viewports.put(source, viewport))) {
+            reorderJobs();
+        }
+    }
+
+    /**
+     * Restores the order of the queues after the result of {@link #compare} changed.
+     */
+    private void reorderJobs() {
+        for (Map.Entry<String, PriorityQueue<QueuedJob>> entry : jobQueues.entrySet()) {
+            PriorityQueue<QueuedJob> queue = new PriorityQueue<QueuedJob>(entry.getValue().size(), jobComparator);
+            queue.addAll(entry.getValue());
+            entry.setValue(queue);
+        }
     }
 
     /**
      * Adds a job to the queue.
      * Jobs for tiles already contained in the are ignored (using a <code>null</code> tile
-     * prevents skipping).
+     * prevents skipping); the tile is then considered as requested again in LIFO mode.
      *
      * @param job the the job to be added
      */
     public void addJob(TileJob job) {
-        try {
-            if(job.getTile() != null) {
-                for(TileJob oldJob : jobQueue) {
-                    if(oldJob.getTile() == job.getTile()) {
-                        return;
-                    }
+        Tile tile = job.getTile();
+        String host = null;
+        if (tile != null) {
+            try {
+                host = new URL(tile.getUrl()).getHost();
+            } catch (IOException e) {
+                // not limited
+            }
+        }
+        synchronized (this) {
+            if (tile != null) {
+                QueuedJob queued = queuedTiles.get(tile);
+                if (queued != null) {
+                    // the sequence is part of the order
+                    PriorityQueue<QueuedJob> queue = jobQueues.get(queued.host);
+                    queue.remove(queued);
+                    queued.sequence = ++sequence;
+                    queue.add(queued);
+                    return;
                 }
             }
-            jobQueue.put(job);
+            QueuedJob queued = new QueuedJob(job, host, ++sequence);
+            PriorityQueue<QueuedJob> queue = jobQueues.get(host);
+            if (queue == null) {
+                queue = new PriorityQueue<QueuedJob>(11, jobComparator);
+                jobQueues.put(host, queue);
+            }
+            queue.add(queued);
+            if (tile != null) {
+                queuedTiles.put(tile, queued);
+            }
+            notifyAll();
             if (workerThreadIdleCount == 0 && workerThreadCount < workerThreadMaxCount)
                 addWorkerThread();
-        } catch (InterruptedException e) {
+        }
+    }
+
+    /**
+     * Replies the rank of the zoom level of a job: 0 for the displayed zoom level,
+     * then the lower zoom levels, whose tiles are shown while the displayed ones
+     * are missing, before the higher zoom levels.
+     */
+    private static int getZoomRank(Tile tile, TileViewport viewport) {
+        int dz = tile.getZoom() - viewport.getZoom();
+        return dz <= 0 ? -dz : 2 * dz;
+    }
+
+    /**
+     * Compares two queued jobs.
+     * @return a negative number if <code>j1</code> has to run before <code>j2</code>
+     */
+    protected int compare(QueuedJob j1, QueuedJob j2) {
+        Tile t1 = j1.job.getTile();
+        Tile t2 = j2.job.getTile();
+        TileViewport v1 = t1 == null ? null : viewports.get(t1.getSource());
+        TileViewport v2 = t2 == null ? null : viewports.get(t2.getSource());
+        // jobs without a viewport are considered visible
+        boolean visible1 = v1 == null || v1.intersects(t1);
+        boolean visible2 = v2 == null || v2.intersects(t2);
+        if (visible1 != visible2)
+            return visible1 ? -1 : 1;
+        int zoom1 = v1 == null ? 0 : getZoomRank(t1, v1);
+        int zoom2 = v2 == null ? 0 : getZoomRank(t2, v2);
+        if (zoom1 != zoom2)
+            return zoom1 < zoom2 ? -1 : 1;
+        double distance1 = v1 == null ? 0 : v1.distance(t1);
+        double distance2 = v2 == null ? 0 : v2.distance(t2);
+        if (distance1 != distance2)
+            return distance1 < distance2 ? -1 : 1;
+        if (j1.sequence == j2.sequence)
+            return 0;
+        return (j1.sequence < j2.sequence) != modeLIFO ? -1 : 1;
+    }
+
+    /**
+     * Removes the next job to run from the queue, skipping the jobs of hosts
+     * already loading {@link #maxJobsPerHost} tiles.
+     * @return the next job, or <code>null</code> if there is no job to run
+     */
+    protected synchronized QueuedJob nextJob() {
+        PriorityQueue<QueuedJob> best = null;
+        for (Map.Entry<String, PriorityQueue<QueuedJob>> entry : jobQueues.entrySet()) {
+            if (entry.getKey() != null) {
+                Integer running = runningJobsByHost.get(entry.getKey());
+                if (running != null && running >= maxJobsPerHost) {
+                    continue;
+                }
+            }
+            // empty queues are removed
+            if (best == null || compare(entry.getValue().peek(), best.peek()) < 0) {
+                best = entry.getValue();
+            }
+        }
+        if (best == null)
+            return null;
+        QueuedJob job = best.poll();
+        if (best.isEmpty()) {
+            jobQueues.remove(job.host);
+        }
+        if (job.job.getTile() != null) {
+            queuedTiles.remove(job.job.getTile());
+        }
+        if (job.host != null) {
+            Integer running = runningJobsByHost.get(job.host);
+            runningJobsByHost.put(job.host, running == null ? 1 : running + 1);
+        }
+        return job;
+    }
+
+    protected synchronized void jobFinished(QueuedJob job) {
+        if (job.host != null) {
+            int running = runningJobsByHost.get(job.host) - 1;
+            if (running == 0) {
+                runningJobsByHost.remove(job.host);
+            } else {
+                runningJobsByHost.put(job.host, running);
+            }
+            // a job of this host may be waiting
+            notifyAll();
         }
     }
 
@@ -121,7 +325,7 @@ public class JobDispatcher {
 
     public class JobThread extends Thread {
 
-        Runnable job;
+        QueuedJob job;
         boolean firstThread = false;
 
         public JobThread(int threadId) {
@@ -143,32 +347,32 @@ public class JobDispatcher {
                 try {
                     synchronized (instance) {
                         workerThreadIdleCount++;
-                    }
-                    if(modeLIFO) {
-                        if (firstThread)
-                            job = jobQueue.takeLast();
-                        else
-                            job = jobQueue.pollLast(workerThreadTimeout, TimeUnit.SECONDS);
-                    } else {
-                        if (firstThread)
-                            job = jobQueue.take();
-                        else
-                            job = jobQueue.poll(workerThreadTimeout, TimeUnit.SECONDS);
+                        try {
+                            long timeout = System.currentTimeMillis() + workerThreadTimeout * 1000L;
+                            while ((job = nextJob()) == null) {
+                                if (firstThread) {
+                                    instance.wait();
+                                } else {
+                                    long wait = timeout - System.currentTimeMillis();
+                                    if (wait <= 0)
+                                        return;
+                                    instance.wait(wait);
+                                }
+                            }
+                        } finally {
+                            workerThreadIdleCount--;
+                        }
                     }
                 } catch (InterruptedException e1) {
                     return;
-                } finally {
-                    synchronized (instance) {
-                        workerThreadIdleCount--;
-                    }
                 }
-                if (job == null)
-                    return;
                 try {
-                    job.run();
-                    job = null;
+                    job.job.run();
                 } catch (Exception e) {
                     e.printStackTrace();
+                } finally {
+                    jobFinished(job);
+                    job = null;
                 }
             }
         }
@@ -0,0 +1,468 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.gui.jmapviewer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Persistent tile store keeping the tiles of a tile source in a few memory-mapped segment files
+ * instead of one file per tile.
+ * <p>
+ * Tiles are appended to the last segment as records holding the tile coordinates, a timestamp
+ * (the time the tile was loaded or last checked against the server), the tile metadata (like
+ * the ETag) and the image data. An in-memory index maps the tile coordinates to the latest record
+ * of each tile; it is rebuilt by scanning the segments when the store is opened. Reading a tile
+ * only copies its record out of the mapped segment, no file is opened.
+ * <p>
+ * Replaced records stay in the segments until the store exceeds its maximum size. It is then
+ * compacted: the current records are copied into new segments, the oldest ones being dropped
+ * until the store is below 3/4 of its maximum size, and the old segments are deleted.
+ */
+public class MappedTileStore {
+
+    private static final Logger log = Logger.getLogger(MappedTileStore.class.getName());
+
+    /** The size of a segment file */
+    public static final int SEGMENT_SIZE = 32 * 1024 * 1024;
+
+    private static final int MAGIC = 0x4a4d5431; // "JMT1"
+
+    /*
+     * Record layout: magic, record length, zoom, x, y, timestamp, metadata length,
+     * data length (-1 if the tile has no image), metadata, data
+     */
+    private static final int TIMESTAMP_OFFSET = 20;
+    private static final int HEADER_SIZE = 36;
+
+    /** The maximum zoom level whose tiles are stored, so that tile coordinates fit into a long */
+    private static final int MAX_ZOOM = 29;
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("tiles-(\\d+)\\.store");
+
+    private static final Charset METADATA_CHARSET = Charset.forName("UTF-8");
+
+    private static final Map<File, MappedTileStore> stores = new HashMap<File, MappedTileStore>();
+
+    /**
+     * A tile read from the store.
+     */
+    public static class StoredTile {
+        /** The image data, or <code>null</code> if there is no image for the tile */
+        public final byte[] data;
+        /** The tile metadata */
+        public final Map<String, String> metadata;
+        /** The time the tile was loaded or last checked against the server */
+        public final long timestamp;
+
+        StoredTile(byte[] data, Map<String, String> metadata, long timestamp) {
+            this.data = data;
+            this.metadata = metadata;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private static class Segment {
+        final int id;
+        final File file;
+        final MappedByteBuffer buffer;
+        /** The offset after the last record */
+        int end;
+
+        Segment(int id, File file, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    private final File dir;
+    private volatile long maxSize;
+    private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+    /** Maps the tile keys to the location (segment id and offset) of their latest record */
+    private final Map<Long, Long> index = new HashMap<Long, Long>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /** Segment ids are not reused, a segment which could not be deleted may still hold records */
+    private int nextSegmentId;
+
+    /**
+     * Replies the store of the given directory, opening it if it is not open yet. Loaders
+     * sharing a cache directory share the store, as a store must not be opened twice.
+     *
+     * @param dir the directory of the segment files
+     * @param maxSize the maximum size in bytes of the store
+     * @return the store of the directory
+     * @throws IOException if the store cannot be opened
+     */
+    public static synchronized MappedTileStore getStore(File dir, long maxSize) throws IOException {
+        File key = dir.getCanonicalFile();
+        MappedTileStore store = stores.get(key);
+        if (store == null) {
+            store = new MappedTileStore(key, maxSize);
+            stores.put(key, store);
+        } else {
+            store.setMaxSize(maxSize);
+        }
+        return store;
+    }
+
+    /**
+     * Opens the store of the given directory and indexes the tiles of its segments.
+     * Use {@link #getStore} to share the store of a directory.
+     *
+     * @param dir the directory of the segment files
+     * @param maxSize the maximum size in bytes of the store
+     * @throws IOException if the directory cannot be created or a segment cannot be mapped
+     */
+    public MappedTileStore(File dir, long maxSize) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot access tile store directory " + dir);
+        this.dir = dir;
+        this.maxSize = maxSize;
+        List<Integer> ids = new ArrayList<Integer>();
+        String[] names = dir.list();
+        if (names != null) {
+            for (String name : names) {
+                Matcher m = SEGMENT_NAME.matcher(name);
+                if (m.matches()) {
+                    ids.add(Integer.valueOf(m.group(1)));
+                }
+            }
+        }
+        // the later records of a tile replace the earlier ones
+        Collections.sort(ids);
+        for (int id : ids) {
+            Segment segment = openSegment(id);
+            if (segment.end == 0) {
+                deleteSegment(segment);
+            }
+        }
+    }
+
+    private static long getKey(int zoom, int x, int y) {
+        return ((long) zoom << 58) | ((long) x << 29) | y;
+    }
+
+    private static long getLocation(Segment segment, int offset) {
+        return ((long) segment.id << 32) | offset;
+    }
+
+    private Segment openSegment(int id) throws IOException {
+        File file = new File(dir, "tiles-" + id + ".store");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        Segment segment;
+        try {
+            // the mapping stays valid after the file is closed
+            segment = new Segment(id, file, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE));
+        } finally {
+            raf.close();
+        }
+        ByteBuffer b = segment.buffer;
+        int pos = 0;
+        while (pos + HEADER_SIZE <= SEGMENT_SIZE && b.getInt(pos) == MAGIC) {
+            int length = b.getInt(pos + 4);
+            if (length < HEADER_SIZE || length > SEGMENT_SIZE - pos) {
+                log.warning("Invalid record in tile store segment " + file);
+                break;
+            }
+            index.put(getKey(b.getInt(pos + 8), b.getInt(pos + 12), b.getInt(pos + 16)), getLocation(segment, pos));
+            pos += length;
+        }
+        segment.end = pos;
+        segments.put(id, segment);
+        nextSegmentId = Math.max(nextSegmentId, id + 1);
+        return segment;
+    }
+
+    private Segment newSegment() throws IOException {
+        return openSegment(nextSegmentId);
+    }
+
+    private void deleteSegment(Segment segment) {
+        // invalidate the segment in case the file cannot be deleted while it is mapped
+        segment.buffer.putInt(0, 0);
+        segments.remove(segment.id);
+        if (!segment.file.delete()) {
+            log.fine("Cannot delete tile store segment " + segment.file);
+        }
+    }
+
+    /**
+     * Reads a tile.
+     *
+     * @param zoom the zoom level of the tile
+     * @param x the x coordinate of the tile
+     * @param y the y coordinate of the tile
+     * @return the tile, or <code>null</code> if the tile is not stored
+     */
+    public StoredTile get(int zoom, int x, int y) {
+        if (zoom > MAX_ZOOM)
+            return null;
+        lock.readLock().lock();
+        try {
+            Long location = index.get(getKey(zoom, x, y));
+            if (location == null)
+                return null;
+            ByteBuffer b = segments.get((int) (location >>> 32)).buffer.duplicate();
+            b.position((int) location.longValue() + TIMESTAMP_OFFSET);
+            long timestamp = b.getLong();
+            byte[] metadata = new byte[b.getInt()];
+            int dataLength = b.getInt();
+            byte[] data = dataLength < 0 ? null : new byte[dataLength];
+            b.get(metadata);
+            if (data != null) {
+                b.get(data);
+            }
+            return new StoredTile(data, decodeMetadata(metadata), timestamp);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores a tile, replacing the stored version of the tile.
+     *
+     * @param zoom the zoom level of the tile
+     * @param x the x coordinate of the tile
+     * @param y the y coordinate of the tile
+     * @param data the image data, or <code>null</code> if there is no image for the tile
+     * @param metadata the tile metadata, may be <code>null</code>
+     * @param timestamp the time the tile was loaded
+     * @throws IOException if a new segment cannot be created
+     */
+    public void put(int zoom, int x, int y, byte[] data, Map<String, String> metadata, long timestamp) throws IOException {
+        byte[] meta = encodeMetadata(metadata);
+        int length = HEADER_SIZE + meta.length + (data == null ? 0 : data.length);
+        if (zoom > MAX_ZOOM || length > SEGMENT_SIZE || length > maxSize)
+            return;
+        lock.writeLock().lock();
+        try {
+            if (getSize() + length > maxSize) {
+                compact(maxSize / 4 * 3 - length);
+            }
+            Segment segment = segments.isEmpty() ? null : segments.lastEntry().getValue();
+            if (segment == null || segment.end + length > SEGMENT_SIZE) {
+                segment = newSegment();
+            }
+            ByteBuffer b = segment.buffer.duplicate();
+            b.position(segment.end + 4);
+            b.putInt(length).putInt(zoom).putInt(x).putInt(y).putLong(timestamp);
+            b.putInt(meta.length).putInt(data == null ? -1 : data.length).put(meta);
+            if (data != null) {
+                b.put(data);
+            }
+            // the record becomes valid with its magic number
+            segment.buffer.putInt(segment.end, MAGIC);
+            index.put(getKey(zoom, x, y), getLocation(segment, segment.end));
+            segment.end += length;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Updates the timestamp of a stored tile, e.g. after the server confirmed the tile is up to date.
+     *
+     * @param zoom the zoom level of the tile
+     * @param x the x coordinate of the tile
+     * @param y the y coordinate of the tile
+     * @param timestamp the new timestamp
+     */
+    public void touch(int zoom, int x, int y, long timestamp) {
+        if (zoom > MAX_ZOOM)
+            return;
+        lock.writeLock().lock();
+        try {
+            Long location = index.get(getKey(zoom, x, y));
+            if (location != null) {
+                segments.get((int) (location >>> 32)).buffer.putLong((int) location.longValue() + TIMESTAMP_OFFSET, timestamp);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Copies the current records into new segments and deletes the old segments.
+     * Replaced records are dropped, as well as the oldest tiles if the store would
+     * exceed 3/4 of its maximum size.
+     *
+     * @throws IOException if a new segment cannot be created
+     */
+    public void compact() throws IOException {
+        lock.writeLock().lock();
+        try {
+            compact(maxSize / 4 * 3);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void compact(long targetSize) throws IOException {
+        List<Segment> oldSegments = new ArrayList<Segment>(segments.values());
+        List<long[]> records = new ArrayList<long[]>(index.size());
+        long size = 0;
+        for (Entry<Long, Long> e : index.entrySet()) {
+            long location = e.getValue();
+            ByteBuffer b = segments.get((int) (location >>> 32)).buffer;
+            int length = b.getInt((int) location + 4);
+            records.add(new long[] {e.getKey(), location, length, b.getLong((int) location + TIMESTAMP_OFFSET)});
+            size += length;
+        }
+        if (size > targetSize) {
+            // drop the tiles which have not been loaded or checked for the longest time
+            Collections.sort(records, new Comparator<long[]>() {
+                @Override
+                public int compare(long[] r1, long[] r2) {
+                    return r1[3] < r2[3] ? -1 : r1[3] == r2[3] ? 0 : 1;
+                }
+            });
+            int dropped = 0;
+            while (size > targetSize && dropped < records.size()) {
+                size -= records.get(dropped++)[2];
+            }
+            records = records.subList(dropped, records.size());
+        }
+        // copy in storage order
+        Collections.sort(records, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] r1, long[] r2) {
+                return r1[1] < r2[1] ? -1 : r1[1] == r2[1] ? 0 : 1;
+            }
+        });
+        index.clear();
+        Segment target = null;
+        for (long[] r : records) {
+            int length = (int) r[2];
+            if (target == null || target.end + length > SEGMENT_SIZE) {
+                target = newSegment();
+            }
+            ByteBuffer src = segments.get((int) (r[1] >>> 32)).buffer.duplicate();
+            src.position((int) r[1]).limit((int) r[1] + length);
+            ByteBuffer dst = target.buffer.duplicate();
+            dst.position(target.end);
+            dst.put(src);
+            index.put(r[0], getLocation(target, target.end));
+            target.end += length;
+        }
+        for (Segment segment : oldSegments) {
+            deleteSegment(segment);
+        }
+    }
+
+    /**
+     * Removes all tiles and deletes the segment files.
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            for (Segment segment : new ArrayList<Segment>(segments.values())) {
+                deleteSegment(segment);
+            }
+            index.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the segment files of the store
+     */
+    public File[] getSegmentFiles() {
+        lock.readLock().lock();
+        try {
+            List<File> files = new ArrayList<File>(segments.size());
+            for (Segment segment : segments.values()) {
+                files.add(segment.file);
+            }
+            return files.toArray(new File[files.size()]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of stored tiles
+     */
+    public int getTileCount() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of bytes used by the records of the store, including the replaced ones
+     */
+    public long getSize() {
+        lock.readLock().lock();
+        try {
+            long size = 0;
+            for (Segment segment : segments.values()) {
+                size += segment.end;
+            }
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the maximum size in bytes of the store
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum size of the store. The store is compacted when it exceeds this size.
+     *
+     * @param maxSize the maximum size in bytes
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    private static byte[] encodeMetadata(Map<String, String> metadata) {
+        if (metadata == null || metadata.isEmpty())
+            return new byte[0];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Entry<String, String> entry : metadata.entrySet()) {
+            byte[] line = (entry.getKey() + "=" + entry.getValue() + "\n").getBytes(METADATA_CHARSET);
+            out.write(line, 0, line.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static Map<String, String> decodeMetadata(byte[] metadata) {
+        Map<String, String> result = new HashMap<String, String>();
+        for (String line : new String(metadata, METADATA_CHARSET).split("\n")) {
+            int i = line.indexOf('=');
+            if (i > 0) {
+                result.put(line.substring(0, i), line.substring(i + 1));
+            } else if (line.length() > 0) {
+                log.warning("Malformed tile tag in tile store: " + line);
+            }
+        }
+        return result;
+    }
+}
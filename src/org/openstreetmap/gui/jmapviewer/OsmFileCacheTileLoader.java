@@ -180,7 +180,7 @@ public class OsmFileCacheTileLoader extends OsmTileLoader implements CachedTileL
         protected void loadOrUpdateTile() {
             try {
                 URLConnection urlConn = loadTileFromOsm(tile);
-                if (tileFile != null) {
+                if (isTileCached()) {
                     switch (tile.getSource().getTileUpdate()) {
                     case IfModifiedSince:
                         urlConn.setIfModifiedSince(fileAge);
@@ -189,7 +189,7 @@ public class OsmFileCacheTileLoader extends OsmTileLoader implements CachedTileL
                         if (!isOsmTileNewer(fileAge)) {
                             log.finest("LastModified test: local version is up to date: " + tile);
                             tile.setLoaded(true);
-                            tileFile.setLastModified(System.currentTimeMillis() - maxCacheFileAge + recheckAfter);
+                            touchTile();
                             return;
                         }
                         break;
@@ -205,8 +205,7 @@ public class OsmFileCacheTileLoader extends OsmTileLoader implements CachedTileL
                         case ETag:
                             if (hasOsmTileETag(fileETag)) {
                                 tile.setLoaded(true);
-                                tileFile.setLastModified(System.currentTimeMillis() - maxCacheFileAge
-                                        + recheckAfter);
+                                touchTile();
                                 return;
                             }
                         }
@@ -218,7 +217,7 @@ public class OsmFileCacheTileLoader extends OsmTileLoader implements CachedTileL
                     // and the server answers with a HTTP 304 = "Not Modified"
                     log.finest("ETag test: local version is up to date: " + tile);
                     tile.setLoaded(true);
-                    tileFile.setLastModified(System.currentTimeMillis() - maxCacheFileAge + recheckAfter);
+                    touchTile();
                     return;
                 }
 
@@ -260,6 +259,21 @@ public class OsmFileCacheTileLoader extends OsmTileLoader implements CachedTileL
             }
         }
 
+        /**
+         * @return <code>true</code> if {@link #loadTileFromFile()} found a cached version of the tile
+         */
+        protected boolean isTileCached() {
+            return tileFile != null;
+        }
+
+        /**
+         * Marks the cached version of the tile as confirmed by the server, so that
+         * it is checked again after {@link OsmFileCacheTileLoader#recheckAfter}.
+         */
+        protected void touchTile() {
+            tileFile.setLastModified(System.currentTimeMillis() - maxCacheFileAge + recheckAfter);
+        }
+
         protected boolean loadTileFromFile() {
             FileInputStream fin = null;
             try {
@@ -0,0 +1,152 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.gui.jmapviewer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map.Entry;
+
+import org.openstreetmap.gui.jmapviewer.MappedTileStore.StoredTile;
+import org.openstreetmap.gui.jmapviewer.interfaces.TileClearController;
+import org.openstreetmap.gui.jmapviewer.interfaces.TileJob;
+import org.openstreetmap.gui.jmapviewer.interfaces.TileLoaderListener;
+import org.openstreetmap.gui.jmapviewer.interfaces.TileSource;
+
+/**
+ * A {@link OsmFileCacheTileLoader} which keeps the cached tiles of each tile source
+ * in a {@link MappedTileStore} instead of one file per tile.
+ */
+public class OsmMappedCacheTileLoader extends OsmFileCacheTileLoader {
+
+    public static final long DEFAULT_MAX_STORE_SIZE = 512L * 1024 * 1024;
+
+    protected long maxStoreSize = DEFAULT_MAX_STORE_SIZE;
+
+    /**
+     * Create a OsmMappedCacheTileLoader with given cache directory.
+     * @param map the listener checking for tile load events (usually the map for display)
+     * @param cacheDir directory to store cached tiles
+     * @throws IOException if the cache directory cannot be created
+     */
+    public OsmMappedCacheTileLoader(TileLoaderListener map, File cacheDir) throws IOException {
+        super(map, cacheDir);
+    }
+
+    @Override
+    public TileJob createTileLoaderJob(final Tile tile) {
+        return new StoreLoadJob(tile);
+    }
+
+    protected MappedTileStore getStore(TileSource source) throws IOException {
+        return MappedTileStore.getStore(getSourceCacheDir(source), maxStoreSize);
+    }
+
+    protected class StoreLoadJob extends FileLoadJob {
+        MappedTileStore store;
+        boolean tileCached = false;
+
+        public StoreLoadJob(Tile tile) {
+            super(tile);
+        }
+
+        @Override
+        protected boolean isTileCached() {
+            return tileCached;
+        }
+
+        @Override
+        protected void touchTile() {
+            store.touch(tile.getZoom(), tile.getXtile(), tile.getYtile(),
+                    System.currentTimeMillis() - maxCacheFileAge + recheckAfter);
+        }
+
+        @Override
+        protected boolean loadTileFromFile() {
+            try {
+                store = getStore(tile.getSource());
+                StoredTile stored = store.get(tile.getZoom(), tile.getXtile(), tile.getYtile());
+                if (stored == null)
+                    return false;
+                for (Entry<String, String> entry : stored.metadata.entrySet()) {
+                    tile.putValue(entry.getKey(), entry.getValue());
+                }
+                if ("no-tile".equals(tile.getValue("tile-info"))) {
+                    tile.setError("No tile at this zoom level");
+                } else {
+                    if (stored.data == null || stored.data.length == 0)
+                        throw new IOException("Tile empty");
+                    tile.loadImage(new ByteArrayInputStream(stored.data));
+                }
+                tileCached = true;
+                fileAge = stored.timestamp;
+                boolean oldTile = System.currentTimeMillis() - fileAge > maxCacheFileAge;
+                if (!oldTile) {
+                    tile.setLoaded(true);
+                    listener.tileLoadingFinished(tile, true);
+                    fileTilePainted = true;
+                    return true;
+                }
+                listener.tileLoadingFinished(tile, true);
+                fileTilePainted = true;
+            } catch (Exception e) {
+                tileCached = false;
+                fileAge = 0;
+            }
+            return false;
+        }
+
+        @Override
+        protected void saveTileToFile(byte[] rawData) {
+            saveToStore(rawData);
+        }
+
+        @Override
+        protected void saveTagsToFile() {
+            // the tags are stored along with the image, unless there is no image
+            if ("no-tile".equals(tile.getValue("tile-info"))) {
+                saveToStore(null);
+            }
+        }
+
+        private void saveToStore(byte[] rawData) {
+            try {
+                if (store == null) {
+                    store = getStore(tile.getSource());
+                }
+                store.put(tile.getZoom(), tile.getXtile(), tile.getYtile(), rawData, tile.getMetadata(),
+                        System.currentTimeMillis());
+            } catch (IOException e) {
+                System.err.println("Failed to save tile content: " + e.getLocalizedMessage());
+            }
+        }
+    }
+
+    public long getMaxStoreSize() {
+        return maxStoreSize;
+    }
+
+    /**
+     * Sets the maximum size of the tile store of each tile source. A store
+     * exceeding it drops the tiles which have not been loaded for the longest time.
+     *
+     * @param maxStoreSize maximum size in bytes
+     */
+    public void setMaxStoreSize(long maxStoreSize) {
+        this.maxStoreSize = maxStoreSize;
+    }
+
+    @Override
+    public void clearCache(TileSource source, TileClearController controller) {
+        try {
+            MappedTileStore store = getStore(source);
+            if (controller != null) {
+                controller.initClearDir(getSourceCacheDir(source));
+                controller.initClearFiles(store.getSegmentFiles());
+            }
+            store.clear();
+        } catch (IOException e) {
+            System.err.println("Failed to clear tile store: " + e.getLocalizedMessage());
+        }
+        if (controller != null) controller.clearFinished();
+    }
+}
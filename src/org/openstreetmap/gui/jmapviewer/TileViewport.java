@@ -0,0 +1,106 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.gui.jmapviewer;
+
+import java.lang.ref.WeakReference;
+
+import org.openstreetmap.gui.jmapviewer.interfaces.TileSource;
+
+/**
+ * The range of tiles of a tile source shown on the screen at a zoom level.
+ * <p>
+ * The tile source is only referenced weakly, so a viewport remembered by the
+ * {@link JobDispatcher} does not keep the tile source of a closed layer alive.
+ */
+public class TileViewport {
+    private final WeakReference<TileSource> source;
+    private final int zoom;
+    private final int minX, minY, maxX, maxY;
+
+    /**
+     * Constructs a new {@code TileViewport}.
+     *
+     * @param source the tile source
+     * @param zoom the zoom level of the range
+     * @param minX the smallest tile number on the x axis
+     * @param minY the smallest tile number on the y axis
+     * @param maxX the greatest tile number on the x axis
+     * @param maxY the greatest tile number on the y axis
+     */
+    public TileViewport(TileSource source, int zoom, int minX, int minY, int maxX, int maxY) {
+        this.source = new WeakReference<TileSource>(source);
+        this.zoom = zoom;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+    }
+
+    /**
+     * @return the tile source, or <code>null</code> if it was garbage collected
+     */
+    public TileSource getSource() {
+        return source.get();
+    }
+
+    public int getZoom() {
+        return zoom;
+    }
+
+    /**
+     * Replies whether the given tile is in the range or is a tile of a lower zoom level
+     * covering a part of it, which is painted while the tiles of the range are loading.
+     *
+     * @param tile the tile
+     * @return <code>true</code> if the tile is in the range or covers a part of it
+     */
+    public boolean covers(Tile tile) {
+        if (tile.getSource() != source.get() || tile.getZoom() > zoom)
+            return false;
+        int shift = zoom - tile.getZoom();
+        return tile.getXtile() >= minX >> shift && tile.getXtile() <= maxX >> shift
+                && tile.getYtile() >= minY >> shift && tile.getYtile() <= maxY >> shift;
+    }
+
+    /**
+     * Replies whether the given tile of the tile source, at any zoom level, shows a part of the range.
+     *
+     * @param tile the tile
+     * @return <code>true</code> if the tile and the range overlap
+     */
+    public boolean intersects(Tile tile) {
+        if (tile.getSource() != source.get())
+            return false;
+        int shift = zoom - tile.getZoom();
+        return Math.scalb((double) tile.getXtile() + 1, shift) > minX && Math.scalb((double) tile.getXtile(), shift) < maxX + 1
+                && Math.scalb((double) tile.getYtile() + 1, shift) > minY && Math.scalb((double) tile.getYtile(), shift) < maxY + 1;
+    }
+
+    /**
+     * Replies the distance between the centre of the given tile and the centre of the range.
+     *
+     * @param tile the tile
+     * @return the distance in tiles of the zoom level of the range
+     */
+    public double distance(Tile tile) {
+        int shift = zoom - tile.getZoom();
+        double dx = Math.scalb(tile.getXtile() + 0.5, shift) - (minX + maxX + 1) / 2.0;
+        double dy = Math.scalb(tile.getYtile() + 0.5, shift) - (minY + maxY + 1) / 2.0;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(source.get()) + 31 * zoom + 961 * (minX + 31 * (minY + 31 * (maxX + 31 * maxY)));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof TileViewport))
+            return false;
+        TileViewport other = (TileViewport) obj;
+        return source.get() == other.source.get() && zoom == other.zoom
+                && minX == other.minX && minY == other.minY && maxX == other.maxX && maxY == other.maxY;
+    }
+}
@@ -85,6 +85,7 @@ import org.openstreetmap.josm.io.OsmApi;
 import org.openstreetmap.josm.tools.CheckParameterUtil;
 import org.openstreetmap.josm.tools.I18n;
 import org.openstreetmap.josm.tools.ImageProvider;
+import org.openstreetmap.josm.tools.InitializationGraph;
 import org.openstreetmap.josm.tools.OpenBrowser;
 import org.openstreetmap.josm.tools.OsmUrlToBounds;
 import org.openstreetmap.josm.tools.PlatformHook;
@@ -92,6 +93,7 @@ import org.openstreetmap.josm.tools.PlatformHookOsx;
 import org.openstreetmap.josm.tools.PlatformHookUnixoid;
 import org.openstreetmap.josm.tools.PlatformHookWindows;
 import org.openstreetmap.josm.tools.Shortcut;
+import org.openstreetmap.josm.tools.StartupProfiler;
 import org.openstreetmap.josm.tools.Utils;
 import org.openstreetmap.josm.tools.WindowGeometry;
 
@@ -329,11 +331,39 @@ abstract public class Main {
         if (initListener != null) {
             initListener.updateStatus(tr("Executing platform startup hook"));
         }
+        StartupProfiler.Phase phase = StartupProfiler.begin("Executing platform startup hook");
         platform.startupHook();
+        phase.end();
+
+        // the initialization tasks are executed in parallel, each as soon as the tasks it depends on are finished
+        ExecutorService initExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                Utils.newThreadFactory("main-init-%d", Thread.NORM_PRIORITY));
+        InitializationGraph initialization = new InitializationGraph(initExecutor);
+
+        // the OSM API is independent of the user interface, it is initialized while the main menu is built
+        initialization.add("Initializing OSM API", new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+                // We try to establish an API connection early, so that any API
+                // capabilities are already known to the editor instance. However
+                // if it goes wrong that's not critical at this stage.
+                if (initListener != null) {
+                    initListener.updateStatus(tr("Initializing OSM API"));
+                }
+                try {
+                    OsmApi.getOsmApi().initialize(null, true);
+                } catch (Exception x) {
+                    // ignore any exception here.
+                }
+                return null;
+            }
+        });
 
         if (initListener != null) {
             initListener.updateStatus(tr("Building main menu"));
         }
+        phase = StartupProfiler.begin("Building main menu");
         contentPanePrivate.add(panel, BorderLayout.CENTER);
         panel.add(gettingStarted, BorderLayout.CENTER);
         menu = new MainMenu();
@@ -345,39 +375,26 @@ abstract public class Main {
 
         registerActionShortcut(menu.help, Shortcut.registerShortcut("system:help", tr("Help"),
                 KeyEvent.VK_F1, Shortcut.DIRECT));
+        phase.end();
 
-        // contains several initialization tasks to be executed (in parallel) by a ExecutorService
-        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
-
-        tasks.add(new Callable<Void>() {
+        // the following tasks update the menus built above
+        InitializationGraph.Task presets = initialization.add("Initializing presets", new Callable<Void>() {
 
             @Override
             public Void call() throws Exception {
-                // We try to establish an API connection early, so that any API
-                // capabilities are already known to the editor instance. However
-                // if it goes wrong that's not critical at this stage.
                 if (initListener != null) {
-                    initListener.updateStatus(tr("Initializing OSM API"));
-                }
-                try {
-                    OsmApi.getOsmApi().initialize(null, true);
-                } catch (Exception x) {
-                    // ignore any exception here.
+                    initListener.updateStatus(tr("Initializing presets"));
                 }
+                TaggingPresetPreference.initialize();
                 return null;
             }
         });
 
-        tasks.add(new Callable<Void>() {
+        // some validator tests require the presets to be initialized
+        initialization.add("Initializing validator", new Callable<Void>() {
 
             @Override
             public Void call() throws Exception {
-                if (initListener != null) {
-                    initListener.updateStatus(tr("Initializing presets"));
-                }
-                TaggingPresetPreference.initialize();
-                // some validator tests require the presets to be initialized
-                // TODO remove this dependency for parallel initialization
                 if (initListener != null) {
                     initListener.updateStatus(tr("Initializing validator"));
                 }
@@ -385,9 +402,9 @@ abstract public class Main {
                 MapView.addLayerChangeListener(validator);
                 return null;
             }
-        });
+        }, presets);
 
-        tasks.add(new Callable<Void>() {
+        initialization.add("Initializing map styles", new Callable<Void>() {
 
             @Override
             public Void call() throws Exception {
@@ -399,7 +416,7 @@ abstract public class Main {
             }
         });
 
-        tasks.add(new Callable<Void>() {
+        initialization.add("Loading imagery preferences", new Callable<Void>() {
 
             @Override
             public Void call() throws Exception {
@@ -412,12 +429,9 @@ abstract public class Main {
         });
 
         try {
-            for (Future<Void> i : Executors.newFixedThreadPool(
-                    Runtime.getRuntime().availableProcessors()).invokeAll(tasks)) {
-                i.get();
-            }
-        } catch (Exception ex) {
-            throw new RuntimeException(ex);
+            initialization.await();
+        } finally {
+            initExecutor.shutdown();
         }
 
         // hooks for the jmapviewer component
@@ -433,11 +447,12 @@ abstract public class Main {
             initListener.updateStatus(tr("Updating user interface"));
         }
 
+        phase = StartupProfiler.begin("Updating user interface");
         toolbar.refreshToolbarControl();
 
         toolbar.control.updateUI();
         contentPanePrivate.updateUI();
-
+        phase.end();
     }
 
     /**
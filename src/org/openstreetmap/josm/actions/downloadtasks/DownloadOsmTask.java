@@ -24,6 +24,7 @@ import org.openstreetmap.josm.gui.layer.OsmDataLayer;
 import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 import org.openstreetmap.josm.io.BoundingBoxDownloader;
+import org.openstreetmap.josm.io.ConcurrentBoundingBoxDownloader;
 import org.openstreetmap.josm.io.OsmServerLocationReader;
 import org.openstreetmap.josm.io.OsmServerReader;
 import org.openstreetmap.josm.io.OsmTransferCanceledException;
@@ -203,6 +204,12 @@ public class DownloadOsmTask extends AbstractDownloadTask {
                 if (isCanceled())
                     return;
                 dataSet = parseDataSet();
+                if (reader instanceof ConcurrentBoundingBoxDownloader) {
+                    // the data of the other areas is kept, report the areas which failed
+                    for (OsmTransferException e : ((ConcurrentBoundingBoxDownloader) reader).getFailures()) {
+                        rememberException(e);
+                    }
+                }
             } catch(Exception e) {
                 if (isCanceled()) {
                     System.out.println(tr("Ignoring exception because download has been canceled. Exception was: {0}", e.toString()));
@@ -31,13 +31,15 @@ import org.openstreetmap.josm.gui.layer.OsmDataLayer;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor.CancelListener;
 import org.openstreetmap.josm.gui.util.GuiHelper;
+import org.openstreetmap.josm.io.ConcurrentBoundingBoxDownloader;
 import org.openstreetmap.josm.tools.ExceptionUtil;
 import org.openstreetmap.josm.tools.ImageProvider;
 
 /**
  * This class encapsulates the downloading of several bounding boxes that would otherwise be too
- * large to download in one go. Error messages will be collected for all downloads and displayed as
- * a list in the end.
+ * large to download in one go. The OSM data of all bounding boxes is downloaded by one task with
+ * concurrent requests, see {@link ConcurrentBoundingBoxDownloader}. Error messages will be collected
+ * for all downloads and displayed as a list in the end.
  * @author xeen
  * @since 6053
  */
@@ -46,10 +48,36 @@ public class DownloadTaskList {
     private List<Future<?>> taskFutures = new LinkedList<Future<?>>();
     private ProgressMonitor progressMonitor;
 
-    private void addDownloadTask(DownloadTask dt, Rectangle2D td, int i, int n) {
+    private ProgressMonitor createChildProgress(int i, int n) {
         ProgressMonitor childProgress = progressMonitor.createSubTaskMonitor(1, false);
         childProgress.setCustomText(tr("Download {0} of {1} ({2} left)", i, n, n - i));
-        Future<?> future = dt.download(false, new Bounds(td), childProgress);
+        return childProgress;
+    }
+
+    private void addDownloadTask(DownloadTask dt, Rectangle2D td, int i, int n) {
+        Future<?> future = dt.download(false, new Bounds(td), createChildProgress(i, n));
+        taskFutures.add(future);
+        tasks.add(dt);
+    }
+
+    /**
+     * Adds a single task downloading the OSM data of all areas with concurrent requests,
+     * so that the data is merged into the target layer in one go.
+     */
+    private void addOsmDownloadTask(List<Rectangle2D> rects, int i, int n) {
+        List<Bounds> areas = new ArrayList<Bounds>(rects.size());
+        Bounds union = null;
+        for (Rectangle2D td : rects) {
+            Bounds b = new Bounds(td);
+            areas.add(b);
+            if (union == null) {
+                union = new Bounds(b);
+            } else {
+                union.extend(b);
+            }
+        }
+        DownloadOsmTask dt = new DownloadOsmTask();
+        Future<?> future = dt.download(new ConcurrentBoundingBoxDownloader(areas), false, union, createChildProgress(i, n));
         taskFutures.add(future);
         tasks.add(dt);
     }
@@ -71,16 +99,16 @@ public class DownloadTaskList {
             Main.map.mapView.setActiveLayer(l);
         }
 
-        int n = (osmData && gpxData ? 2 : 1)*rects.size();
+        boolean osmTask = osmData && !rects.isEmpty();
+        int n = (osmTask ? 1 : 0) + (gpxData ? rects.size() : 0);
         progressMonitor.beginTask(null, n);
         int i = 0;
-        for (Rectangle2D td : rects) {
-            i++;
-            if (osmData) {
-                addDownloadTask(new DownloadOsmTask(), td, i, n);
-            }
-            if (gpxData) {
-                addDownloadTask(new DownloadGpsTask(), td, i, n);
+        if (osmTask) {
+            addOsmDownloadTask(rects, ++i, n);
+        }
+        if (gpxData) {
+            for (Rectangle2D td : rects) {
+                addDownloadTask(new DownloadGpsTask(), td, ++i, n);
             }
         }
         progressMonitor.addCancelListener(new CancelListener() {
@@ -38,6 +38,8 @@ import org.openstreetmap.josm.actions.ActionParameter.SearchSettingsActionParame
 import org.openstreetmap.josm.actions.JosmAction;
 import org.openstreetmap.josm.actions.ParameterizedAction;
 import org.openstreetmap.josm.actions.search.SearchCompiler.ParseError;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.osm.BBox;
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.Filter;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
@@ -482,31 +484,35 @@ public class SearchAction extends JosmAction implements ParameterizedAction {
         int foundMatches = 0;
         try {
             String searchText = s.text;
-            SearchCompiler.Match matcher = SearchCompiler.compile(searchText, s.caseSensitive, s.regexSearch);
+            SearchCompiler.Match matcher = SearchCompiler.optimize(SearchCompiler.compile(searchText, s.caseSensitive, s.regexSearch));
 
             if (s.mode == SearchMode.replace) {
                 sel.clear();
             }
 
-            Collection<OsmPrimitive> all;
-            if(s.allElements) {
-                all = Main.main.getCurrentDataSet().allPrimitives();
-            } else {
-                all = Main.main.getCurrentDataSet().allNonDeletedCompletePrimitives();
+            // only the primitives whose state can change are tested
+            List<OsmPrimitive> candidates = new ArrayList<OsmPrimitive>();
+            for (OsmPrimitive osm : getCandidates(Main.main.getCurrentDataSet(), s, matcher)) {
+                if (s.mode == SearchMode.replace
+                        || (s.mode == SearchMode.add && !p.evaluate(osm))
+                        || (s.mode != SearchMode.add && p.evaluate(osm))) {
+                    candidates.add(osm);
+                }
             }
-            for (OsmPrimitive osm : all) {
-                if (s.mode == SearchMode.replace) {
-                    if (matcher.match(osm)) {
+            boolean[] matches = SearchCompiler.match(matcher, candidates);
+            for (int i = 0; i < matches.length; i++) {
+                OsmPrimitive osm = candidates.get(i);
+                if (s.mode == SearchMode.replace || s.mode == SearchMode.add) {
+                    if (matches[i]) {
                         sel.add(osm);
                         ++foundMatches;
                     }
-                } else if (s.mode == SearchMode.add && !p.evaluate(osm) && matcher.match(osm)) {
-                    sel.add(osm);
-                    ++foundMatches;
-                } else if (s.mode == SearchMode.remove && p.evaluate(osm) && matcher.match(osm)) {
-                    sel.remove(osm);
-                    ++foundMatches;
-                } else if (s.mode == SearchMode.in_selection &&  p.evaluate(osm) && !matcher.match(osm)) {
+                } else if (s.mode == SearchMode.remove) {
+                    if (matches[i]) {
+                        sel.remove(osm);
+                        ++foundMatches;
+                    }
+                } else if (s.mode == SearchMode.in_selection && !matches[i]) {
                     sel.remove(osm);
                     ++foundMatches;
                 }
@@ -523,6 +529,34 @@ public class SearchAction extends JosmAction implements ParameterizedAction {
         return foundMatches;
     }
 
+    /**
+     * Replies the primitives of the data set a search has to test. If the search is restricted
+     * to tags (see {@link SearchCompiler#getIndexedCandidates}) or to an area (see
+     * {@link SearchCompiler#getMatchBounds}), the primitives are looked up in the tag index
+     * or the spatial index instead of testing all of them.
+     */
+    private static Collection<OsmPrimitive> getCandidates(DataSet ds, SearchSetting s, SearchCompiler.Match matcher) {
+        if (s.mode == SearchMode.in_selection)
+            return s.allElements ? ds.allPrimitives() : ds.allNonDeletedCompletePrimitives();
+        if (!SearchCompiler.PROP_TAG_INDEX.get()) {
+            // not maintained while it is disabled
+            ds.removeTagIndex();
+        } else if (!s.allElements) {
+            Collection<OsmPrimitive> candidates = SearchCompiler.getIndexedCandidates(matcher, ds);
+            if (candidates != null)
+                return Utils.filter(candidates, OsmPrimitive.nonDeletedCompletePredicate);
+        }
+        Bounds bounds = SearchCompiler.getMatchBounds(matcher);
+        if (bounds == null)
+            return s.allElements ? ds.allPrimitives() : ds.allNonDeletedCompletePrimitives();
+        BBox bbox = new BBox(bounds);
+        Collection<OsmPrimitive> all = new ArrayList<OsmPrimitive>();
+        all.addAll(ds.searchNodes(bbox));
+        all.addAll(ds.searchWays(bbox));
+        all.addAll(ds.getRelations());
+        return s.allElements ? all : Utils.filter(all, OsmPrimitive.nonDeletedCompletePredicate);
+    }
+
     /**
      * Version of getSelection that is customized for filter, but should
      * also work in other context.
@@ -537,20 +571,26 @@ public class SearchAction extends JosmAction implements ParameterizedAction {
             if (s instanceof Filter && ((Filter)s).inverted) {
                 searchText = String.format("-(%s)", searchText);
             }
-            SearchCompiler.Match matcher = SearchCompiler.compile(searchText, s.caseSensitive, s.regexSearch);
+            SearchCompiler.Match matcher = SearchCompiler.optimize(SearchCompiler.compile(searchText, s.caseSensitive, s.regexSearch));
 
+            List<OsmPrimitive> candidates = new ArrayList<OsmPrimitive>(all.size());
             for (OsmPrimitive osm : all) {
+                if (s.mode == SearchMode.replace
+                        || (s.mode == SearchMode.add && !p.get(osm))
+                        || (s.mode != SearchMode.add && p.get(osm))) {
+                    candidates.add(osm);
+                }
+            }
+            boolean[] matches = SearchCompiler.match(matcher, candidates);
+            for (int i = 0; i < matches.length; i++) {
+                OsmPrimitive osm = candidates.get(i);
                 if (s.mode == SearchMode.replace) {
-                    if (matcher.match(osm)) {
-                        p.set(osm, true);
-                    } else {
-                        p.set(osm, false);
-                    }
-                } else if (s.mode == SearchMode.add && !p.get(osm) && matcher.match(osm)) {
+                    p.set(osm, matches[i]);
+                } else if (s.mode == SearchMode.add && matches[i]) {
                     p.set(osm, true);
-                } else if (s.mode == SearchMode.remove && p.get(osm) && matcher.match(osm)) {
+                } else if (s.mode == SearchMode.remove && matches[i]) {
                     p.set(osm, false);
-                } else if (s.mode == SearchMode.in_selection && p.get(osm) && !matcher.match(osm)) {
+                } else if (s.mode == SearchMode.in_selection && !matches[i]) {
                     p.set(osm, false);
                 }
             }
@@ -4,13 +4,24 @@ package org.openstreetmap.josm.actions.search;
 import static org.openstreetmap.josm.tools.I18n.marktr;
 import static org.openstreetmap.josm.tools.I18n.tr;
 
+import java.awt.geom.Area;
 import java.io.PushbackReader;
 import java.io.StringReader;
 import java.text.Normalizer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -19,14 +30,18 @@ import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.actions.search.PushbackTokenizer.Range;
 import org.openstreetmap.josm.actions.search.PushbackTokenizer.Token;
 import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.OsmUtils;
 import org.openstreetmap.josm.data.osm.Relation;
 import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.data.osm.TagIndex;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.tools.DateUtils;
 import org.openstreetmap.josm.tools.Geometry;
+import org.openstreetmap.josm.tools.Utils;
 
 /**
  Implements a google-like search.
@@ -60,6 +75,24 @@ public class SearchCompiler {
     private static Map<String, UnaryMatchFactory> unaryMatchFactoryMap = new HashMap<String, UnaryMatchFactory>();
     private static Map<String, BinaryMatchFactory> binaryMatchFactoryMap = new HashMap<String, BinaryMatchFactory>();
 
+    /**
+     * Evaluate searches and filters on all available processors for large data sets.
+     */
+    public static final BooleanProperty PROP_PARALLEL = new BooleanProperty("search.parallel", true);
+
+    /**
+     * Look up the primitives with the searched tags in the {@link TagIndex} of the data set.
+     * The index costs memory and time on every change of the data set, so it is off by default.
+     */
+    public static final BooleanProperty PROP_TAG_INDEX = new BooleanProperty("search.tag-index", false);
+
+    /**
+     * Minimum number of primitives for which {@link #match(Match, List)} splits the work.
+     */
+    private static final int PARALLEL_THRESHOLD = 10000;
+
+    private static ExecutorService evaluationPool;
+
     public SearchCompiler(boolean caseSensitive, boolean regexSearch, PushbackTokenizer tokenizer) {
         this.caseSensitive = caseSensitive;
         this.regexSearch = regexSearch;
@@ -208,8 +241,24 @@ public class SearchCompiler {
      */
     abstract public static class Match {
 
+        /** Estimated cost of a check of a primitive flag or type. */
+        public static final int COST_FLAG = 1;
+        /** Estimated cost of a tag lookup. */
+        public static final int COST_TAG = 10;
+        /** Estimated cost of a regular expression, a geometry computation or a traversal of referrers or members. */
+        public static final int COST_REGEX = 100;
+
         abstract public boolean match(OsmPrimitive osm);
 
+        /**
+         * Replies the estimated cost of {@link #match(OsmPrimitive)}, used by {@link SearchCompiler#optimize(Match)}
+         * to evaluate cheap operands first. Only the order of magnitude is relevant, see the <code>COST_*</code> constants.
+         * @return the estimated cost
+         */
+        public int getCost() {
+            return COST_TAG;
+        }
+
         /**
          * Tests whether one of the primitives matches.
          */
@@ -275,6 +324,11 @@ public class SearchCompiler {
         public Match getRhs() {
             return rhs;
         }
+
+        @Override
+        public int getCost() {
+            return lhs.getCost() + rhs.getCost();
+        }
     }
 
     /**
@@ -285,6 +339,9 @@ public class SearchCompiler {
         @Override public boolean match(OsmPrimitive osm) {
             return true;
         }
+        @Override public int getCost() {
+            return 0;
+        }
     }
 
     /**
@@ -295,6 +352,9 @@ public class SearchCompiler {
         public boolean match(OsmPrimitive osm) {
             return false;
         }
+        @Override public int getCost() {
+            return 0;
+        }
     }
 
     /**
@@ -305,6 +365,9 @@ public class SearchCompiler {
         @Override public boolean match(OsmPrimitive osm) {
             return !match.match(osm);
         }
+        @Override public int getCost() {
+            return match.getCost();
+        }
         @Override public String toString() {return "!"+match;}
         public Match getMatch() {
             return match;
@@ -513,6 +576,9 @@ public class SearchCompiler {
 
             return false;
         }
+        @Override public int getCost() {
+            return keyPattern != null ? COST_REGEX : 2 * COST_TAG;
+        }
         @Override public String toString() {return key+"="+value;}
     }
 
@@ -640,6 +706,11 @@ public class SearchCompiler {
             throw new AssertionError("Missed state");
         }
 
+        @Override
+        public int getCost() {
+            return keyPattern != null || valuePattern != null || mode == Mode.ANY_KEY ? COST_REGEX : COST_TAG;
+        }
+
         @Override
         public String toString() {
             return key + '=' + value;
@@ -708,6 +779,9 @@ public class SearchCompiler {
             }
             return false;
         }
+        @Override public int getCost() {
+            return searchRegex != null ? 2 * COST_REGEX : COST_REGEX;
+        }
         @Override public String toString() {
             return search;
         }
@@ -730,6 +804,9 @@ public class SearchCompiler {
         @Override public boolean match(OsmPrimitive osm) {
             return osm.getClass() == type;
         }
+        @Override public int getCost() {
+            return COST_FLAG;
+        }
         @Override public String toString() {return "type="+type;}
     }
 
@@ -753,6 +830,10 @@ public class SearchCompiler {
                 return osm.getUser().hasName(user);
         }
 
+        @Override public int getCost() {
+            return COST_FLAG;
+        }
+
         @Override public String toString() {
             return "user=" + user == null ? "" : user;
         }
@@ -786,6 +867,10 @@ public class SearchCompiler {
             return false;
         }
 
+        @Override public int getCost() {
+            return COST_REGEX;
+        }
+
         @Override public String toString() {
             return "role=" + role;
         }
@@ -827,6 +912,11 @@ public class SearchCompiler {
             }
             return false;
         }
+
+        @Override
+        public int getCost() {
+            return COST_REGEX;
+        }
     }
 
     /**
@@ -859,6 +949,11 @@ public class SearchCompiler {
                 return (num >= min) && (num <= max);
         }
 
+        @Override
+        public int getCost() {
+            return COST_FLAG;
+        }
+
         @Override
         public String toString() {
             return getString() + "=" + min + "-" + max;
@@ -886,6 +981,11 @@ public class SearchCompiler {
                 return (long) ((Way) osm).getRealNodesCount();
         }
 
+        @Override
+        public int getCost() {
+            return COST_TAG;
+        }
+
         @Override
         protected String getString() {
             return "nodes";
@@ -909,6 +1009,11 @@ public class SearchCompiler {
             return (long) osm.getKeys().size();
         }
 
+        @Override
+        public int getCost() {
+            return COST_TAG;
+        }
+
         @Override
         protected String getString() {
             return "tags";
@@ -943,6 +1048,9 @@ public class SearchCompiler {
         @Override public boolean match(OsmPrimitive osm) {
             return osm.isNew();
         }
+        @Override public int getCost() {
+            return COST_FLAG;
+        }
         @Override public String toString() {
             return "new";
         }
@@ -955,6 +1063,9 @@ public class SearchCompiler {
         @Override public boolean match(OsmPrimitive osm) {
             return osm.isModified() || osm.isNewOrUndeleted();
         }
+        @Override public int getCost() {
+            return COST_FLAG;
+        }
         @Override public String toString() {return "modified";}
     }
 
@@ -965,6 +1076,9 @@ public class SearchCompiler {
         @Override public boolean match(OsmPrimitive osm) {
             return Main.main.getCurrentDataSet().isSelected(osm);
         }
+        @Override public int getCost() {
+            return COST_FLAG;
+        }
         @Override public String toString() {return "selected";}
     }
 
@@ -977,6 +1091,9 @@ public class SearchCompiler {
         @Override public boolean match(OsmPrimitive osm) {
             return osm.isIncomplete();
         }
+        @Override public int getCost() {
+            return COST_FLAG;
+        }
         @Override public String toString() {return "incomplete";}
     }
 
@@ -989,6 +1106,9 @@ public class SearchCompiler {
         @Override public boolean match(OsmPrimitive osm) {
             return !osm.isTagged() && !osm.isIncomplete();
         }
+        @Override public int getCost() {
+            return COST_FLAG;
+        }
         @Override public String toString() {return "untagged";}
     }
 
@@ -999,6 +1119,9 @@ public class SearchCompiler {
         @Override public boolean match(OsmPrimitive osm) {
             return osm instanceof Way && ((Way) osm).isClosed();
         }
+        @Override public int getCost() {
+            return COST_FLAG;
+        }
         @Override public String toString() {return "closed";}
     }
 
@@ -1010,18 +1133,21 @@ public class SearchCompiler {
             super(m);
         }
         @Override public boolean match(OsmPrimitive osm) {
-            boolean isParent = false;
-
             if (osm instanceof Way) {
                 for (Node n : ((Way)osm).getNodes()) {
-                    isParent |= match.match(n);
+                    if (match.match(n))
+                        return true;
                 }
             } else if (osm instanceof Relation) {
                 for (RelationMember member : ((Relation)osm).getMembers()) {
-                    isParent |= match.match(member.getMember());
+                    if (match.match(member.getMember()))
+                        return true;
                 }
             }
-            return isParent;
+            return false;
+        }
+        @Override public int getCost() {
+            return COST_REGEX + 10 * match.getCost();
         }
         @Override public String toString() {return "parent(" + match + ")";}
     }
@@ -1036,11 +1162,14 @@ public class SearchCompiler {
         }
 
         @Override public boolean match(OsmPrimitive osm) {
-            boolean isChild = false;
             for (OsmPrimitive p : osm.getReferrers()) {
-                isChild |= match.match(p);
+                if (match.match(p))
+                    return true;
             }
-            return isChild;
+            return false;
+        }
+        @Override public int getCost() {
+            return COST_REGEX + 10 * match.getCost();
         }
         @Override public String toString() {return "child(" + match + ")";}
     }
@@ -1068,6 +1197,11 @@ public class SearchCompiler {
             return (long) Geometry.closedWayArea(way);
         }
 
+        @Override
+        public int getCost() {
+            return COST_REGEX;
+        }
+
         @Override
         protected String getString() {
             return "areasize";
@@ -1105,6 +1239,34 @@ public class SearchCompiler {
             } else
                 return false;
         }
+
+        @Override
+        public int getCost() {
+            return COST_REGEX;
+        }
+    }
+
+    /**
+     * Matches objects within bounds computed once in advance, see {@link SearchCompiler#optimize(Match)}.
+     */
+    private static class InBounds extends InArea {
+
+        private final Bounds bounds;
+
+        public InBounds(Bounds bounds, boolean all) {
+            super(all);
+            this.bounds = bounds;
+        }
+
+        @Override
+        protected Bounds getBounds() {
+            return bounds;
+        }
+
+        @Override
+        public int getCost() {
+            return COST_TAG;
+        }
     }
 
     /**
@@ -1118,7 +1280,8 @@ public class SearchCompiler {
 
         @Override
         protected Bounds getBounds() {
-            return new Bounds(Main.main.getCurrentDataSet().getDataSourceArea().getBounds2D());
+            Area area = Main.main.getCurrentDataSet().getDataSourceArea();
+            return area == null ? null : new Bounds(area.getBounds2D());
         }
     }
 
@@ -1157,6 +1320,173 @@ public class SearchCompiler {
         .parse();
     }
 
+    /**
+     * Rewrites a match for faster evaluation, without changing its result: the operands of
+     * chained AND and OR operators are reordered by {@link Match#getCost()}, so that cheap
+     * checks like <code>modified</code> or <code>type:way</code> decide before regular expressions
+     * and <code>parent</code>/<code>child</code> traversals are evaluated. Area conditions
+     * (<code>inview</code>, <code>indownloadedarea</code>) are replaced by a match with the
+     * bounds computed once, which {@link #getMatchBounds(Match)} replies for a spatial index lookup.
+     *
+     * Since the area is fixed, the result is meant for one search or filter pass and
+     * must be optimized again afterwards.
+     * @param m the match
+     * @return the optimized match
+     */
+    public static Match optimize(Match m) {
+        if (m.getClass() == And.class || m.getClass() == Or.class) {
+            final Class<? extends Match> type = m.getClass();
+            List<Match> operands = new ArrayList<Match>();
+            flatten(m, type, operands);
+            for (int i = 0; i < operands.size(); i++) {
+                operands.set(i, optimize(operands.get(i)));
+            }
+            // stable, operands of equal cost keep the order of the search string
+            Collections.sort(operands, new Comparator<Match>() {
+                @Override
+                public int compare(Match m1, Match m2) {
+                    int c1 = m1.getCost();
+                    int c2 = m2.getCost();
+                    return c1 < c2 ? -1 : (c1 == c2 ? 0 : 1);
+                }
+            });
+            Match result = operands.get(operands.size() - 1);
+            for (int i = operands.size() - 2; i >= 0; i--) {
+                result = type == And.class ? new And(operands.get(i), result) : new Or(operands.get(i), result);
+            }
+            return result;
+        } else if (m.getClass() == Xor.class) {
+            Xor xor = (Xor) m;
+            return new Xor(optimize(xor.lhs), optimize(xor.rhs));
+        } else if (m.getClass() == Not.class) {
+            return new Not(optimize(((Not) m).match));
+        } else if (m.getClass() == Parent.class) {
+            return new Parent(optimize(((Parent) m).match));
+        } else if (m.getClass() == Child.class) {
+            return new Child(optimize(((Child) m).match));
+        } else if (m instanceof InArea && !(m instanceof InBounds)) {
+            InArea area = (InArea) m;
+            return new InBounds(area.getBounds(), area.all);
+        }
+        return m;
+    }
+
+    private static void flatten(Match m, Class<? extends Match> type, List<Match> operands) {
+        if (m.getClass() == type) {
+            flatten(((BinaryMatch) m).lhs, type, operands);
+            flatten(((BinaryMatch) m).rhs, type, operands);
+        } else {
+            operands.add(m);
+        }
+    }
+
+    /**
+     * Replies the bounds an optimized match is restricted to: a primitive can only match if it
+     * has a node within the bounds. Nodes and ways outside can be sorted out with a spatial index.
+     * Relations are not covered, their bounding boxes are not reliable enough for a lookup.
+     * @param m a match returned by {@link #optimize(Match)}
+     * @return the bounds, or null if the match is not restricted to an area
+     */
+    public static Bounds getMatchBounds(Match m) {
+        if (m instanceof InBounds)
+            return ((InBounds) m).bounds;
+        else if (m.getClass() == And.class) {
+            Bounds b = getMatchBounds(((And) m).lhs);
+            return b != null ? b : getMatchBounds(((And) m).rhs);
+        }
+        return null;
+    }
+
+    /**
+     * Replies the primitives an optimized match is restricted to by its exact tag conditions
+     * (<code>key=value</code> and <code>key=*</code>), looked up in the {@link TagIndex} of the
+     * data set. Like the index, the result only covers non-deleted, complete primitives. The
+     * candidates still have to be matched.
+     * @param m a match returned by {@link #optimize(Match)}
+     * @param ds the data set to search
+     * @return the candidates, or null if the match is not restricted to indexed tags
+     */
+    public static Collection<OsmPrimitive> getIndexedCandidates(Match m, DataSet ds) {
+        if (m instanceof ExactKeyValue) {
+            ExactKeyValue kv = (ExactKeyValue) m;
+            if (kv.mode == ExactKeyValue.Mode.EXACT)
+                return ds.getTagIndex().getPrimitives(kv.key, kv.value);
+            else if (kv.mode == ExactKeyValue.Mode.ANY_VALUE)
+                return ds.getTagIndex().getPrimitives(kv.key);
+        } else if (m.getClass() == And.class) {
+            Collection<OsmPrimitive> lhs = getIndexedCandidates(((And) m).lhs, ds);
+            Collection<OsmPrimitive> rhs = getIndexedCandidates(((And) m).rhs, ds);
+            if (lhs == null || (rhs != null && rhs.size() < lhs.size()))
+                return rhs;
+            return lhs;
+        } else if (m.getClass() == Or.class) {
+            Collection<OsmPrimitive> lhs = getIndexedCandidates(((Or) m).lhs, ds);
+            Collection<OsmPrimitive> rhs = lhs == null ? null : getIndexedCandidates(((Or) m).rhs, ds);
+            if (rhs == null)
+                return null;
+            Collection<OsmPrimitive> result = new LinkedHashSet<OsmPrimitive>(lhs);
+            result.addAll(rhs);
+            return result;
+        }
+        return null;
+    }
+
+    /**
+     * Evaluates a match for each of the given primitives. Large lists are split across all
+     * available processors, see {@link #PROP_PARALLEL}. The primitives must not be modified
+     * while this method runs.
+     * @param m the match, usually an {@link #optimize(Match) optimized} one
+     * @param primitives the primitives to test
+     * @return the result of {@link Match#match(OsmPrimitive)} for each primitive, in list order
+     */
+    public static boolean[] match(final Match m, final List<? extends OsmPrimitive> primitives) {
+        final boolean[] result = new boolean[primitives.size()];
+        int count = Runtime.getRuntime().availableProcessors();
+        if (count > 1 && primitives.size() >= PARALLEL_THRESHOLD && PROP_PARALLEL.get()) {
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(count);
+            for (int i = 0; i < count; i++) {
+                final int from = primitives.size() * i / count;
+                final int to = primitives.size() * (i + 1) / count;
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int j = from; j < to; j++) {
+                            result[j] = m.match(primitives.get(j));
+                        }
+                        return null;
+                    }
+                });
+            }
+            try {
+                for (Future<Void> future : getEvaluationPool().invokeAll(tasks)) {
+                    future.get();
+                }
+                return result;
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            } catch (InterruptedException e) {
+                // evaluate on the calling thread instead
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (int i = 0; i < result.length; i++) {
+            result[i] = m.match(primitives.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Replies the thread pool used to evaluate searches and filters in parallel.
+     * @return the thread pool, with one thread per available processor
+     */
+    public static synchronized ExecutorService getEvaluationPool() {
+        if (evaluationPool == null) {
+            evaluationPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    Utils.newThreadFactory("search-evaluator-%d", Thread.NORM_PRIORITY));
+        }
+        return evaluationPool;
+    }
+
     /**
      * Parse search string.
      *
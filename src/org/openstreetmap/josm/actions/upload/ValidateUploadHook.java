@@ -19,6 +19,7 @@ import org.openstreetmap.josm.data.validation.OsmValidator;
 import org.openstreetmap.josm.data.validation.Severity;
 import org.openstreetmap.josm.data.validation.Test;
 import org.openstreetmap.josm.data.validation.TestError;
+import org.openstreetmap.josm.data.validation.ValidationEngine;
 import org.openstreetmap.josm.data.validation.util.AggregatePrimitivesVisitor;
 import org.openstreetmap.josm.gui.ExtendedDialog;
 import org.openstreetmap.josm.gui.dialogs.validator.ValidatorTreePanel;
@@ -53,23 +54,19 @@ public class ValidateUploadHook implements UploadHook
         v.visit(apiDataSet.getPrimitivesToAdd());
         Collection<OsmPrimitive> selection = v.visit(apiDataSet.getPrimitivesToUpdate());
 
-        List<TestError> errors = new ArrayList<TestError>(30);
         for (Test test : tests) {
             test.setBeforeUpload(true);
-            test.setPartialSelection(true);
-            test.startTest(null);
-            test.visit(selection);
-            test.endTest();
-            if (Main.pref.getBoolean(ValidatorPreference.PREF_OTHER, false) &&
-                Main.pref.getBoolean(ValidatorPreference.PREF_OTHER_UPLOAD, false))
-            {
-                errors.addAll( test.getErrors() );
-            }
-            else {
-                for (TestError e : test.getErrors()) {
-                    if (e.getSeverity() != Severity.OTHER) {
-                        errors.add(e);
-                    }
+        }
+        List<TestError> errors = new ArrayList<TestError>(30);
+        if (Main.pref.getBoolean(ValidatorPreference.PREF_OTHER, false) &&
+            Main.pref.getBoolean(ValidatorPreference.PREF_OTHER_UPLOAD, false))
+        {
+            errors.addAll(ValidationEngine.runTests(tests, selection, true, null));
+        }
+        else {
+            for (TestError e : ValidationEngine.runTests(tests, selection, true, null)) {
+                if (e.getSeverity() != Severity.OTHER) {
+                    errors.add(e);
                 }
             }
         }
@@ -3,8 +3,10 @@
 package org.openstreetmap.josm.data.gpx;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import org.openstreetmap.josm.Main;
 
@@ -157,84 +159,112 @@ public class GpxData extends WithAttributes {
          * where RN = sqrt(PR^2 - PN^2)
          */
 
-        double PNminsq = tolerance * tolerance;
-        EastNorth bestEN = null;
-        double bestTime = 0.0;
-        double px = P.east();
-        double py = P.north();
-        double rx = 0.0, ry = 0.0, sx, sy, x, y;
+        NearestPoint nearest = new NearestPoint(P, tolerance);
         if (tracks == null)
             return null;
         for (GpxTrack track : tracks) {
             for (GpxTrackSegment seg : track.getSegments()) {
-                WayPoint R = null;
-                for (WayPoint S : seg.getWayPoints()) {
-                    EastNorth c = S.getEastNorth();
-                    if (R == null) {
-                        R = S;
-                        rx = c.east();
-                        ry = c.north();
-                        x = px - rx;
-                        y = py - ry;
-                        double PRsq = x * x + y * y;
-                        if (PRsq < PNminsq) {
-                            PNminsq = PRsq;
-                            bestEN = c;
-                            bestTime = R.time;
-                        }
-                    } else {
-                        sx = c.east();
-                        sy = c.north();
-                        double A = sy - ry;
-                        double B = rx - sx;
-                        double C = -A * rx - B * ry;
-                        double RSsq = A * A + B * B;
-                        if (RSsq == 0.0) {
-                            continue;
-                        }
-                        double PNsq = A * px + B * py + C;
-                        PNsq = PNsq * PNsq / RSsq;
-                        if (PNsq < PNminsq) {
-                            x = px - rx;
-                            y = py - ry;
-                            double PRsq = x * x + y * y;
-                            x = px - sx;
-                            y = py - sy;
-                            double PSsq = x * x + y * y;
-                            if (PRsq - PNsq <= RSsq && PSsq - PNsq <= RSsq) {
-                                double RNoverRS = Math.sqrt((PRsq - PNsq) / RSsq);
-                                double nx = rx - RNoverRS * B;
-                                double ny = ry + RNoverRS * A;
-                                bestEN = new EastNorth(nx, ny);
-                                bestTime = R.time + RNoverRS * (S.time - R.time);
-                                PNminsq = PNsq;
-                            }
+                if (seg instanceof ImmutableGpxTrackSegment) {
+                    ImmutableGpxTrackSegment iseg = (ImmutableGpxTrackSegment) seg;
+                    List<WayPoint> wpts = iseg.getWayPoints();
+                    if (wpts.isEmpty()) {
+                        continue;
+                    }
+                    nearest.checkPoint(wpts.get(0));
+                    for (int chunk = 0; chunk < iseg.getChunkCount(); chunk++) {
+                        // neither the way points nor the sections of track of the chunk can be nearer than its bounds
+                        if (iseg.getChunkDistanceSq(chunk, P) < nearest.PNminsq) {
+                            int from = chunk * ImmutableGpxTrackSegment.CHUNK_SIZE;
+                            nearest.checkSections(wpts, from, Math.min(from + ImmutableGpxTrackSegment.CHUNK_SIZE, wpts.size() - 1));
                         }
-                        R = S;
-                        rx = sx;
-                        ry = sy;
                     }
-                }
-                if (R != null) {
-                    EastNorth c = R.getEastNorth();
-                    /* if there is only one point in the seg, it will do this twice, but no matter */
-                    rx = c.east();
-                    ry = c.north();
-                    x = px - rx;
-                    y = py - ry;
-                    double PRsq = x * x + y * y;
-                    if (PRsq < PNminsq) {
-                        PNminsq = PRsq;
-                        bestEN = c;
-                        bestTime = R.time;
+                    nearest.checkPoint(wpts.get(wpts.size() - 1));
+                } else {
+                    List<WayPoint> wpts = new ArrayList<WayPoint>(seg.getWayPoints());
+                    if (wpts.isEmpty()) {
+                        continue;
                     }
+                    nearest.checkPoint(wpts.get(0));
+                    nearest.checkSections(wpts, 0, wpts.size() - 1);
+                    nearest.checkPoint(wpts.get(wpts.size() - 1));
                 }
             }
         }
+        EastNorth bestEN = nearest.bestEN;
         if (bestEN == null)
             return null;
         WayPoint best = new WayPoint(Main.getProjection().eastNorth2latlon(bestEN));
-        best.time = bestTime;
+        best.time = nearest.bestTime;
         return best;
     }
+
+    /**
+     * The nearest point on a track found so far, see {@link GpxData#nearestPointOnTrack(EastNorth, double)}.
+     */
+    private static class NearestPoint {
+        private final double px;
+        private final double py;
+        private double PNminsq;
+        private EastNorth bestEN;
+        private double bestTime;
+
+        NearestPoint(EastNorth P, double tolerance) {
+            px = P.east();
+            py = P.north();
+            PNminsq = tolerance * tolerance;
+        }
+
+        void checkPoint(WayPoint R) {
+            EastNorth c = R.getEastNorth();
+            double x = px - c.east();
+            double y = py - c.north();
+            double PRsq = x * x + y * y;
+            if (PRsq < PNminsq) {
+                PNminsq = PRsq;
+                bestEN = c;
+                bestTime = R.time;
+            }
+        }
+
+        void checkSections(List<WayPoint> wpts, int from, int to) {
+            WayPoint R = wpts.get(from);
+            EastNorth c = R.getEastNorth();
+            double rx = c.east();
+            double ry = c.north();
+            for (int i = from + 1; i <= to; i++) {
+                WayPoint S = wpts.get(i);
+                c = S.getEastNorth();
+                double sx = c.east();
+                double sy = c.north();
+                double A = sy - ry;
+                double B = rx - sx;
+                double C = -A * rx - B * ry;
+                double RSsq = A * A + B * B;
+                if (RSsq == 0.0) {
+                    continue;
+                }
+                double PNsq = A * px + B * py + C;
+                PNsq = PNsq * PNsq / RSsq;
+                if (PNsq < PNminsq) {
+                    double x = px - rx;
+                    double y = py - ry;
+                    double PRsq = x * x + y * y;
+                    x = px - sx;
+                    y = py - sy;
+                    double PSsq = x * x + y * y;
+                    if (PRsq - PNsq <= RSsq && PSsq - PNsq <= RSsq) {
+                        double RNoverRS = Math.sqrt((PRsq - PNsq) / RSsq);
+                        double nx = rx - RNoverRS * B;
+                        double ny = ry + RNoverRS * A;
+                        bestEN = new EastNorth(nx, ny);
+                        bestTime = R.time + RNoverRS * (S.time - R.time);
+                        PNminsq = PNsq;
+                    }
+                }
+                R = S;
+                rx = sx;
+                ry = sy;
+            }
+        }
+    }
 }
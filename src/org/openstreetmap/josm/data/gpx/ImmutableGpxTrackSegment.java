@@ -1,20 +1,51 @@
 // License: GPL. For details, see LICENSE file.
 package org.openstreetmap.josm.data.gpx;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 
+import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.projection.Projection;
 
+/**
+ * A track segment with indexes for long GPS logs:
+ * <ul>
+ * <li>a time index: the times of the way points are stored in an array, which can be searched
+ * binary if the way points are ordered by time, see {@link #hasTimeIndex()}</li>
+ * <li>a spatial index: the bounding boxes of chunks of {@link #CHUNK_SIZE} consecutive way points in
+ * the current projection, see {@link #getChunkDistanceSq(int, EastNorth)}</li>
+ * </ul>
+ */
 public class ImmutableGpxTrackSegment implements GpxTrackSegment {
 
-    private final Collection<WayPoint> wayPoints;
+    /** The number of edges between way points covered by a chunk of the spatial index */
+    public static final int CHUNK_SIZE = 64;
+
+    private final List<WayPoint> wayPoints;
+    private final double[] times;
+    private final boolean timeIndex;
     private final Bounds bounds;
     private final double length;
 
+    private Projection chunkProjection;
+    /** the min east, min north, max east and max north of each chunk */
+    private double[] chunkBounds;
+
     public ImmutableGpxTrackSegment(Collection<WayPoint> wayPoints) {
-        this.wayPoints = Collections.unmodifiableCollection(new ArrayList<WayPoint>(wayPoints));
+        this.wayPoints = Collections.unmodifiableList(Arrays.asList(wayPoints.toArray(new WayPoint[wayPoints.size()])));
+        this.times = new double[this.wayPoints.size()];
+        boolean sorted = true;
+        for (int i = 0; i < times.length; i++) {
+            times[i] = this.wayPoints.get(i).time;
+            // way points without a valid time have the time 0
+            sorted &= times[i] != 0 && (i == 0 || times[i] >= times[i - 1]);
+        }
+        this.timeIndex = sorted;
         this.bounds = calculateBounds();
         this.length = calculateLength();
     }
@@ -33,15 +64,16 @@ public class ImmutableGpxTrackSegment implements GpxTrackSegment {
 
     private double calculateLength() {
         double result = 0.0; // in meters
-        WayPoint last = null;
+        LatLon last = null;
         for (WayPoint tpt : wayPoints) {
+            LatLon coor = tpt.getCoor();
             if(last != null){
-                Double d = last.getCoor().greatCircleDistance(tpt.getCoor());
+                Double d = last.greatCircleDistance(coor);
                 if(!d.isNaN() && !d.isInfinite()) {
                     result += d;
                 }
             }
-            last = tpt;
+            last = coor;
         }
         return result;
     }
@@ -55,7 +87,7 @@ public class ImmutableGpxTrackSegment implements GpxTrackSegment {
     }
 
     @Override
-    public Collection<WayPoint> getWayPoints() {
+    public List<WayPoint> getWayPoints() {
         return wayPoints;
     }
 
@@ -69,4 +101,101 @@ public class ImmutableGpxTrackSegment implements GpxTrackSegment {
         return 0;
     }
 
+    /**
+     * Determines if all way points have a time and are ordered by time, so that {@link #getIndexOfTime(double)} can be used.
+     * @return true if the way points are ordered by time
+     */
+    public boolean hasTimeIndex() {
+        return timeIndex;
+    }
+
+    /**
+     * Replies the time of a way point, see {@link WayPoint#time}.
+     * @param index the index of the way point
+     * @return the time in seconds since the epoch, 0 if the way point has no time
+     */
+    public double getTime(int index) {
+        return times[index];
+    }
+
+    /**
+     * Replies the index of the first way point not earlier than the given time, by binary search.
+     * Requires a time index, see {@link #hasTimeIndex()}.
+     * @param time the time in seconds since the epoch
+     * @return the index of the first way point with the same or a later time, or the number of way points
+     * if all of them are earlier
+     * @throws IllegalStateException if the way points are not ordered by time
+     */
+    public int getIndexOfTime(double time) {
+        if (!timeIndex)
+            throw new IllegalStateException("The way points are not ordered by time");
+        int low = 0;
+        int high = times.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Replies the number of chunks of the spatial index. Chunk <code>i</code> contains the way points
+     * from <code>i * CHUNK_SIZE</code> to <code>(i + 1) * CHUNK_SIZE</code>, so that each edge between two way
+     * points is contained in one chunk.
+     * @return the number of chunks
+     */
+    public int getChunkCount() {
+        return Math.max(1, (wayPoints.size() - 1 + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    }
+
+    /**
+     * Replies the square of the distance between a point and the bounding box of a chunk of the spatial
+     * index, in the current projection. Neither the way points nor the edges of the chunk are closer.
+     * @param chunk the index of the chunk
+     * @param en the point
+     * @return the square of the distance, 0 if the point is inside the bounding box
+     */
+    public double getChunkDistanceSq(int chunk, EastNorth en) {
+        double[] b = getChunkBounds();
+        double dx = Math.max(0, Math.max(b[4 * chunk] - en.east(), en.east() - b[4 * chunk + 2]));
+        double dy = Math.max(0, Math.max(b[4 * chunk + 1] - en.north(), en.north() - b[4 * chunk + 3]));
+        return dx * dx + dy * dy;
+    }
+
+    private synchronized double[] getChunkBounds() {
+        Projection projection = Main.getProjection();
+        if (chunkBounds == null || chunkProjection != projection) {
+            double[] b = new double[4 * getChunkCount()];
+            Arrays.fill(b, Double.NaN);
+            for (int i = 0; i < wayPoints.size(); i++) {
+                EastNorth en = wayPoints.get(i).getEastNorth();
+                int chunk = Math.max(0, i - 1) / CHUNK_SIZE;
+                extendChunk(b, chunk, en);
+                if (i % CHUNK_SIZE == 0 && i > 0 && chunk + 1 < b.length / 4) {
+                    // the first way point of a chunk is the last one of the previous chunk
+                    extendChunk(b, chunk + 1, en);
+                }
+            }
+            chunkBounds = b;
+            chunkProjection = projection;
+        }
+        return chunkBounds;
+    }
+
+    private static void extendChunk(double[] b, int chunk, EastNorth en) {
+        int i = 4 * chunk;
+        if (Double.isNaN(b[i])) {
+            b[i] = b[i + 2] = en.east();
+            b[i + 1] = b[i + 3] = en.north();
+        } else {
+            b[i] = Math.min(b[i], en.east());
+            b[i + 1] = Math.min(b[i + 1], en.north());
+            b[i + 2] = Math.max(b[i + 2], en.east());
+            b[i + 3] = Math.max(b[i + 3], en.north());
+        }
+    }
 }
@@ -30,7 +30,7 @@ public class WayPoint extends WithAttributes implements Comparable<WayPoint>, Te
     public int dir;
 
     public WayPoint(WayPoint p) {
-        attr.putAll(p.attr);
+        super(new WayPointAttributes(p.attr));
         lat = p.lat;
         lon = p.lon;
         east = p.east;
@@ -42,6 +42,7 @@ public class WayPoint extends WithAttributes implements Comparable<WayPoint>, Te
     }
 
     public WayPoint(LatLon ll) {
+        super(new WayPointAttributes());
         lat = ll.lat();
         lon = ll.lon();
     }
@@ -0,0 +1,197 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.gpx;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The attributes of a {@link WayPoint}.
+ * <p>
+ * Way points have few attributes, typically the time and the elevation, but GPS logs have millions of
+ * them. The keys and values are stored alternately in one array, which is only created with the first
+ * attribute, and looked up linearly, which takes much less memory than a {@link java.util.HashMap}.
+ */
+final class WayPointAttributes extends AbstractMap<String, Object> {
+
+    private Object[] keysAndValues;
+    private int size;
+    private int modCount;
+
+    WayPointAttributes() {
+    }
+
+    WayPointAttributes(Map<String, Object> attributes) {
+        putAll(attributes);
+    }
+
+    private int indexOf(Object key) {
+        for (int i = 0; i < size; i++) {
+            Object k = keysAndValues[2 * i];
+            if (k == key || (k != null && k.equals(key)))
+                return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int i = indexOf(key);
+        return i >= 0 ? keysAndValues[2 * i + 1] : null;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int i = indexOf(key);
+        if (i >= 0) {
+            Object old = keysAndValues[2 * i + 1];
+            keysAndValues[2 * i + 1] = value;
+            return old;
+        }
+        if (keysAndValues == null) {
+            keysAndValues = new Object[4];
+        } else if (keysAndValues.length == 2 * size) {
+            keysAndValues = Arrays.copyOf(keysAndValues, 4 * size);
+        }
+        keysAndValues[2 * size] = key;
+        keysAndValues[2 * size + 1] = value;
+        size++;
+        modCount++;
+        return null;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int i = indexOf(key);
+        if (i < 0)
+            return null;
+        Object old = keysAndValues[2 * i + 1];
+        removeAt(i);
+        return old;
+    }
+
+    private void removeAt(int i) {
+        System.arraycopy(keysAndValues, 2 * i + 2, keysAndValues, 2 * i, 2 * (size - i - 1));
+        size--;
+        keysAndValues[2 * size] = null;
+        keysAndValues[2 * size + 1] = null;
+        modCount++;
+    }
+
+    @Override
+    public void clear() {
+        keysAndValues = null;
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private class Entry implements Map.Entry<String, Object> {
+        private final int index;
+
+        Entry(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String getKey() {
+            return (String) keysAndValues[2 * index];
+        }
+
+        @Override
+        public Object getValue() {
+            return keysAndValues[2 * index + 1];
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            Object old = keysAndValues[2 * index + 1];
+            keysAndValues[2 * index + 1] = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return eq(getKey(), e.getKey()) && eq(getValue(), e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return (getKey() == null ? 0 : getKey().hashCode()) ^ (getValue() == null ? 0 : getValue().hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    private static boolean eq(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+        private int next;
+        private int last = -1;
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (next >= size)
+                throw new NoSuchElementException();
+            last = next++;
+            return new Entry(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            removeAt(last);
+            next = last;
+            last = -1;
+            expectedModCount = modCount;
+        }
+    }
+}
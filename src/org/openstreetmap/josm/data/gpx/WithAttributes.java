@@ -18,7 +18,22 @@ public class WithAttributes implements IWithAttributes, GpxConstants {
     /**
      * The "attr" hash is used to store the XML payload (not only XML attributes!)
      */
-    public Map<String, Object> attr = new HashMap<String, Object>(0);
+    public Map<String, Object> attr;
+
+    /**
+     * Constructs a new {@code WithAttributes}, storing the attributes in a hash map.
+     */
+    public WithAttributes() {
+        this(new HashMap<String, Object>(0));
+    }
+
+    /**
+     * Constructs a new {@code WithAttributes}.
+     * @param attr the map storing the attributes
+     */
+    protected WithAttributes(Map<String, Object> attr) {
+        this.attr = attr;
+    }
 
     /**
      * Returns the Object value to which the specified key is mapped,
@@ -4,11 +4,15 @@ package org.openstreetmap.josm.data.imagery;
 
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -29,7 +33,6 @@ import java.util.Set;
 
 import javax.imageio.ImageIO;
 import javax.xml.bind.JAXBContext;
-import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
 
 import org.openstreetmap.josm.Main;
@@ -53,8 +56,16 @@ public class WmsCache {
     //TODO Do loading from partial cache and downloading at the same time, don't wait for partical cache to load
 
     private static final StringProperty PROP_CACHE_PATH = new StringProperty("imagery.wms-cache.path", "wms");
+    /** The index of the old versions, migrated to the binary index files */
     private static final String INDEX_FILENAME = "index.xml";
+    /** The suffix of the binary index file of each projection */
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final int INDEX_MAGIC = 0x4a574349; // "JWCI"
+    private static final int INDEX_VERSION = 1;
+    private static final int RECORD_ADD = 1;
+    private static final int RECORD_REMOVE = 2;
     private static final String LAYERS_INDEX_FILENAME = "layers.properties";
+    private static final String TMP_FILE_SUFFIX = ".tmp";
 
     private static class CacheEntry {
         final double pixelPerDegree;
@@ -62,23 +73,35 @@ public class WmsCache {
         final double north;
         final ProjectionBounds bounds;
         final String filename;
+        final long fileSize;
 
         long lastUsed;
         long lastModified;
 
-        CacheEntry(double pixelPerDegree, double east, double north, int tileSize, String filename) {
+        CacheEntry(double pixelPerDegree, double east, double north, int tileSize, String filename, long fileSize) {
             this.pixelPerDegree = pixelPerDegree;
             this.east = east;
             this.north = north;
             this.bounds = new ProjectionBounds(east, north, east + tileSize / pixelPerDegree, north + tileSize / pixelPerDegree);
             this.filename = filename;
+            this.fileSize = fileSize;
         }
     }
 
     private static class ProjectionEntries {
         final String projection;
         final String cacheDirectory;
-        final List<CacheEntry> entries = new ArrayList<WmsCache.CacheEntry>();
+        /** The entries by file name */
+        final Map<String, CacheEntry> entries = new HashMap<String, CacheEntry>();
+        /** The entries by pixel per degree and by cell of the grid of the tiles of this resolution */
+        final Map<Double, Map<Long, List<CacheEntry>>> grid = new HashMap<Double, Map<Long, List<CacheEntry>>>();
+
+        /** The stream appending to the index file, open since the last change */
+        DataOutputStream journal;
+        /** The number of records in the index file, including the ones replaced by later records */
+        int recordCount;
+        /** Set if the index file is damaged and has to be rewritten */
+        boolean compactionNeeded;
 
         ProjectionEntries(String projection, String cacheDirectory) {
             this.projection = projection;
@@ -89,8 +112,9 @@ public class WmsCache {
     private final Map<String, ProjectionEntries> entries = new HashMap<String, ProjectionEntries>();
     private final File cacheDir;
     private final int tileSize; // Should be always 500
-    private int totalFileSize;
-    private boolean totalFileSizeDirty; // Some file was missing - size needs to be recalculated
+    private long totalFileSize;
+    /** Set when the index has been loaded, the index files must not be compacted before */
+    private boolean indexLoaded;
     // No need for hashCode/equals on CacheEntry, object identity is enough. Comparing by values can lead to error - CacheEntry for wrong projection could be found
     private Map<CacheEntry, SoftReference<BufferedImage>> memoryCache = new HashMap<WmsCache.CacheEntry, SoftReference<BufferedImage>>();
     private Set<ProjectionBounds> areaToCache;
@@ -176,15 +200,102 @@ public class WmsCache {
         return result;
     }
 
+    /**
+     * Loads the index of the cache.
+     * <p>
+     * The index of each projection is a binary file next to the directory of its images. The file starts
+     * with the entries at the time of the last compaction, the later changes are appended to it when they
+     * happen (see {@link #saveIndex}). The index.xml of the old versions is migrated to the binary files.
+     */
     public synchronized void loadIndex() {
-        File indexFile = new File(cacheDir, INDEX_FILENAME);
+        indexLoaded = true;
+        File[] indexFiles = cacheDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(INDEX_SUFFIX);
+            }
+        });
+        if (indexFiles != null && indexFiles.length > 0) {
+            for (File indexFile: indexFiles) {
+                loadIndex(indexFile);
+            }
+        } else {
+            File xmlIndexFile = new File(cacheDir, INDEX_FILENAME);
+            if (xmlIndexFile.exists()) {
+                loadXmlIndex(xmlIndexFile);
+                for (ProjectionEntries projectionEntries: entries.values()) {
+                    compact(projectionEntries);
+                }
+                xmlIndexFile.delete();
+            } else {
+                System.out.println("Index for wms-cache doesn't exist, new file will be created");
+            }
+            // Walking through all the files is slow, only done without index
+            removeNonReferencedFiles();
+        }
+        removeTemporaryFiles();
+    }
+
+    private void loadIndex(File indexFile) {
+        ProjectionEntries projectionEntries = null;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION)
+                throw new IOException("Unknown format of wms-cache index " + indexFile);
+            projectionEntries = getProjectionEntries(in.readUTF(), in.readUTF());
+            if (in.readInt() != tileSize) {
+                System.out.println("Cache created with different tileSize, cache will be discarded");
+                projectionEntries.compactionNeeded = true;
+                Utils.deleteDirectory(new File(cacheDir, projectionEntries.cacheDirectory));
+                return;
+            }
+            int type;
+            while ((type = in.read()) != -1) {
+                if (type == RECORD_ADD) {
+                    double pixelPerDegree = in.readDouble();
+                    double east = in.readDouble();
+                    double north = in.readDouble();
+                    long lastUsed = in.readLong();
+                    long lastModified = in.readLong();
+                    long fileSize = in.readLong();
+                    CacheEntry entry = new CacheEntry(pixelPerDegree, east, north, tileSize, in.readUTF(), fileSize);
+                    entry.lastUsed = lastUsed;
+                    entry.lastModified = lastModified;
+                    CacheEntry oldEntry = projectionEntries.entries.get(entry.filename);
+                    if (oldEntry != null) {
+                        removeEntry(projectionEntries, oldEntry);
+                    }
+                    addEntry(projectionEntries, entry);
+                } else if (type == RECORD_REMOVE) {
+                    CacheEntry entry = projectionEntries.entries.get(in.readUTF());
+                    if (entry != null) {
+                        removeEntry(projectionEntries, entry);
+                    }
+                } else
+                    throw new IOException("Damaged wms-cache index " + indexFile);
+                projectionEntries.recordCount++;
+            }
+        } catch (IOException e) {
+            // The last change was not written completely, the entries read so far are kept
+            System.err.println("Unable to load wms-cache index " + indexFile + ": " + e.getMessage());
+            if (projectionEntries != null) {
+                projectionEntries.compactionNeeded = true;
+            } else {
+                indexFile.delete();
+            }
+        } finally {
+            Utils.close(in);
+        }
+    }
+
+    private void loadXmlIndex(File indexFile) {
         try {
             JAXBContext context = JAXBContext.newInstance(
                     WmsCacheType.class.getPackage().getName(),
                     WmsCacheType.class.getClassLoader());
             Unmarshaller unmarshaller = context.createUnmarshaller();
             WmsCacheType cacheEntries = (WmsCacheType)unmarshaller.unmarshal(new FileInputStream(indexFile));
-            totalFileSize = cacheEntries.getTotalFileSize();
             if (cacheEntries.getTileSize() != tileSize) {
                 System.out.println("Cache created with different tileSize, cache will be discarded");
                 return;
@@ -192,22 +303,21 @@ public class WmsCache {
             for (ProjectionType projectionType: cacheEntries.getProjection()) {
                 ProjectionEntries projection = getProjectionEntries(projectionType.getName(), projectionType.getCacheDirectory());
                 for (EntryType entry: projectionType.getEntry()) {
-                    CacheEntry ce = new CacheEntry(entry.getPixelPerDegree(), entry.getEast(), entry.getNorth(), tileSize, entry.getFilename());
+                    // The old index has no file sizes, missing files are dropped with their entry
+                    File imageFile = new File(cacheDir, projection.cacheDirectory + "/" + entry.getFilename());
+                    if (!imageFile.exists()) {
+                        continue;
+                    }
+                    CacheEntry ce = new CacheEntry(entry.getPixelPerDegree(), entry.getEast(), entry.getNorth(), tileSize, entry.getFilename(), imageFile.length());
                     ce.lastUsed = entry.getLastUsed().getTimeInMillis();
                     ce.lastModified = entry.getLastModified().getTimeInMillis();
-                    projection.entries.add(ce);
+                    addEntry(projection, ce);
                 }
             }
         } catch (Exception e) {
-            if (indexFile.exists()) {
-                e.printStackTrace();
-                System.out.println("Unable to load index for wms-cache, new file will be created");
-            } else {
-                System.out.println("Index for wms-cache doesn't exist, new file will be created");
-            }
+            e.printStackTrace();
+            System.out.println("Unable to load index for wms-cache, new file will be created");
         }
-
-        removeNonReferencedFiles();
     }
 
     private void removeNonReferencedFiles() {
@@ -220,14 +330,8 @@ public class WmsCache {
 
             File projectionDir = new File(cacheDir, projectionEntries.cacheDirectory);
             if (projectionDir.exists()) {
-                Set<String> referencedFiles = new HashSet<String>();
-
-                for (CacheEntry ce: projectionEntries.entries) {
-                    referencedFiles.add(ce.filename);
-                }
-
                 for (File file: projectionDir.listFiles()) {
-                    if (!referencedFiles.contains(file.getName())) {
+                    if (!projectionEntries.entries.containsKey(file.getName())) {
                         file.delete();
                     }
                 }
@@ -241,66 +345,176 @@ public class WmsCache {
         }
     }
 
-    private int calculateTotalFileSize() {
-        int result = 0;
-        for (ProjectionEntries projectionEntries: entries.values()) {
-            Iterator<CacheEntry> it = projectionEntries.entries.iterator();
-            while (it.hasNext()) {
-                CacheEntry entry = it.next();
-                File imageFile = getImageFile(projectionEntries, entry);
-                if (!imageFile.exists()) {
-                    it.remove();
-                } else {
-                    result += imageFile.length();
-                }
+    private void removeTemporaryFiles() {
+        for (File file: cacheDir.listFiles()) {
+            if (file.isFile() && file.getName().endsWith(TMP_FILE_SUFFIX)) {
+                // Left over by an interrupted saveToCache
+                file.delete();
             }
         }
-        return result;
     }
 
-    public synchronized void saveIndex() {
-        WmsCacheType index = new WmsCacheType();
+    private File getIndexFile(ProjectionEntries projectionEntries) {
+        return new File(cacheDir, projectionEntries.cacheDirectory + INDEX_SUFFIX);
+    }
 
-        if (totalFileSizeDirty) {
-            totalFileSize = calculateTotalFileSize();
-        }
+    private void writeHeader(DataOutputStream out, ProjectionEntries projectionEntries) throws IOException {
+        out.writeInt(INDEX_MAGIC);
+        out.writeInt(INDEX_VERSION);
+        out.writeUTF(projectionEntries.projection);
+        out.writeUTF(projectionEntries.cacheDirectory);
+        out.writeInt(tileSize);
+    }
 
-        index.setTileSize(tileSize);
-        index.setTotalFileSize(totalFileSize);
-        for (ProjectionEntries projectionEntries: entries.values()) {
-            if (!projectionEntries.entries.isEmpty()) {
-                ProjectionType projectionType = new ProjectionType();
-                projectionType.setName(projectionEntries.projection);
-                projectionType.setCacheDirectory(projectionEntries.cacheDirectory);
-                index.getProjection().add(projectionType);
-                for (CacheEntry ce: projectionEntries.entries) {
-                    EntryType entry = new EntryType();
-                    entry.setPixelPerDegree(ce.pixelPerDegree);
-                    entry.setEast(ce.east);
-                    entry.setNorth(ce.north);
-                    Calendar c = Calendar.getInstance();
-                    c.setTimeInMillis(ce.lastUsed);
-                    entry.setLastUsed(c);
-                    c = Calendar.getInstance();
-                    c.setTimeInMillis(ce.lastModified);
-                    entry.setLastModified(c);
-                    entry.setFilename(ce.filename);
-                    projectionType.getEntry().add(entry);
+    private static void writeEntry(DataOutputStream out, CacheEntry entry) throws IOException {
+        out.writeByte(RECORD_ADD);
+        out.writeDouble(entry.pixelPerDegree);
+        out.writeDouble(entry.east);
+        out.writeDouble(entry.north);
+        out.writeLong(entry.lastUsed);
+        out.writeLong(entry.lastModified);
+        out.writeLong(entry.fileSize);
+        out.writeUTF(entry.filename);
+    }
+
+    /**
+     * Appends a change to the index file of a projection.
+     * @param entry the added entry, or the removed entry if {@code removed} is set
+     */
+    private void appendToIndex(ProjectionEntries projectionEntries, CacheEntry entry, boolean removed) {
+        if (projectionEntries.compactionNeeded && indexLoaded) {
+            // The rewritten file contains the change
+            compact(projectionEntries);
+            return;
+        }
+        try {
+            if (projectionEntries.journal == null) {
+                File indexFile = getIndexFile(projectionEntries);
+                boolean exists = indexFile.exists();
+                projectionEntries.journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)));
+                if (!exists) {
+                    writeHeader(projectionEntries.journal, projectionEntries);
                 }
             }
+            if (removed) {
+                projectionEntries.journal.writeByte(RECORD_REMOVE);
+                projectionEntries.journal.writeUTF(entry.filename);
+            } else {
+                writeEntry(projectionEntries.journal, entry);
+            }
+            projectionEntries.journal.flush();
+            projectionEntries.recordCount++;
+        } catch (IOException e) {
+            System.err.println("Failed to update wms-cache index");
+            e.printStackTrace();
+            Utils.close(projectionEntries.journal);
+            projectionEntries.journal = null;
+            projectionEntries.compactionNeeded = true;
         }
+    }
+
+    /**
+     * Rewrites the index file of a projection with the current entries only.
+     */
+    private void compact(ProjectionEntries projectionEntries) {
+        Utils.close(projectionEntries.journal);
+        projectionEntries.journal = null;
+        File indexFile = getIndexFile(projectionEntries);
+        File tmpFile = new File(cacheDir, indexFile.getName() + TMP_FILE_SUFFIX);
         try {
-            JAXBContext context = JAXBContext.newInstance(
-                    WmsCacheType.class.getPackage().getName(),
-                    WmsCacheType.class.getClassLoader());
-            Marshaller marshaller = context.createMarshaller();
-            marshaller.marshal(index, new FileOutputStream(new File(cacheDir, INDEX_FILENAME)));
-        } catch (Exception e) {
-            System.err.println("Failed to save wms-cache file");
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            try {
+                writeHeader(out, projectionEntries);
+                for (CacheEntry entry: projectionEntries.entries.values()) {
+                    writeEntry(out, entry);
+                }
+            } finally {
+                Utils.close(out);
+            }
+            // File.renameTo doesn't replace an existing file on all platforms
+            indexFile.delete();
+            if (!tmpFile.renameTo(indexFile))
+                throw new IOException("Unable to move " + tmpFile + " to " + indexFile);
+            projectionEntries.recordCount = projectionEntries.entries.size();
+            projectionEntries.compactionNeeded = false;
+        } catch (IOException e) {
+            System.err.println("Failed to save wms-cache index");
             e.printStackTrace();
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Saves the index of the cache. The changes are already in the index files, they are only
+     * rewritten if most of their records are obsolete, which also saves the last use of the entries.
+     */
+    public synchronized void saveIndex() {
+        for (ProjectionEntries projectionEntries: entries.values()) {
+            if (indexLoaded && (projectionEntries.compactionNeeded || projectionEntries.recordCount > 2 * projectionEntries.entries.size())) {
+                compact(projectionEntries);
+            } else {
+                Utils.close(projectionEntries.journal);
+                projectionEntries.journal = null;
+            }
         }
     }
 
+    private long getCellKey(double pixelPerDegree, double east, double north) {
+        return getCellKey((long)Math.floor(east * pixelPerDegree / tileSize), (long)Math.floor(north * pixelPerDegree / tileSize));
+    }
+
+    private static long getCellKey(long x, long y) {
+        return (x << 32) ^ (y & 0xffffffffL);
+    }
+
+    private void addEntry(ProjectionEntries projectionEntries, CacheEntry entry) {
+        projectionEntries.entries.put(entry.filename, entry);
+        Map<Long, List<CacheEntry>> cells = projectionEntries.grid.get(entry.pixelPerDegree);
+        if (cells == null) {
+            cells = new HashMap<Long, List<CacheEntry>>();
+            projectionEntries.grid.put(entry.pixelPerDegree, cells);
+        }
+        Long key = getCellKey(entry.pixelPerDegree, entry.east, entry.north);
+        List<CacheEntry> cell = cells.get(key);
+        if (cell == null) {
+            cell = new ArrayList<CacheEntry>(1);
+            cells.put(key, cell);
+        }
+        cell.add(entry);
+        totalFileSize += entry.fileSize;
+    }
+
+    /**
+     * Removes an entry from the index in memory.
+     * @return false if the entry was already removed
+     */
+    private boolean removeEntry(ProjectionEntries projectionEntries, CacheEntry entry) {
+        if (projectionEntries.entries.get(entry.filename) != entry)
+            return false;
+        projectionEntries.entries.remove(entry.filename);
+        Map<Long, List<CacheEntry>> cells = projectionEntries.grid.get(entry.pixelPerDegree);
+        Long key = getCellKey(entry.pixelPerDegree, entry.east, entry.north);
+        List<CacheEntry> cell = cells.get(key);
+        cell.remove(entry);
+        if (cell.isEmpty()) {
+            cells.remove(key);
+            if (cells.isEmpty()) {
+                projectionEntries.grid.remove(entry.pixelPerDegree);
+            }
+        }
+        memoryCache.remove(entry);
+        totalFileSize -= entry.fileSize;
+        return true;
+    }
+
+    /**
+     * Replies the total size of the image files in the cache.
+     * @return the size in bytes
+     */
+    public synchronized long getTotalFileSize() {
+        return totalFileSize;
+    }
+
     private File getImageFile(ProjectionEntries projection, CacheEntry entry) {
         return new File(cacheDir, projection.cacheDirectory + "/" + entry.filename);
     }
@@ -323,25 +537,31 @@ public class WmsCache {
             // Reading can't be in synchronized section, it's too slow
             BufferedImage result = ImageIO.read(getImageFile(projectionEntries, entry));
             synchronized (this) {
-                if (result == null) {
-                    projectionEntries.entries.remove(entry);
-                    totalFileSizeDirty = true;
+                if (result == null && removeEntry(projectionEntries, entry)) {
+                    appendToIndex(projectionEntries, entry, true);
                 }
                 return result;
             }
         } catch (IOException e) {
             synchronized (this) {
-                projectionEntries.entries.remove(entry);
-                totalFileSizeDirty = true;
+                if (removeEntry(projectionEntries, entry)) {
+                    appendToIndex(projectionEntries, entry, true);
+                }
                 throw e;
             }
         }
     }
 
     private CacheEntry findEntry(ProjectionEntries projectionEntries, double pixelPerDegree, double east, double north) {
-        for (CacheEntry entry: projectionEntries.entries) {
-            if (entry.pixelPerDegree == pixelPerDegree && entry.east == east && entry.north == north)
-                return entry;
+        Map<Long, List<CacheEntry>> cells = projectionEntries.grid.get(pixelPerDegree);
+        if (cells != null) {
+            List<CacheEntry> cell = cells.get(getCellKey(pixelPerDegree, east, north));
+            if (cell != null) {
+                for (CacheEntry entry: cell) {
+                    if (entry.pixelPerDegree == pixelPerDegree && entry.east == east && entry.north == north)
+                        return entry;
+                }
+            }
         }
         return null;
     }
@@ -387,10 +607,29 @@ public class WmsCache {
                     east + size2 - border, north + size2 - border);
 
             //TODO Do not load tile if it is completely overlapped by other tile with better ppd
-            for (CacheEntry entry: projectionEntries.entries) {
-                if (entry.pixelPerDegree >= minPPD && entry.pixelPerDegree <= maxPPD && entry.bounds.intersects(bounds)) {
-                    entry.lastUsed = System.currentTimeMillis();
-                    matches.add(entry);
+            for (Map.Entry<Double, Map<Long, List<CacheEntry>>> cells: projectionEntries.grid.entrySet()) {
+                double ppd = cells.getKey();
+                if (ppd < minPPD || ppd > maxPPD) {
+                    continue;
+                }
+                // An entry is in the cell of its south west corner, it may reach into the next cells
+                long minX = (long)Math.floor(bounds.minEast * ppd / tileSize) - 1;
+                long minY = (long)Math.floor(bounds.minNorth * ppd / tileSize) - 1;
+                long maxX = (long)Math.floor(bounds.maxEast * ppd / tileSize);
+                long maxY = (long)Math.floor(bounds.maxNorth * ppd / tileSize);
+                for (long x = minX; x <= maxX; x++) {
+                    for (long y = minY; y <= maxY; y++) {
+                        List<CacheEntry> cell = cells.getValue().get(getCellKey(x, y));
+                        if (cell == null) {
+                            continue;
+                        }
+                        for (CacheEntry entry: cell) {
+                            if (entry.bounds.intersects(bounds)) {
+                                entry.lastUsed = System.currentTimeMillis();
+                                matches.add(entry);
+                            }
+                        }
+                    }
                 }
             }
 
@@ -469,11 +708,9 @@ public class WmsCache {
         FILENAME_LOOP:
             while (true) {
                 String result = String.format("%s_%." + precisionLat + "f_%." + precisionLon +"f%s.%s", zoom, ll1.lat(), ll1.lon(), counter==0?"":"_" + counter, extension);
-                for (CacheEntry entry: projectionEntries.entries) {
-                    if (entry.filename.equals(result)) {
-                        counter++;
-                        continue FILENAME_LOOP;
-                    }
+                if (projectionEntries.entries.containsKey(result)) {
+                    counter++;
+                    continue FILENAME_LOOP;
                 }
                 return result;
             }
@@ -489,58 +726,74 @@ public class WmsCache {
      * @param north
      * @throws IOException
      */
-    public synchronized void saveToCache(BufferedImage img, InputStream imageData, Projection projection, double pixelPerDegree, double east, double north) throws IOException {
-        ProjectionEntries projectionEntries = getProjectionEntries(projection);
-        CacheEntry entry = findEntry(projectionEntries, pixelPerDegree, east, north);
-        File imageFile;
-        if (entry == null) {
+    public void saveToCache(BufferedImage img, InputStream imageData, Projection projection, double pixelPerDegree, double east, double north) throws IOException {
+        String mimeType;
+        if (img != null) {
+            mimeType = "image/png";
+        } else {
+            mimeType = URLConnection.guessContentTypeFromStream(imageData);
+        }
 
-            String mimeType;
+        // Encoding and writing can't be in synchronized section, it's too slow. The image is written to a
+        // temporary file, which is renamed when it is complete, so the other threads never read a partial image
+        File tmpFile = File.createTempFile("tile", TMP_FILE_SUFFIX, cacheDir);
+        long length;
+        try {
             if (img != null) {
-                mimeType = "image/png";
+                BufferedImage copy = new BufferedImage(tileSize, tileSize, img.getType());
+                copy.createGraphics().drawImage(img, 0, 0, tileSize, tileSize, 0, img.getHeight() - tileSize, tileSize, img.getHeight(), null);
+                ImageIO.write(copy, "png", tmpFile);
+                length = tmpFile.length();
             } else {
-                mimeType = URLConnection.guessContentTypeFromStream(imageData);
+                OutputStream os = new BufferedOutputStream(new FileOutputStream(tmpFile));
+                try {
+                    length = Utils.copyStream(imageData, os);
+                } finally {
+                    Utils.close(os);
+                }
             }
-            entry = new CacheEntry(pixelPerDegree, east, north, tileSize,generateFileName(projectionEntries, pixelPerDegree, projection, east, north, mimeType));
-            entry.lastUsed = System.currentTimeMillis();
-            entry.lastModified = entry.lastUsed;
-            projectionEntries.entries.add(entry);
-            imageFile = getImageFile(projectionEntries, entry);
-        } else {
-            imageFile = getImageFile(projectionEntries, entry);
-            totalFileSize -= imageFile.length();
+        } catch (IOException e) {
+            tmpFile.delete();
+            throw e;
         }
 
-        imageFile.getParentFile().mkdirs();
+        synchronized (this) {
+            ProjectionEntries projectionEntries = getProjectionEntries(projection);
+            CacheEntry oldEntry = findEntry(projectionEntries, pixelPerDegree, east, north);
+            // A new entry replaces the old one, so that a failed read of the old file doesn't remove it
+            CacheEntry entry = new CacheEntry(pixelPerDegree, east, north, tileSize, oldEntry != null ? oldEntry.filename
+                    : generateFileName(projectionEntries, pixelPerDegree, projection, east, north, mimeType), length);
+            entry.lastUsed = System.currentTimeMillis();
+            entry.lastModified = entry.lastUsed;
+            File imageFile = getImageFile(projectionEntries, entry);
+            if (oldEntry != null) {
+                removeEntry(projectionEntries, oldEntry);
+                // File.renameTo doesn't replace an existing file on all platforms
+                imageFile.delete();
+            }
 
-        if (img != null) {
-            BufferedImage copy = new BufferedImage(tileSize, tileSize, img.getType());
-            copy.createGraphics().drawImage(img, 0, 0, tileSize, tileSize, 0, img.getHeight() - tileSize, tileSize, img.getHeight(), null);
-            ImageIO.write(copy, "png", imageFile);
-            totalFileSize += imageFile.length();
-        } else {
-            OutputStream os = new BufferedOutputStream(new FileOutputStream(imageFile));
-            try {
-                totalFileSize += Utils.copyStream(imageData, os);
-            } finally {
-                Utils.close(os);
+            imageFile.getParentFile().mkdirs();
+            if (!tmpFile.renameTo(imageFile)) {
+                tmpFile.delete();
+                if (oldEntry != null) {
+                    appendToIndex(projectionEntries, oldEntry, true);
+                }
+                throw new IOException("Unable to move " + tmpFile + " to " + imageFile);
             }
+            addEntry(projectionEntries, entry);
+            // The new entry replaces the old one with the same file name in the index
+            appendToIndex(projectionEntries, entry, false);
         }
     }
 
     public synchronized void cleanSmallFiles(int size) {
         for (ProjectionEntries projectionEntries: entries.values()) {
-            Iterator<CacheEntry> it = projectionEntries.entries.iterator();
-            while (it.hasNext()) {
-                File file = getImageFile(projectionEntries, it.next());
-                long length = file.length();
-                if (length <= size) {
-                    if (length == 0) {
-                        totalFileSizeDirty = true; // File probably doesn't exist
-                    }
-                    totalFileSize -= size;
+            for (CacheEntry entry: new ArrayList<CacheEntry>(projectionEntries.entries.values())) {
+                File file = getImageFile(projectionEntries, entry);
+                if (file.length() <= size) {
                     file.delete();
-                    it.remove();
+                    removeEntry(projectionEntries, entry);
+                    appendToIndex(projectionEntries, entry, true);
                 }
             }
         }
@@ -12,7 +12,6 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -456,7 +455,8 @@ public abstract class AbstractPrimitive implements IPrimitive {
     // the array itself will be never modified - only reference will be changed
 
     /**
-     * The key/value list for this primitive.
+     * The key/value list for this primitive. Shared with all primitives having the same tags,
+     * see {@link TagSetStorage}. Never modify the array, assign a new interned one instead.
      *
      */
     protected String[] keys;
@@ -494,13 +494,7 @@ public abstract class AbstractPrimitive implements IPrimitive {
             keysChangedImpl(originalKeys);
             return;
         }
-        String[] newKeys = new String[keys.size() * 2];
-        int index = 0;
-        for (Entry<String, String> entry:keys.entrySet()) {
-            newKeys[index++] = entry.getKey();
-            newKeys[index++] = entry.getValue();
-        }
-        this.keys = newKeys;
+        this.keys = TagSetStorage.intern(keys);
         keysChangedImpl(originalKeys);
     }
 
@@ -521,12 +515,14 @@ public abstract class AbstractPrimitive implements IPrimitive {
         else if (value == null) {
             remove(key);
         } else if (keys == null){
-            keys = new String[] {key, value};
+            keys = TagSetStorage.intern(new String[] {key, value});
             keysChangedImpl(originalKeys);
         } else {
             for (int i=0; i<keys.length;i+=2) {
                 if (keys[i].equals(key)) {
-                    keys[i+1] = value;  // This modifies the keys array but it doesn't make it invalidate for any time so its ok (see note no top)
+                    String[] newKeys = keys.clone(); // the array is shared, see note on top
+                    newKeys[i+1] = value;
+                    keys = TagSetStorage.intern(newKeys);
                     keysChangedImpl(originalKeys);
                     return;
                 }
@@ -538,7 +534,7 @@ public abstract class AbstractPrimitive implements IPrimitive {
             }
             newKeys[keys.length] = key;
             newKeys[keys.length + 1] = value;
-            keys = newKeys;
+            keys = TagSetStorage.intern(newKeys);
             keysChangedImpl(originalKeys);
         }
     }
@@ -567,7 +563,7 @@ public abstract class AbstractPrimitive implements IPrimitive {
                 newKeys[j++] = keys[i+1];
             }
         }
-        keys = newKeys;
+        keys = TagSetStorage.intern(newKeys);
         keysChangedImpl(originalKeys);
     }
 
@@ -661,11 +657,10 @@ public abstract class AbstractPrimitive implements IPrimitive {
      * @return true if other isn't null and has the same tags (key/value-pairs) as this.
      */
     public boolean hasSameTags(OsmPrimitive other) {
-        // We cannot directly use Arrays.equals(keys, other.keys) as keys is not ordered by key
-        // but we can at least check if both arrays are null or of the same size before creating
-        // and comparing the key maps (costly operation, see #7159)
-        return (keys == null && other.keys == null)
-            || (keys != null && other.keys != null && keys.length == other.keys.length && (keys.length == 0 || getKeys().equals(other.getKeys())));
+        // keys are interned and sorted, so equal tags are usually the same array
+        String[] keys = this.keys;
+        String[] otherKeys = other.keys;
+        return keys == otherKeys || Arrays.equals(keys, otherKeys);
     }
 
     /**
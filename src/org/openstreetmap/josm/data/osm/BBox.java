@@ -175,6 +175,22 @@ public class BBox {
         return new LatLon(ymin, xmax);
     }
 
+    public double getTopLeftLat() {
+        return ymax;
+    }
+
+    public double getTopLeftLon() {
+        return xmin;
+    }
+
+    public double getBottomRightLat() {
+        return ymin;
+    }
+
+    public double getBottomRightLon() {
+        return xmax;
+    }
+
     public LatLon getCenter() {
         return new LatLon(ymin + (ymax-ymin)/2.0, xmin + (xmax-xmin)/2.0);
     }
@@ -0,0 +1,1069 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.visitor.PrimitiveVisitor;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.tools.CheckParameterUtil;
+import org.openstreetmap.josm.tools.LongIntHashMap;
+
+/**
+ * <p>Compact, column oriented storage of OSM data, meant for extracts that are too large
+ * to be loaded into a {@link DataSet}.</p>
+ *
+ * <p>Nodes and ways are not kept as objects. Their attributes are stored in primitive
+ * arrays indexed by a dense internal index: coordinates as fixed point {@code int}s
+ * with the precision of the OSM database (10<sup>-7</sup> degrees), way node lists
+ * as {@code int} indexes into the node columns. This takes about 60 bytes per node
+ * instead of several hundred for a {@link Node} in a {@link DataSet}. Relations are
+ * comparatively rare and kept as {@link RelationData}.</p>
+ *
+ * <p>{@link #getNode(int)} and {@link #getWay(int)} create lightweight views which
+ * implement {@link INode} and {@link IWay} and read and write the columns directly.
+ * Views are created on demand, so two views of the same primitive are equal, but not
+ * identical.</p>
+ *
+ * <p>To edit the data, {@link #toDataSet(Bounds) materialize} a region into a regular
+ * {@link DataSet}. Large files are opened this way in a
+ * {@link org.openstreetmap.josm.gui.layer.CompactDataLayer}.</p>
+ *
+ * <p>Not thread safe.</p>
+ *
+ * @see org.openstreetmap.josm.io.CompactOsmReader
+ */
+public class CompactDataSet {
+
+    /** Factor between degrees and the stored fixed point coordinates. */
+    public static final double COORD_FACTOR = 1e7;
+    private static final int NO_COORD = Integer.MIN_VALUE;
+
+    /* same values as in AbstractPrimitive */
+    private static final int FLAG_MODIFIED = 1 << 0;
+    private static final int FLAG_VISIBLE = 1 << 1;
+    private static final int FLAG_DELETED = 1 << 2;
+    private static final int FLAG_INCOMPLETE = 1 << 3;
+
+    private static final int[] EMPTY_INTS = new int[0];
+
+    /**
+     * The columns shared by all primitive types.
+     */
+    private static class Columns {
+        final LongIntHashMap index = new LongIntHashMap();
+        long[] ids = new long[16];
+        int[] versions = new int[16];
+        int[] changesets = new int[16];
+        long[] timestamps = new long[16];
+        int[] users = new int[16];
+        byte[] flags = new byte[16];
+        String[][] tags = new String[16][];
+        int size;
+
+        int add(long id) {
+            if (size == ids.length) {
+                grow(size + (size >> 1));
+            }
+            int i = size++;
+            ids[i] = id;
+            users[i] = -1;
+            flags[i] = FLAG_VISIBLE;
+            index.put(id, i);
+            return i;
+        }
+
+        void grow(int capacity) {
+            ids = Arrays.copyOf(ids, capacity);
+            versions = Arrays.copyOf(versions, capacity);
+            changesets = Arrays.copyOf(changesets, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            users = Arrays.copyOf(users, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+            tags = Arrays.copyOf(tags, capacity);
+        }
+
+        long getMemoryFootprint() {
+            // 2 * 8 (id, timestamp) + 3 * 4 (version, changeset, user) + 1 (flags) + 4 (tags reference)
+            return ids.length * 33L + index.getMemoryFootprint();
+        }
+    }
+
+    private final Columns nodes = new Columns();
+    private int[] lats = new int[16];
+    private int[] lons = new int[16];
+
+    private final Columns ways = new Columns();
+    /* node list of way i is wayNodes[wayNodeStart[i] .. wayNodeStart[i] + wayNodeCount[i]] */
+    private int[] wayNodeStart = new int[16];
+    private int[] wayNodeCount = new int[16];
+    private int[] wayNodes = new int[64];
+    private int wayNodesSize;
+
+    /* spatial index of the ways, built on demand and dropped on changes: the ways with coordinates
+     * packed into blocks with Sort-Tile-Recursive, like in PackedRTree */
+    private static final int INDEX_BLOCK_SIZE = 64;
+    /* minLat, minLon, maxLat, maxLon of every way */
+    private int[] wayBBoxes;
+    /* the indexed ways, block after block */
+    private int[] indexedWays;
+    /* minLat, minLon, maxLat, maxLon of every block */
+    private int[] blockBBoxes;
+
+    private final List<RelationData> relations = new ArrayList<RelationData>();
+    private final Map<Long, RelationData> relationsById = new HashMap<Long, RelationData>();
+
+    private final List<User> users = new ArrayList<User>();
+    private final Map<User, Integer> userIndex = new HashMap<User, Integer>();
+
+    /** The bounds of the data, see {@link DataSet#dataSources} */
+    public final List<DataSource> dataSources = new ArrayList<DataSource>();
+
+    /* ------------------------------------------------------------------------------- */
+    /* loading                                                                         */
+    /* ------------------------------------------------------------------------------- */
+
+    private void loadCommon(Columns cols, int i, PrimitiveData data) {
+        cols.versions[i] = data.getVersion();
+        cols.changesets[i] = data.getChangesetId();
+        cols.timestamps[i] = data.isTimestampEmpty() ? 0 : data.getTimestamp().getTime() / 1000;
+        cols.users[i] = indexOf(data.getUser());
+        byte flags = 0;
+        if (data.isModified()) {
+            flags |= FLAG_MODIFIED;
+        }
+        if (data.isVisible()) {
+            flags |= FLAG_VISIBLE;
+        }
+        if (data.isDeleted()) {
+            flags |= FLAG_DELETED;
+        }
+        if (data.isIncomplete()) {
+            flags |= FLAG_INCOMPLETE;
+        }
+        cols.flags[i] = flags;
+        cols.tags[i] = data.keys;
+    }
+
+    private int indexOf(User user) {
+        if (user == null)
+            return -1;
+        Integer i = userIndex.get(user);
+        if (i == null) {
+            i = users.size();
+            users.add(user);
+            userIndex.put(user, i);
+        }
+        return i;
+    }
+
+    private int addNodeSlot(long id) {
+        int i = nodes.add(id);
+        if (i == lats.length) {
+            lats = Arrays.copyOf(lats, nodes.ids.length);
+            lons = Arrays.copyOf(lons, nodes.ids.length);
+        }
+        lats[i] = NO_COORD;
+        lons[i] = NO_COORD;
+        return i;
+    }
+
+    /**
+     * Adds a node. If a way referring to this node was added before, the incomplete
+     * node created for it is completed.
+     * @param data the node
+     * @return the index of the node
+     * @throws IllegalArgumentException if a complete node with the same id was already added
+     */
+    public int addNode(NodeData data) {
+        int i = nodes.index.get(data.getUniqueId());
+        if (i == LongIntHashMap.NO_VALUE) {
+            i = addNodeSlot(data.getUniqueId());
+        } else if ((nodes.flags[i] & FLAG_INCOMPLETE) == 0)
+            throw new IllegalArgumentException(tr("Duplicate node with id {0}.", data.getUniqueId()));
+        loadCommon(nodes, i, data);
+        setCoor(i, data.getCoor());
+        return i;
+    }
+
+    private void setCoor(int i, LatLon coor) {
+        wayBBoxes = null;
+        if (coor == null) {
+            lats[i] = NO_COORD;
+            lons[i] = NO_COORD;
+        } else {
+            lats[i] = (int) Math.round(coor.lat() * COORD_FACTOR);
+            lons[i] = (int) Math.round(coor.lon() * COORD_FACTOR);
+        }
+    }
+
+    /**
+     * Adds a way. Nodes that are not known yet are added as incomplete nodes.
+     * @param data the way
+     * @return the index of the way
+     * @throws IllegalArgumentException if a way with the same id was already added
+     */
+    public int addWay(WayData data) {
+        if (ways.index.containsKey(data.getUniqueId()))
+            throw new IllegalArgumentException(tr("Duplicate way with id {0}.", data.getUniqueId()));
+        wayBBoxes = null;
+        int i = ways.add(data.getUniqueId());
+        if (i == wayNodeStart.length) {
+            wayNodeStart = Arrays.copyOf(wayNodeStart, ways.ids.length);
+            wayNodeCount = Arrays.copyOf(wayNodeCount, ways.ids.length);
+        }
+        loadCommon(ways, i, data);
+        List<Long> nodeIds = data.getNodes();
+        if (wayNodesSize + nodeIds.size() > wayNodes.length) {
+            wayNodes = Arrays.copyOf(wayNodes, Math.max(wayNodesSize + nodeIds.size(), wayNodes.length + (wayNodes.length >> 1)));
+        }
+        wayNodeStart[i] = wayNodesSize;
+        wayNodeCount[i] = nodeIds.size();
+        for (Long id : nodeIds) {
+            int n = nodes.index.get(id);
+            if (n == LongIntHashMap.NO_VALUE) {
+                n = addNodeSlot(id);
+                nodes.flags[n] |= FLAG_INCOMPLETE;
+            }
+            wayNodes[wayNodesSize++] = n;
+        }
+        return i;
+    }
+
+    /**
+     * Adds a relation.
+     * @param data the relation
+     * @throws IllegalArgumentException if a relation with the same id was already added
+     */
+    public void addRelation(RelationData data) {
+        if (relationsById.containsKey(data.getUniqueId()))
+            throw new IllegalArgumentException(tr("Duplicate relation with id {0}.", data.getUniqueId()));
+        relations.add(data);
+        relationsById.put(data.getUniqueId(), data);
+    }
+
+    /**
+     * Shrinks the internal arrays to the stored data, e.g. after loading.
+     */
+    public void trimToSize() {
+        nodes.grow(Math.max(nodes.size, 1));
+        lats = Arrays.copyOf(lats, nodes.ids.length);
+        lons = Arrays.copyOf(lons, nodes.ids.length);
+        ways.grow(Math.max(ways.size, 1));
+        wayNodeStart = Arrays.copyOf(wayNodeStart, ways.ids.length);
+        wayNodeCount = Arrays.copyOf(wayNodeCount, ways.ids.length);
+        wayNodes = Arrays.copyOf(wayNodes, wayNodesSize);
+    }
+
+    /* ------------------------------------------------------------------------------- */
+    /* access                                                                          */
+    /* ------------------------------------------------------------------------------- */
+
+    public int getNodesCount() {
+        return nodes.size;
+    }
+
+    public int getWaysCount() {
+        return ways.size;
+    }
+
+    /**
+     * Replies a view of the node with the given index.
+     * @param index the index, between 0 and {@link #getNodesCount()} - 1
+     * @return the node
+     */
+    public INode getNode(int index) {
+        if (index < 0 || index >= nodes.size)
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        return new NodeView(index);
+    }
+
+    /**
+     * Replies a view of the way with the given index.
+     * @param index the index, between 0 and {@link #getWaysCount()} - 1
+     * @return the way
+     */
+    public IWay getWay(int index) {
+        if (index < 0 || index >= ways.size)
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        return new WayView(index);
+    }
+
+    /**
+     * Replies the node with the given id.
+     * @param id the unique id
+     * @return the node, or null if there is no such node
+     */
+    public INode getNodeById(long id) {
+        int i = nodes.index.get(id);
+        return i == LongIntHashMap.NO_VALUE ? null : new NodeView(i);
+    }
+
+    /**
+     * Replies the way with the given id.
+     * @param id the unique id
+     * @return the way, or null if there is no such way
+     */
+    public IWay getWayById(long id) {
+        int i = ways.index.get(id);
+        return i == LongIntHashMap.NO_VALUE ? null : new WayView(i);
+    }
+
+    /**
+     * Replies all nodes. The views are created while iterating.
+     * @return an unmodifiable list of all nodes
+     */
+    public List<INode> getNodes() {
+        return new AbstractList<INode>() {
+            @Override
+            public INode get(int index) {
+                return getNode(index);
+            }
+
+            @Override
+            public int size() {
+                return nodes.size;
+            }
+        };
+    }
+
+    /**
+     * Replies all ways. The views are created while iterating.
+     * @return an unmodifiable list of all ways
+     */
+    public List<IWay> getWays() {
+        return new AbstractList<IWay>() {
+            @Override
+            public IWay get(int index) {
+                return getWay(index);
+            }
+
+            @Override
+            public int size() {
+                return ways.size;
+            }
+        };
+    }
+
+    public Collection<RelationData> getRelations() {
+        return Collections.unmodifiableList(relations);
+    }
+
+    /**
+     * Replies the index of the node at the given position of a way.
+     * @param way the index of the way
+     * @param pos the position in the node list of the way
+     * @return the index of the node
+     */
+    public int getWayNodeIndex(int way, int pos) {
+        if (pos < 0 || pos >= wayNodeCount[way])
+            throw new IndexOutOfBoundsException(Integer.toString(pos));
+        return wayNodes[wayNodeStart[way] + pos];
+    }
+
+    /**
+     * Replies the number of nodes of a way.
+     * @param way the index of the way
+     * @return the number of nodes
+     */
+    public int getWayNodesCount(int way) {
+        return wayNodeCount[way];
+    }
+
+    /**
+     * Determines if a node has coordinates. Unlike {@link #getNode(int)}, the
+     * coordinate accessors do not create any objects.
+     * @param node the index of the node
+     * @return true if the node has coordinates
+     */
+    public boolean hasCoor(int node) {
+        return lats[node] != NO_COORD;
+    }
+
+    /**
+     * Replies the latitude of a node.
+     * @param node the index of the node, see {@link #hasCoor(int)}
+     * @return the latitude
+     */
+    public double getLat(int node) {
+        return lats[node] / COORD_FACTOR;
+    }
+
+    /**
+     * Replies the longitude of a node.
+     * @param node the index of the node, see {@link #hasCoor(int)}
+     * @return the longitude
+     */
+    public double getLon(int node) {
+        return lons[node] / COORD_FACTOR;
+    }
+
+    /**
+     * Replies the bounds of a way.
+     * @param way the index of the way
+     * @return the bounds of the nodes with coordinates, or null if there are none
+     */
+    public Bounds getWayBounds(int way) {
+        buildWayIndex();
+        int j = 4 * way;
+        if (wayBBoxes[j] > wayBBoxes[j + 2])
+            return null;
+        return new Bounds(wayBBoxes[j] / COORD_FACTOR, wayBBoxes[j + 1] / COORD_FACTOR,
+                wayBBoxes[j + 2] / COORD_FACTOR, wayBBoxes[j + 3] / COORD_FACTOR);
+    }
+
+    /**
+     * Replies the non-deleted ways intersecting the given bounds. The ways are looked up in a
+     * spatial index, which is built on the first search after a change.
+     * @param bounds the bounds
+     * @return the indexes of the ways
+     */
+    public int[] searchWays(Bounds bounds) {
+        buildWayIndex();
+        int minLat = (int) Math.floor(bounds.getMin().lat() * COORD_FACTOR);
+        int minLon = (int) Math.floor(bounds.getMin().lon() * COORD_FACTOR);
+        int maxLat = (int) Math.ceil(bounds.getMax().lat() * COORD_FACTOR);
+        int maxLon = (int) Math.ceil(bounds.getMax().lon() * COORD_FACTOR);
+        int[] result = new int[16];
+        int count = 0;
+        for (int b = 0; b * INDEX_BLOCK_SIZE < indexedWays.length; b++) {
+            if (!intersects(blockBBoxes, 4 * b, minLat, minLon, maxLat, maxLon)) {
+                continue;
+            }
+            int end = Math.min(indexedWays.length, (b + 1) * INDEX_BLOCK_SIZE);
+            for (int i = b * INDEX_BLOCK_SIZE; i < end; i++) {
+                int w = indexedWays[i];
+                if (intersects(wayBBoxes, 4 * w, minLat, minLon, maxLat, maxLon) && (ways.flags[w] & FLAG_DELETED) == 0) {
+                    if (count == result.length) {
+                        result = Arrays.copyOf(result, count * 2);
+                    }
+                    result[count++] = w;
+                }
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static boolean intersects(int[] bboxes, int j, int minLat, int minLon, int maxLat, int maxLon) {
+        return bboxes[j] <= maxLat && bboxes[j + 2] >= minLat && bboxes[j + 1] <= maxLon && bboxes[j + 3] >= minLon;
+    }
+
+    private void buildWayIndex() {
+        if (wayBBoxes != null)
+            return;
+        int[] bboxes = new int[4 * ways.size];
+        /* the center of the way in the upper half, the way in the lower half, for sorting */
+        long[] keys = new long[ways.size];
+        int count = 0;
+        for (int w = 0; w < ways.size; w++) {
+            int minLat = Integer.MAX_VALUE, minLon = Integer.MAX_VALUE;
+            int maxLat = Integer.MIN_VALUE, maxLon = Integer.MIN_VALUE;
+            for (int i = wayNodeStart[w]; i < wayNodeStart[w] + wayNodeCount[w]; i++) {
+                int n = wayNodes[i];
+                if (lats[n] != NO_COORD) {
+                    minLat = Math.min(minLat, lats[n]);
+                    minLon = Math.min(minLon, lons[n]);
+                    maxLat = Math.max(maxLat, lats[n]);
+                    maxLon = Math.max(maxLon, lons[n]);
+                }
+            }
+            bboxes[4 * w] = minLat;
+            bboxes[4 * w + 1] = minLon;
+            bboxes[4 * w + 2] = maxLat;
+            bboxes[4 * w + 3] = maxLon;
+            if (minLat <= maxLat) {
+                keys[count++] = (long) (int) (((long) minLon + maxLon) >> 1) << 32 | w;
+            }
+        }
+        /* Sort-Tile-Recursive: slices by longitude, sorted by latitude and cut into blocks */
+        Arrays.sort(keys, 0, count);
+        int blocks = (count + INDEX_BLOCK_SIZE - 1) / INDEX_BLOCK_SIZE;
+        int sliceSize = (int) Math.ceil(Math.sqrt(blocks)) * INDEX_BLOCK_SIZE;
+        for (int i = 0; i < count; i += sliceSize) {
+            int end = Math.min(count, i + sliceSize);
+            for (int k = i; k < end; k++) {
+                int w = (int) keys[k];
+                keys[k] = (long) (int) (((long) bboxes[4 * w] + bboxes[4 * w + 2]) >> 1) << 32 | w;
+            }
+            Arrays.sort(keys, i, end);
+        }
+        int[] order = new int[count];
+        int[] blockBoxes = new int[4 * blocks];
+        for (int b = 0; b < blocks; b++) {
+            int j = 4 * b;
+            blockBoxes[j] = blockBoxes[j + 1] = Integer.MAX_VALUE;
+            blockBoxes[j + 2] = blockBoxes[j + 3] = Integer.MIN_VALUE;
+            for (int i = b * INDEX_BLOCK_SIZE; i < Math.min(count, (b + 1) * INDEX_BLOCK_SIZE); i++) {
+                int w = (int) keys[i];
+                order[i] = w;
+                blockBoxes[j] = Math.min(blockBoxes[j], bboxes[4 * w]);
+                blockBoxes[j + 1] = Math.min(blockBoxes[j + 1], bboxes[4 * w + 1]);
+                blockBoxes[j + 2] = Math.max(blockBoxes[j + 2], bboxes[4 * w + 2]);
+                blockBoxes[j + 3] = Math.max(blockBoxes[j + 3], bboxes[4 * w + 3]);
+            }
+        }
+        indexedWays = order;
+        blockBBoxes = blockBoxes;
+        wayBBoxes = bboxes;
+    }
+
+    /**
+     * Replies the bounds of all nodes with coordinates.
+     * @return the bounds, or null if there are no such nodes
+     */
+    public Bounds getBounds() {
+        int minLat = Integer.MAX_VALUE, minLon = Integer.MAX_VALUE;
+        int maxLat = Integer.MIN_VALUE, maxLon = Integer.MIN_VALUE;
+        for (int i = 0; i < nodes.size; i++) {
+            if (lats[i] != NO_COORD) {
+                minLat = Math.min(minLat, lats[i]);
+                minLon = Math.min(minLon, lons[i]);
+                maxLat = Math.max(maxLat, lats[i]);
+                maxLon = Math.max(maxLon, lons[i]);
+            }
+        }
+        if (minLat > maxLat)
+            return null;
+        return new Bounds(minLat / COORD_FACTOR, minLon / COORD_FACTOR, maxLat / COORD_FACTOR, maxLon / COORD_FACTOR);
+    }
+
+    /**
+     * Replies the approximate number of bytes used for nodes and ways, not counting
+     * tags, users and relations.
+     * @return the approximate memory footprint in bytes
+     */
+    public long getMemoryFootprint() {
+        long index = wayBBoxes == null ? 0 : wayBBoxes.length * 4L + indexedWays.length * 4L + blockBBoxes.length * 4L;
+        return nodes.getMemoryFootprint() + lats.length * 8L
+                + ways.getMemoryFootprint() + wayNodeStart.length * 8L + wayNodes.length * 4L + index;
+    }
+
+    /* ------------------------------------------------------------------------------- */
+    /* materialization                                                                 */
+    /* ------------------------------------------------------------------------------- */
+
+    /**
+     * Creates a data set containing all nodes within the given bounds, all ways using at
+     * least one of them (with all of their nodes) and all relations with at least one of
+     * these primitives as member. Other members of these relations are included as
+     * incomplete primitives, just like when downloading the area from the OSM server.
+     *
+     * @param bounds the bounds of the region. Must not be null.
+     * @return the new data set
+     */
+    public DataSet toDataSet(Bounds bounds) {
+        CheckParameterUtil.ensureParameterNotNull(bounds, "bounds");
+        return new Materializer(bounds).materialize();
+    }
+
+    private class Materializer {
+        private final Bounds bounds;
+        private final DataSet ds = new DataSet();
+        private final Map<Integer, Node> materializedNodes = new HashMap<Integer, Node>();
+        private final Map<Integer, Way> materializedWays = new HashMap<Integer, Way>();
+        private final Map<Long, Relation> materializedRelations = new HashMap<Long, Relation>();
+
+        public Materializer(Bounds bounds) {
+            this.bounds = bounds;
+        }
+
+        public DataSet materialize() {
+            ds.beginUpdate();
+            try {
+                BBox bbox = new BBox(bounds);
+                BitSet inside = new BitSet(nodes.size);
+                for (int i = 0; i < nodes.size; i++) {
+                    if (lats[i] != NO_COORD && bbox.bounds(new LatLon(lats[i] / COORD_FACTOR, lons[i] / COORD_FACTOR))) {
+                        inside.set(i);
+                        node(i);
+                    }
+                }
+                for (int w = 0; w < ways.size; w++) {
+                    int start = wayNodeStart[w];
+                    for (int j = start; j < start + wayNodeCount[w]; j++) {
+                        if (inside.get(wayNodes[j])) {
+                            way(w);
+                            break;
+                        }
+                    }
+                }
+                Collection<RelationData> parents = new LinkedHashSet<RelationData>();
+                for (RelationData r : relations) {
+                    for (RelationMemberData m : r.getMembers()) {
+                        if (isMaterialized(m)) {
+                            parents.add(r);
+                            break;
+                        }
+                    }
+                }
+                for (RelationData r : parents) {
+                    relation(r);
+                }
+                ds.dataSources.add(new DataSource(bounds, "JOSM"));
+            } finally {
+                ds.endUpdate();
+            }
+            return ds;
+        }
+
+        private boolean isMaterialized(RelationMemberData m) {
+            switch (m.getMemberType()) {
+            case NODE:
+                return materializedNodes.containsKey(nodes.index.get(m.getMemberId()));
+            case WAY:
+                return materializedWays.containsKey(ways.index.get(m.getMemberId()));
+            default:
+                return false;
+            }
+        }
+
+        private void loadCommon(IPrimitive view, PrimitiveData data) {
+            data.setId(view.getUniqueId());
+            data.setVersion(view.getVersion());
+            data.setChangesetId(view.getChangesetId());
+            if (!view.isTimestampEmpty()) {
+                data.setTimestamp(view.getTimestamp());
+            }
+            data.setUser(view.getUser());
+            data.setModified(view.isModified());
+            data.setVisible(view.isVisible());
+            data.setDeleted(view.isDeleted());
+            data.setKeys(view.getKeys());
+        }
+
+        private Node node(int i) {
+            Node n = materializedNodes.get(i);
+            if (n != null)
+                return n;
+            if ((nodes.flags[i] & FLAG_INCOMPLETE) != 0 && nodes.ids[i] > 0) {
+                n = new Node(nodes.ids[i]);
+            } else {
+                NodeView view = new NodeView(i);
+                NodeData data = new NodeData();
+                loadCommon(view, data);
+                data.setCoor(view.getCoor());
+                n = new Node(data.getId(), data.getVersion());
+                n.setVisible(data.isVisible());
+                n.load(data);
+            }
+            ds.addPrimitive(n);
+            materializedNodes.put(i, n);
+            return n;
+        }
+
+        private Way way(int i) {
+            Way w = materializedWays.get(i);
+            if (w != null)
+                return w;
+            WayView view = new WayView(i);
+            WayData data = new WayData();
+            loadCommon(view, data);
+            w = new Way(data.getId(), data.getVersion());
+            w.setVisible(data.isVisible());
+            w.load(data);
+            List<Node> wayNodeList = new ArrayList<Node>(wayNodeCount[i]);
+            for (int j = 0; j < wayNodeCount[i]; j++) {
+                wayNodeList.add(node(wayNodes[wayNodeStart[i] + j]));
+            }
+            w.setNodes(wayNodeList);
+            ds.addPrimitive(w);
+            materializedWays.put(i, w);
+            return w;
+        }
+
+        private Relation relation(RelationData data) {
+            Relation r = materializedRelations.get(data.getUniqueId());
+            if (r != null)
+                return r;
+            RelationData copy = new RelationData(data);
+            copy.getMembers().clear();
+            r = new Relation(data.getId(), data.getVersion());
+            r.setVisible(data.isVisible());
+            r.load(copy);
+            ds.addPrimitive(r);
+            materializedRelations.put(data.getUniqueId(), r);
+            List<RelationMember> members = new ArrayList<RelationMember>(data.getMembers().size());
+            for (RelationMemberData m : data.getMembers()) {
+                OsmPrimitive member = member(m);
+                if (member != null) {
+                    members.add(new RelationMember(m.getRole(), member));
+                }
+            }
+            r.setMembers(members);
+            return r;
+        }
+
+        /**
+         * Replies the given relation member. Members with a positive id which are not
+         * materialized yet are created as incomplete primitives, new members are
+         * materialized completely.
+         */
+        private OsmPrimitive member(RelationMemberData m) {
+            long id = m.getMemberId();
+            switch (m.getMemberType()) {
+            case NODE:
+                int n = nodes.index.get(id);
+                if (n != LongIntHashMap.NO_VALUE && (id <= 0 || materializedNodes.containsKey(n)))
+                    return node(n);
+                break;
+            case WAY:
+                int w = ways.index.get(id);
+                if (w != LongIntHashMap.NO_VALUE && (id <= 0 || materializedWays.containsKey(w)))
+                    return way(w);
+                break;
+            case RELATION:
+                RelationData r = relationsById.get(id);
+                if (r != null && (id <= 0 || materializedRelations.containsKey(id)))
+                    return relation(r);
+                break;
+            }
+            if (id <= 0)
+                // new primitives cannot be added as incomplete members
+                return null;
+            OsmPrimitive p = ds.getPrimitiveById(id, m.getMemberType());
+            if (p == null) {
+                switch (m.getMemberType()) {
+                case NODE: p = new Node(id); break;
+                case WAY: p = new Way(id); break;
+                default: p = new Relation(id); break;
+                }
+                ds.addPrimitive(p);
+            }
+            return p;
+        }
+    }
+
+    /* ------------------------------------------------------------------------------- */
+    /* flyweights                                                                      */
+    /* ------------------------------------------------------------------------------- */
+
+    /**
+     * Common part of the node and way views, reads and writes the columns.
+     */
+    private abstract class PrimitiveView implements IPrimitive {
+        protected final Columns cols;
+        protected final int idx;
+
+        public PrimitiveView(Columns cols, int idx) {
+            this.cols = cols;
+            this.idx = idx;
+        }
+
+        private boolean isFlagSet(int flag) {
+            return (cols.flags[idx] & flag) != 0;
+        }
+
+        private void updateFlag(int flag, boolean value) {
+            if (value) {
+                cols.flags[idx] |= flag;
+            } else {
+                cols.flags[idx] &= ~flag;
+            }
+        }
+
+        @Override
+        public boolean isModified() {
+            return isFlagSet(FLAG_MODIFIED);
+        }
+
+        @Override
+        public void setModified(boolean modified) {
+            updateFlag(FLAG_MODIFIED, modified);
+        }
+
+        @Override
+        public boolean isVisible() {
+            return isFlagSet(FLAG_VISIBLE);
+        }
+
+        @Override
+        public void setVisible(boolean visible) {
+            updateFlag(FLAG_VISIBLE, visible);
+        }
+
+        @Override
+        public boolean isDeleted() {
+            return isFlagSet(FLAG_DELETED);
+        }
+
+        @Override
+        public void setDeleted(boolean deleted) {
+            updateFlag(FLAG_DELETED, deleted);
+            updateFlag(FLAG_MODIFIED, deleted ^ !isVisible());
+        }
+
+        @Override
+        public boolean isIncomplete() {
+            return isFlagSet(FLAG_INCOMPLETE);
+        }
+
+        @Override
+        public boolean isNewOrUndeleted() {
+            return getUniqueId() <= 0 || (cols.flags[idx] & (FLAG_VISIBLE + FLAG_DELETED)) == 0;
+        }
+
+        @Override
+        public long getUniqueId() {
+            return cols.ids[idx];
+        }
+
+        @Override
+        public long getId() {
+            long id = cols.ids[idx];
+            return id >= 0 ? id : 0;
+        }
+
+        @Override
+        public boolean isNew() {
+            return cols.ids[idx] <= 0;
+        }
+
+        @Override
+        public PrimitiveId getPrimitiveId() {
+            return new SimplePrimitiveId(getUniqueId(), getType());
+        }
+
+        @Override
+        public int getVersion() {
+            return cols.versions[idx];
+        }
+
+        @Override
+        public void setOsmId(long id, int version) {
+            if (id <= 0)
+                throw new IllegalArgumentException(tr("ID > 0 expected. Got {0}.", id));
+            if (version <= 0)
+                throw new IllegalArgumentException(tr("Version > 0 expected. Got {0}.", version));
+            cols.index.remove(cols.ids[idx]);
+            cols.ids[idx] = id;
+            cols.index.put(id, idx);
+            cols.versions[idx] = version;
+        }
+
+        @Override
+        public User getUser() {
+            int u = cols.users[idx];
+            return u < 0 ? null : users.get(u);
+        }
+
+        @Override
+        public void setUser(User user) {
+            cols.users[idx] = indexOf(user);
+        }
+
+        @Override
+        public Date getTimestamp() {
+            return new Date(cols.timestamps[idx] * 1000L);
+        }
+
+        @Override
+        public void setTimestamp(Date timestamp) {
+            cols.timestamps[idx] = timestamp.getTime() / 1000;
+        }
+
+        @Override
+        public boolean isTimestampEmpty() {
+            return cols.timestamps[idx] == 0;
+        }
+
+        @Override
+        public int getChangesetId() {
+            return cols.changesets[idx];
+        }
+
+        @Override
+        public void setChangesetId(int changesetId) {
+            cols.changesets[idx] = changesetId;
+        }
+
+        @Override
+        public Map<String, String> getKeys() {
+            Map<String, String> result = new HashMap<String, String>();
+            String[] keys = cols.tags[idx];
+            if (keys != null) {
+                for (int i = 0; i < keys.length; i += 2) {
+                    result.put(keys[i], keys[i + 1]);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void setKeys(Map<String, String> keys) {
+            cols.tags[idx] = TagSetStorage.intern(keys);
+        }
+
+        @Override
+        public String get(String key) {
+            String[] keys = cols.tags[idx];
+            if (key == null || keys == null)
+                return null;
+            for (int i = 0; i < keys.length; i += 2) {
+                if (keys[i].equals(key))
+                    return keys[i + 1];
+            }
+            return null;
+        }
+
+        @Override
+        public void put(String key, String value) {
+            if (value == null) {
+                remove(key);
+                return;
+            }
+            Map<String, String> keys = getKeys();
+            keys.put(key, value);
+            setKeys(keys);
+        }
+
+        @Override
+        public void remove(String key) {
+            Map<String, String> keys = getKeys();
+            if (keys.remove(key) != null) {
+                setKeys(keys);
+            }
+        }
+
+        @Override
+        public void removeAll() {
+            cols.tags[idx] = null;
+        }
+
+        @Override
+        public boolean hasKeys() {
+            return cols.tags[idx] != null;
+        }
+
+        @Override
+        public Collection<String> keySet() {
+            return getKeys().keySet();
+        }
+
+        @Override
+        public String getName() {
+            return get("name");
+        }
+
+        @Override
+        public String getLocalName() {
+            Locale locale = Locale.getDefault();
+            String name = get("name:" + locale.toString());
+            if (name == null) {
+                name = get("name:" + locale.getLanguage() + "_" + locale.getCountry());
+            }
+            if (name == null) {
+                name = get("name:" + locale.getLanguage());
+            }
+            return name != null ? name : getName();
+        }
+
+        @Override
+        public int hashCode() {
+            return idx * 31 + getType().hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PrimitiveView))
+                return false;
+            PrimitiveView other = (PrimitiveView) obj;
+            return other.cols == cols && other.idx == idx;
+        }
+
+        @Override
+        public String toString() {
+            return getType().getAPIName() + " " + getUniqueId();
+        }
+    }
+
+    private class NodeView extends PrimitiveView implements INode {
+
+        public NodeView(int idx) {
+            super(nodes, idx);
+        }
+
+        @Override
+        public LatLon getCoor() {
+            if (lats[idx] == NO_COORD)
+                return null;
+            return new LatLon(lats[idx] / COORD_FACTOR, lons[idx] / COORD_FACTOR);
+        }
+
+        @Override
+        public void setCoor(LatLon coor) {
+            CompactDataSet.this.setCoor(idx, coor);
+            nodes.flags[idx] &= ~FLAG_INCOMPLETE;
+        }
+
+        @Override
+        public EastNorth getEastNorth() {
+            LatLon coor = getCoor();
+            return coor == null ? null : Projections.project(coor);
+        }
+
+        @Override
+        public void setEastNorth(EastNorth eastNorth) {
+            setCoor(Projections.inverseProject(eastNorth));
+        }
+
+        @Override
+        public OsmPrimitiveType getType() {
+            return OsmPrimitiveType.NODE;
+        }
+
+        @Override
+        public void accept(PrimitiveVisitor visitor) {
+            visitor.visit(this);
+        }
+    }
+
+    private class WayView extends PrimitiveView implements IWay {
+
+        public WayView(int idx) {
+            super(ways, idx);
+        }
+
+        @Override
+        public int getNodesCount() {
+            return wayNodeCount[idx];
+        }
+
+        @Override
+        public long getNodeId(int pos) {
+            return nodes.ids[getWayNodeIndex(idx, pos)];
+        }
+
+        @Override
+        public boolean isClosed() {
+            int count = wayNodeCount[idx];
+            if (isIncomplete() || count == 0)
+                return false;
+            return wayNodes[wayNodeStart[idx]] == wayNodes[wayNodeStart[idx] + count - 1];
+        }
+
+        @Override
+        public OsmPrimitiveType getType() {
+            return OsmPrimitiveType.WAY;
+        }
+
+        @Override
+        public void accept(PrimitiveVisitor visitor) {
+            visitor.visit(this);
+        }
+    }
+}
@@ -102,6 +102,7 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
     private Storage<OsmPrimitive> allPrimitives = new Storage<OsmPrimitive>(new Storage.PrimitiveIdHash(), true);
     private Map<PrimitiveId, OsmPrimitive> primitivesMap = allPrimitives.foreignKey(new Storage.PrimitiveIdHash());
     private CopyOnWriteArrayList<DataSetListener> listeners = new CopyOnWriteArrayList<DataSetListener>();
+    private CopyOnWriteArrayList<HighlightUpdateListener> highlightUpdateListeners = new CopyOnWriteArrayList<HighlightUpdateListener>();
 
     // provide means to highlight map elements that are not osm primitives
     private Collection<WaySegment> highlightedVirtualNodes = new LinkedList<WaySegment>();
@@ -114,11 +115,29 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
 
     private int highlightUpdateCount;
 
+    private TagIndex tagIndex;
+
     private boolean uploadDiscouraged = false;
 
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
     private final Object selectionLock = new Object();
 
+    /**
+     * Preference key selecting the spatial index of new data sets: "quadbuckets" (default) or "rtree".
+     * @see SpatialIndex
+     */
+    public static final String PREF_SPATIAL_INDEX = "osm.spatial-index";
+
+    private static boolean useRTree() {
+        return Main.pref != null && "rtree".equals(Main.pref.get(PREF_SPATIAL_INDEX, "quadbuckets"));
+    }
+
+    private static <T extends OsmPrimitive> SpatialIndex<T> createSpatialIndex() {
+        if (useRTree())
+            return new PackedRTree<T>();
+        return new QuadBuckets<T>();
+    }
+
     public DataSet() {
         /*
          * Transparently register as projection change lister. No need to explicitly remove the
@@ -131,6 +150,31 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
         return lock.readLock();
     }
 
+    /**
+     * Replies the tag index of this data set, to look up primitives by key or tag.
+     * The index is created and registered as data set listener on the first call.
+     * @return the tag index
+     * @see TagIndex
+     */
+    public synchronized TagIndex getTagIndex() {
+        if (tagIndex == null) {
+            tagIndex = new TagIndex(this);
+            addDataSetListener(tagIndex);
+        }
+        return tagIndex;
+    }
+
+    /**
+     * Removes the tag index of this data set, if any, so it is no longer kept up to date.
+     * The next call of {@link #getTagIndex()} creates a new index.
+     */
+    public synchronized void removeTagIndex() {
+        if (tagIndex != null) {
+            removeDataSetListener(tagIndex);
+            tagIndex = null;
+        }
+    }
+
     /**
      * This method can be used to detect changes in highlight state of primitives. If highlighting was changed
      * then the method will return different number.
@@ -222,7 +266,7 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
      * All nodes goes here, even when included in other data (ways etc). This enables the instant
      * conversion of the whole DataSet by iterating over this data structure.
      */
-    private QuadBuckets<Node> nodes = new QuadBuckets<Node>();
+    private SpatialIndex<Node> nodes = createSpatialIndex();
 
     private <T extends OsmPrimitive> Collection<T> getPrimitives(Predicate<OsmPrimitive> predicate) {
         return new SubclassFilteredCollection<OsmPrimitive, T>(allPrimitives, predicate);
@@ -251,7 +295,7 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
      *
      * The way nodes are stored only in the way list.
      */
-    private QuadBuckets<Way> ways = new QuadBuckets<Way>();
+    private SpatialIndex<Way> ways = createSpatialIndex();
 
     /**
      * Replies an unmodifiable collection of ways in this dataset
@@ -272,9 +316,12 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
     }
 
     /**
-     * All relations/relationships
+     * All relations/relationships. Relations are only spatially indexed by the R-tree, as their bbox
+     * is not always updated when a member changes. The tree records their bboxes, as a relation is
+     * only reindexed after its members changed.
      */
-    private Collection<Relation> relations = new ArrayList<Relation>();
+    private Collection<Relation> relations = useRTree()
+            ? new PackedRTree<Relation>(PackedRTree.DEFAULT_NODE_CAPACITY, true) : new ArrayList<Relation>();
 
     /**
      * Replies an unmodifiable collection of relations in this dataset
@@ -285,10 +332,12 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
         return getPrimitives(OsmPrimitive.relationPredicate);
     }
 
+    @SuppressWarnings("unchecked")
     public List<Relation> searchRelations(BBox bbox) {
         lock.readLock().lock();
         try {
-            // QuadBuckets might be useful here (don't forget to do reindexing after some of rm is changed)
+            if (relations instanceof SpatialIndex)
+                return ((SpatialIndex<Relation>) relations).search(bbox);
             List<Relation> result = new ArrayList<Relation>();
             for (Relation r: relations) {
                 if (r.getBBox().intersects(bbox)) {
@@ -301,6 +350,25 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
         }
     }
 
+    /**
+     * Completes the spatial indexes of this data set. Readers call this once all primitives have been added,
+     * so that indexes which are bulk-loaded (see {@link PackedRTree}) get built in the background rather than
+     * on the first search.
+     */
+    @SuppressWarnings("unchecked")
+    public void buildSpatialIndex() {
+        lock.writeLock().lock();
+        try {
+            nodes.buildIndex();
+            ways.buildIndex();
+            if (relations instanceof SpatialIndex) {
+                ((SpatialIndex<Relation>) relations).buildIndex();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
     /**
      * All data sources of this DataSet.
      */
@@ -931,7 +999,12 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
 
     private void reindexRelation(Relation relation) {
         BBox before = relation.getBBox();
-        relation.updatePosition();
+        if (relations instanceof SpatialIndex && relations.remove(relation)) {
+            relation.updatePosition();
+            relations.add(relation);
+        } else {
+            relation.updatePosition();
+        }
         if (!before.equals(relation.getBBox())) {
             for (OsmPrimitive primitive: relation.getReferrers()) {
                 reindexRelation((Relation) primitive);
@@ -947,6 +1020,26 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
         listeners.remove(dsl);
     }
 
+    /**
+     * Listener notified when the highlight state of a primitive changes.
+     * @see OsmPrimitive#setHighlighted(boolean)
+     */
+    public interface HighlightUpdateListener {
+        /**
+         * Called after the highlight state of a primitive has changed.
+         * @param primitive the primitive
+         */
+        void highlightUpdated(OsmPrimitive primitive);
+    }
+
+    public void addHighlightUpdateListener(HighlightUpdateListener listener) {
+        highlightUpdateListeners.addIfAbsent(listener);
+    }
+
+    public void removeHighlightUpdateListener(HighlightUpdateListener listener) {
+        highlightUpdateListeners.remove(listener);
+    }
+
     /**
      * Can be called before bigger changes on dataset. Events are disabled until {@link #endUpdate()}.
      * {@link DataSetListener#dataChanged(DataChangedEvent event)} event is triggered after end of changes
@@ -1028,18 +1121,21 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
     }
 
     void fireRelationMembersChanged(Relation r) {
+        BBox oldBBox = r.getBBox();
         reindexRelation(r);
-        fireEvent(new RelationMembersChangedEvent(this, r));
+        fireEvent(new RelationMembersChangedEvent(this, r, oldBBox));
     }
 
     void fireNodeMoved(Node node, LatLon newCoor, EastNorth eastNorth) {
+        LatLon oldCoor = node.getCoor();
         reindexNode(node, newCoor, eastNorth);
-        fireEvent(new NodeMovedEvent(this, node));
+        fireEvent(new NodeMovedEvent(this, node, oldCoor));
     }
 
     void fireWayNodesChanged(Way way) {
+        BBox oldBBox = way.getBBox();
         reindexWay(way);
-        fireEvent(new WayNodesChangedEvent(this, way));
+        fireEvent(new WayNodesChangedEvent(this, way, oldBBox));
     }
 
     void fireChangesetIdChanged(OsmPrimitive primitive, int oldChangesetId, int newChangesetId) {
@@ -1048,6 +1144,9 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
 
     void fireHighlightingChanged(OsmPrimitive primitive) {
         highlightUpdateCount++;
+        for (HighlightUpdateListener l : highlightUpdateListeners) {
+            l.highlightUpdated(primitive);
+        }
     }
 
     /**
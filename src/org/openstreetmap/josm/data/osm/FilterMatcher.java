@@ -72,7 +72,8 @@ public class FilterMatcher {
     }
 
     private static class FilterInfo {
-        final Match match;
+        final Match compiled;
+        Match match;
         final boolean isDelete;
         final boolean isInverted;
 
@@ -84,9 +85,14 @@ public class FilterMatcher {
             }
 
             Match compiled = SearchCompiler.compile(filter.text, filter.caseSensitive, filter.regexSearch);
-            this.match = filter.inverted?new Not(compiled):compiled;
+            this.compiled = filter.inverted?new Not(compiled):compiled;
+            this.match = SearchCompiler.optimize(this.compiled);
             this.isInverted = filter.inverted;
         }
+
+        void prepare() {
+            match = SearchCompiler.optimize(compiled);
+        }
     }
 
     private final List<FilterInfo> hiddenFilters = new ArrayList<FilterInfo>();
@@ -128,6 +134,20 @@ public class FilterMatcher {
         }
     }
 
+    /**
+     * Prepares the filters for a new pass over the data set. The filter expressions are
+     * {@link SearchCompiler#optimize(Match) optimized} again, so that area conditions
+     * use the current map view and downloaded area.
+     */
+    public void prepare() {
+        for (FilterInfo fi : hiddenFilters) {
+            fi.prepare();
+        }
+        for (FilterInfo fi : disabledFilters) {
+            fi.prepare();
+        }
+    }
+
     /**
      * Check if primitive is filtered.
      * @param primitive the primitive to check
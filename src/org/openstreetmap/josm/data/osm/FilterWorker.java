@@ -1,9 +1,15 @@
 // License: GPL. For details, see LICENSE file.
 package org.openstreetmap.josm.data.osm;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import org.openstreetmap.josm.actions.search.SearchCompiler;
 import org.openstreetmap.josm.data.osm.FilterMatcher.FilterType;
 import org.openstreetmap.josm.tools.Utils;
 
@@ -12,6 +18,12 @@ import org.openstreetmap.josm.tools.Utils;
  * @author Petr_Dlouhý
  */
 public class FilterWorker {
+
+    /**
+     * Minimum number of primitives of one type for which the filters are evaluated in parallel.
+     */
+    private static final int PARALLEL_THRESHOLD = 10000;
+
     /**
      * Apply the filters to the primitives of the data set.
      *
@@ -22,6 +34,7 @@ public class FilterWorker {
      * of any primitive has changed in the process
      */
     public static boolean executeFilters(Collection<OsmPrimitive> all, FilterMatcher filterMatcher) {
+        filterMatcher.prepare();
         boolean changed = false;
         // first relations, then ways and nodes last; this is required to resolve dependencies
         changed = doExecuteFilters(Utils.filter(all, OsmPrimitive.relationPredicate), filterMatcher);
@@ -31,6 +44,15 @@ public class FilterWorker {
     }
 
     private static boolean doExecuteFilters(Collection<OsmPrimitive> all, FilterMatcher filterMatcher) {
+        int count = Runtime.getRuntime().availableProcessors();
+        if (count > 1 && all.size() >= PARALLEL_THRESHOLD && SearchCompiler.PROP_PARALLEL.get()) {
+            try {
+                return doExecuteFiltersInParallel(new ArrayList<OsmPrimitive>(all), filterMatcher, count);
+            } catch (InterruptedException e) {
+                // evaluate on the calling thread instead
+                Thread.currentThread().interrupt();
+            }
+        }
 
         boolean changed = false;
 
@@ -52,6 +74,58 @@ public class FilterWorker {
         return changed;
     }
 
+    /**
+     * Evaluates the filters for slices of the primitives on the search evaluation pool. The filter
+     * flags are set on the calling thread afterwards, as this needs the write lock of the data set.
+     * All primitives must be of the same type, since the filter state of a primitive depends on
+     * the state of its parents.
+     */
+    private static boolean doExecuteFiltersInParallel(final List<OsmPrimitive> all, final FilterMatcher filterMatcher, int count)
+            throws InterruptedException {
+        final FilterType[] hidden = new FilterType[all.size()];
+        final FilterType[] disabled = new FilterType[all.size()];
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(count);
+        for (int i = 0; i < count; i++) {
+            final int from = all.size() * i / count;
+            final int to = all.size() * (i + 1) / count;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int j = from; j < to; j++) {
+                        OsmPrimitive primitive = all.get(j);
+                        hidden[j] = filterMatcher.isHidden(primitive);
+                        if (hidden[j] == FilterType.NOT_FILTERED) {
+                            disabled[j] = filterMatcher.isDisabled(primitive);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Void> future : SearchCompiler.getEvaluationPool().invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+
+        boolean changed = false;
+        for (int i = 0; i < hidden.length; i++) {
+            OsmPrimitive primitive = all.get(i);
+            if (hidden[i] != FilterType.NOT_FILTERED) {
+                changed |= primitive.setDisabledState(true);
+                primitive.setHiddenType(hidden[i] == FilterType.EXPLICIT);
+            } else if (disabled[i] != FilterType.NOT_FILTERED) {
+                changed |= primitive.setDisabledState(false);
+                primitive.setDisabledType(disabled[i] == FilterType.EXPLICIT);
+            } else {
+                changed |= primitive.unsetDisabledState();
+            }
+        }
+        return changed;
+    }
+
     public static boolean executeFilters(OsmPrimitive primitive, FilterMatcher filterMatcher) {
         return doExecuteFilters(Collections.singleton(primitive), filterMatcher);
     }
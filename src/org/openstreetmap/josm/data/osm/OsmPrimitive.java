@@ -729,9 +729,10 @@ abstract public class OsmPrimitive extends AbstractPrimitive implements Comparab
     }
 
     private void updateTagged() {
+        String[] keys = this.keys;
         if (keys != null) {
-            for (String key: keySet()) {
-                if (!isUninterestingKey(key)) {
+            for (int i = 0; i < keys.length; i += 2) {
+                if (!isUninterestingKey(keys[i])) {
                     updateFlagsNoLock(FLAG_TAGGED, true);
                     return;
                 }
@@ -741,9 +742,10 @@ abstract public class OsmPrimitive extends AbstractPrimitive implements Comparab
     }
 
     private void updateAnnotated() {
+        String[] keys = this.keys;
         if (keys != null) {
-            for (String key: keySet()) {
-                if (getWorkInProgressKeys().contains(key)) {
+            for (int i = 0; i < keys.length; i += 2) {
+                if (getWorkInProgressKeys().contains(keys[i])) {
                     updateFlagsNoLock(FLAG_ANNOTATED, true);
                     return;
                 }
@@ -1092,8 +1094,6 @@ abstract public class OsmPrimitive extends AbstractPrimitive implements Comparab
         //        if (isIncomplete() && ! other.isIncomplete() || !isIncomplete()  && other.isIncomplete())
         if (isIncomplete() ^ other.isIncomplete()) // exclusive or operator for performance (see #7159)
             return false;
-        // can't do an equals check on the internal keys array because it is not ordered
-        //
         return hasSameTags(other);
     }
 
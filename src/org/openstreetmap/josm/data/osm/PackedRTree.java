@@ -0,0 +1,588 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * An R-tree of primitives that is bulk-loaded with the Sort-Tile-Recursive (STR) algorithm.
+ *
+ * Primitives added to the tree are first collected in a pending list. They are indexed when the
+ * tree is queried for the first time, or when {@link #buildIndex()} is called. If many primitives are
+ * pending (e.g. after loading a file), the whole tree is rebuilt with STR, which produces completely
+ * filled nodes with little overlap. Otherwise the pending primitives are inserted one by one like in
+ * a classic R-tree, so that small edits do not require a rebuild.
+ *
+ * Note: bbox of primitives added to the tree has to stay the same. In case of coordinate change, primitive
+ * must be removed and readded. For primitives whose bbox changes before they can be removed, like
+ * relations whose members are set, the tree can record the bbox of every entry (see
+ * {@link #PackedRTree(int, boolean)}).
+ *
+ * This class is not thread safe, with the exception that concurrent searches are allowed.
+ *
+ * @param <T> the primitive type
+ */
+public class PackedRTree<T extends OsmPrimitive> extends AbstractCollection<T> implements SpatialIndex<T> {
+
+    /**
+     * Default maximum number of entries of a tree node
+     */
+    public static final int DEFAULT_NODE_CAPACITY = 16;
+
+    /**
+     * The tree is rebuilt from scratch if the number of pending primitives exceeds
+     * the number of indexed primitives divided by this value.
+     */
+    private static final int REBUILD_RATIO = 4;
+
+    private static final Comparator<Entry> X_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            return Double.compare(e1.minX + e1.maxX, e2.minX + e2.maxX);
+        }
+    };
+
+    private static final Comparator<Entry> Y_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            return Double.compare(e1.minY + e1.maxY, e2.minY + e2.maxY);
+        }
+    };
+
+    /**
+     * Bounds of a primitive or of a tree node, only used while building and splitting nodes.
+     */
+    private static final class Entry {
+        final Object ref;
+        final double minX, minY, maxX, maxY;
+
+        Entry(Object ref, double minX, double minY, double maxX, double maxY) {
+            this.ref = ref;
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+        }
+
+        static Entry of(RNode n) {
+            return new Entry(n, n.minX, n.minY, n.maxX, n.maxY);
+        }
+
+        static Entry of(Object ref, BBox b) {
+            return new Entry(ref, b.getTopLeftLon(), b.getBottomRightLat(), b.getBottomRightLon(), b.getTopLeftLat());
+        }
+    }
+
+    private static final class RNode {
+        final boolean leaf;
+        /* primitives for leaves, RNodes otherwise. One slot more than capacity to allow overflow before split */
+        final Object[] children;
+        int count;
+        double minX, minY, maxX, maxY;
+
+        RNode(boolean leaf, int capacity) {
+            this.leaf = leaf;
+            this.children = new Object[capacity + 1];
+            setEmpty();
+        }
+
+        void setEmpty() {
+            minX = minY = Double.POSITIVE_INFINITY;
+            maxX = maxY = Double.NEGATIVE_INFINITY;
+        }
+
+        void include(Entry e) {
+            include(e.minX, e.minY, e.maxX, e.maxY);
+        }
+
+        void include(double x1, double y1, double x2, double y2) {
+            if (x1 < minX) {
+                minX = x1;
+            }
+            if (y1 < minY) {
+                minY = y1;
+            }
+            if (x2 > maxX) {
+                maxX = x2;
+            }
+            if (y2 > maxY) {
+                maxY = y2;
+            }
+        }
+
+        void append(Entry e) {
+            children[count++] = e.ref;
+            include(e);
+        }
+
+        void removeAt(int index) {
+            count--;
+            System.arraycopy(children, index + 1, children, index, count - index);
+            children[count] = null;
+        }
+
+
+        boolean intersects(BBox b) {
+            return minX <= b.getBottomRightLon() && maxX >= b.getTopLeftLon()
+                    && minY <= b.getTopLeftLat() && maxY >= b.getBottomRightLat();
+        }
+
+        /* Tests whether the node lies completely inside b */
+        boolean isInside(BBox b) {
+            return minX >= b.getTopLeftLon() && maxX <= b.getBottomRightLon()
+                    && minY >= b.getBottomRightLat() && maxY <= b.getTopLeftLat();
+        }
+
+        /* Tests whether b lies completely inside the node */
+        boolean bounds(BBox b) {
+            return minX <= b.getTopLeftLon() && maxX >= b.getBottomRightLon()
+                    && minY <= b.getBottomRightLat() && maxY >= b.getTopLeftLat();
+        }
+
+        double area() {
+            return (maxX - minX) * (maxY - minY);
+        }
+
+        double enlargement(Entry e) {
+            double w = Math.max(maxX, e.maxX) - Math.min(minX, e.minX);
+            double h = Math.max(maxY, e.maxY) - Math.min(minY, e.minY);
+            return w * h - area();
+        }
+    }
+
+    private final int capacity;
+    /** The bboxes the indexed primitives were added with, null if they are not recorded */
+    private final Map<Object, BBox> indexedBBoxes;
+    private RNode root;
+    private int size;
+    private ArrayList<T> pending = new ArrayList<T>();
+
+    /**
+     * Constructs a new {@code PackedRTree} with the default node capacity.
+     */
+    public PackedRTree() {
+        this(DEFAULT_NODE_CAPACITY);
+    }
+
+    /**
+     * Constructs a new {@code PackedRTree}.
+     * @param capacity maximum number of entries of a tree node, at least 4
+     */
+    public PackedRTree(int capacity) {
+        this(capacity, false);
+    }
+
+    /**
+     * Constructs a new {@code PackedRTree}.
+     * @param capacity maximum number of entries of a tree node, at least 4
+     * @param recordBBoxes true to record the bbox of every indexed primitive, so that it can be
+     * removed efficiently even if its bbox changed meanwhile
+     */
+    public PackedRTree(int capacity, boolean recordBBoxes) {
+        if (capacity < 4)
+            throw new IllegalArgumentException("capacity must be at least 4, got " + capacity);
+        this.capacity = capacity;
+        this.indexedBBoxes = recordBBoxes ? new IdentityHashMap<Object, BBox>() : null;
+        clear();
+    }
+
+    /**
+     * Replies the bbox a primitive was indexed with.
+     */
+    private BBox getBBox(Object o) {
+        BBox bbox = indexedBBoxes == null ? null : indexedBBoxes.get(o);
+        return bbox != null ? bbox : ((OsmPrimitive) o).getBBox();
+    }
+
+    private Entry entryOf(Object ref) {
+        return ref instanceof RNode ? Entry.of((RNode) ref) : Entry.of(ref, getBBox(ref));
+    }
+
+    private void recalculate(RNode node) {
+        node.setEmpty();
+        for (int i = 0; i < node.count; i++) {
+            node.include(entryOf(node.children[i]));
+        }
+    }
+
+    /**
+     * Indexes all pending primitives. Synchronized, as it is also called from searches which
+     * may run concurrently.
+     */
+    private synchronized void flush() {
+        if (pending.isEmpty())
+            return;
+        if (indexedBBoxes != null) {
+            for (T o : pending) {
+                indexedBBoxes.put(o, o.getBBox());
+            }
+        }
+        if (pending.size() > size / REBUILD_RATIO) {
+            List<T> all = new ArrayList<T>(size + pending.size());
+            collect(root, all);
+            all.addAll(pending);
+            pending = new ArrayList<T>();
+            bulkLoad(all);
+        } else {
+            for (T o : pending) {
+                insert(o);
+            }
+            pending.clear();
+        }
+    }
+
+    @Override
+    public void buildIndex() {
+        flush();
+    }
+
+    /**
+     * Replaces the content of the tree by the given primitives, using STR packing.
+     */
+    private void bulkLoad(List<T> items) {
+        Entry[] entries = new Entry[items.size()];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = entryOf(items.get(i));
+        }
+        List<RNode> level = pack(entries, true);
+        while (level.size() > 1) {
+            entries = new Entry[level.size()];
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = Entry.of(level.get(i));
+            }
+            level = pack(entries, false);
+        }
+        root = level.isEmpty() ? new RNode(true, capacity) : level.get(0);
+        size = items.size();
+    }
+
+    /**
+     * Sort-Tile-Recursive packing of one tree level: entries are sorted by x and cut into vertical
+     * slices of about sqrt(number of nodes) nodes each. Every slice is then sorted by y and cut into nodes.
+     */
+    private List<RNode> pack(Entry[] entries, boolean leaf) {
+        int n = entries.length;
+        int nodeCount = (n + capacity - 1) / capacity;
+        int sliceCount = (int) Math.ceil(Math.sqrt(nodeCount));
+        int sliceSize = sliceCount * capacity;
+        List<RNode> result = new ArrayList<RNode>(nodeCount);
+        Arrays.sort(entries, X_ORDER);
+        for (int i = 0; i < n; i += sliceSize) {
+            int sliceEnd = Math.min(n, i + sliceSize);
+            Arrays.sort(entries, i, sliceEnd, Y_ORDER);
+            for (int j = i; j < sliceEnd; j += capacity) {
+                RNode node = new RNode(leaf, capacity);
+                for (int k = j; k < Math.min(sliceEnd, j + capacity); k++) {
+                    node.append(entries[k]);
+                }
+                result.add(node);
+            }
+        }
+        return result;
+    }
+
+    private void insert(T o) {
+        RNode sibling = insert(root, entryOf(o));
+        if (sibling != null) {
+            RNode newRoot = new RNode(false, capacity);
+            newRoot.append(Entry.of(root));
+            newRoot.append(Entry.of(sibling));
+            root = newRoot;
+        }
+        size++;
+    }
+
+    /**
+     * Inserts the entry below the given node.
+     * @return the new sibling of <code>node</code> if it had to be split, null otherwise
+     */
+    private RNode insert(RNode node, Entry e) {
+        if (node.leaf) {
+            node.append(e);
+        } else {
+            RNode best = null;
+            double bestEnlargement = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < node.count; i++) {
+                RNode child = (RNode) node.children[i];
+                double enlargement = child.enlargement(e);
+                if (best == null || enlargement < bestEnlargement
+                        || (enlargement == bestEnlargement && child.area() < best.area())) {
+                    best = child;
+                    bestEnlargement = enlargement;
+                }
+            }
+            node.include(e);
+            RNode sibling = insert(best, e);
+            if (sibling != null) {
+                node.append(Entry.of(sibling));
+            }
+        }
+        return node.count > capacity ? split(node) : null;
+    }
+
+    /**
+     * Splits an overflowing node in halves along its longer axis.
+     * @return the new node holding the second half of the entries
+     */
+    private RNode split(RNode node) {
+        Entry[] entries = new Entry[node.count];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = entryOf(node.children[i]);
+        }
+        Arrays.sort(entries, node.maxX - node.minX >= node.maxY - node.minY ? X_ORDER : Y_ORDER);
+        Arrays.fill(node.children, null);
+        node.count = 0;
+        node.setEmpty();
+        RNode sibling = new RNode(node.leaf, capacity);
+        int half = entries.length / 2;
+        for (int i = 0; i < entries.length; i++) {
+            (i < half ? node : sibling).append(entries[i]);
+        }
+        return sibling;
+    }
+
+    @Override
+    public List<T> search(BBox bbox) {
+        flush();
+        List<T> result = new ArrayList<T>();
+        if (root.count > 0 && root.intersects(bbox)) {
+            search(root, bbox, result);
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void search(RNode node, BBox bbox, List<T> result) {
+        if (node.isInside(bbox)) {
+            collect(node, result);
+        } else if (node.leaf) {
+            for (int i = 0; i < node.count; i++) {
+                T o = (T) node.children[i];
+                if (getBBox(o).intersects(bbox)) {
+                    result.add(o);
+                }
+            }
+        } else {
+            for (int i = 0; i < node.count; i++) {
+                RNode child = (RNode) node.children[i];
+                if (child.intersects(bbox)) {
+                    search(child, bbox, result);
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void collect(RNode node, List<T> result) {
+        for (int i = 0; i < node.count; i++) {
+            if (node.leaf) {
+                result.add((T) node.children[i]);
+            } else {
+                collect((RNode) node.children[i], result);
+            }
+        }
+    }
+
+    @Override
+    public boolean add(T o) {
+        pending.add(o);
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof OsmPrimitive))
+            return false;
+        // primitives are often removed right after they were added, e.g. to reindex a relation
+        // whose members are set while a file is loaded
+        synchronized (this) {
+            for (int i = pending.size() - 1; i >= 0; i--) {
+                if (pending.get(i) == o) {
+                    pending.remove(i);
+                    return true;
+                }
+            }
+        }
+        flush();
+        // The bbox of the primitive should not have changed since it was added, unless it is recorded.
+        // If it did, fall back to a full scan.
+        if (remove(root, o, getBBox(o)) || remove(root, o, null)) {
+            if (indexedBBoxes != null) {
+                indexedBBoxes.remove(o);
+            }
+            size--;
+            if (!root.leaf && root.count == 1) {
+                root = (RNode) root.children[0];
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes the primitive from the subtree, descending only into nodes that bound <code>bbox</code>
+     * (or into all nodes if <code>bbox</code> is null). Emptied nodes are dropped and the bounds of the
+     * nodes along the path are tightened.
+     */
+    private boolean remove(RNode node, Object o, BBox bbox) {
+        for (int i = 0; i < node.count; i++) {
+            if (node.leaf) {
+                if (node.children[i].equals(o)) {
+                    node.removeAt(i);
+                    recalculate(node);
+                    return true;
+                }
+            } else {
+                RNode child = (RNode) node.children[i];
+                if ((bbox == null || child.bounds(bbox)) && remove(child, o, bbox)) {
+                    if (child.count == 0) {
+                        node.removeAt(i);
+                    }
+                    recalculate(node);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof OsmPrimitive))
+            return false;
+        flush();
+        BBox bbox = getBBox(o);
+        return root.bounds(bbox) && contains(root, o, bbox);
+    }
+
+    private boolean contains(RNode node, Object o, BBox bbox) {
+        for (int i = 0; i < node.count; i++) {
+            if (node.leaf) {
+                if (node.children[i].equals(o))
+                    return true;
+            } else {
+                RNode child = (RNode) node.children[i];
+                if (child.bounds(bbox) && contains(child, o, bbox))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void clear() {
+        if (indexedBBoxes != null) {
+            indexedBBoxes.clear();
+        }
+        root = new RNode(true, capacity);
+        size = 0;
+        pending = new ArrayList<T>();
+    }
+
+    @Override
+    public int size() {
+        return size + pending.size();
+    }
+
+    /**
+     * Replies the height of the tree, 1 for a tree consisting of a single leaf.
+     * @return the height of the tree
+     */
+    public int getHeight() {
+        flush();
+        int height = 1;
+        for (RNode n = root; !n.leaf; n = (RNode) n.children[0]) {
+            height++;
+        }
+        return height;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        flush();
+        return new RTreeIterator();
+    }
+
+    /**
+     * Depth-first iterator over the leaves. Removing through the iterator does not tighten
+     * node bounds, which is harmless for searches.
+     */
+    private class RTreeIterator implements Iterator<T> {
+        private final List<RNode> path = new ArrayList<RNode>();
+        private final List<Integer> indexes = new ArrayList<Integer>();
+        private RNode leaf;
+        private int index;
+        private boolean canRemove;
+
+        RTreeIterator() {
+            descend(root);
+        }
+
+        private void descend(RNode node) {
+            while (!node.leaf) {
+                path.add(node);
+                indexes.add(0);
+                if (node.count == 0) {
+                    leaf = null;
+                    return;
+                }
+                node = (RNode) node.children[0];
+            }
+            leaf = node;
+            index = 0;
+        }
+
+        /* Moves to the next leaf with content, returns false if there is none */
+        private boolean advance() {
+            while (leaf == null || index >= leaf.count) {
+                if (path.isEmpty())
+                    return false;
+                int last = path.size() - 1;
+                RNode parent = path.get(last);
+                int next = indexes.get(last) + 1;
+                if (next < parent.count) {
+                    indexes.set(last, next);
+                    descend((RNode) parent.children[next]);
+                } else {
+                    path.remove(last);
+                    indexes.remove(last);
+                    leaf = null;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return advance();
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T next() {
+            if (!advance())
+                throw new NoSuchElementException();
+            canRemove = true;
+            return (T) leaf.children[index++];
+        }
+
+        @Override
+        public void remove() {
+            if (!canRemove)
+                throw new IllegalStateException();
+            canRemove = false;
+            if (indexedBBoxes != null) {
+                indexedBBoxes.remove(leaf.children[index - 1]);
+            }
+            leaf.removeAt(--index);
+            size--;
+        }
+    }
+}
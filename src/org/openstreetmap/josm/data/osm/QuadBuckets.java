@@ -18,7 +18,7 @@ import org.openstreetmap.josm.data.coor.QuadTiling;
  * This class is (no longer) thread safe.
  *
  */
-public class QuadBuckets<T extends OsmPrimitive> implements Collection<T>
+public class QuadBuckets<T extends OsmPrimitive> implements SpatialIndex<T>
 {
     //private static boolean debug = false;
     private static final boolean consistency_testing = false;
@@ -716,6 +716,12 @@ public class QuadBuckets<T extends OsmPrimitive> implements Collection<T>
             return true;
         return false;
     }
+    @Override
+    public void buildIndex() {
+        // QuadBuckets are always kept up to date
+    }
+
+    @Override
     public List<T> search(BBox search_bbox) {
         /*if (debug) {
             out("qb root search at " + search_bbox);
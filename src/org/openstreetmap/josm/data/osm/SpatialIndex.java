@@ -0,0 +1,32 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A collection of primitives that can be searched by bounding box.
+ *
+ * Note: like for {@link QuadBuckets}, the bbox of a primitive added to a spatial index has to stay the same.
+ * In case of coordinate change, the primitive must be removed and readded.
+ *
+ * @param <T> the primitive type
+ * @see QuadBuckets
+ * @see PackedRTree
+ */
+public interface SpatialIndex<T extends OsmPrimitive> extends Collection<T> {
+
+    /**
+     * Replies all primitives whose bbox intersects the given bbox.
+     * @param bbox the bbox to search in
+     * @return the primitives intersecting <code>bbox</code>, never null
+     */
+    List<T> search(BBox bbox);
+
+    /**
+     * Completes any indexing work that has been deferred by {@link #add(Object)}. Implementations
+     * that index eagerly do nothing here. Called once a data set has been loaded completely, so
+     * that the index does not have to be built during the first search.
+     */
+    void buildIndex();
+}
@@ -0,0 +1,226 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataSetListener;
+import org.openstreetmap.josm.data.osm.event.NodeMovedEvent;
+import org.openstreetmap.josm.data.osm.event.PrimitivesAddedEvent;
+import org.openstreetmap.josm.data.osm.event.PrimitivesRemovedEvent;
+import org.openstreetmap.josm.data.osm.event.RelationMembersChangedEvent;
+import org.openstreetmap.josm.data.osm.event.TagsChangedEvent;
+import org.openstreetmap.josm.data.osm.event.WayNodesChangedEvent;
+
+/**
+ * Inverted index from tags to the primitives of a data set, to find the primitives with
+ * a given key or tag without testing every primitive.
+ *
+ * The index covers the non-deleted, complete primitives (see
+ * {@link DataSet#allNonDeletedCompletePrimitives()}). It is created on request by
+ * {@link DataSet#getTagIndex()} and kept up to date as a {@link DataSetListener}, so it
+ * reflects a change once the events of the change have been fired, i.e. after
+ * {@link DataSet#endUpdate()}. When a change is too large for single events, the index
+ * is rebuilt on the next lookup.
+ *
+ * The primitives are kept by identity, as their hash code changes with the id assigned
+ * on upload. Lookups only reply primitives which are still in the data set, not deleted
+ * and complete.
+ */
+public class TagIndex implements DataSetListener {
+
+    private final DataSet ds;
+    /** primitives by key and value */
+    private final Map<String, Map<String, Set<OsmPrimitive>>> index = new HashMap<String, Map<String, Set<OsmPrimitive>>>();
+    private boolean dirty = true;
+
+    /**
+     * Creates an index for the given data set. The index must be registered as listener
+     * of the data set, see {@link DataSet#getTagIndex()}.
+     * @param ds the data set
+     */
+    TagIndex(DataSet ds) {
+        this.ds = ds;
+    }
+
+    /**
+     * Replies the primitives with the given key.
+     * @param key the key
+     * @return the primitives, an unmodifiable copy
+     */
+    public synchronized Collection<OsmPrimitive> getPrimitives(String key) {
+        Map<String, Set<OsmPrimitive>> values = getIndex().get(key);
+        if (values == null)
+            return Collections.emptyList();
+        List<OsmPrimitive> result = new ArrayList<OsmPrimitive>();
+        for (Set<OsmPrimitive> primitives : values.values()) {
+            addIndexed(result, primitives);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Replies the primitives with the given tag.
+     * @param key the key
+     * @param value the value
+     * @return the primitives, an unmodifiable copy
+     */
+    public synchronized Collection<OsmPrimitive> getPrimitives(String key, String value) {
+        Map<String, Set<OsmPrimitive>> values = getIndex().get(key);
+        Set<OsmPrimitive> primitives = values == null ? null : values.get(value);
+        if (primitives == null)
+            return Collections.emptyList();
+        List<OsmPrimitive> result = new ArrayList<OsmPrimitive>(primitives.size());
+        addIndexed(result, primitives);
+        return Collections.unmodifiableList(result);
+    }
+
+    private void addIndexed(List<OsmPrimitive> result, Collection<OsmPrimitive> primitives) {
+        for (OsmPrimitive osm : primitives) {
+            if (osm.getDataSet() == ds && isIndexed(osm)) {
+                result.add(osm);
+            }
+        }
+    }
+
+    /**
+     * Replies the values used with the given key.
+     * @param key the key
+     * @return the values, an unmodifiable copy
+     */
+    public synchronized Collection<String> getValues(String key) {
+        Map<String, Set<OsmPrimitive>> values = getIndex().get(key);
+        if (values == null)
+            return Collections.emptySet();
+        return Collections.unmodifiableSet(new HashSet<String>(values.keySet()));
+    }
+
+    /**
+     * Replies the keys used in the data set.
+     * @return the keys, an unmodifiable copy
+     */
+    public synchronized Collection<String> getKeys() {
+        return Collections.unmodifiableSet(new HashSet<String>(getIndex().keySet()));
+    }
+
+    private Map<String, Map<String, Set<OsmPrimitive>>> getIndex() {
+        if (dirty) {
+            rebuild();
+            dirty = false;
+        }
+        return index;
+    }
+
+    private void rebuild() {
+        index.clear();
+        ds.getReadLock().lock();
+        try {
+            for (OsmPrimitive osm : ds.allNonDeletedCompletePrimitives()) {
+                add(osm, osm.getKeys());
+            }
+        } finally {
+            ds.getReadLock().unlock();
+        }
+    }
+
+    private void add(OsmPrimitive osm, Map<String, String> tags) {
+        for (Entry<String, String> tag : tags.entrySet()) {
+            Map<String, Set<OsmPrimitive>> values = index.get(tag.getKey());
+            if (values == null) {
+                values = new HashMap<String, Set<OsmPrimitive>>();
+                index.put(tag.getKey(), values);
+            }
+            Set<OsmPrimitive> primitives = values.get(tag.getValue());
+            if (primitives == null) {
+                primitives = Collections.newSetFromMap(new IdentityHashMap<OsmPrimitive, Boolean>());
+                values.put(tag.getValue(), primitives);
+            }
+            primitives.add(osm);
+        }
+    }
+
+    private void remove(OsmPrimitive osm, Map<String, String> tags) {
+        for (Entry<String, String> tag : tags.entrySet()) {
+            Map<String, Set<OsmPrimitive>> values = index.get(tag.getKey());
+            if (values == null) {
+                continue;
+            }
+            Set<OsmPrimitive> primitives = values.get(tag.getValue());
+            if (primitives != null && primitives.remove(osm) && primitives.isEmpty()) {
+                values.remove(tag.getValue());
+                if (values.isEmpty()) {
+                    index.remove(tag.getKey());
+                }
+            }
+        }
+    }
+
+    private static boolean isIndexed(OsmPrimitive osm) {
+        return osm.getDataSet() != null && !osm.isDeleted() && !osm.isIncomplete();
+    }
+
+    /*********************************************************
+     * Implementation of the DataSetListener interface
+     *
+     **/
+
+    @Override
+    public synchronized void primitivesAdded(PrimitivesAddedEvent event) {
+        if (dirty)
+            return;
+        for (OsmPrimitive osm : event.getPrimitives()) {
+            if (isIndexed(osm)) {
+                add(osm, osm.getKeys());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void primitivesRemoved(PrimitivesRemovedEvent event) {
+        if (dirty)
+            return;
+        for (OsmPrimitive osm : event.getPrimitives()) {
+            if (!isIndexed(osm)) {
+                remove(osm, osm.getKeys());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void tagsChanged(TagsChangedEvent event) {
+        if (dirty)
+            return;
+        OsmPrimitive osm = event.getPrimitive();
+        remove(osm, event.getOriginalKeys());
+        if (isIndexed(osm)) {
+            add(osm, osm.getKeys());
+        }
+    }
+
+    @Override
+    public void nodeMoved(NodeMovedEvent event) {/* ignored */}
+
+    @Override
+    public void wayNodesChanged(WayNodesChangedEvent event) {/* ignored */}
+
+    @Override
+    public void relationMembersChanged(RelationMembersChangedEvent event) {/* ignored */}
+
+    @Override
+    public void otherDatasetChange(AbstractDatasetChangedEvent event) {/* ignored */}
+
+    @Override
+    public synchronized void dataChanged(DataChangedEvent event) {
+        dirty = true;
+    }
+}
@@ -0,0 +1,291 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Global intern pool for the tags of primitives.
+ *
+ * Tags are stored as arrays of alternating keys and values, sorted by key. Equal tag
+ * sets are usually represented by the same array instance, and keys and values are shared
+ * strings. Millions of buildings tagged <code>building=yes</code> thus reference one
+ * array with two strings. Interned arrays must never be modified.
+ *
+ * The pool only holds weak references. Tag sets which are no longer used by any primitive,
+ * e.g. intermediate edits or the tags of closed layers, are garbage collected. An equal tag
+ * set interned later may therefore be a different instance than an old one that is still
+ * referenced somewhere, so sharing must not be relied upon for equality.
+ *
+ * The pool is thread safe, primitives may be built on several threads while reading data.
+ * It is split into segments with separate locks, so concurrent readers rarely contend.
+ */
+public final class TagSetStorage {
+
+    private static final WeakPool<String> strings = new WeakPool<String>(new Hash<String, String>() {
+        @Override
+        public int getHashCode(String k) {
+            return k.hashCode();
+        }
+
+        @Override
+        public boolean equals(String k, String t) {
+            return k.equals(t);
+        }
+    });
+
+    private static final WeakPool<String[]> tagSets = new WeakPool<String[]>(new Hash<String[], String[]>() {
+        @Override
+        public int getHashCode(String[] k) {
+            return Arrays.hashCode(k);
+        }
+
+        @Override
+        public boolean equals(String[] k, String[] t) {
+            return Arrays.equals(k, t);
+        }
+    });
+
+    private TagSetStorage() {
+    }
+
+    /**
+     * Replies the shared instance of the given tags.
+     * @param tags the tags. Can be null.
+     * @return the shared tag array, or null if there are no tags
+     */
+    public static String[] intern(Map<String, String> tags) {
+        if (tags == null || tags.isEmpty())
+            return null;
+        String[] result = new String[tags.size() * 2];
+        int index = 0;
+        for (Entry<String, String> entry : tags.entrySet()) {
+            result[index++] = entry.getKey();
+            result[index++] = entry.getValue();
+        }
+        return intern(result);
+    }
+
+    /**
+     * Replies the shared instance of the given tag array. The given array may be sorted
+     * and used as the shared instance, so it must not be modified afterwards.
+     * @param tags alternating keys and values, keys must be unique. Can be null.
+     * @return the shared tag array, or null if there are no tags
+     */
+    public static String[] intern(String[] tags) {
+        if (tags == null || tags.length == 0)
+            return null;
+        // insertion sort of the pairs, tag sets are small
+        for (int i = 2; i < tags.length; i += 2) {
+            String key = tags[i];
+            String value = tags[i + 1];
+            int j = i - 2;
+            while (j >= 0 && tags[j].compareTo(key) > 0) {
+                tags[j + 2] = tags[j];
+                tags[j + 3] = tags[j + 1];
+                j -= 2;
+            }
+            tags[j + 2] = key;
+            tags[j + 3] = value;
+        }
+        String[] shared = tagSets.get(tags);
+        if (shared != null)
+            return shared;
+        for (int i = 0; i < tags.length; i++) {
+            tags[i] = strings.intern(tags[i]);
+        }
+        // another thread may have added an equal array in the meantime
+        return tagSets.intern(tags);
+    }
+
+    /**
+     * Replies the number of distinct tag sets in the pool. Tag sets which were garbage
+     * collected recently may still be counted.
+     * @return the number of distinct tag sets
+     */
+    public static int getTagSetCount() {
+        return tagSets.size();
+    }
+
+    /**
+     * Replies the approximate number of bytes saved by sharing the tags of the given
+     * primitives, compared to one tag array and separate strings per primitive.
+     * @param primitives the primitives
+     * @return the approximate number of bytes saved
+     */
+    public static long getMemorySaved(Iterable<? extends AbstractPrimitive> primitives) {
+        Map<Object, Object> seen = new IdentityHashMap<Object, Object>();
+        long unshared = 0;
+        long shared = 0;
+        for (AbstractPrimitive p : primitives) {
+            String[] keys = p.keys;
+            if (keys == null) {
+                continue;
+            }
+            long arraySize = 16 + 4L * keys.length;
+            unshared += arraySize;
+            if (seen.put(keys, keys) == null) {
+                shared += arraySize;
+            }
+            for (String s : keys) {
+                long stringSize = 40 + 2L * s.length();
+                unshared += stringSize;
+                if (seen.put(s, s) == null) {
+                    shared += stringSize;
+                }
+            }
+        }
+        return unshared - shared;
+    }
+
+    /**
+     * A set of weakly referenced, canonical instances, split into segments with
+     * separate locks.
+     */
+    private static final class WeakPool<T> {
+        private static final int SEGMENT_BITS = 4;
+
+        private final Hash<T, T> hash;
+        private final Segment<T>[] segments;
+
+        @SuppressWarnings("unchecked")
+        public WeakPool(Hash<T, T> hash) {
+            this.hash = hash;
+            segments = new Segment[1 << SEGMENT_BITS];
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = new Segment<T>(hash);
+            }
+        }
+
+        private static int spread(int h) {
+            h ^= (h >>> 20) ^ (h >>> 12);
+            return h ^ (h >>> 7) ^ (h >>> 4);
+        }
+
+        /**
+         * Replies the canonical instance equal to the given one, or null if there is none.
+         */
+        public T get(T value) {
+            int h = spread(hash.getHashCode(value));
+            return segments[h & (segments.length - 1)].get(value, h);
+        }
+
+        /**
+         * Replies the canonical instance equal to the given one. If there is none, the
+         * given value becomes the canonical instance.
+         */
+        public T intern(T value) {
+            int h = spread(hash.getHashCode(value));
+            return segments[h & (segments.length - 1)].intern(value, h);
+        }
+
+        public int size() {
+            int size = 0;
+            for (Segment<T> segment : segments) {
+                size += segment.size();
+            }
+            return size;
+        }
+    }
+
+    private static final class Segment<T> {
+        private final Hash<T, T> hash;
+        private final ReferenceQueue<T> queue = new ReferenceQueue<T>();
+        private Ref<T>[] table = newTable(16);
+        private int size;
+
+        public Segment(Hash<T, T> hash) {
+            this.hash = hash;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> Ref<T>[] newTable(int capacity) {
+            return new Ref[capacity];
+        }
+
+        /* the lowest bits of the hash select the segment, use the others for the table */
+        private int indexFor(int h, int length) {
+            return (h >>> WeakPool.SEGMENT_BITS) & (length - 1);
+        }
+
+        public synchronized T get(T value, int h) {
+            expungeStaleEntries();
+            for (Ref<T> r = table[indexFor(h, table.length)]; r != null; r = r.next) {
+                if (r.hash == h) {
+                    T shared = r.get();
+                    if (shared != null && hash.equals(value, shared))
+                        return shared;
+                }
+            }
+            return null;
+        }
+
+        public synchronized T intern(T value, int h) {
+            T shared = get(value, h);
+            if (shared != null)
+                return shared;
+            int i = indexFor(h, table.length);
+            table[i] = new Ref<T>(value, h, table[i], queue);
+            if (++size > table.length - (table.length >> 2)) {
+                resize();
+            }
+            return value;
+        }
+
+        public synchronized int size() {
+            expungeStaleEntries();
+            return size;
+        }
+
+        private void resize() {
+            Ref<T>[] newTable = newTable(table.length * 2);
+            for (Ref<T> r : table) {
+                while (r != null) {
+                    Ref<T> next = r.next;
+                    int i = indexFor(r.hash, newTable.length);
+                    r.next = newTable[i];
+                    newTable[i] = r;
+                    r = next;
+                }
+            }
+            table = newTable;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void expungeStaleEntries() {
+            Reference<? extends T> stale;
+            while ((stale = queue.poll()) != null) {
+                Ref<T> ref = (Ref<T>) stale;
+                int i = indexFor(ref.hash, table.length);
+                Ref<T> prev = null;
+                for (Ref<T> r = table[i]; r != null; prev = r, r = r.next) {
+                    if (r == ref) {
+                        if (prev == null) {
+                            table[i] = r.next;
+                        } else {
+                            prev.next = r.next;
+                        }
+                        size--;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class Ref<T> extends WeakReference<T> {
+        final int hash;
+        Ref<T> next;
+
+        public Ref(T referent, int hash, Ref<T> next, ReferenceQueue<T> queue) {
+            super(referent, queue);
+            this.hash = hash;
+            this.next = next;
+        }
+    }
+}
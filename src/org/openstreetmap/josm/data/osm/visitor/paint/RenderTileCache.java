@@ -0,0 +1,521 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm.visitor.paint;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.Preferences.PreferenceChangeEvent;
+import org.openstreetmap.josm.data.Preferences.PreferenceChangedListener;
+import org.openstreetmap.josm.data.ProjectionBounds;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.BBox;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.osm.WaySegment;
+import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataSetListener;
+import org.openstreetmap.josm.data.osm.event.NodeMovedEvent;
+import org.openstreetmap.josm.data.osm.event.PrimitivesAddedEvent;
+import org.openstreetmap.josm.data.osm.event.PrimitivesRemovedEvent;
+import org.openstreetmap.josm.data.osm.event.RelationMembersChangedEvent;
+import org.openstreetmap.josm.data.osm.event.TagsChangedEvent;
+import org.openstreetmap.josm.data.osm.event.WayNodesChangedEvent;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
+import org.openstreetmap.josm.data.projection.Projection;
+import org.openstreetmap.josm.gui.NavigatableComponent;
+import org.openstreetmap.josm.gui.mappaint.MapPaintStyles;
+
+/**
+ * <p>Cache of rendered map tiles for the primitives of one {@link DataSet}.</p>
+ *
+ * <p>Tiles are aligned to a pixel grid which only depends on the scale, so panning
+ * across data that was already rendered at the current scale costs one image blit
+ * per tile instead of a full style pass. Missing tiles are rendered together in one
+ * pass, extended by a margin so that icons and labels of primitives close to a tile
+ * border are not cut off.</p>
+ *
+ * <p>The scale is quantized into {@link #SCALE_STEPS} buckets per doubling, and tiles
+ * are rendered at the scale of their bucket. Small differences of the view scale, like
+ * rounding errors after zooming in and out again, therefore hit the same tiles, which
+ * are stretched by at most a pixel.</p>
+ *
+ * <p>The cache listens to the data set and only drops the tiles touched by the
+ * bounding boxes of changed primitives. Selection and highlight changes are handled
+ * the same way. Everything is dropped when the projection, the map paint styles
+ * ({@link org.openstreetmap.josm.gui.mappaint.ElemStyles#getCacheIdx()}), the
+ * layer state or any preference changes.</p>
+ *
+ * <p>Known limitation: dash patterns are restarted at the border of each rendered
+ * area, so dashed lines may show small discontinuities between tiles.</p>
+ */
+public class RenderTileCache implements DataSetListener, DataSet.HighlightUpdateListener, PreferenceChangedListener {
+
+    /** Whether data layers are painted through the tile cache. */
+    public static final BooleanProperty PROP_ENABLED = new BooleanProperty("mappaint.tile-cache", false);
+    /** Maximum number of tiles kept per data layer (each tile takes 256 KiB). */
+    public static final IntegerProperty PROP_MAX_TILES = new IntegerProperty("mappaint.tile-cache.max-tiles", 128);
+
+    /** Width and height of a tile in pixels. */
+    public static final int TILE_SIZE = 256;
+    /** Extra pixels rendered around a tile so that symbols and labels near the border are complete. */
+    public static final int MARGIN = 128;
+    /** Number of scale buckets per doubling of the scale. */
+    public static final int SCALE_STEPS = 256;
+    /** Beyond this number of changed primitives, the union of their bounding boxes is invalidated. */
+    private static final int MAX_SINGLE_INVALIDATIONS = 100;
+
+    private static final class TileKey {
+        private final long scaleBucket;
+        private final long x;
+        private final long y;
+
+        public TileKey(long scaleBucket, long x, long y) {
+            this.scaleBucket = scaleBucket;
+            this.x = x;
+            this.y = y;
+        }
+
+        /**
+         * Replies the projected area covered by this tile, extended by the given number of pixels.
+         */
+        public ProjectionBounds getBounds(int margin) {
+            double scale = getBucketScale(scaleBucket);
+            return new ProjectionBounds(
+                    (x * TILE_SIZE - margin) * scale, -((y + 1) * TILE_SIZE + margin) * scale,
+                    ((x + 1) * TILE_SIZE + margin) * scale, -(y * TILE_SIZE - margin) * scale);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) scaleBucket + 31 * (int) (x ^ (x >>> 32)) + 961 * (int) (y ^ (y >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof TileKey))
+                return false;
+            TileKey other = (TileKey) obj;
+            return x == other.x && y == other.y && scaleBucket == other.scaleBucket;
+        }
+    }
+
+    /**
+     * Replies the bucket of the given scale, see {@link #SCALE_STEPS}.
+     */
+    private static long getScaleBucket(double scale) {
+        return Math.round(Math.log(scale) / Math.log(2) * SCALE_STEPS);
+    }
+
+    /**
+     * Replies the scale the tiles of the given bucket are rendered at.
+     */
+    private static double getBucketScale(long scaleBucket) {
+        return Math.pow(2, (double) scaleBucket / SCALE_STEPS);
+    }
+
+    /**
+     * Offscreen viewport used to render a block of tiles.
+     */
+    private static class TileViewport extends NavigatableComponent {
+        private double dist100Pixel;
+
+        public void setViewport(EastNorth center, double scale, int width, int height, double dist100Pixel) {
+            setSize(width, height);
+            setViewportSilently(center, scale);
+            this.dist100Pixel = dist100Pixel;
+        }
+
+        /**
+         * Use the value of the real map view, so that all tiles select the same
+         * zoom-dependent styles.
+         */
+        @Override
+        public double getDist100Pixel() {
+            return dist100Pixel;
+        }
+    }
+
+    private final DataSet data;
+    private final TileViewport viewport = new TileViewport();
+    private final Map<TileKey, BufferedImage> tiles = new LinkedHashMap<TileKey, BufferedImage>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<TileKey, BufferedImage> eldest) {
+            return size() > Math.max(PROP_MAX_TILES.get(), 1);
+        }
+    };
+
+    /* state the cached tiles depend on, all guarded by this */
+    private List<Object> renderState;
+    private Collection<OsmPrimitive> renderedSelection;
+    private List<WaySegment> renderedHighlightedWaySegments = new ArrayList<WaySegment>();
+    private List<WaySegment> renderedHighlightedVirtualNodes = new ArrayList<WaySegment>();
+    /* incremented on each invalidation, so tiles rendered meanwhile are not stored */
+    private int invalidationCount;
+
+    /**
+     * Constructs a new {@code RenderTileCache} and registers it with the data set.
+     * Call {@link #destroy()} when the cache is not needed anymore.
+     * @param data the data set to render
+     */
+    public RenderTileCache(DataSet data) {
+        this.data = data;
+        data.addDataSetListener(this);
+        data.addHighlightUpdateListener(this);
+        Main.pref.addPreferenceChangeListener(this);
+    }
+
+    /**
+     * Unregisters all listeners and releases the cached tiles.
+     */
+    public void destroy() {
+        data.removeDataSetListener(this);
+        data.removeHighlightUpdateListener(this);
+        Main.pref.removePreferenceChangeListener(this);
+        clear();
+    }
+
+    /**
+     * Drops all cached tiles.
+     */
+    public synchronized void clear() {
+        tiles.clear();
+        invalidationCount++;
+    }
+
+    /**
+     * Replies the number of cached tiles.
+     * @return the number of cached tiles
+     */
+    public synchronized int getTileCount() {
+        return tiles.size();
+    }
+
+    /**
+     * Paints the data set, rendering only the tiles that are not cached yet.
+     * @param g the graphics of the map view
+     * @param nc the map view
+     * @param inactive whether the layer is painted in inactive mode
+     * @param virtual whether virtual nodes are rendered
+     */
+    public void paint(Graphics2D g, NavigatableComponent nc, boolean inactive, boolean virtual) {
+        final long scaleBucket = getScaleBucket(nc.getScale());
+        final double scale = getBucketScale(scaleBucket);
+        // size of a tile pixel on the screen
+        final double factor = scale / nc.getScale();
+        final EastNorth center = nc.getCenter();
+        // world pixel coordinates (at the scale of the bucket) of the upper left corner of the map view
+        final double originX = center.east() / scale - nc.getWidth() / 2.0 / factor;
+        final double originY = -center.north() / scale - nc.getHeight() / 2.0 / factor;
+        final long minX = (long) Math.floor(originX / TILE_SIZE);
+        final long minY = (long) Math.floor(originY / TILE_SIZE);
+        final long maxX = (long) Math.floor((originX + nc.getWidth() / factor) / TILE_SIZE);
+        final long maxY = (long) Math.floor((originY + nc.getHeight() / factor) / TILE_SIZE);
+
+        BufferedImage[][] visible = new BufferedImage[(int) (maxX - minX + 1)][(int) (maxY - minY + 1)];
+        long missingMinX = Long.MAX_VALUE, missingMinY = Long.MAX_VALUE;
+        long missingMaxX = Long.MIN_VALUE, missingMaxY = Long.MIN_VALUE;
+        int count;
+        synchronized (this) {
+            updateRenderState(inactive, virtual);
+            for (long x = minX; x <= maxX; x++) {
+                for (long y = minY; y <= maxY; y++) {
+                    BufferedImage tile = tiles.get(new TileKey(scaleBucket, x, y));
+                    if (tile == null) {
+                        missingMinX = Math.min(missingMinX, x);
+                        missingMinY = Math.min(missingMinY, y);
+                        missingMaxX = Math.max(missingMaxX, x);
+                        missingMaxY = Math.max(missingMaxY, y);
+                    } else {
+                        visible[(int) (x - minX)][(int) (y - minY)] = tile;
+                    }
+                }
+            }
+            count = invalidationCount;
+        }
+
+        if (missingMinX <= missingMaxX) {
+            BufferedImage block = renderBlock(nc, scale, missingMinX, missingMinY, missingMaxX, missingMaxY, inactive, virtual);
+            synchronized (this) {
+                boolean store = count == invalidationCount;
+                for (long x = missingMinX; x <= missingMaxX; x++) {
+                    for (long y = missingMinY; y <= missingMaxY; y++) {
+                        TileKey key = new TileKey(scaleBucket, x, y);
+                        BufferedImage tile = tiles.get(key);
+                        if (tile == null) {
+                            tile = block.getSubimage((int) (x - missingMinX) * TILE_SIZE, (int) (y - missingMinY) * TILE_SIZE,
+                                    TILE_SIZE, TILE_SIZE);
+                            if (store) {
+                                tile = copy(tile);
+                                tiles.put(key, tile);
+                            }
+                        }
+                        if (x >= minX && x <= maxX && y >= minY && y <= maxY) {
+                            visible[(int) (x - minX)][(int) (y - minY)] = tile;
+                        }
+                    }
+                }
+            }
+        }
+
+        for (long x = minX; x <= maxX; x++) {
+            // round the borders instead of the sizes, so adjacent tiles neither overlap nor leave gaps
+            int left = (int) Math.round((x * TILE_SIZE - originX) * factor);
+            int width = (int) Math.round(((x + 1) * TILE_SIZE - originX) * factor) - left;
+            for (long y = minY; y <= maxY; y++) {
+                int top = (int) Math.round((y * TILE_SIZE - originY) * factor);
+                int height = (int) Math.round(((y + 1) * TILE_SIZE - originY) * factor) - top;
+                BufferedImage tile = visible[(int) (x - minX)][(int) (y - minY)];
+                if (width == TILE_SIZE && height == TILE_SIZE) {
+                    g.drawImage(tile, left, top, null);
+                } else {
+                    g.drawImage(tile, left, top, width, height, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders the given range of tiles in one pass and returns the image of the whole range.
+     */
+    private BufferedImage renderBlock(NavigatableComponent nc, double scale, long minX, long minY, long maxX, long maxY,
+            boolean inactive, boolean virtual) {
+        int width = (int) (maxX - minX + 1) * TILE_SIZE;
+        int height = (int) (maxY - minY + 1) * TILE_SIZE;
+        // the viewport includes the margin, its pixel (MARGIN, MARGIN) is the upper left corner of tile (minX, minY)
+        EastNorth center = new EastNorth(
+                (minX * TILE_SIZE + width / 2.0) * scale,
+                -(minY * TILE_SIZE + height / 2.0) * scale);
+        viewport.setViewport(center, scale, width + 2 * MARGIN, height + 2 * MARGIN, nc.getDist100Pixel());
+
+        BufferedImage block = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = block.createGraphics();
+        try {
+            g.translate(-MARGIN, -MARGIN);
+            g.setClip(MARGIN, MARGIN, width, height);
+            Bounds bounds = viewport.getLatLonBounds(viewport.getBounds());
+            MapRendererFactory.getInstance().createActiveRenderer(g, viewport, inactive).render(data, virtual, bounds);
+        } finally {
+            g.dispose();
+        }
+        return block;
+    }
+
+    private static BufferedImage copy(BufferedImage image) {
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = copy.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return copy;
+    }
+
+    /**
+     * Drops all tiles if the state they were rendered with has changed, otherwise the
+     * tiles touched by selection and highlight changes since the last paint.
+     */
+    private void updateRenderState(boolean inactive, boolean virtual) {
+        List<Object> state = Arrays.<Object>asList(Main.getProjection(), MapPaintStyles.getStyles().getCacheIdx(), inactive, virtual);
+        Collection<OsmPrimitive> selection = data.getAllSelected();
+        List<WaySegment> highlightedWaySegments = new ArrayList<WaySegment>(data.getHighlightedWaySegments());
+        List<WaySegment> highlightedVirtualNodes = new ArrayList<WaySegment>(data.getHighlightedVirtualNodes());
+        if (!state.equals(renderState)) {
+            clear();
+        } else {
+            if (selection != renderedSelection) {
+                invalidateSymmetricDifference(renderedSelection, selection);
+            }
+            invalidateSegments(renderedHighlightedWaySegments, highlightedWaySegments);
+            invalidateSegments(renderedHighlightedVirtualNodes, highlightedVirtualNodes);
+        }
+        renderState = state;
+        renderedSelection = selection;
+        renderedHighlightedWaySegments = highlightedWaySegments;
+        renderedHighlightedVirtualNodes = highlightedVirtualNodes;
+    }
+
+    private void invalidateSymmetricDifference(Collection<OsmPrimitive> oldSelection, Collection<OsmPrimitive> newSelection) {
+        Set<OsmPrimitive> removed = new HashSet<OsmPrimitive>(oldSelection);
+        List<OsmPrimitive> changed = new ArrayList<OsmPrimitive>();
+        for (OsmPrimitive p : newSelection) {
+            if (!removed.remove(p)) {
+                changed.add(p);
+            }
+        }
+        changed.addAll(removed);
+        invalidate(changed);
+    }
+
+    private void invalidateSegments(List<WaySegment> oldSegments, List<WaySegment> newSegments) {
+        if (oldSegments.equals(newSegments))
+            return;
+        List<WaySegment> segments = new ArrayList<WaySegment>(oldSegments.size() + newSegments.size());
+        segments.addAll(oldSegments);
+        segments.addAll(newSegments);
+        for (WaySegment ws : segments) {
+            if (ws.lowerIndex + 1 < ws.way.getNodesCount()) {
+                BBox box = new BBox(ws.getFirstNode());
+                box.add(new BBox(ws.getSecondNode()));
+                invalidate(box);
+            }
+        }
+    }
+
+    /**
+     * Drops the tiles touched by the given primitives.
+     */
+    private synchronized void invalidate(Collection<? extends OsmPrimitive> primitives) {
+        if (primitives.size() <= MAX_SINGLE_INVALIDATIONS) {
+            for (OsmPrimitive p : primitives) {
+                invalidate(p, null);
+            }
+        } else {
+            BBox union = null;
+            for (OsmPrimitive p : primitives) {
+                if (!p.isIncomplete()) {
+                    if (union == null) {
+                        union = p.getBBox();
+                    } else {
+                        union.add(p.getBBox());
+                    }
+                }
+            }
+            invalidate(union);
+        }
+    }
+
+    /**
+     * Drops the tiles touched by the given primitive and its referrers.
+     * @param oldCoor if not null, the referrers are extended by this former position of the primitive
+     */
+    private void invalidate(OsmPrimitive p, LatLon oldCoor) {
+        if (p.isIncomplete())
+            return;
+        invalidate(p.getBBox());
+        if (oldCoor != null) {
+            invalidate(new BBox(oldCoor, oldCoor));
+        }
+        if (p instanceof Node && oldCoor == null)
+            return;
+        for (OsmPrimitive referrer : p.getReferrers()) {
+            BBox box = referrer.getBBox();
+            if (oldCoor != null) {
+                box.add(oldCoor);
+            }
+            invalidate(box);
+            if (referrer instanceof Way) {
+                for (OsmPrimitive r : referrer.getReferrers()) {
+                    BBox relationBox = r.getBBox();
+                    if (oldCoor != null) {
+                        relationBox.add(oldCoor);
+                    }
+                    invalidate(relationBox);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the tiles touched by the given bounding box, including the margin
+     * for symbols and labels.
+     */
+    private synchronized void invalidate(BBox box) {
+        invalidationCount++;
+        if (box == null || !(box.width() >= 0 && box.height() >= 0) || tiles.isEmpty())
+            return;
+        Projection proj = Main.getProjection();
+        EastNorth p1 = proj.latlon2eastNorth(box.getTopLeft());
+        EastNorth p2 = proj.latlon2eastNorth(box.getBottomRight());
+        double minEast = Math.min(p1.east(), p2.east());
+        double maxEast = Math.max(p1.east(), p2.east());
+        double minNorth = Math.min(p1.north(), p2.north());
+        double maxNorth = Math.max(p1.north(), p2.north());
+        for (Iterator<TileKey> it = tiles.keySet().iterator(); it.hasNext();) {
+            ProjectionBounds b = it.next().getBounds(MARGIN);
+            if (b.minEast <= maxEast && b.maxEast >= minEast && b.minNorth <= maxNorth && b.maxNorth >= minNorth) {
+                it.remove();
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------------------------- */
+    /* interface DataSetListener                                                       */
+    /* ------------------------------------------------------------------------------- */
+
+    @Override
+    public void primitivesAdded(PrimitivesAddedEvent event) {
+        invalidate(event.getPrimitives());
+    }
+
+    @Override
+    public void primitivesRemoved(PrimitivesRemovedEvent event) {
+        invalidate(event.getPrimitives());
+    }
+
+    @Override
+    public void tagsChanged(TagsChangedEvent event) {
+        invalidate(event.getPrimitives());
+    }
+
+    @Override
+    public synchronized void nodeMoved(NodeMovedEvent event) {
+        invalidate(event.getNode(), event.getOldCoor());
+    }
+
+    @Override
+    public synchronized void wayNodesChanged(WayNodesChangedEvent event) {
+        invalidate(event.getOldBBox());
+        invalidate(event.getChangedWay(), null);
+    }
+
+    @Override
+    public synchronized void relationMembersChanged(RelationMembersChangedEvent event) {
+        invalidate(event.getOldBBox());
+        invalidate(event.getRelation(), null);
+    }
+
+    @Override
+    public void otherDatasetChange(AbstractDatasetChangedEvent event) {
+        // changeset ids are not rendered
+    }
+
+    @Override
+    public void dataChanged(DataChangedEvent event) {
+        clear();
+    }
+
+    /* ------------------------------------------------------------------------------- */
+    /* interface HighlightUpdateListener                                               */
+    /* ------------------------------------------------------------------------------- */
+
+    @Override
+    public synchronized void highlightUpdated(OsmPrimitive primitive) {
+        invalidate(primitive, null);
+    }
+
+    /* ------------------------------------------------------------------------------- */
+    /* interface PreferenceChangedListener                                             */
+    /* ------------------------------------------------------------------------------- */
+
+    @Override
+    public void preferenceChanged(PreferenceChangeEvent e) {
+        // colors, renderer and paint settings are all stored in the preferences
+        clear();
+    }
+}
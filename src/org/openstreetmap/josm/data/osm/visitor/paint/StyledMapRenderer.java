@@ -26,8 +26,15 @@ import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.swing.AbstractButton;
 import javax.swing.FocusManager;
 import javax.swing.ImageIcon;
@@ -47,6 +54,7 @@ import org.openstreetmap.josm.data.osm.WaySegment;
 import org.openstreetmap.josm.data.osm.visitor.paint.relations.Multipolygon;
 import org.openstreetmap.josm.data.osm.visitor.paint.relations.Multipolygon.PolyData;
 import org.openstreetmap.josm.data.osm.visitor.paint.relations.MultipolygonCache;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
 import org.openstreetmap.josm.gui.NavigatableComponent;
 import org.openstreetmap.josm.gui.mappaint.AreaElemStyle;
 import org.openstreetmap.josm.gui.mappaint.BoxTextElemStyle;
@@ -208,6 +216,18 @@ public class StyledMapRenderer extends AbstractMapRenderer {
             }
         }
 
+        /**
+         * Adds records that have been collected and sorted by another collector.
+         */
+        public void addAll(List<StyleRecord> records) {
+            styleElems.addAll(records);
+        }
+
+        public List<StyleRecord> getSorted() {
+            Collections.sort(styleElems);
+            return styleElems;
+        }
+
         public void drawAll() {
             Collections.sort(styleElems);
             for (StyleRecord r : styleElems) {
@@ -310,6 +330,18 @@ public class StyledMapRenderer extends AbstractMapRenderer {
     private Color relationSelectedColor;
     private Color highlightColorTransparent;
 
+    /**
+     * Collect and sort styles on all available processors, only the final drawing is done by the painting thread.
+     */
+    public static final BooleanProperty PROP_PARALLEL = new BooleanProperty("mappaint.parallel", false);
+
+    /**
+     * Minimum number of primitives in the view for which styles are collected in parallel.
+     */
+    private static final int PARALLEL_THRESHOLD = 2000;
+
+    private static ExecutorService styleCollectorPool;
+
     private static final int FLAG_NORMAL = 0;
     private static final int FLAG_DISABLED = 1;
     private static final int FLAG_MEMBER_OF_SELECTED = 2;
@@ -363,8 +395,8 @@ public class StyledMapRenderer extends AbstractMapRenderer {
         return polygon;
     }
 
-    private void collectNodeStyles(DataSet data, StyleCollector sc, BBox bbox) {
-        for (final Node n: data.searchNodes(bbox)) {
+    private void collectNodeStyles(DataSet data, StyleCollector sc, List<Node> nodes) {
+        for (final Node n: nodes) {
             if (n.isDrawable()) {
                 if (n.isDisabled()) {
                     sc.add(n, FLAG_DISABLED);
@@ -379,8 +411,8 @@ public class StyledMapRenderer extends AbstractMapRenderer {
         }
     }
 
-    private void collectWayStyles(DataSet data, StyleCollector sc, BBox bbox) {
-        for (final Way w : data.searchWays(bbox)) {
+    private void collectWayStyles(DataSet data, StyleCollector sc, List<Way> ways) {
+        for (final Way w : ways) {
             if (w.isDrawable()) {
                 if (w.isDisabled()) {
                     sc.add(w, FLAG_DISABLED);
@@ -395,8 +427,8 @@ public class StyledMapRenderer extends AbstractMapRenderer {
         }
     }
 
-    private void collectRelationStyles(DataSet data, StyleCollector sc, BBox bbox) {
-        for (Relation r: data.searchRelations(bbox)) {
+    private void collectRelationStyles(DataSet data, StyleCollector sc, List<Relation> relations) {
+        for (Relation r: relations) {
             if (r.isDrawable()) {
                 if (r.isDisabled()) {
                     sc.add(r, FLAG_DISABLED);
@@ -409,6 +441,85 @@ public class StyledMapRenderer extends AbstractMapRenderer {
         }
     }
 
+    /**
+     * Collects and sorts the styles of one slice of the primitives to render.
+     */
+    private class StyleCollectorTask implements Callable<List<StyleRecord>> {
+        private final DataSet data;
+        private final StyleCollector sc;
+        private final List<Node> nodes;
+        private final List<Way> ways;
+        private final List<Relation> relations;
+
+        public StyleCollectorTask(DataSet data, StyleCollector sc, List<Node> nodes, List<Way> ways, List<Relation> relations) {
+            this.data = data;
+            this.sc = sc;
+            this.nodes = nodes;
+            this.ways = ways;
+            this.relations = relations;
+        }
+
+        @Override
+        public List<StyleRecord> call() {
+            collectNodeStyles(data, sc, nodes);
+            collectWayStyles(data, sc, ways);
+            collectRelationStyles(data, sc, relations);
+            return sc.getSorted();
+        }
+    }
+
+    private static <T> List<T> slice(List<T> list, int index, int count) {
+        return list.subList(list.size() * index / count, list.size() * (index + 1) / count);
+    }
+
+    private static synchronized ExecutorService getStyleCollectorPool() {
+        if (styleCollectorPool == null) {
+            styleCollectorPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    Utils.newThreadFactory("styled-map-renderer-%d", Thread.NORM_PRIORITY));
+        }
+        return styleCollectorPool;
+    }
+
+    /**
+     * Collects the styles of the given primitives on the worker pool. Each worker collects and sorts
+     * the styles of one slice of the search results (which are roughly ordered by location, so a slice
+     * corresponds to a part of the bbox). The sorted slices are appended to <code>sc</code>, sorting
+     * it afterwards merges the presorted runs.
+     *
+     * The caller must hold the read lock of <code>data</code>.
+     */
+    private void collectStylesInParallel(DataSet data, StyleCollector sc, boolean drawArea, boolean drawMultipolygon,
+            boolean drawRestriction, List<Node> nodes, List<Way> ways, List<Relation> relations) throws InterruptedException {
+        if (drawMultipolygon) {
+            // The styles of a multipolygon are cached in the relation when one of its member ways is styled,
+            // which would happen on several workers at once. Resolve them here, so the workers only read them.
+            Set<Relation> multipolygons = new HashSet<Relation>();
+            for (Way w : ways) {
+                for (OsmPrimitive referrer : w.getReferrers()) {
+                    if (referrer instanceof Relation && ((Relation) referrer).isMultipolygon() && referrer.isUsable()) {
+                        multipolygons.add((Relation) referrer);
+                    }
+                }
+            }
+            for (Relation r : multipolygons) {
+                styles.get(r, circum, nc);
+            }
+        }
+        int count = Runtime.getRuntime().availableProcessors();
+        List<StyleCollectorTask> tasks = new ArrayList<StyleCollectorTask>(count);
+        for (int i = 0; i < count; i++) {
+            tasks.add(new StyleCollectorTask(data, new StyleCollector(drawArea, drawMultipolygon, drawRestriction),
+                    slice(nodes, i, count), slice(ways, i, count), slice(relations, i, count)));
+        }
+        try {
+            for (Future<List<StyleRecord>> future : getStyleCollectorPool().invokeAll(tasks)) {
+                sc.addAll(future.get());
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
     private void displaySegments(GeneralPath path, GeneralPath orientationArrows, GeneralPath onewayArrows, GeneralPath onewayArrowsCasing,
             Color color, BasicStroke line, BasicStroke dashes, Color dashedColor) {
         g.setColor(isInactiveMode ? inactiveColor : color);
@@ -1418,9 +1529,35 @@ public class StyledMapRenderer extends AbstractMapRenderer {
         highlightWaySegments = data.getHighlightedWaySegments();
 
         StyleCollector sc = new StyleCollector(drawArea, drawMultipolygon, drawRestriction);
-        collectNodeStyles(data, sc, bbox);
-        collectWayStyles(data, sc, bbox);
-        collectRelationStyles(data, sc, bbox);
+        final boolean parallel = PROP_PARALLEL.get() && Runtime.getRuntime().availableProcessors() > 1;
+        if (parallel) {
+            // the workers must not see the data set change under their feet
+            data.getReadLock().lock();
+        }
+        try {
+            List<Node> nodes = data.searchNodes(bbox);
+            List<Way> ways = data.searchWays(bbox);
+            List<Relation> relations = data.searchRelations(bbox);
+            boolean collected = false;
+            if (parallel && nodes.size() + ways.size() + relations.size() >= PARALLEL_THRESHOLD) {
+                try {
+                    collectStylesInParallel(data, sc, drawArea, drawMultipolygon, drawRestriction, nodes, ways, relations);
+                    collected = true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    sc = new StyleCollector(drawArea, drawMultipolygon, drawRestriction);
+                }
+            }
+            if (!collected) {
+                collectNodeStyles(data, sc, nodes);
+                collectWayStyles(data, sc, ways);
+                collectRelationStyles(data, sc, relations);
+            }
+        } finally {
+            if (parallel) {
+                data.getReadLock().unlock();
+            }
+        }
         //long phase1 = System.currentTimeMillis();
         sc.drawAll();
         sc = null;
@@ -61,7 +61,7 @@ public class MultipolygonCache implements DataSetListener, LayerChangeListener,
         return get(nc, r, false);
     }
 
-    public final Multipolygon get(NavigatableComponent nc, Relation r, boolean forceRefresh) {
+    public final synchronized Multipolygon get(NavigatableComponent nc, Relation r, boolean forceRefresh) {
         Multipolygon multipolygon = null;
         if (nc != null && r != null) {
             Map<DataSet, Map<Relation, Multipolygon>> map1 = cache.get(nc);
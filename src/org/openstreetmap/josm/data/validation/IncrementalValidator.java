@@ -0,0 +1,324 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.validation;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.swing.Timer;
+
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.osm.BBox;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataSetListener;
+import org.openstreetmap.josm.data.osm.event.DatasetEventManager;
+import org.openstreetmap.josm.data.osm.event.DatasetEventManager.FireMode;
+import org.openstreetmap.josm.data.osm.event.NodeMovedEvent;
+import org.openstreetmap.josm.data.osm.event.PrimitivesAddedEvent;
+import org.openstreetmap.josm.data.osm.event.PrimitivesRemovedEvent;
+import org.openstreetmap.josm.data.osm.event.RelationMembersChangedEvent;
+import org.openstreetmap.josm.data.osm.event.TagsChangedEvent;
+import org.openstreetmap.josm.data.osm.event.WayNodesChangedEvent;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.gui.dialogs.validator.ValidatorTreePanel;
+import org.openstreetmap.josm.gui.preferences.ValidatorPreference;
+import org.openstreetmap.josm.gui.util.GuiHelper;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * Revalidates the edited primitives of the current data set while the validation results are shown.
+ * <p>
+ * The primitives changed by a burst of edits are collected from the data set events. When the edits
+ * pause, the changed primitives, the primitives connected to them and their spatial neighbours are
+ * validated again in the background. Their errors in the validation results are replaced by the new
+ * ones, the errors of all other primitives are kept.
+ * <p>
+ * The tests are run on the neighbourhood like on a partial selection, so tests which compare
+ * primitives (like crossing or unconnected ways) find the errors between a changed primitive and
+ * the unchanged ones around it.
+ */
+public class IncrementalValidator implements DataSetListener {
+
+    /**
+     * Revalidate the edited primitives while the validation results are shown.
+     */
+    public static final BooleanProperty PROP_INCREMENTAL = new BooleanProperty("validator.incremental", true);
+
+    /** The distance in degrees around a changed primitive in which the other primitives are revalidated */
+    private static final double NEIGHBOUR_MARGIN = 0.0005;
+
+    /** The delay in milliseconds after the last edit before revalidating */
+    private static final int DELAY = 300;
+
+    private static ExecutorService executor;
+
+    private final Set<OsmPrimitive> changed = new LinkedHashSet<OsmPrimitive>();
+    private final Timer timer;
+    private DataSet dataSet;
+
+    /**
+     * Constructs a new {@code IncrementalValidator}.
+     */
+    public IncrementalValidator() {
+        timer = new Timer(DELAY, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                validateChanged();
+            }
+        });
+        timer.setRepeats(false);
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(Utils.newThreadFactory("validator-incremental-%d", Thread.NORM_PRIORITY));
+        }
+        return executor;
+    }
+
+    /**
+     * Starts listening to the changes of the current data set.
+     */
+    public void start() {
+        DatasetEventManager.getInstance().addDatasetListener(this, FireMode.IN_EDT);
+    }
+
+    /**
+     * Stops listening to the changes of the current data set and forgets the pending changes.
+     */
+    public void stop() {
+        DatasetEventManager.getInstance().removeDatasetListener(this);
+        timer.stop();
+        changed.clear();
+        dataSet = null;
+    }
+
+    private void addChanged(AbstractDatasetChangedEvent event) {
+        if (event.getDataset() != dataSet) {
+            changed.clear();
+            dataSet = event.getDataset();
+        }
+        changed.addAll(event.getPrimitives());
+        timer.restart();
+    }
+
+    /**
+     * Revalidates the collected primitives in the background and updates the validation results.
+     */
+    private void validateChanged() {
+        if (changed.isEmpty() || dataSet != Main.main.getCurrentDataSet() || OsmValidator.errorLayer == null) {
+            // the validation results are not shown or belong to another data set
+            changed.clear();
+            return;
+        }
+        final DataSet ds = dataSet;
+        final Set<OsmPrimitive> affected = getAffectedPrimitives(ds, changed);
+        changed.clear();
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                // only the primitives to test are taken under the lock, the tests run without it like
+                // the full validation, primitives deleted meanwhile are dropped when the errors are merged
+                List<OsmPrimitive> primitives;
+                ds.getReadLock().lock();
+                try {
+                    primitives = getNonDeleted(affected);
+                } finally {
+                    ds.getReadLock().unlock();
+                }
+                final List<TestError> errors = validate(OsmValidator.getEnabledTests(false), primitives);
+                GuiHelper.runInEDT(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (ds != Main.main.getCurrentDataSet() || OsmValidator.errorLayer == null)
+                            return;
+                        ValidatorTreePanel tree = Main.map.validatorDialog.tree;
+                        tree.setErrors(mergeErrors(tree.getErrors(), affected, errors));
+                        Main.map.repaint();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Runs the tests on the non-deleted primitives of the given ones.
+     *
+     * @param tests the tests to run
+     * @param affected the primitives to revalidate, see {@link #getAffectedPrimitives}
+     * @return the errors found, with their ignored state set
+     */
+    public static List<TestError> validate(Collection<Test> tests, Collection<OsmPrimitive> affected) {
+        List<TestError> errors = ValidationEngine.runTests(tests, getNonDeleted(affected), true, null);
+        if (Main.pref.getBoolean(ValidatorPreference.PREF_USE_IGNORE, true)) {
+            for (TestError error : errors) {
+                if (OsmValidator.isIgnoredError(error)) {
+                    error.setIgnored(true);
+                }
+            }
+        }
+        return errors;
+    }
+
+    private static List<OsmPrimitive> getNonDeleted(Collection<OsmPrimitive> primitives) {
+        List<OsmPrimitive> result = new ArrayList<OsmPrimitive>(primitives.size());
+        for (OsmPrimitive osm : primitives) {
+            if (!osm.isDeleted()) {
+                result.add(osm);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Replies the primitives to revalidate after the given primitives have changed: the changed
+     * primitives, the primitives they are connected to and the nodes and ways near them.
+     *
+     * @param ds the data set
+     * @param changed the changed primitives, including the deleted ones
+     * @return the primitives whose errors have to be recomputed
+     */
+    public static Set<OsmPrimitive> getAffectedPrimitives(DataSet ds, Collection<? extends OsmPrimitive> changed) {
+        Set<OsmPrimitive> affected = new LinkedHashSet<OsmPrimitive>(changed);
+        // the nodes and ways whose neighbourhood is revalidated
+        Set<OsmPrimitive> centres = new LinkedHashSet<OsmPrimitive>();
+        for (OsmPrimitive osm : changed) {
+            if (osm.isDeleted())
+                continue;
+            if (osm instanceof Node) {
+                centres.add(osm);
+                for (OsmPrimitive ref : osm.getReferrers()) {
+                    if (ref instanceof Way) {
+                        centres.add(ref);
+                    }
+                }
+            } else if (osm instanceof Way) {
+                centres.add(osm);
+                affected.addAll(((Way) osm).getNodes());
+            } else {
+                affected.addAll(((Relation) osm).getMemberPrimitives());
+            }
+        }
+        for (OsmPrimitive osm : centres) {
+            if (osm.isIncomplete() || osm.isDeleted())
+                continue;
+            BBox bbox = new BBox(osm.getBBox());
+            bbox.addPrimitive(osm, NEIGHBOUR_MARGIN);
+            affected.add(osm);
+            affected.addAll(ds.searchNodes(bbox));
+            affected.addAll(ds.searchWays(bbox));
+        }
+        for (OsmPrimitive osm : new ArrayList<OsmPrimitive>(affected)) {
+            for (OsmPrimitive ref : osm.getReferrers()) {
+                if (ref instanceof Relation) {
+                    affected.add(ref);
+                }
+            }
+        }
+        return affected;
+    }
+
+    /**
+     * Replaces the errors of the revalidated primitives.
+     *
+     * @param errors the current errors
+     * @param affected the revalidated primitives
+     * @param revalidated the errors found for the revalidated primitives
+     * @return the errors which do not involve a revalidated primitive, followed by the new errors.
+     *         Errors involving a primitive deleted in the meantime are dropped.
+     */
+    public static List<TestError> mergeErrors(Collection<TestError> errors, Set<OsmPrimitive> affected, List<TestError> revalidated) {
+        List<TestError> result = new ArrayList<TestError>(errors.size() + revalidated.size());
+        Set<OsmPrimitive> lookup = affected instanceof HashSet ? affected : new HashSet<OsmPrimitive>(affected);
+        for (TestError error : errors) {
+            if (!involvesAny(error, lookup)) {
+                result.add(error);
+            }
+        }
+        for (TestError error : revalidated) {
+            if (!involvesAny(error, Collections.<OsmPrimitive>emptySet())) {
+                result.add(error);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Determines if an error involves one of the given primitives or a deleted primitive.
+     */
+    private static boolean involvesAny(TestError error, Set<OsmPrimitive> primitives) {
+        for (OsmPrimitive osm : error.getPrimitives()) {
+            if (osm.isDeleted() || primitives.contains(osm))
+                return true;
+        }
+        return false;
+    }
+
+    /* -------------------------------------------------------------------------- */
+    /* interface DataSetListener                                                  */
+    /* -------------------------------------------------------------------------- */
+
+    @Override
+    public void primitivesAdded(PrimitivesAddedEvent event) {
+        addChanged(event);
+    }
+
+    @Override
+    public void primitivesRemoved(PrimitivesRemovedEvent event) {
+        addChanged(event);
+    }
+
+    @Override
+    public void tagsChanged(TagsChangedEvent event) {
+        addChanged(event);
+    }
+
+    @Override
+    public void nodeMoved(NodeMovedEvent event) {
+        addChanged(event);
+    }
+
+    @Override
+    public void wayNodesChanged(WayNodesChangedEvent event) {
+        addChanged(event);
+    }
+
+    @Override
+    public void relationMembersChanged(RelationMembersChangedEvent event) {
+        addChanged(event);
+    }
+
+    @Override
+    public void otherDatasetChange(AbstractDatasetChangedEvent event) {
+        // changeset ids do not affect validation
+    }
+
+    @Override
+    public void dataChanged(DataChangedEvent event) {
+        if (event.getEvents() != null) {
+            // a batch of individual changes
+            for (AbstractDatasetChangedEvent e : event.getEvents()) {
+                e.fire(this);
+            }
+        } else {
+            // another data set or a complete change, the validation has to be run again
+            timer.stop();
+            changed.clear();
+            dataSet = event.getDataset();
+        }
+    }
+}
@@ -171,6 +171,19 @@ public class OsmValidator implements LayerChangeListener {
         return ignoredErrors.contains(s);
     }
 
+    /**
+     * Determines if the given error has been ignored by the user, by one of its ignore states.
+     * @param error the error
+     * @return {@code true} if the error, its group or its sub group is ignored
+     */
+    public static boolean isIgnoredError(TestError error) {
+        for (String state : Arrays.asList(error.getIgnoreState(), error.getIgnoreGroup(), error.getIgnoreSubGroup())) {
+            if (state != null && hasIgnoredError(state))
+                return true;
+        }
+        return false;
+    }
+
     public static void saveIgnoredErrors() {
         PrintWriter out = null;
         try {
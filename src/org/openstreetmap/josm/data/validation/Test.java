@@ -147,6 +147,17 @@ public class Test extends AbstractVisitor
         }
     }
 
+    /**
+     * Replies true if this test checks each primitive on its own, that is if its visit methods
+     * only read the state set up by {@link #startTest(ProgressMonitor)} and only add errors.
+     * The visit phase of such a test may be split into partitions of the primitives, which are
+     * visited concurrently, see {@link ValidationEngine}.
+     * @return true if the primitives may be visited concurrently
+     */
+    public boolean isPartitionable() {
+        return false;
+    }
+
     @Override
     public void visit(Node n) {}
 
@@ -0,0 +1,279 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.validation;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * Runs validation tests on a worker pool.
+ * <p>
+ * The tests are independent of each other and run at the same time. The visit phase of a
+ * test which checks each primitive on its own (see {@link Test#isPartitionable()}) is
+ * additionally split into partitions of the validated primitives, which are visited at the
+ * same time. {@link Test#startTest(ProgressMonitor)} and {@link Test#endTest()} of such a test
+ * run on the calling thread.
+ * <p>
+ * The errors are replied in a deterministic order: by test, and for a partitioned test by
+ * partition, in the order of the validated primitives.
+ */
+public final class ValidationEngine {
+
+    /**
+     * Run the validation tests on a worker pool.
+     */
+    public static final BooleanProperty PROP_PARALLEL = new BooleanProperty("validator.parallel", true);
+
+    /** The number of primitives of a partition */
+    private static final int PARTITION_SIZE = 5000;
+
+    private static ExecutorService validatorPool;
+
+    private ValidationEngine() {
+        // Hide default constructor for utils classes
+    }
+
+    private static synchronized ExecutorService getValidatorPool() {
+        if (validatorPool == null) {
+            validatorPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    Utils.newThreadFactory("validator-%d", Thread.NORM_PRIORITY));
+        }
+        return validatorPool;
+    }
+
+    /**
+     * The error list of a test while its partitions are visited. Each worker thread adds
+     * the errors to the list of the partition it visits.
+     */
+    private static class PartitionErrors extends AbstractList<TestError> {
+        private final ThreadLocal<List<TestError>> current = new ThreadLocal<List<TestError>>();
+
+        private List<TestError> current() {
+            List<TestError> list = current.get();
+            if (list == null)
+                throw new IllegalStateException("Errors added outside of a partition");
+            return list;
+        }
+
+        @Override
+        public void add(int index, TestError element) {
+            current().add(index, element);
+        }
+
+        @Override
+        public TestError set(int index, TestError element) {
+            return current().set(index, element);
+        }
+
+        @Override
+        public TestError remove(int index) {
+            return current().remove(index);
+        }
+
+        @Override
+        public TestError get(int index) {
+            return current().get(index);
+        }
+
+        @Override
+        public int size() {
+            return current().size();
+        }
+    }
+
+    /**
+     * Visits the primitives of one partition of a test.
+     */
+    private static class Partition implements Callable<List<TestError>> {
+        private final Test test;
+        private final PartitionErrors errors;
+        private final List<OsmPrimitive> primitives;
+
+        Partition(Test test, PartitionErrors errors, List<OsmPrimitive> primitives) {
+            this.test = test;
+            this.errors = errors;
+            this.primitives = primitives;
+        }
+
+        @Override
+        public List<TestError> call() {
+            List<TestError> result = new ArrayList<TestError>();
+            errors.current.set(result);
+            try {
+                test.visit(primitives);
+            } finally {
+                errors.current.remove();
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A test, started on the calling thread, whose partitions are visited on the pool.
+     */
+    private static class PartitionedTest {
+        final Test test;
+        final ProgressMonitor monitor;
+        final List<TestError> errors;
+        final List<Future<List<TestError>>> partitions = new ArrayList<Future<List<TestError>>>();
+
+        PartitionedTest(Test test, ProgressMonitor monitor, List<OsmPrimitive> primitives) {
+            this.test = test;
+            test.startTest(monitor);
+            this.monitor = test.progressMonitor;
+            this.errors = test.errors;
+            // the monitor is not shared between the partitions, progress is reported when they are done
+            test.progressMonitor = NullProgressMonitor.INSTANCE;
+            PartitionErrors partitionErrors = new PartitionErrors();
+            test.errors = partitionErrors;
+            for (int i = 0; i < primitives.size(); i += PARTITION_SIZE) {
+                List<OsmPrimitive> partition = primitives.subList(i, Math.min(primitives.size(), i + PARTITION_SIZE));
+                partitions.add(getValidatorPool().submit(new Partition(test, partitionErrors, partition)));
+            }
+        }
+
+        List<TestError> finish() throws InterruptedException, ExecutionException {
+            try {
+                for (Future<List<TestError>> f : partitions) {
+                    errors.addAll(f.get());
+                }
+            } finally {
+                restore();
+            }
+            test.endTest();
+            return test.getErrors();
+        }
+
+        void cancel() {
+            for (Future<List<TestError>> f : partitions) {
+                f.cancel(true);
+            }
+            restore();
+        }
+
+        private void restore() {
+            test.errors = errors;
+            test.progressMonitor = monitor;
+        }
+    }
+
+    /**
+     * Runs one test completely.
+     */
+    private static class TestRun implements Callable<List<TestError>> {
+        private final Test test;
+        private final ProgressMonitor monitor;
+        private final Collection<OsmPrimitive> primitives;
+
+        TestRun(Test test, ProgressMonitor monitor, Collection<OsmPrimitive> primitives) {
+            this.test = test;
+            this.monitor = monitor;
+            this.primitives = primitives;
+        }
+
+        @Override
+        public List<TestError> call() {
+            test.startTest(monitor);
+            test.visit(primitives);
+            test.endTest();
+            return test.getErrors();
+        }
+    }
+
+    /**
+     * Runs the tests on the given primitives.
+     *
+     * @param tests the tests to run, initialized and with the before upload flag set
+     * @param primitives the primitives to validate
+     * @param partialSelection whether the primitives are only a part of the data
+     * @param progressMonitor the progress monitor with {@code tests.size() * primitives.size()} ticks,
+     * or null for no progress monitoring
+     * @return the errors of all tests, by test. Incomplete if the progress monitor has been canceled.
+     */
+    public static List<TestError> runTests(Collection<Test> tests, Collection<OsmPrimitive> primitives,
+            boolean partialSelection, ProgressMonitor progressMonitor) {
+        List<TestError> errors = new ArrayList<TestError>(200);
+        if (!PROP_PARALLEL.get() || tests.size() <= 1 && primitives.size() <= PARTITION_SIZE) {
+            int testCounter = 0;
+            for (Test test : tests) {
+                if (progressMonitor != null) {
+                    if (progressMonitor.isCanceled())
+                        break;
+                    testCounter++;
+                    progressMonitor.setCustomText(tr("Test {0}/{1}: Starting {2}", testCounter, tests.size(), test.getName()));
+                }
+                test.setPartialSelection(partialSelection);
+                test.startTest(createMonitor(progressMonitor, primitives));
+                test.visit(primitives);
+                test.endTest();
+                errors.addAll(test.getErrors());
+            }
+            return errors;
+        }
+
+        List<OsmPrimitive> list = new ArrayList<OsmPrimitive>(primitives);
+        List<Test> started = new ArrayList<Test>(tests.size());
+        List<Object> runs = new ArrayList<Object>(tests.size());
+        int done = 0;
+        try {
+            for (Test test : tests) {
+                test.setPartialSelection(partialSelection);
+                ProgressMonitor monitor = createMonitor(progressMonitor, primitives);
+                if (test.isPartitionable() && list.size() > PARTITION_SIZE) {
+                    runs.add(new PartitionedTest(test, monitor, list));
+                } else {
+                    runs.add(getValidatorPool().submit(new TestRun(test, monitor, primitives)));
+                }
+                started.add(test);
+            }
+            for (; done < runs.size(); done++) {
+                if (progressMonitor != null) {
+                    if (progressMonitor.isCanceled())
+                        break;
+                    progressMonitor.setCustomText(tr("Test {0}/{1}: Waiting for {2}", done + 1, runs.size(), started.get(done).getName()));
+                }
+                Object run = runs.get(done);
+                if (run instanceof PartitionedTest) {
+                    errors.addAll(((PartitionedTest) run).finish());
+                } else {
+                    @SuppressWarnings("unchecked")
+                    Future<List<TestError>> f = (Future<List<TestError>>) run;
+                    errors.addAll(f.get());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            // stop the runs which are not collected because of cancellation or an exception
+            for (int i = done; i < runs.size(); i++) {
+                Object run = runs.get(i);
+                if (run instanceof PartitionedTest) {
+                    ((PartitionedTest) run).cancel();
+                } else {
+                    ((Future<?>) run).cancel(true);
+                }
+            }
+        }
+        return errors;
+    }
+
+    private static ProgressMonitor createMonitor(ProgressMonitor progressMonitor, Collection<OsmPrimitive> primitives) {
+        return progressMonitor == null ? null : progressMonitor.createSubTaskMonitor(primitives.size(), false);
+    }
+}
@@ -4,23 +4,22 @@ package org.openstreetmap.josm.data.validation.tests;
 import static org.openstreetmap.josm.tools.I18n.tr;
 
 import java.awt.geom.Line2D;
-import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
+import org.openstreetmap.josm.data.coor.EastNorth;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.data.osm.WaySegment;
-import org.openstreetmap.josm.data.validation.OsmValidator;
 import org.openstreetmap.josm.data.validation.Severity;
 import org.openstreetmap.josm.data.validation.Test;
 import org.openstreetmap.josm.data.validation.TestError;
-import org.openstreetmap.josm.data.validation.util.ValUtil;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.tools.Geometry;
 
 /**
  * Tests if there are segments that crosses in the same layer
@@ -30,10 +29,8 @@ import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 public class CrossingWays extends Test {
     protected static final int CROSSING_WAYS = 601;
 
-    /** All way segments, grouped by cells */
-    Map<Point2D,List<ExtendedSegment>> cellSegments;
-    /** The already detected errors */
-    HashSet<WaySegment> errorSegments;
+    /** All way segments to check, in the order of their ways */
+    List<ExtendedSegment> segments;
     /** The already detected ways in error */
     Map<List<Way>, List<WaySegment>> ways_seen;
 
@@ -48,16 +45,15 @@ public class CrossingWays extends Test {
     @Override
     public void startTest(ProgressMonitor monitor) {
         super.startTest(monitor);
-        cellSegments = new HashMap<Point2D,List<ExtendedSegment>>(1000);
-        errorSegments = new HashSet<WaySegment>();
+        segments = new ArrayList<ExtendedSegment>(1000);
         ways_seen = new HashMap<List<Way>, List<WaySegment>>(50);
     }
 
     @Override
     public void endTest() {
+        findCrossings();
         super.endTest();
-        cellSegments = null;
-        errorSegments = null;
+        segments = null;
         ways_seen = null;
     }
 
@@ -87,101 +83,100 @@ public class CrossingWays extends Test {
 
         int nodesSize = w.getNodesCount();
         for (int i = 0; i < nodesSize - 1; i++) {
-            WaySegment ws = new WaySegment(w, i);
-            ExtendedSegment es1 = new ExtendedSegment(ws, layer1, railway1, isCoastline1, waterway1);
-            List<List<ExtendedSegment>> cellSegments = getSegments(es1.n1, es1.n2);
-            for (List<ExtendedSegment> segments : cellSegments) {
-                for (ExtendedSegment es2 : segments) {
-                    List<Way> prims;
-                    List<WaySegment> highlight;
-
-                    if (errorSegments.contains(ws) && errorSegments.contains(es2.ws)) {
-                        continue;
-                    }
-
-                    String layer2 = es2.layer;
-                    String railway2 = es2.railway;
-                    boolean isCoastline2 = es2.coastline;
-                    if (layer1 == null ? layer2 != null : !layer1.equals(layer2)) {
-                        continue;
-                    }
-
-                    if (!es1.intersects(es2) ) {
-                        continue;
-                    }
-                    if (isSubway1 && "subway".equals(railway2)) {
-                        continue;
-                    }
-                    if (isTram1 && "tram".equals(railway2)) {
-                        continue;
-                    }
-
-                    if (isCoastline1 != isCoastline2) {
-                        continue;
-                    }
-                    if (("river".equals(waterway1) && "riverbank".equals(es2.waterway))
-                            || ("riverbank".equals(waterway1) && "river".equals(es2.waterway))) {
-                        continue;
-                    }
-
-                    if (("abandoned".equals(es1.railway)) || ("abandoned".equals(railway2))) {
-                        continue;
-                    }
-
-                    prims = Arrays.asList(es1.ws.way, es2.ws.way);
-                    if ((highlight = ways_seen.get(prims)) == null) {
-                        highlight = new ArrayList<WaySegment>();
-                        highlight.add(es1.ws);
-                        highlight.add(es2.ws);
-
-                        String message;
-                        if (isBuilding) {
-                            message = tr("Crossing buildings");
-                        } else if ((es1.waterway != null && es2.waterway != null)) {
-                            message = tr("Crossing waterways");
-                        } else if ((es1.waterway != null && es2.ws.way.get("highway") != null)
-                                || (es2.waterway != null && es1.ws.way.get("highway") != null)) {
-                            message = tr("Crossing waterway/highway");
-                        } else {
-                            message = tr("Crossing ways");
-                        }
-
-                        errors.add(new TestError(this, Severity.WARNING,
-                                message,
-                                CROSSING_WAYS,
-                                prims,
-                                highlight));
-                        ways_seen.put(prims, highlight);
-                    } else {
-                        highlight.add(es1.ws);
-                        highlight.add(es2.ws);
-                    }
+            segments.add(new ExtendedSegment(new WaySegment(w, i), layer1, railway1, isCoastline1, waterway1));
+        }
+    }
+
+    /**
+     * Finds the intersecting segments with a plane sweep and reports the crossings among them.
+     * The crossings are reported in the order of the segments, each segment with the segments before it.
+     */
+    private void findCrossings() {
+        final List<ExtendedSegment> segments = this.segments;
+        double[] coords = new double[4 * segments.size()];
+        for (int i = 0; i < segments.size(); i++) {
+            ExtendedSegment es = segments.get(i);
+            EastNorth en1 = es.n1.getEastNorth();
+            EastNorth en2 = es.n2.getEastNorth();
+            coords[4 * i] = en1.east();
+            coords[4 * i + 1] = en1.north();
+            coords[4 * i + 2] = en2.east();
+            coords[4 * i + 3] = en2.north();
+        }
+        final List<Long> pairs = new ArrayList<Long>();
+        Geometry.findSegmentIntersections(coords, new Geometry.SegmentIntersectionHandler() {
+            @Override
+            public boolean intersection(int first, int second) {
+                if (!segments.get(first).sharesNode(segments.get(second))) {
+                    pairs.add(first > second ? (long) first << 32 | second : (long) second << 32 | first);
                 }
-                segments.add(es1);
+                return true;
             }
+        });
+        Collections.sort(pairs);
+        for (long pair : pairs) {
+            checkCrossing(segments.get((int) (pair >>> 32)), segments.get((int) pair));
         }
     }
 
     /**
-     * Returns all the cells this segment crosses.  Each cell contains the list
-     * of segments already processed
-     *
-     * @param n1 The first node
-     * @param n2 The second node
-     * @return A list with all the cells the segment crosses
+     * Reports the crossing of two intersecting segments if their ways should not cross.
+     * @param es1 the later segment
+     * @param es2 the earlier segment
      */
-    public List<List<ExtendedSegment>> getSegments(Node n1, Node n2) {
-
-        List<List<ExtendedSegment>> cells = new ArrayList<List<ExtendedSegment>>();
-        for(Point2D cell : ValUtil.getSegmentCells(n1, n2, OsmValidator.griddetail)) {
-            List<ExtendedSegment> segments = cellSegments.get(cell);
-            if (segments == null) {
-                segments = new ArrayList<ExtendedSegment>();
-                cellSegments.put(cell, segments);
+    private void checkCrossing(ExtendedSegment es1, ExtendedSegment es2) {
+        Way w = es1.ws.way;
+        String layer1 = es1.layer;
+        String layer2 = es2.layer;
+        String railway1 = es1.railway;
+        String railway2 = es2.railway;
+        boolean isCoastline1 = es1.coastline;
+        boolean isCoastline2 = es2.coastline;
+        String waterway1 = es1.waterway;
+
+        if (layer1 == null ? layer2 != null : !layer1.equals(layer2))
+            return;
+        if ("subway".equals(railway1) && "subway".equals(railway2))
+            return;
+        if ("tram".equals(railway1) && "tram".equals(railway2))
+            return;
+        if (isCoastline1 != isCoastline2)
+            return;
+        if (("river".equals(waterway1) && "riverbank".equals(es2.waterway))
+                || ("riverbank".equals(waterway1) && "river".equals(es2.waterway)))
+            return;
+        if (("abandoned".equals(railway1)) || ("abandoned".equals(railway2)))
+            return;
+
+        List<Way> prims = Arrays.asList(es1.ws.way, es2.ws.way);
+        List<WaySegment> highlight;
+        if ((highlight = ways_seen.get(prims)) == null) {
+            highlight = new ArrayList<WaySegment>();
+            highlight.add(es1.ws);
+            highlight.add(es2.ws);
+
+            String message;
+            if (isBuilding(w)) {
+                message = tr("Crossing buildings");
+            } else if ((es1.waterway != null && es2.waterway != null)) {
+                message = tr("Crossing waterways");
+            } else if ((es1.waterway != null && es2.ws.way.get("highway") != null)
+                    || (es2.waterway != null && es1.ws.way.get("highway") != null)) {
+                message = tr("Crossing waterway/highway");
+            } else {
+                message = tr("Crossing ways");
             }
-            cells.add(segments);
+
+            errors.add(new TestError(this, Severity.WARNING,
+                    message,
+                    CROSSING_WAYS,
+                    prims,
+                    highlight));
+            ways_seen.put(prims, highlight);
+        } else {
+            highlight.add(es1.ws);
+            highlight.add(es2.ws);
         }
-        return cells;
     }
 
     /**
@@ -223,14 +218,23 @@ public class CrossingWays extends Test {
             this.waterway = waterway;
         }
 
+        /**
+         * Checks whether this segment and other segment have a common node
+         * @param s2 The other segment
+         * @return true if both segments are connected by a node
+         */
+        public boolean sharesNode(ExtendedSegment s2) {
+            return n1.equals(s2.n1) || n2.equals(s2.n2) ||
+                    n1.equals(s2.n2) || n2.equals(s2.n1);
+        }
+
         /**
          * Checks whether this segment crosses other segment
          * @param s2 The other segment
          * @return true if both segments crosses
          */
         public boolean intersects(ExtendedSegment s2) {
-            if (n1.equals(s2.n1) || n2.equals(s2.n2) ||
-                    n1.equals(s2.n2) || n2.equals(s2.n1))
+            if (sharesNode(s2))
                 return false;
 
             return Line2D.linesIntersect(
@@ -120,6 +120,11 @@ public class DeprecatedTags extends Test {
                 alternative("fence_type", "chain_link"));
     }
 
+    @Override
+    public boolean isPartitionable() {
+        return true;
+    }
+
     /**
      * Visiting call for primitives.
      * @param p The primitive to inspect.
@@ -6,21 +6,20 @@ import static org.openstreetmap.josm.tools.I18n.tr;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 
-import org.openstreetmap.josm.data.osm.QuadBuckets;
+import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.data.validation.Severity;
 import org.openstreetmap.josm.data.validation.Test;
 import org.openstreetmap.josm.data.validation.TestError;
 import org.openstreetmap.josm.gui.mappaint.ElemStyles;
 import org.openstreetmap.josm.tools.Geometry;
-import org.openstreetmap.josm.tools.Predicate;
-import org.openstreetmap.josm.tools.Utils;
 
 public class OverlappingAreas extends Test {
 
     protected static final int OVERLAPPING_AREAS = 2201;
-    protected QuadBuckets<Way> index = new QuadBuckets<Way>();
+    protected List<Way> areas = new ArrayList<Way>();
 
     public OverlappingAreas() {
         super(tr("Overlapping Areas"), tr("This test checks if areas overlap."));
@@ -29,26 +28,41 @@ public class OverlappingAreas extends Test {
     @Override
     public void visit(Way w) {
         if (w.isUsable() && w.isArea() && ElemStyles.hasAreaElemStyle(w, false)) {
-            index.add(w);
+            areas.add(w);
         }
     }
 
+    /**
+     * Finds the areas which partially overlap each area. Only areas whose outlines
+     * touch can overlap partially, they are found with a plane sweep.
+     * @return for each area, the areas overlapping it, in the order of the areas
+     */
+    private List<List<Way>> findOverlaps() {
+        List<List<Node>> outlines = new ArrayList<List<Node>>(areas.size());
+        List<List<Way>> overlaps = new ArrayList<List<Way>>(areas.size());
+        for (Way w : areas) {
+            outlines.add(w.getNodes());
+            overlaps.add(new ArrayList<Way>());
+        }
+        List<Long> pairs = new ArrayList<Long>(Geometry.getTouchingWays(outlines));
+        Collections.sort(pairs);
+        for (long pair : pairs) {
+            int i = (int) (pair >>> 32);
+            int j = (int) pair;
+            if (Geometry.polygonIntersection(outlines.get(i), outlines.get(j)) == Geometry.PolygonIntersection.CROSSING) {
+                overlaps.get(i).add(areas.get(j));
+                overlaps.get(j).add(areas.get(i));
+            }
+        }
+        return overlaps;
+    }
+
     @Override
     public void endTest() {
-        for (final Way w : index) {
-            Collection<Way> overlaps = Utils.filter(
-                    index.search(w.getBBox()),
-                    new Predicate<Way>() {
-
-                        @Override
-                        public boolean evaluate(Way wi) {
-                            if (w.equals(wi))
-                                return false;
-                            else
-                                return Geometry.polygonIntersection(w.getNodes(), wi.getNodes())
-                                        == Geometry.PolygonIntersection.CROSSING;
-                        }
-                    });
+        List<List<Way>> allOverlaps = findOverlaps();
+        for (int i = 0; i < areas.size(); i++) {
+            Way w = areas.get(i);
+            Collection<Way> overlaps = allOverlaps.get(i);
             if (!overlaps.isEmpty()) {
                 Collection<Way> overlapsWater = new ArrayList<Way>();
                 Collection<Way> overlapsOther = new ArrayList<Way>();
@@ -10,6 +10,9 @@ import java.awt.GridBagLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -20,6 +23,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -59,6 +63,7 @@ import org.openstreetmap.josm.gui.tagging.TaggingPreset;
 import org.openstreetmap.josm.gui.tagging.TaggingPresetItem;
 import org.openstreetmap.josm.gui.tagging.TaggingPresetItems.KeyedItem;
 import org.openstreetmap.josm.io.MirroredInputStream;
+import org.openstreetmap.josm.io.ParsedSourceCache;
 import org.openstreetmap.josm.tools.GBC;
 import org.openstreetmap.josm.tools.MultiMap;
 
@@ -84,6 +89,11 @@ public class TagChecker extends Test
     protected static final List<String> ignoreDataEquals = new ArrayList<String>();
     protected static final List<String> ignoreDataEndsWith = new ArrayList<String>();
     protected static final List<IgnoreKeyPair> ignoreDataKeyPair = new ArrayList<IgnoreKeyPair>();
+    /** The data files read before, so that unchanged files are not parsed again */
+    private static final ParsedSourceCache<DataFile> DATA_FILE_CACHE =
+            new ParsedSourceCache<DataFile>("tagchecker", DataFileCodec.VERSION, new DataFileCodec());
+    /** Whether the data files have been read since the last {@link #initialize()} */
+    private static volatile boolean dataLoaded;
 
     /** The preferences prefix */
     protected static final String PREFIX = ValidatorPreference.PREFIX + "." + TagChecker.class.getSimpleName();
@@ -156,10 +166,30 @@ public class TagChecker extends Test
 
     @Override
     public void initialize() throws IOException {
-        initializeData();
+        // the data files are read when the checker runs for the first time, not at startup
+        dataLoaded = false;
         initializePresets();
     }
 
+    /**
+     * Reads the data files if this has not been done since the last {@link #initialize()}.
+     * Files that cannot be read are reported once, they are not retried on every run.
+     */
+    protected static void ensureDataLoaded() {
+        if (dataLoaded)
+            return;
+        synchronized (TagChecker.class) {
+            if (!dataLoaded) {
+                try {
+                    initializeData();
+                } catch (IOException e) {
+                    System.err.println(e.getMessage());
+                }
+                dataLoaded = true;
+            }
+        }
+    }
+
     /**
      * Reads the spellcheck file into a HashMap.
      * The data file is a list of words, beginning with +/-. If it starts with +,
@@ -205,70 +235,21 @@ public class TagChecker extends Test
             return;
         for (String source : sources.split(";")) {
             try {
-                MirroredInputStream s = new MirroredInputStream(source);
-                InputStreamReader r;
-                try {
-                    r = new InputStreamReader(s, "UTF-8");
-                } catch (UnsupportedEncodingException e) {
-                    r = new InputStreamReader(s);
-                }
-                BufferedReader reader = new BufferedReader(r);
-
-                String okValue = null;
-                boolean tagcheckerfile = false;
-                boolean ignorefile = false;
-                String line;
-                while ((line = reader.readLine()) != null && (tagcheckerfile || line.length() != 0)) {
-                    if (line.startsWith("#")) {
-                        if (line.startsWith("# JOSM TagChecker")) {
-                            tagcheckerfile = true;
-                        }
-                        if (line.startsWith("# JOSM IgnoreTags")) {
-                            ignorefile = true;
-                        }
-                        continue;
-                    } else if (ignorefile) {
-                        line = line.trim();
-                        if (line.length() < 4) {
-                            continue;
-                        }
-
-                        String key = line.substring(0, 2);
-                        line = line.substring(2);
-
-                        if (key.equals("S:")) {
-                            ignoreDataStartsWith.add(line);
-                        } else if (key.equals("E:")) {
-                            ignoreDataEquals.add(line);
-                        } else if (key.equals("F:")) {
-                            ignoreDataEndsWith.add(line);
-                        } else if (key.equals("K:")) {
-                            IgnoreKeyPair tmp = new IgnoreKeyPair();
-                            int mid = line.indexOf('=');
-                            tmp.key = line.substring(0, mid);
-                            tmp.value = line.substring(mid+1);
-                            ignoreDataKeyPair.add(tmp);
-                        }
-                        continue;
-                    } else if (tagcheckerfile) {
-                        if (line.length() > 0) {
-                            CheckerData d = new CheckerData();
-                            String err = d.getData(line);
-
-                            if (err == null) {
-                                checkerData.add(d);
-                            } else {
-                                System.err.println(tr("Invalid tagchecker line - {0}: {1}", err, line));
-                            }
-                        }
-                    } else if (line.charAt(0) == '+') {
-                        okValue = line.substring(1);
-                    } else if (line.charAt(0) == '-' && okValue != null) {
-                        spellCheckKeyData.put(line.substring(1), okValue);
-                    } else {
-                        System.err.println(tr("Invalid spellcheck line: {0}", line));
+                byte[] content = ParsedSourceCache.readContent(new MirroredInputStream(source));
+                DataFile data = DATA_FILE_CACHE.get(source, content);
+                if (data == null) {
+                    data = readDataFile(content);
+                    // a file with invalid lines is read again, so that they are reported every time
+                    if (data.valid) {
+                        DATA_FILE_CACHE.put(source, content, data);
                     }
                 }
+                checkerData.addAll(data.checkerData);
+                ignoreDataStartsWith.addAll(data.ignoreDataStartsWith);
+                ignoreDataEquals.addAll(data.ignoreDataEquals);
+                ignoreDataEndsWith.addAll(data.ignoreDataEndsWith);
+                ignoreDataKeyPair.addAll(data.ignoreDataKeyPair);
+                spellCheckKeyData.putAll(data.spellCheckKeyData);
             } catch (IOException e) {
                 errorSources += source + "\n";
             }
@@ -278,6 +259,82 @@ public class TagChecker extends Test
             throw new IOException( tr("Could not access data file(s):\n{0}", errorSources) );
     }
 
+    /**
+     * Reads one of the data files: a spellcheck, ignore or tagchecker file.
+     * @param content the content of the file
+     * @return the data of the file
+     * @throws IOException if an I/O error occurs
+     */
+    private static DataFile readDataFile(byte[] content) throws IOException {
+        DataFile data = new DataFile();
+        InputStreamReader r;
+        try {
+            r = new InputStreamReader(new ByteArrayInputStream(content), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            r = new InputStreamReader(new ByteArrayInputStream(content));
+        }
+        BufferedReader reader = new BufferedReader(r);
+
+        String okValue = null;
+        boolean tagcheckerfile = false;
+        boolean ignorefile = false;
+        String line;
+        while ((line = reader.readLine()) != null && (tagcheckerfile || line.length() != 0)) {
+            if (line.startsWith("#")) {
+                if (line.startsWith("# JOSM TagChecker")) {
+                    tagcheckerfile = true;
+                }
+                if (line.startsWith("# JOSM IgnoreTags")) {
+                    ignorefile = true;
+                }
+                continue;
+            } else if (ignorefile) {
+                line = line.trim();
+                if (line.length() < 4) {
+                    continue;
+                }
+
+                String key = line.substring(0, 2);
+                line = line.substring(2);
+
+                if (key.equals("S:")) {
+                    data.ignoreDataStartsWith.add(line);
+                } else if (key.equals("E:")) {
+                    data.ignoreDataEquals.add(line);
+                } else if (key.equals("F:")) {
+                    data.ignoreDataEndsWith.add(line);
+                } else if (key.equals("K:")) {
+                    IgnoreKeyPair tmp = new IgnoreKeyPair();
+                    int mid = line.indexOf('=');
+                    tmp.key = line.substring(0, mid);
+                    tmp.value = line.substring(mid+1);
+                    data.ignoreDataKeyPair.add(tmp);
+                }
+                continue;
+            } else if (tagcheckerfile) {
+                if (line.length() > 0) {
+                    CheckerData d = new CheckerData();
+                    String err = d.getData(line);
+
+                    if (err == null) {
+                        data.checkerData.add(d);
+                    } else {
+                        System.err.println(tr("Invalid tagchecker line - {0}: {1}", err, line));
+                        data.valid = false;
+                    }
+                }
+            } else if (line.charAt(0) == '+') {
+                okValue = line.substring(1);
+            } else if (line.charAt(0) == '-' && okValue != null) {
+                data.spellCheckKeyData.put(line.substring(1), okValue);
+            } else {
+                System.err.println(tr("Invalid spellcheck line: {0}", line));
+                data.valid = false;
+            }
+        }
+        return data;
+    }
+
     /**
      * Reads the presets data.
      *
@@ -476,6 +533,7 @@ public class TagChecker extends Test
     @Override
     public void startTest(ProgressMonitor monitor) {
         super.startTest(monitor);
+        ensureDataLoaded();
         checkKeys = Main.pref.getBoolean(PREF_CHECK_KEYS, true);
         if (isBeforeUpload) {
             checkKeys = checkKeys && Main.pref.getBoolean(PREF_CHECK_KEYS_BEFORE_UPLOAD, true);
@@ -497,6 +555,11 @@ public class TagChecker extends Test
         }
     }
 
+    @Override
+    public boolean isPartitionable() {
+        return true;
+    }
+
     @Override
     public void visit(Collection<OsmPrimitive> selection) {
         if (checkKeys || checkValues || checkComplex || checkFixmes) {
@@ -701,6 +764,7 @@ public class TagChecker extends Test
 
     @Override
     public Command fixError(TestError testError) {
+        ensureDataLoaded();
 
         List<Command> commands = new ArrayList<Command>(50);
 
@@ -759,6 +823,150 @@ public class TagChecker extends Test
         public String value;
     }
 
+    /**
+     * The data read from one of the data files.
+     */
+    private static class DataFile {
+        final List<CheckerData> checkerData = new ArrayList<CheckerData>();
+        final List<String> ignoreDataStartsWith = new ArrayList<String>();
+        final List<String> ignoreDataEquals = new ArrayList<String>();
+        final List<String> ignoreDataEndsWith = new ArrayList<String>();
+        final List<IgnoreKeyPair> ignoreDataKeyPair = new ArrayList<IgnoreKeyPair>();
+        final Map<String, String> spellCheckKeyData = new LinkedHashMap<String, String>();
+        /** false if the file contains invalid lines */
+        boolean valid = true;
+    }
+
+    /**
+     * Writes and reads the data of a data file for the {@link ParsedSourceCache}.
+     */
+    private static class DataFileCodec implements ParsedSourceCache.Codec<DataFile> {
+        /** Increase whenever {@link DataFile} or {@link CheckerData} changes */
+        static final int VERSION = 1;
+
+        @Override
+        public void write(DataFile data, DataOutputStream out) throws IOException {
+            out.writeInt(data.checkerData.size());
+            for (CheckerData d : data.checkerData) {
+                writeString(d.description, out);
+                out.writeByte(d.type == null ? -1 : d.type.ordinal());
+                out.writeInt(d.code);
+                out.writeByte(d.severity.ordinal());
+                out.writeInt(d.data.size());
+                for (CheckerData.CheckerElement e : d.data) {
+                    writeStringOrPattern(e.tag, out);
+                    writeStringOrPattern(e.value, out);
+                    out.writeBoolean(e.noMatch);
+                    out.writeBoolean(e.tagAll);
+                    out.writeBoolean(e.valueAll);
+                    out.writeBoolean(e.valueBool);
+                }
+            }
+            writeStrings(data.ignoreDataStartsWith, out);
+            writeStrings(data.ignoreDataEquals, out);
+            writeStrings(data.ignoreDataEndsWith, out);
+            out.writeInt(data.ignoreDataKeyPair.size());
+            for (IgnoreKeyPair pair : data.ignoreDataKeyPair) {
+                out.writeUTF(pair.key);
+                out.writeUTF(pair.value);
+            }
+            out.writeInt(data.spellCheckKeyData.size());
+            for (Entry<String, String> e : data.spellCheckKeyData.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeUTF(e.getValue());
+            }
+        }
+
+        @Override
+        public DataFile read(DataInputStream in) throws IOException {
+            DataFile data = new DataFile();
+            for (int i = in.readInt(); i > 0; i--) {
+                CheckerData d = new CheckerData();
+                d.description = readString(in);
+                int type = in.readByte();
+                d.type = type < 0 ? null : OsmPrimitiveType.values()[type];
+                d.code = in.readInt();
+                d.severity = Severity.values()[in.readByte()];
+                for (int j = in.readInt(); j > 0; j--) {
+                    CheckerData.CheckerElement e = new CheckerData.CheckerElement();
+                    e.tag = readStringOrPattern(in);
+                    e.value = readStringOrPattern(in);
+                    e.noMatch = in.readBoolean();
+                    e.tagAll = in.readBoolean();
+                    e.valueAll = in.readBoolean();
+                    e.valueBool = in.readBoolean();
+                    d.data.add(e);
+                }
+                data.checkerData.add(d);
+            }
+            readStrings(data.ignoreDataStartsWith, in);
+            readStrings(data.ignoreDataEquals, in);
+            readStrings(data.ignoreDataEndsWith, in);
+            for (int i = in.readInt(); i > 0; i--) {
+                IgnoreKeyPair pair = new IgnoreKeyPair();
+                pair.key = in.readUTF();
+                pair.value = in.readUTF();
+                data.ignoreDataKeyPair.add(pair);
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                data.spellCheckKeyData.put(in.readUTF(), in.readUTF());
+            }
+            return data;
+        }
+
+        private static void writeString(String s, DataOutputStream out) throws IOException {
+            out.writeBoolean(s != null);
+            if (s != null) {
+                out.writeUTF(s);
+            }
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            return in.readBoolean() ? in.readUTF() : null;
+        }
+
+        private static void writeStrings(List<String> strings, DataOutputStream out) throws IOException {
+            out.writeInt(strings.size());
+            for (String s : strings) {
+                out.writeUTF(s);
+            }
+        }
+
+        private static void readStrings(List<String> strings, DataInputStream in) throws IOException {
+            for (int i = in.readInt(); i > 0; i--) {
+                strings.add(in.readUTF());
+            }
+        }
+
+        /** Writes the tag or value of a {@link CheckerData.CheckerElement}: null, a string or a pattern */
+        private static void writeStringOrPattern(Object o, DataOutputStream out) throws IOException {
+            if (o instanceof Pattern) {
+                out.writeByte(2);
+                out.writeUTF(((Pattern) o).pattern());
+                out.writeInt(((Pattern) o).flags());
+            } else if (o != null) {
+                out.writeByte(1);
+                out.writeUTF((String) o);
+            } else {
+                out.writeByte(0);
+            }
+        }
+
+        private static Object readStringOrPattern(DataInputStream in) throws IOException {
+            switch (in.readByte()) {
+            case 0:
+                return null;
+            case 1:
+                return in.readUTF();
+            case 2:
+                String pattern = in.readUTF();
+                return Pattern.compile(pattern, in.readInt());
+            default:
+                throw new IOException("Invalid checker element");
+            }
+        }
+    }
+
     protected static class CheckerData {
         private String description;
         private List<CheckerElement> data = new ArrayList<CheckerElement>();
@@ -777,6 +985,10 @@ public class TagChecker extends Test
             public boolean valueAll = false;
             public boolean valueBool = false;
 
+            private CheckerElement() {
+                // used by DataFileCodec
+            }
+
             private Pattern getPattern(String str) throws IllegalStateException, PatternSyntaxException {
                 if (str.endsWith("/i"))
                     return Pattern.compile(str.substring(1,str.length()-2), Pattern.CASE_INSENSITIVE);
@@ -43,6 +43,11 @@ public class UntaggedNode extends Test {
         super.startTest(monitor);
     }
 
+    @Override
+    public boolean isPartitionable() {
+        return true;
+    }
+
     @Override
     public void visit(Collection<OsmPrimitive> selection) {
         for (OsmPrimitive p : selection) {
@@ -117,6 +117,11 @@ public class UntaggedWay extends Test
         }
     }
 
+    @Override
+    public boolean isPartitionable() {
+        return true;
+    }
+
     @Override
     public void startTest(ProgressMonitor monitor) {
         super.startTest(monitor);
@@ -50,6 +50,7 @@ import org.openstreetmap.josm.plugins.PluginInformation;
 import org.openstreetmap.josm.tools.BugReportExceptionHandler;
 import org.openstreetmap.josm.tools.I18n;
 import org.openstreetmap.josm.tools.ImageProvider;
+import org.openstreetmap.josm.tools.StartupProfiler;
 import org.openstreetmap.josm.tools.Utils;
 
 /**
@@ -254,7 +255,9 @@ public class MainApplication extends Main {
      * @param argArray Command-line arguments
      */
     public static void main(final String[] argArray) {
+        StartupProfiler.Phase phase = StartupProfiler.begin("Initializing translations");
         I18n.init();
+        phase.end();
         Main.checkJava6();
 
         // construct argument table
@@ -307,12 +310,14 @@ public class MainApplication extends Main {
             System.exit(0);
         }
 
+        phase = StartupProfiler.begin("Loading preferences");
         Main.pref.init(args.containsKey(Option.RESET_PREFERENCES));
 
         if (!languageGiven) {
             I18n.set(Main.pref.get("language", null));
         }
         Main.pref.updateSystemProperties();
+        phase.end();
 
         final JFrame mainFrame = new JFrame(tr("Java OpenStreetMap Editor"));
         Main.parent = mainFrame;
@@ -347,6 +352,7 @@ public class MainApplication extends Main {
             System.exit(0);
         }
 
+        phase = StartupProfiler.begin("Showing splash screen");
         final SplashScreen splash = new SplashScreen();
         final ProgressMonitor monitor = splash.getProgressMonitor();
         monitor.beginTask(tr("Initializing"));
@@ -359,27 +365,42 @@ public class MainApplication extends Main {
             }
         });
 
+        phase.end();
+
+        phase = StartupProfiler.begin("Building list of plugins");
         List<PluginInformation> pluginsToLoad = PluginHandler.buildListOfPluginsToLoad(splash,monitor.createSubTaskMonitor(1, false));
         if (!pluginsToLoad.isEmpty() && PluginHandler.checkAndConfirmPluginUpdate(splash)) {
             monitor.subTask(tr("Updating plugins"));
             pluginsToLoad = PluginHandler.updatePlugins(splash,pluginsToLoad, monitor.createSubTaskMonitor(1, false));
         }
 
+        phase.end();
+
         monitor.indeterminateSubTask(tr("Installing updated plugins"));
+        phase = StartupProfiler.begin("Installing updated plugins");
         PluginHandler.installDownloadedPlugins(true);
+        phase.end();
 
         monitor.indeterminateSubTask(tr("Loading early plugins"));
+        phase = StartupProfiler.begin("Loading early plugins");
         PluginHandler.loadEarlyPlugins(splash,pluginsToLoad, monitor.createSubTaskMonitor(1, false));
+        phase.end();
 
         monitor.indeterminateSubTask(tr("Setting defaults"));
+        phase = StartupProfiler.begin("Setting defaults");
         preConstructorInit(args);
+        phase.end();
 
         monitor.indeterminateSubTask(tr("Creating main GUI"));
+        phase = StartupProfiler.begin("Creating main GUI");
         final Main main = new MainApplication(mainFrame);
+        phase.end();
 
         monitor.indeterminateSubTask(tr("Loading plugins"));
+        phase = StartupProfiler.begin("Loading plugins");
         PluginHandler.loadLatePlugins(splash,pluginsToLoad,  monitor.createSubTaskMonitor(1, false));
         toolbar.refreshToolbarControl();
+        phase.end();
 
         GuiHelper.runInEDT(new Runnable() {
             @Override
@@ -440,6 +461,8 @@ public class MainApplication extends Main {
                 postConstructorProcessCmdLine(args_final);
 
                 DownloadDialog.autostartIfNeeded();
+
+                StartupProfiler.finish();
             }
         });
 
@@ -463,6 +463,18 @@ public class NavigatableComponent extends JComponent implements Helpful {
         zoomTo(newCenter, scale);
     }
 
+    /**
+     * Sets center and scale without clamping them to the world bounds, adding a zoom
+     * undo entry or notifying any listener. Only meant for components that are used
+     * for offscreen rendering and never shown on screen.
+     * @param newCenter The center to use.
+     * @param newScale The scale to use.
+     */
+    protected void setViewportSilently(EastNorth newCenter, double newScale) {
+        center = newCenter;
+        scale = newScale;
+    }
+
     public void zoomTo(LatLon newCenter) {
         zoomTo(Projections.project(newCenter));
     }
@@ -107,6 +107,9 @@ public class FilterTableModel extends AbstractTableModel {
         }
 
         if (Main.isDisplayingMapView() && changed) {
+            if (Main.main.getEditLayer() != null) {
+                Main.main.getEditLayer().invalidateRenderCache();
+            }
             Main.map.mapView.repaint();
             Main.map.filterDialog.updateDialogHeader();
         }
@@ -158,6 +161,9 @@ public class FilterTableModel extends AbstractTableModel {
         }
 
         if (changed) {
+            if (Main.main.getEditLayer() != null) {
+                Main.main.getEditLayer().invalidateRenderCache();
+            }
             Main.map.mapView.repaint();
             Main.map.filterDialog.updateDialogHeader();
             ds.clearSelection(deselect);
@@ -169,6 +175,9 @@ public class FilterTableModel extends AbstractTableModel {
         DataSet ds = Main.main.getCurrentDataSet();
         if (ds != null) {
             FilterWorker.clearFilterFlags(ds.allPrimitives());
+            if (Main.main.getEditLayer() != null) {
+                Main.main.getEditLayer().invalidateRenderCache();
+            }
         }
         disabledCount = 0;
         disabledAndHiddenCount = 0;
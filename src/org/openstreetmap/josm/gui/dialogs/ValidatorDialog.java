@@ -35,6 +35,7 @@ import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.WaySegment;
 import org.openstreetmap.josm.data.osm.visitor.BoundingXYVisitor;
+import org.openstreetmap.josm.data.validation.IncrementalValidator;
 import org.openstreetmap.josm.data.validation.OsmValidator;
 import org.openstreetmap.josm.data.validation.TestError;
 import org.openstreetmap.josm.data.validation.ValidatorVisitor;
@@ -82,6 +83,9 @@ public class ValidatorDialog extends ToggleDialog implements SelectionChangedLis
 
     private OsmDataLayer linkedLayer;
 
+    /** Revalidates the edited primitives while the dialog is shown */
+    private final IncrementalValidator incrementalValidator = new IncrementalValidator();
+
     /**
      * Constructor
      */
@@ -163,10 +167,14 @@ public class ValidatorDialog extends ToggleDialog implements SelectionChangedLis
         if (activeLayer != null) {
             activeLayerChange(null, activeLayer);
         }
+        if (IncrementalValidator.PROP_INCREMENTAL.get()) {
+            incrementalValidator.start();
+        }
     }
 
     @Override
     public void hideNotify() {
+        incrementalValidator.stop();
         MapView.removeLayerChangeListener(this);
         DataSet.removeSelectionListener(this);
     }
@@ -0,0 +1,175 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+import static org.openstreetmap.josm.tools.I18n.trn;
+
+import java.awt.Graphics2D;
+import java.awt.GridBagLayout;
+import java.awt.Point;
+import java.awt.event.ActionEvent;
+import java.awt.geom.GeneralPath;
+import java.io.File;
+
+import javax.swing.AbstractAction;
+import javax.swing.Action;
+import javax.swing.Icon;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.actions.RenameLayerAction;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.CompactDataSet;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.visitor.BoundingXYVisitor;
+import org.openstreetmap.josm.data.osm.visitor.paint.PaintColors;
+import org.openstreetmap.josm.gui.MapView;
+import org.openstreetmap.josm.gui.dialogs.LayerListDialog;
+import org.openstreetmap.josm.gui.dialogs.LayerListPopup;
+import org.openstreetmap.josm.tools.GBC;
+import org.openstreetmap.josm.tools.ImageProvider;
+
+/**
+ * A read only layer for a {@link CompactDataSet}, used for files which are too large
+ * to be loaded into an {@link OsmDataLayer}.
+ *
+ * The ways are drawn as a wireframe straight from the compact storage. To edit the
+ * data, the visible area is copied into a new {@link OsmDataLayer}.
+ */
+public class CompactDataLayer extends Layer {
+
+    public final CompactDataSet data;
+
+    public CompactDataLayer(CompactDataSet data, String name, File associatedFile) {
+        super(name);
+        this.data = data;
+        setAssociatedFile(associatedFile);
+    }
+
+    @Override
+    public Icon getIcon() {
+        return ImageProvider.get("layer", "osmdata_small");
+    }
+
+    /**
+     * Draws the ways intersecting the visible area as wireframe, reading the coordinates
+     * straight from the storage. Ways smaller than a pixel are drawn as a point.
+     */
+    @Override
+    public void paint(Graphics2D g, MapView mv, Bounds box) {
+        double pixelLat = (box.getMax().lat() - box.getMin().lat()) / Math.max(1, mv.getHeight());
+        double pixelLon = (box.getMax().lon() - box.getMin().lon()) / Math.max(1, mv.getWidth());
+        GeneralPath path = new GeneralPath();
+        for (int w : data.searchWays(box)) {
+            int count = data.getWayNodesCount(w);
+            if (count < 2) {
+                continue;
+            }
+            Bounds bounds = data.getWayBounds(w);
+            LatLon min = bounds.getMin();
+            LatLon max = bounds.getMax();
+            if (max.lat() - min.lat() < pixelLat && max.lon() - min.lon() < pixelLon) {
+                Point p = mv.getPoint(min);
+                path.moveTo(p.x, p.y);
+                path.lineTo(p.x + 1, p.y);
+                continue;
+            }
+            boolean first = true;
+            for (int i = 0; i < count; i++) {
+                int n = data.getWayNodeIndex(w, i);
+                if (!data.hasCoor(n)) {
+                    first = true;
+                    continue;
+                }
+                Point p = mv.getPoint(new LatLon(data.getLat(n), data.getLon(n)));
+                if (first) {
+                    path.moveTo(p.x, p.y);
+                    first = false;
+                } else {
+                    path.lineTo(p.x, p.y);
+                }
+            }
+        }
+        g.setColor(PaintColors.INACTIVE.get());
+        g.draw(path);
+    }
+
+    @Override
+    public String getToolTipText() {
+        String tool = trn("{0} node", "{0} nodes", data.getNodesCount(), data.getNodesCount()) + ", ";
+        tool += trn("{0} way", "{0} ways", data.getWaysCount(), data.getWaysCount());
+        File f = getAssociatedFile();
+        if (f != null) {
+            tool = "<html>" + tool + "<br>" + f.getPath() + "</html>";
+        }
+        return tool;
+    }
+
+    @Override
+    public void mergeFrom(Layer from) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isMergable(Layer other) {
+        return false;
+    }
+
+    @Override
+    public void visitBoundingBox(BoundingXYVisitor v) {
+        Bounds bounds = data.getBounds();
+        if (bounds != null) {
+            v.visit(bounds);
+        }
+    }
+
+    @Override
+    public Object getInfoComponent() {
+        JPanel p = new JPanel(new GridBagLayout());
+        p.add(new JLabel(tr("{0} consists of:", getName())), GBC.eol());
+        p.add(new JLabel(trn("{0} node", "{0} nodes", data.getNodesCount(), data.getNodesCount()),
+                ImageProvider.get("data", "node"), JLabel.HORIZONTAL), GBC.eop().insets(15, 0, 0, 0));
+        p.add(new JLabel(trn("{0} way", "{0} ways", data.getWaysCount(), data.getWaysCount()),
+                ImageProvider.get("data", "way"), JLabel.HORIZONTAL), GBC.eop().insets(15, 0, 0, 0));
+        p.add(new JLabel(trn("{0} relation", "{0} relations", data.getRelations().size(), data.getRelations().size()),
+                ImageProvider.get("data", "relation"), JLabel.HORIZONTAL), GBC.eop().insets(15, 0, 0, 0));
+        return p;
+    }
+
+    @Override
+    public Action[] getMenuEntries() {
+        return new Action[] {
+                LayerListDialog.getInstance().createShowHideLayerAction(),
+                LayerListDialog.getInstance().createDeleteLayerAction(),
+                SeparatorLayerAction.INSTANCE,
+                new EditVisibleAreaAction(),
+                new RenameLayerAction(getAssociatedFile(), this),
+                SeparatorLayerAction.INSTANCE,
+                new LayerListPopup.InfoAction(this) };
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    /**
+     * Copies the primitives in the visible area into a new data layer.
+     */
+    public class EditVisibleAreaAction extends AbstractAction {
+
+        public EditVisibleAreaAction() {
+            super(tr("Edit visible area"), ImageProvider.get("dialogs", "edit"));
+            putValue(SHORT_DESCRIPTION, tr("Copy the data in the visible area into a new data layer for editing"));
+        }
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            if (Main.map == null)
+                return;
+            DataSet ds = data.toDataSet(Main.map.mapView.getRealBounds());
+            Main.main.addLayer(new OsmDataLayer(ds, tr("Area of {0}", getName()), null));
+        }
+    }
+}
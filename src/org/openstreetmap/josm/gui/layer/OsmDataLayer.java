@@ -60,6 +60,7 @@ import org.openstreetmap.josm.data.osm.IPrimitive;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.TagSetStorage;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
 import org.openstreetmap.josm.data.osm.event.DataSetListenerAdapter;
@@ -67,6 +68,7 @@ import org.openstreetmap.josm.data.osm.event.DataSetListenerAdapter.Listener;
 import org.openstreetmap.josm.data.osm.visitor.AbstractVisitor;
 import org.openstreetmap.josm.data.osm.visitor.BoundingXYVisitor;
 import org.openstreetmap.josm.data.osm.visitor.paint.MapRendererFactory;
+import org.openstreetmap.josm.data.osm.visitor.paint.RenderTileCache;
 import org.openstreetmap.josm.data.osm.visitor.paint.Rendering;
 import org.openstreetmap.josm.data.osm.visitor.paint.relations.MultipolygonCache;
 import org.openstreetmap.josm.data.projection.Projection;
@@ -97,6 +99,7 @@ public class OsmDataLayer extends Layer implements Listener, SelectionChangedLis
     private boolean requiresUploadToServer = false;
     private boolean isChanged = true;
     private int highlightUpdateCount;
+    private RenderTileCache renderTileCache;
 
     public List<TestError> validationErrors = new ArrayList<TestError>();
 
@@ -316,11 +319,33 @@ public class OsmDataLayer extends Layer implements Listener, SelectionChangedLis
             g.fill(a);
         }
 
-        Rendering painter = MapRendererFactory.getInstance().createActiveRenderer(g, mv, inactive);
-        painter.render(data, virtual, box);
+        if (RenderTileCache.PROP_ENABLED.get()) {
+            if (renderTileCache == null) {
+                renderTileCache = new RenderTileCache(data);
+            }
+            renderTileCache.paint(g, mv, inactive, virtual);
+        } else {
+            if (renderTileCache != null) {
+                renderTileCache.destroy();
+                renderTileCache = null;
+            }
+            Rendering painter = MapRendererFactory.getInstance().createActiveRenderer(g, mv, inactive);
+            painter.render(data, virtual, box);
+        }
         Main.map.conflictDialog.paintConflicts(g, mv);
     }
 
+    /**
+     * Drops the tiles cached for painting this layer. Needed after changes to the
+     * rendering of primitives that are not reported as data set events, such as
+     * a new filter state.
+     */
+    public void invalidateRenderCache() {
+        if (renderTileCache != null) {
+            renderTileCache.clear();
+        }
+    }
+
     @Override public String getToolTipText() {
         int nodes = new FilteredCollection<Node>(data.getNodes(), OsmPrimitive.nonDeletedPredicate).size();
         int ways = new FilteredCollection<Way>(data.getWays(), OsmPrimitive.nonDeletedPredicate).size();
@@ -481,6 +506,8 @@ public class OsmDataLayer extends Layer implements Listener, SelectionChangedLis
         p.add(new JLabel(wayText, ImageProvider.get("data", "way"), JLabel.HORIZONTAL), GBC.eop().insets(15,0,0,0));
         p.add(new JLabel(relationText, ImageProvider.get("data", "relation"), JLabel.HORIZONTAL), GBC.eop().insets(15,0,0,0));
         p.add(new JLabel(tr("API version: {0}", (data.getVersion() != null) ? data.getVersion() : tr("unset"))), GBC.eop().insets(15,0,0,0));
+        long tagMemorySaved = TagSetStorage.getMemorySaved(data.allPrimitives());
+        p.add(new JLabel(tr("Memory saved by shared tags: {0} KiB", tagMemorySaved / 1024)), GBC.eop().insets(15,0,0,0));
         if (isUploadDiscouraged()) {
             p.add(new JLabel(tr("Upload is discouraged")), GBC.eop().insets(15,0,0,0));
         }
@@ -718,6 +745,10 @@ public class OsmDataLayer extends Layer implements Listener, SelectionChangedLis
     @Override
     public void destroy() {
         DataSet.removeSelectionListener(this);
+        if (renderTileCache != null) {
+            renderTileCache.destroy();
+            renderTileCache = null;
+        }
     }
 
     @Override
@@ -39,12 +39,14 @@ import javax.swing.JOptionPane;
 import javax.swing.JPopupMenu;
 
 import org.openstreetmap.gui.jmapviewer.AttributionSupport;
+import org.openstreetmap.gui.jmapviewer.ConcurrentTileCache;
 import org.openstreetmap.gui.jmapviewer.Coordinate;
 import org.openstreetmap.gui.jmapviewer.JobDispatcher;
-import org.openstreetmap.gui.jmapviewer.MemoryTileCache;
 import org.openstreetmap.gui.jmapviewer.OsmFileCacheTileLoader;
+import org.openstreetmap.gui.jmapviewer.OsmMappedCacheTileLoader;
 import org.openstreetmap.gui.jmapviewer.OsmTileLoader;
 import org.openstreetmap.gui.jmapviewer.Tile;
+import org.openstreetmap.gui.jmapviewer.TileViewport;
 import org.openstreetmap.gui.jmapviewer.interfaces.CachedTileLoader;
 import org.openstreetmap.gui.jmapviewer.interfaces.TileCache;
 import org.openstreetmap.gui.jmapviewer.interfaces.TileClearController;
@@ -107,7 +109,16 @@ public class TMSLayer extends ImageryLayer implements ImageObserver, TileLoaderL
     //public static final BooleanProperty PROP_DRAW_DEBUG = new BooleanProperty(PREFERENCE_PREFIX + ".draw_debug", false);
     public static final BooleanProperty PROP_ADD_TO_SLIPPYMAP_CHOOSER = new BooleanProperty(PREFERENCE_PREFIX + ".add_to_slippymap_chooser", true);
     public static final IntegerProperty PROP_TMS_JOBS = new IntegerProperty("tmsloader.maxjobs", 25);
+    /** The maximum number of tiles loaded from one host at a time, by default the same as the number of workers */
+    public static final IntegerProperty PROP_TMS_JOBS_PER_HOST = new IntegerProperty("tmsloader.maxjobsperhost", 25);
+    /** The maximum size in megabytes of the decoded tile images kept in memory by all layers together */
+    public static final IntegerProperty PROP_MEMORY_CACHE_MB = new IntegerProperty(PREFERENCE_PREFIX + ".memory_cache_mb",
+            (int) Math.min(128, Runtime.getRuntime().maxMemory() / 8 / 1024 / 1024));
     public static final StringProperty PROP_TILECACHE_DIR;
+    /** Keep the cached tiles of each tile source in a few memory-mapped files instead of one file per tile */
+    public static final BooleanProperty PROP_TILECACHE_MAPPED = new BooleanProperty(PREFERENCE_PREFIX + ".tilecache_mapped", false);
+    /** The maximum size in megabytes of the memory-mapped tile cache of each tile source */
+    public static final IntegerProperty PROP_TILECACHE_MAX_MB = new IntegerProperty(PREFERENCE_PREFIX + ".tilecache_max_mb", 512);
 
     static {
         String defPath = null;
@@ -124,7 +135,10 @@ public class TMSLayer extends ImageryLayer implements ImageObserver, TileLoaderL
         OsmTileLoader makeTileLoader(TileLoaderListener listener);
     }
 
-    protected MemoryTileCache tileCache;
+    /** The memory caches of all layers, which share {@link #PROP_MEMORY_CACHE_MB} evenly */
+    private static final List<ConcurrentTileCache> memoryCaches = new ArrayList<ConcurrentTileCache>();
+
+    protected ConcurrentTileCache tileCache;
     protected TileSource tileSource;
     protected OsmTileLoader tileLoader;
 
@@ -134,7 +148,14 @@ public class TMSLayer extends ImageryLayer implements ImageObserver, TileLoaderL
             String cachePath = TMSLayer.PROP_TILECACHE_DIR.get();
             if (cachePath != null && !cachePath.isEmpty()) {
                 try {
-                    OsmFileCacheTileLoader loader = new OsmFileCacheTileLoader(listener, new File(cachePath));
+                    OsmFileCacheTileLoader loader;
+                    if (PROP_TILECACHE_MAPPED.get()) {
+                        OsmMappedCacheTileLoader mappedLoader = new OsmMappedCacheTileLoader(listener, new File(cachePath));
+                        mappedLoader.setMaxStoreSize(PROP_TILECACHE_MAX_MB.get() * 1024L * 1024L);
+                        loader = mappedLoader;
+                    } else {
+                        loader = new OsmFileCacheTileLoader(listener, new File(cachePath));
+                    }
                     loader.headers.put("User-Agent", Version.getInstance().getFullAgentString());
                     return loader;
                 } catch (IOException e) {
@@ -224,7 +245,7 @@ public class TMSLayer extends ImageryLayer implements ImageObserver, TileLoaderL
      * method.
      *
      * @param monitor
-     * @see MemoryTileCache#clear()
+     * @see ConcurrentTileCache#clear()
      * @see OsmFileCacheTileLoader#clearCache(org.openstreetmap.gui.jmapviewer.interfaces.TileSource, org.openstreetmap.gui.jmapviewer.OsmFileCacheTileLoader.TileClearController)
      */
     void clearTileCache(ProgressMonitor monitor) {
@@ -402,13 +423,38 @@ public class TMSLayer extends ImageryLayer implements ImageObserver, TileLoaderL
         }
     }
 
+    /**
+     * Replaces the memory cache of a layer and divides the memory cache budget
+     * among the caches of all layers again.
+     * @param oldCache the cache to remove, or {@code null}
+     * @param newCache the cache to add, or {@code null}
+     */
+    private static void replaceMemoryCache(ConcurrentTileCache oldCache, ConcurrentTileCache newCache) {
+        synchronized (memoryCaches) {
+            if (oldCache != null) {
+                memoryCaches.remove(oldCache);
+            }
+            if (newCache != null) {
+                memoryCaches.add(newCache);
+            }
+            if (!memoryCaches.isEmpty()) {
+                long maxBytes = PROP_MEMORY_CACHE_MB.get() * 1024L * 1024L / memoryCaches.size();
+                for (ConcurrentTileCache cache : memoryCaches) {
+                    cache.setMaxBytes(maxBytes);
+                }
+            }
+        }
+    }
+
     private void initTileSource(TileSource tileSource) {
         this.tileSource = tileSource;
         attribution.initialize(tileSource);
 
         currentZoomLevel = getBestZoom();
 
-        tileCache = new MemoryTileCache();
+        ConcurrentTileCache oldCache = tileCache;
+        tileCache = new ConcurrentTileCache(PROP_MEMORY_CACHE_MB.get() * 1024L * 1024L);
+        replaceMemoryCache(oldCache, tileCache);
 
         tileLoader = loaderFactory.makeTileLoader(this);
         if (tileLoader == null) {
@@ -470,6 +516,7 @@ public class TMSLayer extends ImageryLayer implements ImageObserver, TileLoaderL
      */
     static public void setMaxWorkers() {
         JobDispatcher.setMaxWorkers(PROP_TMS_JOBS.get());
+        JobDispatcher.setMaxJobsPerHost(PROP_TMS_JOBS_PER_HOST.get());
         JobDispatcher.getInstance().setLIFO(true);
     }
 
@@ -777,9 +824,12 @@ public class TMSLayer extends ImageryLayer implements ImageObserver, TileLoaderL
     synchronized Tile getOrCreateTile(int x, int y, int zoom) {
         Tile tile = getTile(x, y, zoom);
         if (tile == null) {
-            tile = new Tile(tileSource, x, y, zoom);
-            tileCache.addTile(tile);
-            tile.loadPlaceholderFromCache(tileCache);
+            Tile newTile = new Tile(tileSource, x, y, zoom);
+            tile = tileCache.addTileIfAbsent(newTile);
+            if (tile == null) {
+                tile = newTile;
+                tile.loadPlaceholderFromCache(tileCache);
+            }
         }
         return tile;
     }
@@ -788,7 +838,7 @@ public class TMSLayer extends ImageryLayer implements ImageObserver, TileLoaderL
      * This can and will return null for tiles that are not
      * already in the cache.
      */
-    synchronized Tile getTile(int x, int y, int zoom) {
+    Tile getTile(int x, int y, int zoom) {
         int max = (1 << zoom);
         if (x < 0 || x >= max || y < 0 || y >= max)
             return null;
@@ -1348,6 +1398,11 @@ public class TMSLayer extends ImageryLayer implements ImageObserver, TileLoaderL
             setZoomLevel(zoom);
         }
 
+        // Load the tiles on screen first, and keep them and the tiles covering them when tiles have to be evicted
+        TileViewport viewport = new TileViewport(tileSource, ts.zoom, ts.x0, ts.y0, ts.x1, ts.y1);
+        tileCache.setViewport(viewport);
+        JobDispatcher.getInstance().setViewport(viewport);
+
         // Too many tiles... refuse to download
         if (!ts.tooLarge()) {
             //Main.debug("size: " + ts.size() + " spanned: " + ts.tilesSpanned());
@@ -1508,4 +1563,11 @@ public class TMSLayer extends ImageryLayer implements ImageObserver, TileLoaderL
     public String nameSupportedProjections() {
         return tr("EPSG:4326 and Mercator projection are supported");
     }
+
+    @Override
+    public void destroy() {
+        super.destroy();
+        replaceMemoryCache(tileCache, null);
+        tileCache.clear();
+    }
 }
@@ -25,7 +25,6 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -64,6 +63,7 @@ import org.openstreetmap.josm.io.WMSLayerImporter;
 import org.openstreetmap.josm.io.imagery.Grabber;
 import org.openstreetmap.josm.io.imagery.HTMLGrabber;
 import org.openstreetmap.josm.io.imagery.WMSGrabber;
+import org.openstreetmap.josm.io.imagery.WMSGrabberPool;
 import org.openstreetmap.josm.io.imagery.WMSRequest;
 
 
@@ -144,12 +144,10 @@ public class WMSLayer extends ImageryLayer implements ImageObserver, PreferenceC
      */
     private final List<WMSRequest> processingRequests = new ArrayList<WMSRequest>();
     private final Lock requestQueueLock = new ReentrantLock();
-    private final Condition queueEmpty = requestQueueLock.newCondition();
-    private final List<Grabber> grabbers = new ArrayList<Grabber>();
-    private final List<Thread> grabberThreads = new ArrayList<Thread>();
-    private int threadCount;
-    private int workingThreadCount;
-    private boolean canceled;
+    /**
+     * The grabber of the layer, registered to the {@link WMSGrabberPool} while the layer is grabbing images
+     */
+    private Grabber grabber;
 
     /** set to true if this layer uses an invalid base url */
     private boolean usesInvalidUrl = false;
@@ -174,7 +172,7 @@ public class WMSLayer extends ImageryLayer implements ImageObserver, PreferenceC
     @Override
     public void hookUpMapView() {
         if (info.getUrl() != null) {
-            startGrabberThreads();
+            startGrabbing();
 
             for (WMSLayer layer: Main.map.mapView.getLayersOfType(WMSLayer.class)) {
                 if (layer.getInfo().getUrl().equals(info.getUrl())) {
@@ -262,7 +260,7 @@ public class WMSLayer extends ImageryLayer implements ImageObserver, PreferenceC
     @Override
     public void destroy() {
         super.destroy();
-        cancelGrabberThreads(false);
+        cancelGrabbing();
         Main.pref.removePreferenceChangeListener(this);
         if (cache != null) {
             cache.saveIndex();
@@ -565,30 +563,33 @@ public class WMSLayer extends ImageryLayer implements ImageObserver, PreferenceC
         Collections.sort(requestQueue);
     }
 
-    public WMSRequest getRequest(boolean localOnly) {
+    /**
+     * Replies the most important request waiting in the queue, without removing it.
+     * Called by the threads of the {@link WMSGrabberPool} to choose the layer to serve next.
+     * @param localOnly if <code>true</code>, only the requests whose image is in the cache are considered
+     * @return the request, or <code>null</code> if there is no such request
+     */
+    public WMSRequest peekRequest(boolean localOnly) {
         requestQueueLock.lock();
         try {
-            workingThreadCount--;
-
             sortRequests(localOnly);
-            while (!canceled && (requestQueue.isEmpty() || (localOnly && !requestQueue.get(0).hasExactMatch()))) {
-                try {
-                    queueEmpty.await();
-                    sortRequests(localOnly);
-                } catch (InterruptedException e) {
-                    // Shouldn't happen
-                }
-            }
-
-            workingThreadCount++;
-            if (canceled)
+            if (requestQueue.isEmpty() || (localOnly && !requestQueue.get(0).hasExactMatch()))
                 return null;
-            else {
-                WMSRequest request = requestQueue.remove(0);
-                processingRequests.add(request);
-                return request;
-            }
+            return requestQueue.get(0);
+        } finally {
+            requestQueueLock.unlock();
+        }
+    }
 
+    /**
+     * Moves a request returned by {@link #peekRequest} from the queue to the requests being processed.
+     * @param request the request
+     */
+    public void startRequest(WMSRequest request) {
+        requestQueueLock.lock();
+        try {
+            requestQueue.remove(request);
+            processingRequests.add(request);
         } finally {
             requestQueueLock.unlock();
         }
@@ -618,6 +619,7 @@ public class WMSLayer extends ImageryLayer implements ImageObserver, PreferenceC
     }
 
     public void addRequest(WMSRequest request) {
+        boolean added = false;
         requestQueueLock.lock();
         try {
 
@@ -634,11 +636,14 @@ public class WMSLayer extends ImageryLayer implements ImageObserver, PreferenceC
                 if (request.getPrecacheTask() != null) {
                     request.getPrecacheTask().totalCount++;
                 }
-                queueEmpty.signalAll();
+                added = true;
             }
         } finally {
             requestQueueLock.unlock();
         }
+        if (added) {
+            WMSGrabberPool.getInstance().requestAdded();
+        }
     }
 
     public boolean requestIsVisible(WMSRequest request) {
@@ -919,49 +924,18 @@ public class WMSLayer extends ImageryLayer implements ImageObserver, PreferenceC
 
     }
 
-    private void cancelGrabberThreads(boolean wait) {
-        requestQueueLock.lock();
-        try {
-            canceled = true;
-            for (Grabber grabber: grabbers) {
-                grabber.cancel();
-            }
-            queueEmpty.signalAll();
-        } finally {
-            requestQueueLock.unlock();
-        }
-        if (wait) {
-            for (Thread t: grabberThreads) {
-                try {
-                    t.join();
-                } catch (InterruptedException e) {
-                    // Shouldn't happen
-                    e.printStackTrace();
-                }
-            }
+    private void cancelGrabbing() {
+        if (grabber != null) {
+            WMSGrabberPool.getInstance().unregister(grabber);
+            grabber.cancel();
+            grabber = null;
         }
     }
 
-    private void startGrabberThreads() {
-        int threadCount = PROP_SIMULTANEOUS_CONNECTIONS.get();
-        requestQueueLock.lock();
-        try {
-            canceled = false;
-            grabbers.clear();
-            grabberThreads.clear();
-            for (int i=0; i<threadCount; i++) {
-                Grabber grabber = getGrabber(i == 0 && threadCount > 1);
-                grabbers.add(grabber);
-                Thread t = new Thread(grabber, "WMS " + getName() + " " + i);
-                t.setDaemon(true);
-                t.start();
-                grabberThreads.add(t);
-            }
-            this.workingThreadCount = grabbers.size();
-            this.threadCount = grabbers.size();
-        } finally {
-            requestQueueLock.unlock();
-        }
+    private void startGrabbing() {
+        cancelGrabbing();
+        grabber = getGrabber();
+        WMSGrabberPool.getInstance().register(grabber);
     }
 
     @Override
@@ -977,8 +951,7 @@ public class WMSLayer extends ImageryLayer implements ImageObserver, PreferenceC
     @Override
     public void preferenceChanged(PreferenceChangeEvent event) {
         if (event.getKey().equals(PROP_SIMULTANEOUS_CONNECTIONS.getKey())) {
-            cancelGrabberThreads(true);
-            startGrabberThreads();
+            WMSGrabberPool.getInstance().updateDownloadThreads();
         } else if (
                 event.getKey().equals(PROP_OVERLAP.getKey())
                 || event.getKey().equals(PROP_OVERLAP_EAST.getKey())
@@ -993,11 +966,11 @@ public class WMSLayer extends ImageryLayer implements ImageObserver, PreferenceC
         }
     }
 
-    protected Grabber getGrabber(boolean localOnly) {
+    protected Grabber getGrabber() {
         if (getInfo().getImageryType() == ImageryType.HTML)
-            return new HTMLGrabber(Main.map.mapView, this, localOnly);
+            return new HTMLGrabber(Main.map.mapView, this);
         else if (getInfo().getImageryType() == ImageryType.WMS)
-            return new WMSGrabber(Main.map.mapView, this, localOnly);
+            return new WMSGrabber(Main.map.mapView, this);
         else throw new IllegalStateException("getGrabber() called for non-WMS layer type");
     }
 
@@ -1095,7 +1068,7 @@ public class WMSLayer extends ImageryLayer implements ImageObserver, PreferenceC
     public void onPostLoadFromFile() {
         if (info.getUrl() != null) {
             cache = new WmsCache(info.getUrl(), imageSize);
-            startGrabberThreads();
+            startGrabbing();
         }
     }
 
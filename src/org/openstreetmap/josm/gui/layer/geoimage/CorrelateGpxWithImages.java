@@ -66,6 +66,7 @@ import org.openstreetmap.josm.actions.DiskAccessAction;
 import org.openstreetmap.josm.data.gpx.GpxData;
 import org.openstreetmap.josm.data.gpx.GpxTrack;
 import org.openstreetmap.josm.data.gpx.GpxTrackSegment;
+import org.openstreetmap.josm.data.gpx.ImmutableGpxTrackSegment;
 import org.openstreetmap.josm.data.gpx.WayPoint;
 import org.openstreetmap.josm.data.osm.visitor.BoundingXYVisitor;
 import org.openstreetmap.josm.gui.ExtendedDialog;
@@ -1137,22 +1138,44 @@ public class CorrelateGpxWithImages extends AbstractAction {
      */
     private int matchGpxTrack(ArrayList<ImageEntry> images, GpxData selectedGpx, long offset) {
         int ret = 0;
+        if (images.isEmpty())
+            return ret;
 
         PrimaryDateParser dateParser = new PrimaryDateParser();
+        // the track times the photos can be matched to, with a margin for rounding
+        double firstTime = (images.get(0).getExifTime().getTime() - offset - 1) / 1000.;
+        double lastTime = (images.get(images.size() - 1).getExifTime().getTime() - offset + 1) / 1000.;
 
         for (GpxTrack trk : selectedGpx.tracks) {
             for (GpxTrackSegment segment : trk.getSegments()) {
 
+                List<WayPoint> wayPoints = new ArrayList<WayPoint>(segment.getWayPoints());
+                int from = 0;
+                int to = wayPoints.size() - 1;
+                if (segment instanceof ImmutableGpxTrackSegment && ((ImmutableGpxTrackSegment) segment).hasTimeIndex()) {
+                    // skip the track points before the first photo and after the last one
+                    ImmutableGpxTrackSegment indexed = (ImmutableGpxTrackSegment) segment;
+                    from = indexed.getIndexOfTime(firstTime);
+                    to = Math.min(to, indexed.getIndexOfTime(lastTime) + 1);
+                }
+
                 long prevWpTime = 0;
                 WayPoint prevWp = null;
+                if (from > 0 && from <= to && wayPoints.get(from - 1).attr.containsKey("time")) {
+                    prevWp = wayPoints.get(from - 1);
+                    prevWpTime = Math.round(prevWp.time * 1000) + offset;
+                }
 
-                for (WayPoint curWp : segment.getWayPoints()) {
+                for (int index = from; index <= to; index++) {
+                    WayPoint curWp = wayPoints.get(index);
 
                     String curWpTimeStr = (String) curWp.attr.get("time");
                     if (curWpTimeStr != null) {
 
                         try {
-                            long curWpTime = dateParser.parse(curWpTimeStr).getTime() + offset;
+                            // the time of the way point is parsed when it is read, the attribute may have been added later
+                            long curWpTime = (curWp.time != 0 ? Math.round(curWp.time * 1000)
+                                    : dateParser.parse(curWpTimeStr).getTime()) + offset;
                             ret += matchPoints(images, prevWp, prevWpTime, curWp, curWpTime, offset);
 
                             prevWp = curWp;
@@ -139,11 +139,13 @@ abstract public class ElemStyle implements StyleKeys {
 
     static private final Map<FontDescriptor, Font> FONT_MAP = new HashMap<FontDescriptor, Font>();
     static private Font getCachedFont(FontDescriptor fd) {
-        Font f = FONT_MAP.get(fd);
-        if (f != null) return f;
-        f = new Font(fd.name, fd.style, fd.size);
-        FONT_MAP.put(fd, f);
-        return f;
+        synchronized (FONT_MAP) {
+            Font f = FONT_MAP.get(fd);
+            if (f != null) return f;
+            f = new Font(fd.name, fd.style, fd.size);
+            FONT_MAP.put(fd, f);
+            return f;
+        }
     }
 
     static private Font getCachedFont(String name, int style, int size){
@@ -24,10 +24,27 @@ public class ElemStyles {
     private List<StyleSource> styleSources;
     private boolean drawMultipolygon;
 
-    private int cacheIdx = 1;
+    private volatile int cacheIdx = 1;
 
-    private boolean defaultNodes, defaultLines;
-    private int defaultNodesIdx, defaultLinesIdx;
+    /**
+     * The canvas properties of one style generation. Replaced as a whole, so that the style
+     * collector workers of the renderer never see the generation of one and the value of another.
+     */
+    private static class CanvasDefaults {
+        final int cacheIdx;
+        /** Draw a default node symbol for nodes that have no style? */
+        final boolean defaultNodes;
+        /** Draw a default line for ways that do not have an own line style? */
+        final boolean defaultLines;
+
+        CanvasDefaults(int cacheIdx, boolean defaultNodes, boolean defaultLines) {
+            this.cacheIdx = cacheIdx;
+            this.defaultNodes = defaultNodes;
+            this.defaultLines = defaultLines;
+        }
+    }
+
+    private volatile CanvasDefaults canvasDefaults;
 
     public ElemStyles()
     {
@@ -38,6 +55,16 @@ public class ElemStyles {
         cacheIdx++;
     }
 
+    /**
+     * Replies the generation of the cached styles. The value changes whenever
+     * {@link #clearCached()} is called, so anything derived from the styles
+     * can be discarded when it does.
+     * @return the current style generation
+     */
+    public int getCacheIdx() {
+        return cacheIdx;
+    }
+
     public List<StyleSource> getStyleSources() {
         return Collections.<StyleSource>unmodifiableList(styleSources);
     }
@@ -349,26 +376,33 @@ public class ElemStyles {
         }
     }
 
+    /**
+     * Replies the canvas properties of the current style generation, computing them if needed.
+     * Threads computing them at the same time compute the same values.
+     */
+    private CanvasDefaults getCanvasDefaults() {
+        CanvasDefaults defaults = canvasDefaults;
+        int idx = cacheIdx;
+        if (defaults == null || defaults.cacheIdx != idx) {
+            defaults = new CanvasDefaults(idx, fromCanvas("default-points", true, Boolean.class),
+                    fromCanvas("default-lines", true, Boolean.class));
+            canvasDefaults = defaults;
+        }
+        return defaults;
+    }
+
     /**
      * Draw a default node symbol for nodes that have no style?
      */
     private boolean isDefaultNodes() {
-        if (defaultNodesIdx == cacheIdx)
-            return defaultNodes;
-        defaultNodes = fromCanvas("default-points", true, Boolean.class);
-        defaultNodesIdx = cacheIdx;
-        return defaultNodes;
+        return getCanvasDefaults().defaultNodes;
     }
 
     /**
      * Draw a default line for ways that do not have an own line style?
      */
     private boolean isDefaultLines() {
-        if (defaultLinesIdx == cacheIdx)
-            return defaultLines;
-        defaultLines = fromCanvas("default-lines", true, Boolean.class);
-        defaultLinesIdx = cacheIdx;
-        return defaultLines;
+        return getCanvasDefaults().defaultLines;
     }
 
     private <T> T fromCanvas(String key, T def, Class<T> c) {
@@ -217,7 +217,9 @@ public class StyleCache {
      * been added to the intern pool.
      */
     public StyleCache intern() {
-        return internPool.putUnique(this);
+        synchronized (internPool) {
+            return internPool.putUnique(this);
+        }
     }
 
     @Override
@@ -20,6 +20,17 @@ abstract public class Condition {
 
     abstract public boolean applies(Environment e);
 
+    /**
+     * Replies the key a primitive must have for this condition to apply. Used to find the
+     * candidate rules for a primitive, see {@link MapCSSRuleIndex}.
+     *
+     * @return the required key, or null if the condition may apply to primitives without any
+     * particular key
+     */
+    public String getRequiredKey() {
+        return null;
+    }
+
     public static Condition create(String k, String v, Op op, Context context) {
         switch (context) {
         case PRIMITIVE:
@@ -161,6 +172,12 @@ abstract public class Condition {
             return op.eval(env.osm.get(k), v);
         }
 
+        @Override
+        public String getRequiredKey() {
+            // all operators but NEQ fail for a missing value
+            return op == Op.NEQ ? null : k;
+        }
+
         @Override
         public String toString() {
             return "[" + k + "'" + op + "'" + v + "]";
@@ -218,9 +235,9 @@ abstract public class Condition {
      */
     public static class KeyCondition extends Condition {
 
-        private String label;
-        private boolean exclamationMarkPresent;
-        private boolean questionMarkPresent;
+        String label;
+        boolean exclamationMarkPresent;
+        boolean questionMarkPresent;
 
         /**
          *
@@ -249,6 +266,11 @@ abstract public class Condition {
             }
         }
 
+        @Override
+        public String getRequiredKey() {
+            return exclamationMarkPresent ? null : label;
+        }
+
         @Override
         public String toString() {
             return "[" + (exclamationMarkPresent ? "!" : "") + label + "]";
@@ -296,7 +318,7 @@ abstract public class Condition {
 
     public static class ExpressionCondition extends Condition {
 
-        private Expression e;
+        Expression e;
 
         public ExpressionCondition(Expression e) {
             this.e = e;
@@ -7,6 +7,7 @@ import java.awt.Color;
 import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -32,7 +33,6 @@ public class ExpressionFactory {
 
     private static final List<Method> arrayFunctions;
     private static final List<Method> parameterFunctions;
-    private static final Functions FUNCTIONS_INSTANCE = new Functions();
 
     static {
         arrayFunctions = new ArrayList<Method>();
@@ -403,7 +403,7 @@ public class ExpressionFactory {
      */
     public static class CondOperator implements Expression {
 
-        private Expression condition, firstOption, secondOption;
+        Expression condition, firstOption, secondOption;
 
         public CondOperator(Expression condition, Expression firstOption, Expression secondOption) {
             this.condition = condition;
@@ -423,7 +423,7 @@ public class ExpressionFactory {
 
     public static class AndOperator implements Expression {
 
-        private List<Expression> args;
+        List<Expression> args;
 
         public AndOperator(List<Expression> args) {
             this.args = args;
@@ -443,7 +443,7 @@ public class ExpressionFactory {
 
     public static class OrOperator implements Expression {
 
-        private List<Expression> args;
+        List<Expression> args;
 
         public OrOperator(List<Expression> args) {
             this.args = args;
@@ -470,7 +470,7 @@ public class ExpressionFactory {
      */
     public static class LengthFunction implements Expression {
 
-        private Expression arg;
+        Expression arg;
 
         public LengthFunction(Expression args) {
             this.arg = args;
@@ -496,19 +496,26 @@ public class ExpressionFactory {
      */
     public static class ParameterFunction implements Expression {
 
-        private final Method m;
-        private final List<Expression> args;
+        final Method m;
+        final List<Expression> args;
         private final Class<?>[] expectedParameterTypes;
+        private final boolean needsEnvironment;
 
         public ParameterFunction(Method m, List<Expression> args) {
             this.m = m;
             this.args = args;
             expectedParameterTypes = m.getParameterTypes();
+            needsEnvironment = !Modifier.isStatic(m.getModifiers());
         }
 
         @Override
         public Object evaluate(Environment env) {
-            FUNCTIONS_INSTANCE.env = env;
+            // styles may be computed by several threads, each evaluation gets its own environment
+            Functions functions = null;
+            if (needsEnvironment) {
+                functions = new Functions();
+                functions.env = env;
+            }
             Object[] convertedArgs = new Object[expectedParameterTypes.length];
             for (int i = 0; i < args.size(); ++i) {
                 convertedArgs[i] = Cascade.convertTo(args.get(i).evaluate(env), expectedParameterTypes[i]);
@@ -518,7 +525,7 @@ public class ExpressionFactory {
             }
             Object result = null;
             try {
-                result = m.invoke(FUNCTIONS_INSTANCE, convertedArgs);
+                result = m.invoke(functions, convertedArgs);
             } catch (IllegalAccessException ex) {
                 throw new RuntimeException(ex);
             } catch (IllegalArgumentException ex) {
@@ -540,16 +547,16 @@ public class ExpressionFactory {
      */
     public static class ArrayFunction implements Expression {
 
-        private final Method m;
-        private final List<Expression> args;
+        final Method m;
+        final List<Expression> args;
         private final Class<?> arrayComponentType;
-        private final Object[] convertedArgs;
+        private final int parameterCount;
 
         public ArrayFunction(Method m, List<Expression> args) {
             this.m = m;
             this.args = args;
             Class<?>[] expectedParameterTypes = m.getParameterTypes();
-            convertedArgs = new Object[expectedParameterTypes.length];
+            parameterCount = expectedParameterTypes.length;
             arrayComponentType = expectedParameterTypes[0].getComponentType();
         }
 
@@ -563,6 +570,7 @@ public class ExpressionFactory {
                 }
                 Array.set(arrayArg, i, o);
             }
+            Object[] convertedArgs = new Object[parameterCount];
             convertedArgs[0] = arrayArg;
 
             Object result = null;
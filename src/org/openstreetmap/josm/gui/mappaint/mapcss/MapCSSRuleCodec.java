@@ -0,0 +1,378 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.mappaint.mapcss;
+
+import java.awt.Color;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openstreetmap.josm.gui.mappaint.Keyword;
+import org.openstreetmap.josm.gui.mappaint.MapPaintStyles.TagKeyReference;
+import org.openstreetmap.josm.gui.mappaint.Range;
+import org.openstreetmap.josm.gui.mappaint.mapcss.Condition.ExpressionCondition;
+import org.openstreetmap.josm.gui.mappaint.mapcss.Condition.IndexCondition;
+import org.openstreetmap.josm.gui.mappaint.mapcss.Condition.KeyCondition;
+import org.openstreetmap.josm.gui.mappaint.mapcss.Condition.KeyValueCondition;
+import org.openstreetmap.josm.gui.mappaint.mapcss.Condition.Op;
+import org.openstreetmap.josm.gui.mappaint.mapcss.Condition.PseudoClassCondition;
+import org.openstreetmap.josm.gui.mappaint.mapcss.Condition.RoleCondition;
+import org.openstreetmap.josm.gui.mappaint.mapcss.ExpressionFactory.AndOperator;
+import org.openstreetmap.josm.gui.mappaint.mapcss.ExpressionFactory.ArrayFunction;
+import org.openstreetmap.josm.gui.mappaint.mapcss.ExpressionFactory.CondOperator;
+import org.openstreetmap.josm.gui.mappaint.mapcss.ExpressionFactory.LengthFunction;
+import org.openstreetmap.josm.gui.mappaint.mapcss.ExpressionFactory.NullExpression;
+import org.openstreetmap.josm.gui.mappaint.mapcss.ExpressionFactory.OrOperator;
+import org.openstreetmap.josm.gui.mappaint.mapcss.ExpressionFactory.ParameterFunction;
+import org.openstreetmap.josm.gui.mappaint.mapcss.Instruction.AssignmentInstruction;
+import org.openstreetmap.josm.gui.mappaint.mapcss.Instruction.RelativeFloat;
+import org.openstreetmap.josm.gui.mappaint.mapcss.Selector.ChildOrParentSelector;
+import org.openstreetmap.josm.gui.mappaint.mapcss.Selector.GeneralSelector;
+import org.openstreetmap.josm.gui.mappaint.mapcss.Selector.LinkSelector;
+import org.openstreetmap.josm.io.ParsedSourceCache;
+
+/**
+ * Writes and reads the rules of a MapCSS style for the {@link ParsedSourceCache}.
+ * <p>
+ * Functions are written by name and created again by {@link ExpressionFactory}, like the parser does.
+ * Increase {@link #VERSION} whenever a class of the model changes.
+ */
+final class MapCSSRuleCodec implements ParsedSourceCache.Codec<List<MapCSSRule>> {
+
+    static final int VERSION = 1;
+
+    private static final int GENERAL_SELECTOR = 0;
+    private static final int CHILD_OR_PARENT_SELECTOR = 1;
+
+    private static final int KEY_VALUE_CONDITION = 0;
+    private static final int ROLE_CONDITION = 1;
+    private static final int INDEX_CONDITION = 2;
+    private static final int KEY_CONDITION = 3;
+    private static final int PSEUDO_CLASS_CONDITION = 4;
+    private static final int EXPRESSION_CONDITION = 5;
+
+    private static final int NULL = 0;
+    private static final int EXPRESSION = 1;
+    private static final int FUNCTION = 2;
+    private static final int STRING = 3;
+    private static final int FLOAT = 4;
+    private static final int KEYWORD = 5;
+    private static final int RELATIVE_FLOAT = 6;
+    private static final int COLOR = 7;
+    private static final int FLOAT_ARRAY = 8;
+    private static final int TAG_KEY_REFERENCE = 9;
+    private static final int LIST = 10;
+
+    @Override
+    public void write(List<MapCSSRule> rules, DataOutputStream out) throws IOException {
+        out.writeInt(rules.size());
+        for (MapCSSRule r : rules) {
+            out.writeInt(r.selectors.size());
+            for (Selector s : r.selectors) {
+                writeSelector(s, out);
+            }
+            out.writeInt(r.declaration.size());
+            for (Instruction i : r.declaration) {
+                if (!(i instanceof AssignmentInstruction))
+                    throw new IOException("Unsupported instruction " + i.getClass().getName());
+                AssignmentInstruction ai = (AssignmentInstruction) i;
+                out.writeUTF(ai.key);
+                writeValue(ai.val, out);
+            }
+        }
+    }
+
+    private void writeSelector(Selector s, DataOutputStream out) throws IOException {
+        if (s instanceof GeneralSelector) {
+            GeneralSelector gs = (GeneralSelector) s;
+            out.writeByte(GENERAL_SELECTOR);
+            out.writeUTF(gs.getBase());
+            out.writeDouble(gs.range.getLower());
+            out.writeDouble(gs.range.getUpper());
+            writeString(gs.getSubpart(), out);
+            writeConditions(gs.getConditions(), out);
+        } else if (s instanceof ChildOrParentSelector) {
+            ChildOrParentSelector cps = (ChildOrParentSelector) s;
+            out.writeByte(CHILD_OR_PARENT_SELECTOR);
+            writeSelector(cps.left, out);
+            writeConditions(cps.link.conds, out);
+            writeSelector(cps.right, out);
+            out.writeBoolean(cps.parentSelector);
+        } else
+            throw new IOException("Unsupported selector " + s.getClass().getName());
+    }
+
+    private void writeConditions(List<Condition> conds, DataOutputStream out) throws IOException {
+        if (conds == null) {
+            out.writeInt(0);
+            return;
+        }
+        out.writeInt(conds.size());
+        for (Condition c : conds) {
+            if (c instanceof KeyValueCondition) {
+                KeyValueCondition kvc = (KeyValueCondition) c;
+                out.writeByte(KEY_VALUE_CONDITION);
+                out.writeUTF(kvc.k);
+                writeString(kvc.v, out);
+                out.writeByte(kvc.op.ordinal());
+            } else if (c instanceof RoleCondition) {
+                RoleCondition rc = (RoleCondition) c;
+                out.writeByte(ROLE_CONDITION);
+                writeString(rc.role, out);
+                out.writeByte(rc.op.ordinal());
+            } else if (c instanceof IndexCondition) {
+                IndexCondition ic = (IndexCondition) c;
+                out.writeByte(INDEX_CONDITION);
+                writeString(ic.index, out);
+                out.writeByte(ic.op.ordinal());
+            } else if (c instanceof KeyCondition) {
+                KeyCondition kc = (KeyCondition) c;
+                out.writeByte(KEY_CONDITION);
+                out.writeUTF(kc.label);
+                out.writeBoolean(kc.exclamationMarkPresent);
+                out.writeBoolean(kc.questionMarkPresent);
+            } else if (c instanceof PseudoClassCondition) {
+                PseudoClassCondition pcc = (PseudoClassCondition) c;
+                out.writeByte(PSEUDO_CLASS_CONDITION);
+                out.writeUTF(pcc.id);
+                out.writeBoolean(pcc.not);
+            } else if (c instanceof ExpressionCondition) {
+                out.writeByte(EXPRESSION_CONDITION);
+                writeExpression(((ExpressionCondition) c).e, out);
+            } else
+                throw new IOException("Unsupported condition " + c.getClass().getName());
+        }
+    }
+
+    private void writeExpression(Expression e, DataOutputStream out) throws IOException {
+        if (e instanceof LiteralExpression) {
+            writeValue(((LiteralExpression) e).literal, out);
+        } else if (e instanceof NullExpression) {
+            out.writeByte(NULL);
+        } else if (e instanceof CondOperator) {
+            CondOperator co = (CondOperator) e;
+            List<Expression> args = new ArrayList<Expression>(3);
+            args.add(co.condition);
+            args.add(co.firstOption);
+            args.add(co.secondOption);
+            writeFunction("cond", args, out);
+        } else if (e instanceof AndOperator) {
+            writeFunction("and", ((AndOperator) e).args, out);
+        } else if (e instanceof OrOperator) {
+            writeFunction("or", ((OrOperator) e).args, out);
+        } else if (e instanceof LengthFunction) {
+            List<Expression> args = new ArrayList<Expression>(1);
+            args.add(((LengthFunction) e).arg);
+            writeFunction("length", args, out);
+        } else if (e instanceof ParameterFunction) {
+            writeFunction(((ParameterFunction) e).m.getName(), ((ParameterFunction) e).args, out);
+        } else if (e instanceof ArrayFunction) {
+            writeFunction(((ArrayFunction) e).m.getName(), ((ArrayFunction) e).args, out);
+        } else
+            throw new IOException("Unsupported expression " + e.getClass().getName());
+    }
+
+    private void writeFunction(String name, List<Expression> args, DataOutputStream out) throws IOException {
+        out.writeByte(FUNCTION);
+        out.writeUTF(name);
+        out.writeInt(args.size());
+        for (Expression arg : args) {
+            writeExpression(arg, out);
+        }
+    }
+
+    /**
+     * Writes a literal, or the value of an instruction. Expressions are written as values too,
+     * {@link LiteralExpression}s are created again by {@link #readExpression}.
+     */
+    private void writeValue(Object val, DataOutputStream out) throws IOException {
+        if (val instanceof Expression && !(val instanceof LiteralExpression)) {
+            out.writeByte(EXPRESSION);
+            writeExpression((Expression) val, out);
+        } else if (val instanceof String) {
+            out.writeByte(STRING);
+            out.writeUTF((String) val);
+        } else if (val instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) val);
+        } else if (val instanceof Keyword) {
+            out.writeByte(KEYWORD);
+            out.writeUTF(((Keyword) val).val);
+        } else if (val instanceof RelativeFloat) {
+            out.writeByte(RELATIVE_FLOAT);
+            out.writeFloat(((RelativeFloat) val).val);
+        } else if (val instanceof Color) {
+            out.writeByte(COLOR);
+            out.writeInt(((Color) val).getRGB());
+        } else if (val instanceof float[]) {
+            float[] a = (float[]) val;
+            out.writeByte(FLOAT_ARRAY);
+            out.writeInt(a.length);
+            for (float f : a) {
+                out.writeFloat(f);
+            }
+        } else if (val instanceof TagKeyReference) {
+            out.writeByte(TAG_KEY_REFERENCE);
+            out.writeUTF(((TagKeyReference) val).key);
+        } else if (val instanceof List) {
+            List<?> l = (List<?>) val;
+            out.writeByte(LIST);
+            out.writeInt(l.size());
+            for (Object o : l) {
+                writeValue(o, out);
+            }
+        } else
+            throw new IOException("Unsupported value " + (val == null ? null : val.getClass().getName()));
+    }
+
+    private static void writeString(String s, DataOutputStream out) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    @Override
+    public List<MapCSSRule> read(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        List<MapCSSRule> rules = new ArrayList<MapCSSRule>(n);
+        for (int i = 0; i < n; i++) {
+            int selectorCount = in.readInt();
+            List<Selector> selectors = new ArrayList<Selector>(selectorCount);
+            for (int j = 0; j < selectorCount; j++) {
+                selectors.add(readSelector(in));
+            }
+            int instructionCount = in.readInt();
+            List<Instruction> declaration = new ArrayList<Instruction>(instructionCount);
+            for (int j = 0; j < instructionCount; j++) {
+                String key = in.readUTF();
+                // the value was already converted by the constructor, it is never a LiteralExpression
+                declaration.add(new AssignmentInstruction(key, readValue(in.readUnsignedByte(), in)));
+            }
+            rules.add(new MapCSSRule(selectors, declaration));
+        }
+        return rules;
+    }
+
+    private Selector readSelector(DataInputStream in) throws IOException {
+        int type = in.readUnsignedByte();
+        switch (type) {
+        case GENERAL_SELECTOR:
+            String base = in.readUTF();
+            Range range = new Range(in.readDouble(), in.readDouble());
+            String subpart = readString(in);
+            GeneralSelector gs = new GeneralSelector(base, null, readConditions(in), subpart);
+            gs.range = range;
+            return gs;
+        case CHILD_OR_PARENT_SELECTOR:
+            Selector left = readSelector(in);
+            LinkSelector link = new LinkSelector(readConditions(in));
+            Selector right = readSelector(in);
+            return new ChildOrParentSelector(left, link, right, in.readBoolean());
+        default:
+            throw new IOException("Invalid selector type " + type);
+        }
+    }
+
+    private List<Condition> readConditions(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        List<Condition> conds = new ArrayList<Condition>(n);
+        for (int i = 0; i < n; i++) {
+            int type = in.readUnsignedByte();
+            switch (type) {
+            case KEY_VALUE_CONDITION:
+                String k = in.readUTF();
+                String v = readString(in);
+                conds.add(new KeyValueCondition(k, v, readOp(in)));
+                break;
+            case ROLE_CONDITION:
+                String role = readString(in);
+                conds.add(new RoleCondition(role, readOp(in)));
+                break;
+            case INDEX_CONDITION:
+                String index = readString(in);
+                conds.add(new IndexCondition(index, readOp(in)));
+                break;
+            case KEY_CONDITION:
+                String label = in.readUTF();
+                boolean not = in.readBoolean();
+                conds.add(new KeyCondition(label, not, in.readBoolean()));
+                break;
+            case PSEUDO_CLASS_CONDITION:
+                String id = in.readUTF();
+                conds.add(new PseudoClassCondition(id, in.readBoolean()));
+                break;
+            case EXPRESSION_CONDITION:
+                conds.add(new ExpressionCondition(readExpression(in)));
+                break;
+            default:
+                throw new IOException("Invalid condition type " + type);
+            }
+        }
+        return conds;
+    }
+
+    private static Op readOp(DataInputStream in) throws IOException {
+        int ordinal = in.readUnsignedByte();
+        if (ordinal >= Op.values().length)
+            throw new IOException("Invalid operator " + ordinal);
+        return Op.values()[ordinal];
+    }
+
+    private Expression readExpression(DataInputStream in) throws IOException {
+        int type = in.readUnsignedByte();
+        switch (type) {
+        case NULL:
+            return NullExpression.INSTANCE;
+        case FUNCTION:
+            String name = in.readUTF();
+            int n = in.readInt();
+            List<Expression> args = new ArrayList<Expression>(n);
+            for (int i = 0; i < n; i++) {
+                args.add(readExpression(in));
+            }
+            return ExpressionFactory.createFunctionExpression(name, args);
+        default:
+            return new LiteralExpression(readValue(type, in));
+        }
+    }
+
+    private Object readValue(int type, DataInputStream in) throws IOException {
+        switch (type) {
+        case EXPRESSION:
+            return readExpression(in);
+        case STRING:
+            return in.readUTF();
+        case FLOAT:
+            return in.readFloat();
+        case KEYWORD:
+            return new Keyword(in.readUTF());
+        case RELATIVE_FLOAT:
+            return new RelativeFloat(in.readFloat());
+        case COLOR:
+            return new Color(in.readInt(), true);
+        case FLOAT_ARRAY:
+            float[] a = new float[in.readInt()];
+            for (int i = 0; i < a.length; i++) {
+                a[i] = in.readFloat();
+            }
+            return a;
+        case TAG_KEY_REFERENCE:
+            return new TagKeyReference(in.readUTF());
+        case LIST:
+            int n = in.readInt();
+            List<Object> l = new ArrayList<Object>(n);
+            for (int i = 0; i < n; i++) {
+                l.add(readValue(in.readUnsignedByte(), in));
+            }
+            return l;
+        default:
+            throw new IOException("Invalid value type " + type);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
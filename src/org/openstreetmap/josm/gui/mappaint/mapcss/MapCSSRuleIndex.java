@@ -0,0 +1,150 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.mappaint.mapcss;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.gui.mappaint.mapcss.Selector.ChildOrParentSelector;
+import org.openstreetmap.josm.gui.mappaint.mapcss.Selector.GeneralSelector;
+
+/**
+ * Index of the selectors of a MapCSS style sheet, to avoid testing every selector against
+ * every primitive.
+ *
+ * Selectors are numbered in style sheet order and bucketed by the primitive type they can
+ * match and by one key the primitive must have for all conditions to apply. The candidates
+ * for a primitive are the selectors without a required key plus the ones whose key the
+ * primitive has. Candidates still have to be matched, the index only sorts out selectors
+ * that cannot match.
+ */
+public class MapCSSRuleIndex {
+
+    /**
+     * Candidate selectors for one primitive type.
+     */
+    private static class TypeIndex {
+        final BitSet withoutKey = new BitSet();
+        final Map<String, BitSet> byKey = new HashMap<String, BitSet>();
+
+        void add(int i, String key) {
+            if (key == null) {
+                withoutKey.set(i);
+            } else {
+                BitSet bs = byKey.get(key);
+                if (bs == null) {
+                    bs = new BitSet();
+                    byKey.put(key, bs);
+                }
+                bs.set(i);
+            }
+        }
+
+        BitSet getCandidates(OsmPrimitive osm) {
+            BitSet result = (BitSet) withoutKey.clone();
+            if (!byKey.isEmpty()) {
+                for (String key : osm.keySet()) {
+                    BitSet bs = byKey.get(key);
+                    if (bs != null) {
+                        result.or(bs);
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    private final List<MapCSSRule> rules = new ArrayList<MapCSSRule>();
+    private final List<Selector> selectors = new ArrayList<Selector>();
+    private final TypeIndex nodeIndex = new TypeIndex();
+    private final TypeIndex wayIndex = new TypeIndex();
+    private final TypeIndex relationIndex = new TypeIndex();
+
+    /**
+     * Creates the index for the given rules.
+     * @param rules the rules of the style sheet
+     */
+    public MapCSSRuleIndex(List<MapCSSRule> rules) {
+        for (MapCSSRule r : rules) {
+            for (Selector s : r.selectors) {
+                add(r, s);
+            }
+        }
+    }
+
+    private void add(MapCSSRule r, Selector s) {
+        Selector right = s;
+        while (right instanceof ChildOrParentSelector) {
+            right = ((ChildOrParentSelector) right).getRight();
+        }
+        int i = selectors.size();
+        rules.add(r);
+        selectors.add(s);
+        if (!(right instanceof GeneralSelector)) {
+            // unknown selector type, test it against everything
+            nodeIndex.add(i, null);
+            wayIndex.add(i, null);
+            relationIndex.add(i, null);
+            return;
+        }
+        GeneralSelector gs = (GeneralSelector) right;
+        String key = null;
+        for (Condition c : gs.getConditions()) {
+            key = c.getRequiredKey();
+            if (key != null) {
+                break;
+            }
+        }
+        // see GeneralSelector.matchesBase()
+        String base = gs.getBase();
+        if (base.equals("node") || base.equals("*")) {
+            nodeIndex.add(i, key);
+        }
+        if (base.equals("way") || base.equals("area") || base.equals("*")) {
+            wayIndex.add(i, key);
+        }
+        if (base.equals("relation") || base.equals("area") || base.equals("canvas")) {
+            relationIndex.add(i, key);
+        }
+    }
+
+    /**
+     * Replies the selectors that may match the given primitive, as positions for
+     * {@link #getRule(int)} and {@link #getSelector(int)} in style sheet order.
+     * @param osm the primitive
+     * @return the candidate selectors. The caller may modify the returned set.
+     */
+    public BitSet getCandidates(OsmPrimitive osm) {
+        if (osm instanceof Node)
+            return nodeIndex.getCandidates(osm);
+        else if (osm instanceof Way)
+            return wayIndex.getCandidates(osm);
+        else if (osm instanceof Relation)
+            return relationIndex.getCandidates(osm);
+        return new BitSet();
+    }
+
+    /**
+     * Replies the rule of the selector at the given position.
+     * @param i the position
+     * @return the rule
+     */
+    public MapCSSRule getRule(int i) {
+        return rules.get(i);
+    }
+
+    /**
+     * Replies the selector at the given position.
+     * @param i the position
+     * @return the selector
+     */
+    public Selector getSelector(int i) {
+        return selectors.get(i);
+    }
+}
@@ -9,12 +9,14 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.gui.mappaint.Cascade;
 import org.openstreetmap.josm.gui.mappaint.Environment;
@@ -27,12 +29,27 @@ import org.openstreetmap.josm.gui.mappaint.mapcss.parsergen.ParseException;
 import org.openstreetmap.josm.gui.mappaint.mapcss.parsergen.TokenMgrError;
 import org.openstreetmap.josm.gui.preferences.SourceEntry;
 import org.openstreetmap.josm.io.MirroredInputStream;
+import org.openstreetmap.josm.io.ParsedSourceCache;
 import org.openstreetmap.josm.tools.CheckParameterUtil;
 import org.openstreetmap.josm.tools.LanguageInfo;
 import org.openstreetmap.josm.tools.Utils;
 
 public class MapCSSStyleSource extends StyleSource {
+
+    /**
+     * Use an index to match only the rules a primitive can possibly match,
+     * see {@link MapCSSRuleIndex}. Read when the style is loaded.
+     */
+    public static final BooleanProperty PROP_RULE_INDEX = new BooleanProperty("mappaint.mapcss.rule-index", true);
+
+    /**
+     * The rules of the styles, so that unchanged styles are loaded without parsing them.
+     */
+    private static final ParsedSourceCache<List<MapCSSRule>> RULE_CACHE =
+            new ParsedSourceCache<List<MapCSSRule>>("mapcss", MapCSSRuleCodec.VERSION, new MapCSSRuleCodec());
+
     final public List<MapCSSRule> rules;
+    private MapCSSRuleIndex ruleIndex;
     private Color backgroundColorOverride;
     private String css = null;
 
@@ -64,11 +81,26 @@ public class MapCSSStyleSource extends StyleSource {
     public void loadStyleSource() {
         init();
         rules.clear();
+        ruleIndex = null;
         try {
-            MapCSSParser parser = new MapCSSParser(getSourceInputStream(), "UTF-8");
-            parser.sheet(this);
+            byte[] content = ParsedSourceCache.readContent(getSourceInputStream());
+            String cacheKey = isZip ? url + "#" + zipEntryPath : url;
+            List<MapCSSRule> cached = RULE_CACHE.get(cacheKey, content);
+            if (cached != null) {
+                rules.addAll(cached);
+            } else {
+                MapCSSParser parser = new MapCSSParser(new ByteArrayInputStream(content), "UTF-8");
+                parser.sheet(this);
+                // a style with errors is parsed again, so that the errors are reported every time
+                if (getErrors().isEmpty()) {
+                    RULE_CACHE.put(cacheKey, content, rules);
+                }
+            }
             loadMeta();
             loadCanvas();
+            if (PROP_RULE_INDEX.get()) {
+                ruleIndex = new MapCSSRuleIndex(rules);
+            }
         } catch(IOException e) {
             System.err.println(tr("Warning: failed to load Mappaint styles from ''{0}''. Exception was: {1}", url, e.toString()));
             e.printStackTrace();
@@ -157,35 +189,47 @@ public class MapCSSStyleSource extends StyleSource {
     @Override
     public void apply(MultiCascade mc, OsmPrimitive osm, double scale, OsmPrimitive multipolyOuterWay, boolean pretendWayIsClosed) {
         Environment env = new Environment(osm, mc, null, this);
-        for (MapCSSRule r : rules) {
-            for (Selector s : r.selectors) {
-                env.clearSelectorMatchingInformation();
-                if (s.matches(env)) { // as side effect env.parent will be set (if s is a child selector)
-                    if (s.getRange().contains(scale)) {
-                        mc.range = Range.cut(mc.range, s.getRange());
-                    } else {
-                        mc.range = mc.range.reduceAround(scale, s.getRange());
-                        continue;
-                    }
+        MapCSSRuleIndex ruleIndex = this.ruleIndex;
+        if (ruleIndex != null) {
+            BitSet candidates = ruleIndex.getCandidates(osm);
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                apply(mc, env, scale, ruleIndex.getRule(i), ruleIndex.getSelector(i));
+            }
+        } else {
+            for (MapCSSRule r : rules) {
+                for (Selector s : r.selectors) {
+                    apply(mc, env, scale, r, s);
+                }
+            }
+        }
+    }
 
-                    String sub = s.getSubpart();
-                    if (sub == null) {
-                        sub = "default";
-                    }
+    private void apply(MultiCascade mc, Environment env, double scale, MapCSSRule r, Selector s) {
+        env.clearSelectorMatchingInformation();
+        if (s.matches(env)) { // as side effect env.parent will be set (if s is a child selector)
+            if (s.getRange().contains(scale)) {
+                mc.range = Range.cut(mc.range, s.getRange());
+            } else {
+                mc.range = mc.range.reduceAround(scale, s.getRange());
+                return;
+            }
 
-                    if (sub.equals("*")) {
-                        for (Entry<String, Cascade> entry : mc.getLayers()) {
-                            env.layer = entry.getKey();
-                            if (Utils.equal(env.layer, "*")) {
-                                continue;
-                            }
-                            r.execute(env);
-                        }
+            String sub = s.getSubpart();
+            if (sub == null) {
+                sub = "default";
+            }
+
+            if (sub.equals("*")) {
+                for (Entry<String, Cascade> entry : mc.getLayers()) {
+                    env.layer = entry.getKey();
+                    if (Utils.equal(env.layer, "*")) {
+                        continue;
                     }
-                    env.layer = sub;
                     r.execute(env);
                 }
             }
+            env.layer = sub;
+            r.execute(env);
         }
     }
 
@@ -1,6 +1,7 @@
 // License: GPL. For details, see LICENSE file.
 package org.openstreetmap.josm.gui.mappaint.mapcss;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.regex.PatternSyntaxException;
 
@@ -46,12 +47,12 @@ public interface Selector {
      *
      */
     public static class ChildOrParentSelector implements Selector {
-        private final Selector left;
-        private final LinkSelector link;
-        private final Selector right;
+        final Selector left;
+        final LinkSelector link;
+        final Selector right;
         /** true, if this represents a parent selector (otherwise it is a child selector)
          */
-        private final boolean parentSelector;
+        final boolean parentSelector;
 
         /**
          *
@@ -180,6 +181,14 @@ public interface Selector {
             return false;
         }
 
+        /**
+         * Replies the selector for the primitive the styles are applied to.
+         * @return the right hand side selector
+         */
+        public Selector getRight() {
+            return right;
+        }
+
         @Override
         public String getSubpart() {
             return right.getSubpart();
@@ -316,6 +325,14 @@ public interface Selector {
             return base;
         }
 
+        /**
+         * Replies the conditions of this selector.
+         * @return the conditions, can be empty, never null
+         */
+        public List<Condition> getConditions() {
+            return conds == null ? Collections.<Condition>emptyList() : conds;
+        }
+
         public static Range fromLevel(int a, int b) {
             if (a > b)
                 throw new AssertionError();
@@ -2,6 +2,7 @@
 package org.openstreetmap.josm.gui.tagging;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -19,6 +20,7 @@ import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.gui.preferences.SourceEntry;
 import org.openstreetmap.josm.gui.preferences.map.TaggingPresetPreference;
 import org.openstreetmap.josm.io.MirroredInputStream;
+import org.openstreetmap.josm.io.ParsedSourceCache;
 import org.openstreetmap.josm.tools.Utils;
 import org.openstreetmap.josm.tools.XmlObjectParser;
 
@@ -37,6 +39,12 @@ public final class TaggingPresetReader {
     }
     
     private static File zipIcons = null;
+
+    /** Increase whenever the mapping of the elements to the preset classes changes */
+    private static final int CACHE_VERSION = 1;
+    /** The recorded preset files, so that unchanged files are not parsed again */
+    private static final ParsedSourceCache<XmlObjectParser.Recording> PRESET_CACHE =
+            new ParsedSourceCache<XmlObjectParser.Recording>("presets", CACHE_VERSION, XmlObjectParser.Recording.CODEC);
     
     public static LinkedList<String> getPresetSources() {
         LinkedList<String> sources = new LinkedList<String>();
@@ -49,6 +57,16 @@ public final class TaggingPresetReader {
     }
     
     public static List<TaggingPreset> readAll(Reader in, boolean validate) throws SAXException {
+        XmlObjectParser parser = createParser();
+        if (validate) {
+            parser.startWithValidation(in, Main.JOSM_WEBSITE+"/tagging-preset-1.0", "resource://data/tagging-preset.xsd");
+        } else {
+            parser.start(in);
+        }
+        return readAll(parser);
+    }
+
+    private static XmlObjectParser createParser() {
         XmlObjectParser parser = new XmlObjectParser();
         parser.mapOnStart("item", TaggingPreset.class);
         parser.mapOnStart("separator", TaggingPresetSeparator.class);
@@ -66,18 +84,16 @@ public final class TaggingPresetReader {
         parser.map("space", TaggingPresetItems.Space.class);
         parser.map("key", TaggingPresetItems.Key.class);
         parser.map("list_entry", TaggingPresetItems.PresetListEntry.class);
-        
+        return parser;
+    }
+
+    private static List<TaggingPreset> readAll(XmlObjectParser parser) throws SAXException {
         LinkedList<TaggingPreset> all = new LinkedList<TaggingPreset>();
         TaggingPresetMenu lastmenu = null;
         TaggingPresetItems.Roles lastrole = null;
         final List<TaggingPresetItems.Check> checks = new LinkedList<TaggingPresetItems.Check>();
         List<TaggingPresetItems.PresetListEntry> listEntries = new LinkedList<TaggingPresetItems.PresetListEntry>();
 
-        if (validate) {
-            parser.startWithValidation(in, Main.JOSM_WEBSITE+"/tagging-preset-1.0", "resource://data/tagging-preset.xsd");
-        } else {
-            parser.start(in);
-        }
         while (parser.hasNext()) {
             Object o = parser.next();
             if (!(o instanceof TaggingPresetItem) && !checks.isEmpty()) {
@@ -162,16 +178,20 @@ public final class TaggingPresetReader {
             if(zip != null) {
                 zipIcons = s.getFile();
             }
-            InputStreamReader r;
-            try {
-                r = new InputStreamReader(zip == null ? s : zip, "UTF-8");
-            } catch (UnsupportedEncodingException e) {
-                r = new InputStreamReader(zip == null ? s: zip);
-            }
-            try {
-                tp = readAll(new BufferedReader(r), validate);
-            } finally {
-                Utils.close(r);
+            if (validate) {
+                InputStreamReader r;
+                try {
+                    r = new InputStreamReader(zip == null ? s : zip, "UTF-8");
+                } catch (UnsupportedEncodingException e) {
+                    r = new InputStreamReader(zip == null ? s: zip);
+                }
+                try {
+                    tp = readAll(new BufferedReader(r), validate);
+                } finally {
+                    Utils.close(r);
+                }
+            } else {
+                tp = readAll(source, ParsedSourceCache.readContent(zip == null ? s : zip));
             }
         } finally {
             Utils.close(s);
@@ -179,6 +199,30 @@ public final class TaggingPresetReader {
         return tp;
     }
 
+    /**
+     * Reads the presets of an unchanged source from the cache, or parses and caches them.
+     * The presets are validated when they are added in the preferences, the cache skips the validation.
+     */
+    private static Collection<TaggingPreset> readAll(String source, byte[] content) throws SAXException {
+        XmlObjectParser parser = createParser();
+        XmlObjectParser.Recording recording = PRESET_CACHE.get(source, content);
+        if (recording != null) {
+            parser.replay(recording);
+            return readAll(parser);
+        }
+        recording = new XmlObjectParser.Recording();
+        Reader in;
+        try {
+            in = new InputStreamReader(new ByteArrayInputStream(content), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            in = new InputStreamReader(new ByteArrayInputStream(content));
+        }
+        parser.start(new BufferedReader(in), recording);
+        List<TaggingPreset> all = readAll(parser);
+        PRESET_CACHE.put(source, content, recording);
+        return all;
+    }
+
     public static Collection<TaggingPreset> readAll(Collection<String> sources, boolean validate) {
         LinkedList<TaggingPreset> allPresets = new LinkedList<TaggingPreset>();
         for(String source : sources)  {
@@ -197,6 +197,7 @@ public abstract class AbstractReader {
             processWaysAfterParsing();
             processRelationsAfterParsing();
             processChangesetAfterParsing();
+            ds.buildSpatialIndex();
         } finally {
             ds.endUpdate();
         }
@@ -122,6 +122,8 @@ public class BoundingBoxDownloader extends OsmServerReader {
                 if (in == null)
                     return null;
                 ds = OsmReader.parseDataSet(in, progressMonitor.createSubTaskMonitor(1, false));
+                // releases the connection before the second request
+                Utils.close(in);
 
                 in = getInputStream(getRequestForBbox(-180.0, lat1, lon2, lat2), progressMonitor.createSubTaskMonitor(9, false));
                 if (in == null)
@@ -0,0 +1,154 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.CompactDataSet;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.NodeData;
+import org.openstreetmap.josm.data.osm.PrimitiveData;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationData;
+import org.openstreetmap.josm.data.osm.RelationMemberData;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.osm.WayData;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+
+/**
+ * Reads OSM data into a {@link CompactDataSet} instead of a {@link DataSet}.
+ * No {@link Node}, {@link Way} or {@link Relation} objects are created while parsing.
+ */
+public class CompactOsmReader extends OsmReader {
+
+    private final CompactDataSet store = new CompactDataSet();
+
+    /**
+     * constructor (for private and subclasses use only)
+     *
+     * @see #parseCompactDataSet(InputStream, ProgressMonitor)
+     */
+    protected CompactOsmReader() {
+    }
+
+    @Override
+    protected Node parseNode() throws XMLStreamException {
+        NodeData nd = new NodeData();
+        String lat = parser.getAttributeValue(null, "lat");
+        String lon = parser.getAttributeValue(null, "lon");
+        if (lat != null && lon != null) {
+            nd.setCoor(new LatLon(Double.parseDouble(lat), Double.parseDouble(lon)));
+        }
+        readCommon(nd);
+        while (true) {
+            int event = parser.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (parser.getLocalName().equals("tag")) {
+                    parseTag(nd);
+                } else {
+                    parseUnknown();
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+        }
+        addPrimitive(nd);
+        return null;
+    }
+
+    @Override
+    protected Way parseWay() throws XMLStreamException {
+        WayData wd = new WayData();
+        readCommon(wd);
+        List<Long> nodeIds = new ArrayList<Long>();
+        while (true) {
+            int event = parser.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (parser.getLocalName().equals("nd")) {
+                    nodeIds.add(parseWayNode(wd));
+                } else if (parser.getLocalName().equals("tag")) {
+                    parseTag(wd);
+                } else {
+                    parseUnknown();
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+        }
+        if (wd.isDeleted() && !nodeIds.isEmpty()) {
+            System.out.println(tr("Deleted way {0} contains nodes", wd.getUniqueId()));
+            nodeIds.clear();
+        }
+        wd.setNodes(nodeIds);
+        addPrimitive(wd);
+        return null;
+    }
+
+    @Override
+    protected Relation parseRelation() throws XMLStreamException {
+        RelationData rd = new RelationData();
+        readCommon(rd);
+        List<RelationMemberData> members = new ArrayList<RelationMemberData>();
+        while (true) {
+            int event = parser.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (parser.getLocalName().equals("member")) {
+                    members.add(parseRelationMember(rd));
+                } else if (parser.getLocalName().equals("tag")) {
+                    parseTag(rd);
+                } else {
+                    parseUnknown();
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+        }
+        if (rd.isDeleted() && !members.isEmpty()) {
+            System.out.println(tr("Deleted relation {0} contains members", rd.getUniqueId()));
+            members.clear();
+        }
+        rd.setMembers(members);
+        addPrimitive(rd);
+        return null;
+    }
+
+    private void addPrimitive(PrimitiveData data) throws XMLStreamException {
+        try {
+            if (data instanceof NodeData) {
+                store.addNode((NodeData) data);
+            } else if (data instanceof WayData) {
+                store.addWay((WayData) data);
+            } else {
+                store.addRelation((RelationData) data);
+            }
+        } catch (IllegalArgumentException e) {
+            throwException(e.getMessage());
+        }
+    }
+
+    /**
+     * Parse the given input source and return the compact data set.
+     *
+     * @param source the source input stream. Must not be null.
+     * @param progressMonitor  the progress monitor. If null, {@link org.openstreetmap.josm.gui.progress.NullProgressMonitor#INSTANCE} is assumed
+     *
+     * @return the compact data set with the parsed data
+     * @throws IllegalDataException thrown if the an error was found while parsing the data from the source
+     * @throws IllegalArgumentException thrown if source is null
+     */
+    public static CompactDataSet parseCompactDataSet(InputStream source, ProgressMonitor progressMonitor) throws IllegalDataException {
+        CompactOsmReader reader = new CompactOsmReader();
+        DataSet ds = reader.doParseDataSet(source, progressMonitor);
+        reader.store.dataSources.addAll(ds.dataSources);
+        reader.store.trimToSize();
+        return reader.store;
+    }
+}
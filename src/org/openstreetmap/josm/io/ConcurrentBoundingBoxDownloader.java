@@ -0,0 +1,346 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * Downloads the OSM data of several bounding boxes with concurrent requests and merges it into one data set.
+ * <ul>
+ * <li>At most {@link #PROP_THREADS} requests are processed at the same time, and at most
+ * {@link #PROP_REQUESTS_PER_HOST} of them are sent to the same host. A response is read completely before
+ * the next request is sent to the host and parsed afterwards, so that parsing overlaps with the next request.</li>
+ * <li>Bounding boxes larger than the maximum area of the API are split before they are requested. A bounding
+ * box rejected by the API (HTTP 400, too many nodes or too large) is split into four parts, at most
+ * {@link #PROP_MAX_SPLIT_DEPTH} times.</li>
+ * <li>Bounding boxes crossing the 180th meridian are requested in two parts.</li>
+ * <li>A failed bounding box does not discard the others: the data of the downloaded ones is returned and
+ * the failures are reported by {@link #getFailures()}. Only if all of them fail, the first failure is thrown.</li>
+ * </ul>
+ */
+public class ConcurrentBoundingBoxDownloader extends OsmServerReader {
+
+    /** The maximum number of requests processed at the same time, read when the first download starts */
+    public static final IntegerProperty PROP_THREADS = new IntegerProperty("download.concurrent.threads", 4);
+    /** The maximum number of requests sent to the same host at the same time, read when the host is first contacted */
+    public static final IntegerProperty PROP_REQUESTS_PER_HOST = new IntegerProperty("download.concurrent.requests-per-host", 2);
+    /** How often a bounding box rejected by the API is split */
+    public static final IntegerProperty PROP_MAX_SPLIT_DEPTH = new IntegerProperty("download.concurrent.max-split-depth", 4);
+
+    private static ExecutorService pool;
+    private static final Map<String, Semaphore> hostPermits = new HashMap<String, Semaphore>();
+
+    private final List<Bounds> areas;
+    private final Set<Request> running = new HashSet<Request>();
+    private final List<OsmTransferException> failures = new ArrayList<OsmTransferException>();
+
+    /**
+     * Constructs a new {@code ConcurrentBoundingBoxDownloader}.
+     * @param areas the bounding boxes to download
+     */
+    public ConcurrentBoundingBoxDownloader(Collection<Bounds> areas) {
+        this.areas = new ArrayList<Bounds>(areas);
+    }
+
+    private static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(Math.max(1, PROP_THREADS.get()),
+                    Utils.newThreadFactory("bbox-downloader-%d", Thread.NORM_PRIORITY));
+        }
+        return pool;
+    }
+
+    private static Semaphore getHostPermits(String host) {
+        synchronized (hostPermits) {
+            Semaphore permits = hostPermits.get(host);
+            if (permits == null) {
+                permits = new Semaphore(Math.max(1, PROP_REQUESTS_PER_HOST.get()), true);
+                hostPermits.put(host, permits);
+            }
+            return permits;
+        }
+    }
+
+    /**
+     * The download of one bounding box. It is replaced by its parts if it is split.
+     */
+    private class Request extends BoundingBoxDownloader implements Callable<Request> {
+        private final Bounds bounds;
+        private final int depth;
+        private final Semaphore permits;
+        private List<Request> parts;
+        private DataSet data;
+        private Exception error;
+
+        Request(Bounds bounds, int depth, Semaphore permits) {
+            super(bounds);
+            this.bounds = bounds;
+            this.depth = depth;
+            this.permits = permits;
+        }
+
+        @Override
+        public Request call() {
+            synchronized (running) {
+                if (isDownloadCanceled())
+                    return this;
+                running.add(this);
+            }
+            try {
+                byte[] content = fetch();
+                if (content != null) {
+                    data = OsmReader.parseDataSet(new ByteArrayInputStream(content), NullProgressMonitor.INSTANCE);
+                }
+            } catch (Exception e) {
+                error = e;
+            } finally {
+                synchronized (running) {
+                    running.remove(this);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Reads the response while holding a permit of the host.
+         */
+        private byte[] fetch() throws OsmTransferException, IOException {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                throw new OsmTransferCanceledException();
+            }
+            InputStream in = null;
+            try {
+                if (cancel)
+                    return null;
+                in = getInputStream(getRequestForBbox(lon1, lat1, lon2, lat2), NullProgressMonitor.INSTANCE);
+                if (in == null)
+                    return null;
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                Utils.copyStream(in, out);
+                return out.toByteArray();
+            } finally {
+                Utils.close(in);
+                activeConnection = null;
+                permits.release();
+            }
+        }
+
+        /**
+         * Determines if the API rejected the bounding box as too large.
+         */
+        private boolean isRejectedAsTooLarge() {
+            return error instanceof OsmApiException
+                    && ((OsmApiException) error).getResponseCode() == HttpURLConnection.HTTP_BAD_REQUEST;
+        }
+
+        private List<Request> split(int depth) {
+            double minLat = bounds.getMin().lat();
+            double minLon = bounds.getMin().lon();
+            double maxLat = bounds.getMax().lat();
+            double maxLon = bounds.getMax().lon();
+            double midLat = (minLat + maxLat) / 2;
+            double midLon = (minLon + maxLon) / 2;
+            parts = new ArrayList<Request>(4);
+            parts.add(new Request(new Bounds(minLat, minLon, midLat, midLon, false), depth, permits));
+            parts.add(new Request(new Bounds(minLat, midLon, midLat, maxLon, false), depth, permits));
+            parts.add(new Request(new Bounds(midLat, minLon, maxLat, midLon, false), depth, permits));
+            parts.add(new Request(new Bounds(midLat, midLon, maxLat, maxLon, false), depth, permits));
+            return parts;
+        }
+
+        private DataSet mergeInto(DataSet ds) {
+            if (parts != null) {
+                for (Request part : parts) {
+                    ds = part.mergeInto(ds);
+                }
+            } else if (data != null) {
+                if (ds == null) {
+                    ds = data;
+                } else {
+                    ds.mergeFrom(data);
+                }
+            }
+            return ds;
+        }
+    }
+
+    /**
+     * Adds the requests for a bounding box, split to fit into the maximum area of the API.
+     */
+    private void addRequests(List<Request> requests, Bounds b, double maxArea, Semaphore permits) {
+        if (b.crosses180thMeridian()) {
+            // API 0.6 does not support requests crossing the 180th meridian
+            addRequests(requests, new Bounds(b.getMin().lat(), b.getMin().lon(), b.getMax().lat(), 180.0, false), maxArea, permits);
+            addRequests(requests, new Bounds(b.getMin().lat(), -180.0, b.getMax().lat(), b.getMax().lon(), false), maxArea, permits);
+            return;
+        }
+        Request request = new Request(b, 0, permits);
+        if (maxArea > 0 && b.getArea() > maxArea) {
+            for (Request part : request.split(0)) {
+                addRequests(requests, part.bounds, maxArea, permits);
+            }
+        } else {
+            requests.add(request);
+        }
+    }
+
+    private double getMaxArea() {
+        try {
+            Double maxArea = OsmApi.getOsmApi().getCapabilities().getDouble("area", "maximum");
+            return maxArea != null ? maxArea : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Replies the failures of the last download, one for each bounding box which could not be downloaded.
+     * @return the failures of the last download
+     */
+    public List<OsmTransferException> getFailures() {
+        return failures;
+    }
+
+    /**
+     * Downloads the bounding boxes and merges the data of the ones downloaded successfully.
+     * @return the merged data, or <code>null</code> if the download was canceled
+     * @throws OsmTransferException if no bounding box could be downloaded
+     */
+    @Override
+    public DataSet parseOsm(ProgressMonitor progressMonitor) throws OsmTransferException {
+        progressMonitor.beginTask(tr("Contacting OSM Server..."), areas.size());
+        failures.clear();
+        try {
+            OsmApi.getOsmApi().initialize(progressMonitor.createSubTaskMonitor(0, false));
+            Semaphore permits;
+            try {
+                permits = getHostPermits(new URL(getBaseUrl()).getHost());
+            } catch (MalformedURLException e) {
+                throw new OsmTransferException(e);
+            }
+            double maxArea = getMaxArea();
+            List<Request> requests = new ArrayList<Request>();
+            for (Bounds b : areas) {
+                addRequests(requests, b, maxArea, permits);
+            }
+            progressMonitor.setTicksCount(requests.size());
+
+            CompletionService<Request> completion = new ExecutorCompletionService<Request>(getPool());
+            List<Future<Request>> futures = new ArrayList<Future<Request>>();
+            for (Request request : requests) {
+                futures.add(completion.submit(request));
+            }
+            int maxDepth = PROP_MAX_SPLIT_DEPTH.get();
+            int pending = requests.size();
+            int done = 0;
+            try {
+                while (pending > 0) {
+                    Future<Request> future = completion.poll(100, TimeUnit.MILLISECONDS);
+                    if (isDownloadCanceled())
+                        return null;
+                    if (future == null) {
+                        continue;
+                    }
+                    pending--;
+                    Request request = future.get();
+                    if (request.isRejectedAsTooLarge() && request.depth < maxDepth) {
+                        List<Request> parts = request.split(request.depth + 1);
+                        progressMonitor.setTicksCount(progressMonitor.getTicksCount() + parts.size() - 1);
+                        for (Request part : parts) {
+                            futures.add(completion.submit(part));
+                        }
+                        pending += parts.size();
+                    } else if (request.error != null) {
+                        failures.add(request.error instanceof OsmTransferException
+                                ? (OsmTransferException) request.error : new OsmTransferException(request.error));
+                        progressMonitor.worked(1);
+                    } else {
+                        done++;
+                        progressMonitor.subTask(tr("Downloaded {0} of {1} areas", done, progressMonitor.getTicksCount()));
+                        progressMonitor.worked(1);
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new OsmTransferCanceledException();
+            } catch (ExecutionException e) {
+                throw new OsmTransferException(e.getCause());
+            } finally {
+                if (pending > 0) {
+                    // canceled or failed, the remaining requests are not needed anymore
+                    for (Future<Request> future : futures) {
+                        future.cancel(false);
+                    }
+                    cancelRunning();
+                }
+            }
+
+            if (done == 0 && !failures.isEmpty())
+                throw failures.get(0);
+
+            progressMonitor.indeterminateSubTask(tr("Merging data..."));
+            DataSet ds = null;
+            for (Request request : requests) {
+                ds = request.mergeInto(ds);
+            }
+            return ds != null ? ds : new DataSet();
+        } finally {
+            progressMonitor.finishTask();
+        }
+    }
+
+    private boolean isDownloadCanceled() {
+        synchronized (running) {
+            return cancel;
+        }
+    }
+
+    private void cancelRunning() {
+        List<Request> requests;
+        synchronized (running) {
+            requests = new ArrayList<Request>(running);
+        }
+        for (Request request : requests) {
+            request.cancel();
+        }
+    }
+
+    @Override
+    public void cancel() {
+        synchronized (running) {
+            cancel = true;
+        }
+        cancelRunning();
+    }
+}
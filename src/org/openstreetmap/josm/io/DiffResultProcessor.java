@@ -4,6 +4,7 @@ package org.openstreetmap.josm.io;
 import static org.openstreetmap.josm.tools.I18n.tr;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
 import java.util.Collection;
 import java.util.Collections;
@@ -75,13 +76,29 @@ public class DiffResultProcessor  {
      *
      */
     public  void parse(String diffUploadResponse, ProgressMonitor progressMonitor) throws OsmDataParsingException {
+        CheckParameterUtil.ensureParameterNotNull(diffUploadResponse, "diffUploadResponse");
+        parse(new InputSource(new StringReader(diffUploadResponse)), progressMonitor);
+    }
+
+    /**
+     * Parse the response from a diff upload to the OSM API while it is received.
+     *
+     * @param diffUploadResponse the response. Must not be null.
+     * @param progressMonitor a progress monitor. Defaults to {@link NullProgressMonitor#INSTANCE} if null
+     * @throws IllegalArgumentException thrown if diffUploadResponse is null
+     * @throws OsmDataParsingException thrown if the diffUploadResponse can't be parsed successfully
+     */
+    public void parse(InputStream diffUploadResponse, ProgressMonitor progressMonitor) throws OsmDataParsingException {
+        CheckParameterUtil.ensureParameterNotNull(diffUploadResponse, "diffUploadResponse");
+        parse(new InputSource(diffUploadResponse), progressMonitor);
+    }
+
+    private void parse(InputSource inputSource, ProgressMonitor progressMonitor) throws OsmDataParsingException {
         if (progressMonitor == null) {
             progressMonitor = NullProgressMonitor.INSTANCE;
         }
-        CheckParameterUtil.ensureParameterNotNull(diffUploadResponse, "diffUploadResponse");
         try {
             progressMonitor.beginTask(tr("Parsing response from server..."));
-            InputSource inputSource = new InputSource(new StringReader(diffUploadResponse));
             SAXParserFactory.newInstance().newSAXParser().parse(inputSource, new Parser());
         } catch(IOException e) {
             throw new OsmDataParsingException(e);
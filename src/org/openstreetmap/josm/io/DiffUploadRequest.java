@@ -0,0 +1,135 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import org.openstreetmap.josm.data.osm.Changeset;
+import org.openstreetmap.josm.data.osm.IPrimitive;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+
+/**
+ * The osmChange document of a diff upload, see {@link OsmApi#uploadDiff(DiffUploadRequest, org.openstreetmap.josm.gui.progress.ProgressMonitor)}.
+ * <p>
+ * The document is written by {@link OsmChangeBuilder} straight into its UTF-8 encoded, optionally gzip
+ * compressed bytes, without building it as a string first. The bytes are sent to the server without
+ * another copy in the connection.
+ * <p>
+ * A request can be created while another one is uploaded, as long as it does not refer to new primitives
+ * outside of itself, see {@link #isSelfContained(Collection)}: their ids are only known after the upload.
+ */
+public class DiffUploadRequest {
+
+    /** Compresses the osmChange documents of diff uploads with gzip */
+    public static final BooleanProperty PROP_COMPRESS = new BooleanProperty("osm-server.upload-compression", false);
+
+    private final List<IPrimitive> primitives;
+    private final byte[] content;
+    private final boolean compressed;
+
+    /**
+     * Creates the request uploading <code>primitives</code>, compressed if {@link #PROP_COMPRESS} is set.
+     * @param primitives the primitives to upload
+     * @param changeset the changeset the primitives are uploaded to
+     */
+    public DiffUploadRequest(Collection<? extends IPrimitive> primitives, Changeset changeset) {
+        this(primitives, changeset, PROP_COMPRESS.get());
+    }
+
+    /**
+     * Creates the request uploading <code>primitives</code>.
+     * @param primitives the primitives to upload
+     * @param changeset the changeset the primitives are uploaded to
+     * @param compress true to compress the document with gzip
+     */
+    public DiffUploadRequest(Collection<? extends IPrimitive> primitives, Changeset changeset, boolean compress) {
+        this.primitives = new ArrayList<IPrimitive>(primitives);
+        this.compressed = compress;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            OutputStream out = compress ? new GZIPOutputStream(bytes, 8192) : bytes;
+            PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out, Charset.forName("UTF-8"))));
+            OsmChangeBuilder builder = new OsmChangeBuilder(changeset, null, writer);
+            builder.start();
+            builder.append(this.primitives);
+            builder.finish();
+            writer.close();
+        } catch (IOException e) {
+            // not thrown by a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+        this.content = bytes.toByteArray();
+    }
+
+    /**
+     * Replies the uploaded primitives.
+     * @return the uploaded primitives
+     */
+    public List<IPrimitive> getPrimitives() {
+        return primitives;
+    }
+
+    /**
+     * Replies the encoded document.
+     * @return the encoded document
+     */
+    public byte[] getContent() {
+        return content;
+    }
+
+    /**
+     * Replies the content encoding of the document.
+     * @return <code>gzip</code> if the document is compressed, <code>null</code> otherwise
+     */
+    public String getContentEncoding() {
+        return compressed ? "gzip" : null;
+    }
+
+    /**
+     * Determines if the primitives refer only to primitives which are not new, or to new primitives
+     * among themselves. Only the document of such primitives can be created before the previous
+     * upload assigned the ids of its new primitives.
+     * @param primitives the primitives
+     * @return true if the primitives do not refer to other new primitives
+     */
+    public static boolean isSelfContained(Collection<? extends IPrimitive> primitives) {
+        Set<IPrimitive> contained = new HashSet<IPrimitive>(primitives);
+        for (IPrimitive p : primitives) {
+            if (p.isDeleted() || p instanceof Node) {
+                // deleted primitives are written without their references
+                continue;
+            } else if (p instanceof Way) {
+                for (Node n : ((Way) p).getNodes()) {
+                    if (n.isNew() && !contained.contains(n))
+                        return false;
+                }
+            } else if (p instanceof Relation) {
+                for (RelationMember m : ((Relation) p).getMembers()) {
+                    OsmPrimitive member = m.getMember();
+                    if (member.isNew() && !contained.contains(member))
+                        return false;
+                }
+            } else {
+                // the references of other primitives are not known
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,202 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.data.osm.RelationMemberData;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.tools.LongIntHashMap;
+
+/**
+ * Primitives read by a reader, indexed by their external ids, and the references between them.
+ *
+ * References are resolved through {@link LongIntHashMap}s from external ids to list positions,
+ * and way nodes are kept as <code>long[]</code>, instead of the boxed maps of {@link AbstractReader}.
+ * The primitives are added to the data set in the same way as by {@link AbstractReader}.
+ */
+final class ExternalIdIndex {
+
+    private final List<Node> nodeList = new ArrayList<Node>();
+    private final LongIntHashMap nodeIndex = new LongIntHashMap();
+    private final List<Way> wayList = new ArrayList<Way>();
+    private final List<long[]> wayNodes = new ArrayList<long[]>();
+    private long[] wayIds = new long[1024];
+    private final LongIntHashMap wayIndex = new LongIntHashMap();
+    private final List<Relation> relationList = new ArrayList<Relation>();
+    private final List<RelationMemberData[]> relationMembers = new ArrayList<RelationMemberData[]>();
+    private long[] relationIds = new long[1024];
+    private final LongIntHashMap relationIndex = new LongIntHashMap();
+
+    /**
+     * Adds a read primitive. A primitive read twice replaces the first one, like in {@link OsmReader}.
+     * @param id the external id
+     * @param osm the primitive
+     * @param references the way nodes as <code>long[]</code> or the relation members as
+     * <code>RelationMemberData[]</code>, null for nodes
+     */
+    public void add(long id, OsmPrimitive osm, Object references) {
+        if (osm instanceof Node) {
+            register(nodeIndex, nodeList, id, (Node) osm);
+        } else if (osm instanceof Way) {
+            int pos = register(wayIndex, wayList, id, (Way) osm);
+            set(wayNodes, pos, (long[]) references);
+            wayIds = set(wayIds, pos, id);
+        } else {
+            int pos = register(relationIndex, relationList, id, (Relation) osm);
+            set(relationMembers, pos, (RelationMemberData[]) references);
+            relationIds = set(relationIds, pos, id);
+        }
+    }
+
+    private static <T> int register(LongIntHashMap index, List<T> list, long id, T osm) {
+        int pos = index.get(id);
+        if (pos == LongIntHashMap.NO_VALUE) {
+            pos = list.size();
+            list.add(osm);
+            index.put(id, pos);
+        } else {
+            list.set(pos, osm);
+        }
+        return pos;
+    }
+
+    private static <T> void set(List<T> list, int pos, T value) {
+        if (pos == list.size()) {
+            list.add(value);
+        } else {
+            list.set(pos, value);
+        }
+    }
+
+    private static long[] set(long[] array, int pos, long value) {
+        if (pos == array.length) {
+            array = Arrays.copyOf(array, 2 * array.length);
+        }
+        array[pos] = value;
+        return array;
+    }
+
+    /**
+     * Adds the nodes to the data set.
+     * @param ds the data set
+     */
+    public void addNodes(DataSet ds) {
+        for (Node n : nodeList) {
+            ds.addPrimitive(n);
+        }
+    }
+
+    /**
+     * Sets the nodes of the ways and adds the ways to the data set.
+     * @param ds the data set
+     * @throws IllegalDataException if a way refers to a missing new node
+     */
+    public void addWays(DataSet ds) throws IllegalDataException {
+        for (int i = 0; i < wayList.size(); i++) {
+            Way w = wayList.get(i);
+            long[] nodeIds = wayNodes.get(i);
+            List<Node> nodes = new ArrayList<Node>(nodeIds.length);
+            for (long id : nodeIds) {
+                Node n = get(nodeIndex, nodeList, id);
+                if (n == null) {
+                    if (id <= 0)
+                        throw new IllegalDataException (
+                                tr("Way with external ID ''{0}'' includes missing node with external ID ''{1}''.",
+                                        wayIds[i], id));
+                    n = (Node) createIncomplete(ds, id, OsmPrimitiveType.NODE);
+                }
+                if (n.isDeleted()) {
+                    System.out.println(tr("Deleted node {0} is part of way {1}", id, w.getId()));
+                } else {
+                    nodes.add(n);
+                }
+            }
+            w.setNodes(nodes);
+            if (w.hasIncompleteNodes()) {
+                System.out.println(tr("Way {0} with {1} nodes has incomplete nodes because at least one node was missing in the loaded data.",
+                        wayIds[i], w.getNodesCount()));
+            }
+            ds.addPrimitive(w);
+        }
+        wayNodes.clear();
+    }
+
+    /**
+     * Adds the relations to the data set and sets their members.
+     * @param ds the data set
+     * @throws IllegalDataException if a relation refers to a missing new primitive
+     */
+    public void addRelations(DataSet ds) throws IllegalDataException {
+        // First add all relations to make sure that when relation reference other relation, the referenced will be already in dataset
+        for (Relation r : relationList) {
+            ds.addPrimitive(r);
+        }
+        for (int i = 0; i < relationList.size(); i++) {
+            Relation r = relationList.get(i);
+            RelationMemberData[] members = relationMembers.get(i);
+            List<RelationMember> relationMembers = new ArrayList<RelationMember>(members.length);
+            for (RelationMemberData rm : members) {
+                OsmPrimitive primitive;
+                switch (rm.getMemberType()) {
+                case NODE: primitive = get(nodeIndex, nodeList, rm.getMemberId()); break;
+                case WAY: primitive = get(wayIndex, wayList, rm.getMemberId()); break;
+                default: primitive = get(relationIndex, relationList, rm.getMemberId()); break;
+                }
+                if (primitive == null) {
+                    if (rm.getMemberId() <= 0)
+                        // relation member refers to a primitive with a negative id which was not
+                        // found in the data. This is always a data integrity problem and we abort
+                        // with an exception
+                        //
+                        throw new IllegalDataException(
+                                tr("Relation with external id ''{0}'' refers to a missing primitive with external id ''{1}''.",
+                                        relationIds[i], rm.getMemberId()));
+                    primitive = createIncomplete(ds, rm.getMemberId(), rm.getMemberType());
+                }
+                if (primitive.isDeleted()) {
+                    System.out.println(tr("Deleted member {0} is used by relation {1}", primitive.getId(), r.getId()));
+                } else {
+                    relationMembers.add(new RelationMember(rm.getRole(), primitive));
+                }
+            }
+            r.setMembers(relationMembers);
+        }
+        this.relationMembers.clear();
+    }
+
+    private static <T> T get(LongIntHashMap index, List<T> list, long id) {
+        int pos = index.get(id);
+        return pos == LongIntHashMap.NO_VALUE ? null : list.get(pos);
+    }
+
+    /**
+     * Replies the incomplete primitive for a referenced primitive which is not in the data,
+     * creating it on the first reference.
+     */
+    private static OsmPrimitive createIncomplete(DataSet ds, long id, OsmPrimitiveType type) {
+        OsmPrimitive primitive = ds.getPrimitiveById(id, type);
+        if (primitive == null) {
+            switch (type) {
+            case NODE:
+                primitive = new Node(id); break;
+            case WAY:
+                primitive = new Way(id); break;
+            case RELATION:
+                primitive = new Relation(id); break;
+            default: throw new AssertionError(); // can't happen
+            }
+            ds.addPrimitive(primitive);
+        }
+        return primitive;
+    }
+}
@@ -0,0 +1,480 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * The HTTP transport of the {@link OsmConnection}s.
+ * <ul>
+ * <li>The connections of GET requests are kept alive and reused, unless {@link #PROP_KEEP_ALIVE} is disabled.
+ * A connection is only reused after its response has been read completely: the rest of a response is skipped
+ * when its stream is closed, a connection with a large unread rest is closed instead. Other requests close their
+ * connection, as {@link HttpURLConnection} silently sends them again if a reused connection turns out to be stale
+ * (see #5369).</li>
+ * <li>At most {@link #PROP_MAX_CONNECTIONS_PER_HOST} requests to the same host are processed at the same
+ * time. A request waits for a free connection at most as long as the connect timeout, then it is sent anyway.</li>
+ * <li>{@link #getBackoff} computes the exponentially increasing delay between two retries of a request.</li>
+ * <li>The requests are measured per endpoint, see {@link #getMetrics()}.</li>
+ * </ul>
+ */
+public final class HttpTransport {
+
+    /** Keeps the connections to the servers alive */
+    public static final BooleanProperty PROP_KEEP_ALIVE = new BooleanProperty("osm-server.keep-alive", true);
+    /** The maximum number of requests processed at the same time for a host, read when the host is first contacted */
+    public static final IntegerProperty PROP_MAX_CONNECTIONS_PER_HOST = new IntegerProperty("osm-server.max-connections-per-host", 4);
+    /** The maximum number of retries of a failed read request */
+    public static final IntegerProperty PROP_READ_RETRIES = new IntegerProperty("osm-server.read-retries", 2);
+
+    /** The upper bounds in milliseconds of the buckets of the latency histogram, the last bucket is unbounded */
+    public static final long[] LATENCY_BUCKETS = {50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    private static final int MAX_SKIPPED_BYTES = 64 * 1024;
+    private static final long MAX_BACKOFF = 30000;
+    private static final Pattern ID_PATTERN = Pattern.compile("(?<=/|^)\\d+(?=/|$)");
+
+    private static final Map<String, Semaphore> hostPermits = new HashMap<String, Semaphore>();
+    private static final Map<String, EndpointMetrics> metrics = new TreeMap<String, EndpointMetrics>();
+
+    private HttpTransport() {
+        // Hide default constructor for utils classes
+    }
+
+    /**
+     * The metrics of the requests to an endpoint.
+     */
+    public static final class EndpointMetrics {
+        private final String endpoint;
+        private int requests;
+        private int failures;
+        private int retries;
+        private long bytesSent;
+        private long bytesReceived;
+        private long totalLatency;
+        private final int[] latencyHistogram = new int[LATENCY_BUCKETS.length + 1];
+
+        private EndpointMetrics(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        private EndpointMetrics(EndpointMetrics m) {
+            this(m.endpoint);
+            requests = m.requests;
+            failures = m.failures;
+            retries = m.retries;
+            bytesSent = m.bytesSent;
+            bytesReceived = m.bytesReceived;
+            totalLatency = m.totalLatency;
+            System.arraycopy(m.latencyHistogram, 0, latencyHistogram, 0, latencyHistogram.length);
+        }
+
+        private void add(Exchange exchange, long latency, boolean failed) {
+            requests++;
+            if (failed) {
+                failures++;
+            }
+            retries += exchange.retries;
+            bytesSent += exchange.bytesSent;
+            bytesReceived += exchange.bytesReceived;
+            totalLatency += latency;
+            int bucket = 0;
+            while (bucket < LATENCY_BUCKETS.length && latency > LATENCY_BUCKETS[bucket]) {
+                bucket++;
+            }
+            latencyHistogram[bucket]++;
+        }
+
+        /**
+         * Replies the endpoint, the request method and the path relative to the API with ids replaced by <code>{id}</code>.
+         * @return the endpoint, e.g. <code>GET node/{id}/history</code>
+         */
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        /**
+         * Replies the number of requests.
+         * @return the number of requests
+         */
+        public int getRequests() {
+            return requests;
+        }
+
+        /**
+         * Replies the number of failed requests.
+         * @return the number of failed requests
+         */
+        public int getFailures() {
+            return failures;
+        }
+
+        /**
+         * Replies the number of retries.
+         * @return the number of retries
+         */
+        public int getRetries() {
+            return retries;
+        }
+
+        /**
+         * Replies the number of bytes of the request bodies.
+         * @return the number of bytes sent
+         */
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        /**
+         * Replies the number of bytes of the response bodies, as transferred.
+         * @return the number of bytes received
+         */
+        public long getBytesReceived() {
+            return bytesReceived;
+        }
+
+        /**
+         * Replies the average latency, from the start of a request until its response is read.
+         * @return the average latency in milliseconds
+         */
+        public long getAverageLatency() {
+            return requests == 0 ? 0 : totalLatency / requests;
+        }
+
+        /**
+         * Replies the latency histogram. The entry <code>i</code> counts the requests with a latency up to
+         * <code>LATENCY_BUCKETS[i]</code> milliseconds, the last entry the slower requests.
+         * @return the latency histogram
+         */
+        public int[] getLatencyHistogram() {
+            return latencyHistogram.clone();
+        }
+    }
+
+    /**
+     * A request sent through the transport. It is finished when the response stream returned by {@link #meter}
+     * is read completely or closed, or by {@link #finish}.
+     */
+    public static final class Exchange {
+        private final String method;
+        private final String endpoint;
+        private final long start = System.nanoTime();
+        private Semaphore permit;
+        private HttpURLConnection connection;
+        private int retries;
+        private long bytesSent;
+        private long bytesReceived;
+        private int responseCode = -1;
+        private volatile boolean finished;
+
+        private Exchange(String method, String endpoint, Semaphore permit) {
+            this.method = method;
+            this.endpoint = endpoint;
+            this.permit = permit;
+        }
+
+        /**
+         * Opens the connection of the request. If it is opened again, the request is retried: the previous
+         * connection is closed and the retry is counted.
+         * @param url the URL
+         * @return the connection
+         * @throws IOException if an I/O exception occurs
+         */
+        public HttpURLConnection openConnection(URL url) throws IOException {
+            if (connection != null) {
+                connection.disconnect();
+                synchronized (this) {
+                    retries++;
+                }
+            }
+            connection = Utils.openHttpConnection(url, isKeptAlive());
+            return connection;
+        }
+
+        private boolean isKeptAlive() {
+            // only idempotent requests may be sent again on a stale connection
+            return PROP_KEEP_ALIVE.get() && ("GET".equals(method) || "HEAD".equals(method));
+        }
+
+        /**
+         * Records the response code of the request. Responses with error codes are counted as failures.
+         * @param responseCode the response code
+         */
+        public synchronized void responded(int responseCode) {
+            this.responseCode = responseCode;
+        }
+
+        /**
+         * Counts the bytes of the request body.
+         * @param bytes the number of bytes
+         */
+        public synchronized void sent(long bytes) {
+            bytesSent += bytes;
+        }
+
+        private synchronized void received(long bytes) {
+            bytesReceived += bytes;
+        }
+
+        /**
+         * Wraps the response stream of the request, counting its bytes. The request is finished when the
+         * stream is read completely, or when it is closed. The rest of the response is skipped then, so that
+         * the connection can be reused.
+         * @param in the response stream
+         * @return the wrapped stream
+         */
+        public InputStream meter(InputStream in) {
+            return new FilterInputStream(in) {
+                private boolean eof;
+
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b < 0) {
+                        reachedEnd();
+                    } else {
+                        received(1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n < 0) {
+                        reachedEnd();
+                    } else {
+                        received(n);
+                    }
+                    return n;
+                }
+
+                private void reachedEnd() {
+                    eof = true;
+                    finish(false, false);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    boolean reusable = eof || (!finished && skipRest(in));
+                    try {
+                        super.close();
+                    } finally {
+                        finish(!reusable, false);
+                    }
+                }
+            };
+        }
+
+        private boolean skipRest(InputStream in) {
+            try {
+                byte[] buffer = new byte[4096];
+                int skipped = 0;
+                int n;
+                while (skipped < MAX_SKIPPED_BYTES && (n = in.read(buffer)) >= 0) {
+                    received(n);
+                    skipped += n;
+                }
+                return skipped < MAX_SKIPPED_BYTES;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Finishes the request: releases its connection permit and records its metrics. Does nothing
+         * if the request is already finished.
+         * @param failed true if the request failed. The connection is closed instead of being reused.
+         */
+        public void finish(boolean failed) {
+            finish(failed, failed);
+        }
+
+        private void finish(boolean disconnect, boolean failed) {
+            synchronized (this) {
+                if (finished)
+                    return;
+                finished = true;
+            }
+            if (permit != null) {
+                permit.release();
+                permit = null;
+            }
+            if (connection != null && (disconnect || !isKeptAlive())) {
+                connection.disconnect();
+            }
+            long latency = (System.nanoTime() - start) / 1000000;
+            synchronized (metrics) {
+                EndpointMetrics m = metrics.get(endpoint);
+                if (m == null) {
+                    m = new EndpointMetrics(endpoint);
+                    metrics.put(endpoint, m);
+                }
+                m.add(this, latency, failed || responseCode >= 400);
+            }
+        }
+    }
+
+    private static Semaphore getHostPermits(String host) {
+        synchronized (hostPermits) {
+            Semaphore permits = hostPermits.get(host);
+            if (permits == null) {
+                permits = new Semaphore(Math.max(1, PROP_MAX_CONNECTIONS_PER_HOST.get()), true);
+                hostPermits.put(host, permits);
+            }
+            return permits;
+        }
+    }
+
+    /**
+     * Starts a request, waiting for a free connection to the host.
+     * @param method the request method
+     * @param url the URL
+     * @param baseUrl the base URL of the API, removed from the endpoint name. May be null.
+     * @return the request
+     * @throws OsmTransferCanceledException if the thread is interrupted while waiting
+     */
+    public static Exchange begin(String method, URL url, String baseUrl) throws OsmTransferCanceledException {
+        Semaphore permits = getHostPermits(url.getHost());
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(Main.pref.getInteger("socket.timeout.connect", 15), TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new OsmTransferCanceledException();
+        }
+        if (!acquired) {
+            System.err.println("Warning: no free connection to " + url.getHost() + ", sending the request anyway");
+        }
+        return new Exchange(method, getEndpoint(method, url, baseUrl), acquired ? permits : null);
+    }
+
+    /**
+     * Replies the endpoint of a request: the request method and the path relative to the API,
+     * with ids replaced by <code>{id}</code>.
+     * @param method the request method
+     * @param url the URL
+     * @param baseUrl the base URL of the API. May be null.
+     * @return the endpoint
+     */
+    public static String getEndpoint(String method, URL url, String baseUrl) {
+        String path = url.getPath();
+        if (baseUrl != null) {
+            try {
+                String basePath = new URL(baseUrl).getPath();
+                if (path.startsWith(basePath)) {
+                    path = path.substring(basePath.length());
+                }
+            } catch (IOException e) {
+                // keep the full path
+            }
+        }
+        if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        if (baseUrl == null || !url.getHost().equals(getHost(baseUrl))) {
+            path = url.getHost() + "/" + path;
+        }
+        return method + " " + ID_PATTERN.matcher(path).replaceAll("{id}");
+    }
+
+    private static String getHost(String url) {
+        try {
+            return new URL(url).getHost();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Replies the delay before a retry, doubled with every retry, at most 30 seconds.
+     * @param retry the number of the retry, starting with 1
+     * @param retryAfter the value of the <code>Retry-After</code> header of the response, if any. Used instead
+     * of the computed delay if it is longer.
+     * @return the delay in milliseconds
+     */
+    public static long getBackoff(int retry, String retryAfter) {
+        long delay = Math.min(MAX_BACKOFF, 1000L << Math.min(Math.max(retry - 1, 0), 15));
+        if (retryAfter != null) {
+            try {
+                delay = Math.max(delay, Math.min(MAX_BACKOFF, Long.parseLong(retryAfter.trim()) * 1000));
+            } catch (NumberFormatException e) {
+                // a HTTP date, ignored
+            }
+        }
+        return delay;
+    }
+
+    /**
+     * Determines if a request should be retried after a response with the given code.
+     * @param responseCode the response code
+     * @return true for temporary server errors and too many requests
+     */
+    public static boolean isRetryable(int responseCode) {
+        return responseCode == HttpURLConnection.HTTP_BAD_GATEWAY
+                || responseCode == HttpURLConnection.HTTP_UNAVAILABLE
+                || responseCode == HttpURLConnection.HTTP_GATEWAY_TIMEOUT
+                || responseCode == 429 /* too many requests */;
+    }
+
+    /**
+     * Replies a snapshot of the metrics of all endpoints, sorted by endpoint.
+     * @return the metrics
+     */
+    public static List<EndpointMetrics> getMetrics() {
+        synchronized (metrics) {
+            List<EndpointMetrics> result = new ArrayList<EndpointMetrics>(metrics.size());
+            for (EndpointMetrics m : metrics.values()) {
+                result.add(new EndpointMetrics(m));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Clears the metrics of all endpoints.
+     */
+    public static void resetMetrics() {
+        synchronized (metrics) {
+            metrics.clear();
+        }
+    }
+
+    /**
+     * Writes the metrics of all endpoints as table.
+     * @param out the output
+     */
+    public static void writeReport(PrintWriter out) {
+        StringBuilder header = new StringBuilder();
+        for (long bound : LATENCY_BUCKETS) {
+            header.append(String.format(" %6s", "<" + bound));
+        }
+        header.append(String.format(" %6s", ">" + LATENCY_BUCKETS[LATENCY_BUCKETS.length - 1]));
+        out.printf("%8s %8s %8s %12s %12s %8s%s  %s%n", "requests", "failures", "retries", "sent", "received", "avg ms", header, "endpoint");
+        for (EndpointMetrics m : getMetrics()) {
+            StringBuilder histogram = new StringBuilder();
+            for (int count : m.latencyHistogram) {
+                histogram.append(String.format(" %6d", count));
+            }
+            out.printf("%8d %8d %8d %12d %12d %8d%s  %s%n", m.requests, m.failures, m.retries, m.bytesSent, m.bytesReceived,
+                    m.getAverageLatency(), histogram, m.endpoint);
+        }
+        out.flush();
+    }
+}
@@ -6,19 +6,25 @@ import static org.openstreetmap.josm.tools.I18n.trn;
 
 import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
@@ -33,14 +39,22 @@ import org.openstreetmap.josm.data.osm.Relation;
 import org.openstreetmap.josm.data.osm.RelationMember;
 import org.openstreetmap.josm.data.osm.SimplePrimitiveId;
 import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
 import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 import org.openstreetmap.josm.tools.CheckParameterUtil;
+import org.openstreetmap.josm.tools.Utils;
 
 /**
  * Retrieves a set of {@link OsmPrimitive}s from an OSM server using the so called
  * Multi Fetch API.
  *
+ * The ids are fetched in packages by concurrent requests, see {@link #PROP_THREADS}. The size of the
+ * packages adapts to the server: it is doubled while requests are answered faster than
+ * {@link #PROP_TARGET_LATENCY} and halved when they are slower, within the limits of
+ * {@link #PROP_MAX_URL_LENGTH}. A package with unknown ids (response code 404 or 410) is split in
+ * halves until the unknown ids are found.
+ *
  * Usage:
  * <pre>
  *    MultiFetchServerObjectReader reader = MultiFetchServerObjectReader()
@@ -57,12 +71,23 @@ import org.openstreetmap.josm.tools.CheckParameterUtil;
  */
 public class MultiFetchServerObjectReader extends OsmServerReader{
     /**
-     * the max. number of primitives retrieved in one step. Assuming IDs with 7 digits,
-     * this leads to a max. request URL of ~ 1600 Bytes ((7 digits +  1 Separator) * 200),
+     * the number of primitives retrieved in the first step. Assuming IDs with 7 digits,
+     * this leads to a request URL of ~ 1600 Bytes ((7 digits +  1 Separator) * 200),
      * which should be safe according to the
      * <a href="http://www.boutell.com/newfaq/misc/urllength.html">WWW FAQ</a>.
      */
-    static private int MAX_IDS_PER_REQUEST = 200;
+    static private final int INITIAL_IDS_PER_REQUEST = 200;
+    /** the min. number of primitives retrieved in one step, unless a package is split to find unknown ids */
+    static private final int MIN_IDS_PER_REQUEST = 10;
+    /** the host of {@link OsmApi#DEFAULT_API_URL}, which is also served with https */
+    static private final String MAIN_API_HOST = "api.openstreetmap.org";
+
+    /** The number of concurrent requests, at most {@link OsmApi#MAX_DOWNLOAD_THREADS} for the main API */
+    public static final IntegerProperty PROP_THREADS = new IntegerProperty("osm.download.threads", OsmApi.MAX_DOWNLOAD_THREADS);
+    /** The max. length of a request URL */
+    public static final IntegerProperty PROP_MAX_URL_LENGTH = new IntegerProperty("osm.download.max-url-length", 4000);
+    /** The latency in milliseconds the number of primitives retrieved in one step is adapted to */
+    public static final IntegerProperty PROP_TARGET_LATENCY = new IntegerProperty("osm.download.target-latency", 2000);
 
     private Set<Long> nodes;
     private Set<Long> ways;
@@ -230,25 +255,28 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
     }
 
     /**
-     * extracts a subset of max {@link #MAX_IDS_PER_REQUEST} ids from <code>ids</code> and
-     * replies the subset. The extracted subset is removed from <code>ids</code>.
+     * extracts a subset of max <code>maxIds</code> ids from <code>ids</code> and replies the subset.
+     * The subset is limited further, so that its request URL does not exceed {@link #PROP_MAX_URL_LENGTH}.
+     * The extracted subset is removed from <code>ids</code>.
      *
      * @param ids a set of ids
+     * @param type The primitive type. Must be one of {@link OsmPrimitiveType#NODE NODE}, {@link OsmPrimitiveType#WAY WAY}, {@link OsmPrimitiveType#RELATION RELATION}
+     * @param maxIds the max. number of ids
      * @return the subset of ids
      */
-    protected Set<Long> extractIdPackage(Set<Long> ids) {
-        HashSet<Long> pkg = new HashSet<Long>();
-        if (ids.isEmpty())
-            return pkg;
-        if (ids.size() > MAX_IDS_PER_REQUEST) {
-            Iterator<Long> it = ids.iterator();
-            for (int i=0; i<MAX_IDS_PER_REQUEST; i++) {
-                pkg.add(it.next());
+    protected Set<Long> extractIdPackage(Set<Long> ids, OsmPrimitiveType type, int maxIds) {
+        Set<Long> pkg = new LinkedHashSet<Long>();
+        int length = OsmApi.getOsmApi().getBaseUrl().length() + buildRequestString(type, pkg).length();
+        int maxLength = PROP_MAX_URL_LENGTH.get();
+        for (Iterator<Long> it = ids.iterator(); it.hasNext() && pkg.size() < maxIds;) {
+            Long id = it.next();
+            // the id and its separator
+            length += id.toString().length() + 1;
+            if (length > maxLength && !pkg.isEmpty()) {
+                break;
             }
-            ids.removeAll(pkg);
-        } else {
-            pkg.addAll(ids);
-            ids.clear();
+            pkg.add(id);
+            it.remove();
         }
         return pkg;
     }
@@ -314,6 +342,55 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
         visitor.merge();
     }
 
+    /**
+     * Replies the number of concurrent requests, see {@link #PROP_THREADS}.
+     * @return the number of concurrent requests
+     */
+    protected int getThreadsNumber() {
+        int threadsNumber = Math.max(PROP_THREADS.get(), 1);
+        if (isMainApi(OsmApi.getOsmApi().getBaseUrl())) {
+            threadsNumber = Math.min(threadsNumber, OsmApi.MAX_DOWNLOAD_THREADS);
+        }
+        return threadsNumber;
+    }
+
+    /**
+     * Determines if the given URL addresses the main OSM API, whatever the scheme.
+     * @param url the URL of the API
+     * @return <code>true</code> if the host of the URL is the one of {@link OsmApi#DEFAULT_API_URL}
+     */
+    static boolean isMainApi(String url) {
+        try {
+            return MAIN_API_HOST.equalsIgnoreCase(new URL(url).getHost());
+        } catch (MalformedURLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Adapts the number of primitives retrieved in one step to the latency of a request.
+     *
+     * @param idsPerRequest the current number of primitives retrieved in one step
+     * @param fetcher the finished request
+     * @return the new number of primitives retrieved in one step
+     */
+    protected int adaptIdsPerRequest(int idsPerRequest, Fetcher fetcher) {
+        long targetLatency = PROP_TARGET_LATENCY.get();
+        if (fetcher.getLatency() > targetLatency) {
+            return Math.max(MIN_IDS_PER_REQUEST, Math.min(idsPerRequest, fetcher.getPackageSize()) / 2);
+        } else if (fetcher.getLatency() < targetLatency / 2 && fetcher.getPackageSize() >= idsPerRequest) {
+            // only full packages tell how fast a larger one would be. The URL length limits the size anyway.
+            return idsPerRequest * 2;
+        }
+        return idsPerRequest;
+    }
+
+    private static boolean isUnknownIdError(Throwable e) {
+        return e instanceof OsmApiException
+                && (((OsmApiException) e).getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND
+                || ((OsmApiException) e).getResponseCode() == HttpURLConnection.HTTP_GONE);
+    }
+
     /**
      * fetches a set of ids of a given {@link OsmPrimitiveType} from the server
      *
@@ -332,40 +409,61 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
         progressMonitor.setTicksCount(ids.size());
         progressMonitor.setTicks(0);
         // The complete set containg all primitives to fetch
-        Set<Long> toFetch = new HashSet<Long>(ids);
-        // Build a list of fetchers that will  download smaller sets containing only MAX_IDS_PER_REQUEST (200) primitives each.
-        // we will run up to MAX_DOWNLOAD_THREADS concurrent fetchers.
-        int threadsNumber = Main.pref.getInteger("osm.download.threads", OsmApi.MAX_DOWNLOAD_THREADS);
-        threadsNumber = Math.min(Math.max(threadsNumber, 1), OsmApi.MAX_DOWNLOAD_THREADS);
-        Executor exec = Executors.newFixedThreadPool(threadsNumber);
+        Set<Long> toFetch = new LinkedHashSet<Long>(ids);
+        // The packages split because of unknown ids, fetched first
+        LinkedList<Set<Long>> splitPackages = new LinkedList<Set<Long>>();
+        int threadsNumber = getThreadsNumber();
+        int idsPerRequest = INITIAL_IDS_PER_REQUEST;
+        ExecutorService exec = Executors.newFixedThreadPool(threadsNumber,
+                Utils.newThreadFactory("multi-fetch-%d", Thread.NORM_PRIORITY));
         CompletionService<FetchResult> ecs = new ExecutorCompletionService<FetchResult>(exec);
-        List<Future<FetchResult>> jobs = new ArrayList<Future<FetchResult>>();
-        while (!toFetch.isEmpty()) {
-            jobs.add(ecs.submit(new Fetcher(type, extractIdPackage(toFetch), progressMonitor)));
-        }
-        // Run the fetchers
-        for (int i = 0; i < jobs.size() && !isCanceled(); i++) {
-            progressMonitor.subTask(msg + "... " + progressMonitor.getTicks() + "/" + progressMonitor.getTicksCount());
-            try {
-                FetchResult result = ecs.take().get();
-                if (result.missingPrimitives != null) {
-                    missingPrimitives.addAll(result.missingPrimitives);
+        // The running fetchers, the next package is only extracted when one of them finished
+        Map<Future<FetchResult>, Fetcher> jobs = new HashMap<Future<FetchResult>, Fetcher>();
+        try {
+            while (!isCanceled() && (!toFetch.isEmpty() || !splitPackages.isEmpty() || !jobs.isEmpty())) {
+                while (jobs.size() < threadsNumber && (!toFetch.isEmpty() || !splitPackages.isEmpty())) {
+                    Set<Long> pkg = splitPackages.isEmpty() ? extractIdPackage(toFetch, type, idsPerRequest) : splitPackages.removeFirst();
+                    Fetcher fetcher = new Fetcher(type, pkg, progressMonitor);
+                    jobs.put(ecs.submit(fetcher), fetcher);
                 }
-                if (result.dataSet != null && !isCanceled()) {
-                    rememberNodesOfIncompleteWaysToLoad(result.dataSet);
-                    merge(result.dataSet);
+                progressMonitor.subTask(msg + "... " + progressMonitor.getTicks() + "/" + progressMonitor.getTicksCount());
+                Future<FetchResult> job = ecs.take();
+                Fetcher fetcher = jobs.remove(job);
+                try {
+                    FetchResult result = job.get();
+                    if (result == null) {
+                        // canceled
+                        continue;
+                    }
+                    idsPerRequest = adaptIdsPerRequest(idsPerRequest, fetcher);
+                    if (result.missingPrimitives != null) {
+                        missingPrimitives.addAll(result.missingPrimitives);
+                    }
+                    if (result.dataSet != null && !isCanceled()) {
+                        rememberNodesOfIncompleteWaysToLoad(result.dataSet);
+                        merge(result.dataSet);
+                    }
+                } catch (ExecutionException e) {
+                    if (isUnknownIdError(e.getCause())) {
+                        // Fetcher only fails with unknown ids for packages of more than one id
+                        System.out.println(tr("Server replied with response code {0} for {1} ids, splitting the request.",
+                                ((OsmApiException) e.getCause()).getResponseCode(), fetcher.getPackageSize()));
+                        List<Long> pkg = new ArrayList<Long>(fetcher.getPackage());
+                        splitPackages.addFirst(new LinkedHashSet<Long>(pkg.subList(pkg.size() / 2, pkg.size())));
+                        splitPackages.addFirst(new LinkedHashSet<Long>(pkg.subList(0, pkg.size() / 2)));
+                    } else {
+                        e.printStackTrace();
+                    }
                 }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            } catch (ExecutionException e) {
-                e.printStackTrace();
             }
-        }
-        // Cancel requests if the user choosed to
-        if (isCanceled()) {
-            for (Future<FetchResult> job : jobs) {
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } finally {
+            // Cancel the remaining requests if the user choosed to
+            for (Future<FetchResult> job : jobs.keySet()) {
                 job.cancel(true);
             }
+            exec.shutdown();
         }
     }
 
@@ -391,6 +489,8 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
         try {
             missingPrimitives = new HashSet<PrimitiveId>();
             if (isCanceled()) return null;
+            // negotiates the version before the fetchers would do it concurrently, the base URL includes it
+            OsmApi.getOsmApi().initialize(progressMonitor.createSubTaskMonitor(0, false));
             fetchPrimitives(ways,OsmPrimitiveType.WAY, progressMonitor);
             if (isCanceled()) return null;
             fetchPrimitives(nodes,OsmPrimitiveType.NODE, progressMonitor);
@@ -453,6 +553,7 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
         private final Set<Long> pkg;
         private final OsmPrimitiveType type;
         private final ProgressMonitor progressMonitor;
+        private volatile long latency;
 
         /**
          * Constructs a {@code Fetcher}
@@ -477,22 +578,52 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
             return fetch(progressMonitor);
         }
 
+        /**
+         * Replies the ids to fetch.
+         * @return the ids to fetch
+         */
+        public Set<Long> getPackage() {
+            return pkg;
+        }
+
+        /**
+         * Replies the number of ids to fetch.
+         * @return the number of ids to fetch
+         */
+        public int getPackageSize() {
+            return pkg.size();
+        }
+
+        /**
+         * Replies the time the last fetch took, including parsing the response.
+         * @return the latency in milliseconds
+         */
+        public long getLatency() {
+            return latency;
+        }
+
         /**
          * fetches the requested primitives and updates the specified progress monitor.
          * @param progressMonitor the progress monitor
          * @return the {@link FetchResult} of this operation
-         * @throws OsmTransferException if an error occurs while communicating with the API server
+         * @throws OsmTransferException if an error occurs while communicating with the API server.
+         * If a package of several ids contains an unknown id, the response code of the {@link OsmApiException}
+         * is 404 or 410. A single unknown id is replied as missing primitive.
          */
         protected FetchResult fetch(ProgressMonitor progressMonitor) throws OsmTransferException {
+            long start = System.currentTimeMillis();
             try {
                 return multiGetIdPackage(type, pkg, progressMonitor);
             } catch (OsmApiException e) {
-                if (e.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
-                    System.out.println(tr("Server replied with response code 404, retrying with an individual request for each object."));
-                    return singleGetIdPackage(type, pkg, progressMonitor);
+                if (pkg.size() == 1 && isUnknownIdError(e)) {
+                    long id = pkg.iterator().next();
+                    System.out.println(tr("Server replied with response code {0} for id {1}. Skipping.", e.getResponseCode(), Long.toString(id)));
+                    return new FetchResult(null, Collections.<PrimitiveId>singleton(new SimplePrimitiveId(id, type)));
                 } else {
                     throw e;
                 }
+            } finally {
+                latency = System.currentTimeMillis() - start;
             }
         }
 
@@ -514,66 +645,9 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
                 return new FetchResult(OsmReader.parseDataSet(in, progressMonitor.createSubTaskMonitor(pkg.size(), false)), null);
             } catch (Exception e) {
                 throw new OsmTransferException(e);
+            } finally {
+                Utils.close(in);
             }
         }
-
-        /**
-         * invokes a Multi Get for a single id and a given {@link OsmPrimitiveType}.
-         * The retrieved primitive is merged to {@link #outputDataSet}.
-         *
-         * @param type The primitive type. Must be one of {@link OsmPrimitiveType#NODE NODE}, {@link OsmPrimitiveType#WAY WAY}, {@link OsmPrimitiveType#RELATION RELATION}
-         * @param id the id
-         * @return the {@link DataSet} resulting of this operation
-         * @throws OsmTransferException if an error occurs while communicating with the API server
-         */
-        protected DataSet singleGetId(OsmPrimitiveType type, long id, ProgressMonitor progressMonitor) throws OsmTransferException {
-            String request = buildRequestString(type, id);
-            final InputStream in = getInputStream(request, NullProgressMonitor.INSTANCE);
-            if (in == null) return null;
-            progressMonitor.subTask(tr("Downloading OSM data..."));
-            try {
-                return OsmReader.parseDataSet(in, progressMonitor.createSubTaskMonitor(1, false));
-            } catch (Exception e) {
-                throw new OsmTransferException(e);
-            }
-        }
-
-        /**
-         * invokes a sequence of Multi Gets for individual ids in a set of ids and a given {@link OsmPrimitiveType}.
-         * The retrieved primitives are merged to {@link #outputDataSet}.
-         *
-         * This method is used if one of the ids in pkg doesn't exist (the server replies with return code 404).
-         * If the set is fetched with this method it is possible to find out which of the ids doesn't exist.
-         * Unfortunately, the server does not provide an error header or an error body for a 404 reply.
-         *
-         * @param type The primitive type. Must be one of {@link OsmPrimitiveType#NODE NODE}, {@link OsmPrimitiveType#WAY WAY}, {@link OsmPrimitiveType#RELATION RELATION}
-         * @param pkg the set of ids
-         * @return the {@link FetchResult} of this operation
-         * @throws OsmTransferException if an error occurs while communicating with the API server
-         */
-        protected FetchResult singleGetIdPackage(OsmPrimitiveType type, Set<Long> pkg, ProgressMonitor progressMonitor) throws OsmTransferException {
-            FetchResult result = new FetchResult(new DataSet(), new HashSet<PrimitiveId>());
-            String baseUrl = OsmApi.getOsmApi().getBaseUrl();
-            for (long id : pkg) {
-                try {
-                    String msg = "";
-                    switch (type) {
-                        case NODE:     msg = tr("Fetching node with id {0} from ''{1}''",     id, baseUrl); break;
-                        case WAY:      msg = tr("Fetching way with id {0} from ''{1}''",      id, baseUrl); break;
-                        case RELATION: msg = tr("Fetching relation with id {0} from ''{1}''", id, baseUrl); break;
-                    }
-                    progressMonitor.setCustomText(msg);
-                    result.dataSet.mergeFrom(singleGetId(type, id, progressMonitor));
-                } catch (OsmApiException e) {
-                    if (e.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
-                        System.out.println(tr("Server replied with response code 404 for id {0}. Skipping.", Long.toString(id)));
-                        result.missingPrimitives.add(new SimplePrimitiveId(id, type));
-                    } else {
-                        throw e;
-                    }
-                }
-            }
-            return result;
-        }
     }
 }
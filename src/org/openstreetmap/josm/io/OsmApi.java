@@ -5,16 +5,16 @@ import static org.openstreetmap.josm.tools.I18n.tr;
 import static org.openstreetmap.josm.tools.I18n.trn;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
 import java.net.ConnectException;
+import java.net.HttpRetryException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
@@ -23,6 +23,7 @@ import java.net.UnknownHostException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParserFactory;
@@ -496,6 +497,23 @@ public class OsmApi extends OsmConnection {
      * @throws OsmTransferException if something is wrong
      */
     public Collection<IPrimitive> uploadDiff(Collection<? extends IPrimitive> list, ProgressMonitor monitor) throws OsmTransferException {
+        if (changeset == null)
+            throw new OsmTransferException(tr("No changeset present for diff upload."));
+        monitor.subTask(tr("Preparing upload request..."));
+        return uploadDiff(new DiffUploadRequest(list, changeset), monitor);
+    }
+
+    /**
+     * Uploads a prepared list of changes in "diff" form to the server. The document is sent
+     * without another copy in memory, the diff result is parsed while it is received.
+     *
+     * @param request the osmChange document of the changed OSM Primitives
+     * @param  monitor the progress monitor
+     * @return list of processed primitives
+     * @throws OsmTransferException if something is wrong
+     */
+    public Collection<IPrimitive> uploadDiff(DiffUploadRequest request, ProgressMonitor monitor) throws OsmTransferException {
+        List<IPrimitive> list = request.getPrimitives();
         try {
             monitor.beginTask("", list.size() * 2);
             if (changeset == null)
@@ -503,33 +521,30 @@ public class OsmApi extends OsmConnection {
 
             initialize(monitor);
 
-            // prepare upload request
-            //
-            OsmChangeBuilder changeBuilder = new OsmChangeBuilder(changeset);
-            monitor.subTask(tr("Preparing upload request..."));
-            changeBuilder.start();
-            changeBuilder.append(list);
-            changeBuilder.finish();
-            String diffUploadRequest = changeBuilder.getDocument();
-
-            // Upload to the server
+            // Upload to the server and parse its response
             //
             monitor.indeterminateSubTask(
                     trn("Uploading {0} object...", "Uploading {0} objects...", list.size(), list.size()));
-            String diffUploadResponse = sendRequest("POST", "changeset/" + changeset.getId() + "/upload", diffUploadRequest,monitor);
+            final DiffResultProcessor reader = new DiffResultProcessor(list);
+            final ProgressMonitor parseMonitor = monitor.createSubTaskMonitor(ProgressMonitor.ALL_TICKS, false);
+            sendRequest("POST", "changeset/" + changeset.getId() + "/upload", request.getContent(), request.getContentEncoding(),
+                    new ResponseReader() {
+                        @Override
+                        public void read(InputStream in) throws OsmTransferException {
+                            try {
+                                reader.parse(in, parseMonitor);
+                            } catch (OsmDataParsingException e) {
+                                throw new OsmTransferException(e);
+                            }
+                        }
+                    }, monitor, true, false);
 
             // Process the response from the server
             //
-            DiffResultProcessor reader = new DiffResultProcessor(list);
-            reader.parse(diffUploadResponse, monitor.createSubTaskMonitor(ProgressMonitor.ALL_TICKS, false));
             return reader.postProcess(
                     getChangeset(),
                     monitor.createSubTaskMonitor(ProgressMonitor.ALL_TICKS, false)
             );
-        } catch(OsmTransferException e) {
-            throw e;
-        } catch(OsmDataParsingException e) {
-            throw new OsmTransferException(e);
         } finally {
             monitor.finishTask();
         }
@@ -589,126 +604,206 @@ public class OsmApi extends OsmConnection {
      *    been exhausted), or rewrapping a Java exception.
      */
     private String sendRequest(String requestMethod, String urlSuffix,String requestBody, ProgressMonitor monitor, boolean doAuthenticate, boolean fastFail) throws OsmTransferException {
+        byte[] body = null;
+        if (requestBody != null) {
+            try {
+                body = requestBody.getBytes("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new OsmTransferException(e);
+            }
+        }
+        return sendRequest(requestMethod, urlSuffix, body, null, null, monitor, doAuthenticate, fastFail);
+    }
+
+    /**
+     * Reads the body of a successful response while it is received.
+     */
+    private interface ResponseReader {
+        void read(InputStream in) throws IOException, OsmTransferException;
+    }
+
+    /**
+     * Generic method for sending requests to the OSM API.
+     *
+     * This method will automatically re-try any requests that are answered with a 5xx
+     * error code, or that resulted in a timeout exception from the TCP layer.
+     *
+     * @param requestMethod The http method used when talking with the server.
+     * @param urlSuffix The suffix to add at the server url, not including the version number,
+     *    but including any object ids (e.g. "/way/1234/history").
+     * @param requestBody the encoded body of the HTTP request, if any.
+     * @param contentEncoding the content encoding of the body, e.g. <code>gzip</code>, or null
+     * @param responseReader reads the body of the response if the response code was "200 OK". If null,
+     *    the body is returned as string. If not null, the request body is streamed to the server.
+     * @param monitor the progress monitor
+     * @param doAuthenticate  set to true, if the request sent to the server shall include authentication
+     * credentials;
+     * @param fastFail true to request a short timeout
+     *
+     * @return the body of the HTTP response, if and only if the response code was "200 OK" and there is no response reader.
+     * @throws OsmTransferException if the HTTP return code was not 200 (and retries have
+     *    been exhausted), or rewrapping a Java exception.
+     */
+    private String sendRequest(String requestMethod, String urlSuffix, byte[] requestBody, String contentEncoding,
+            ResponseReader responseReader, ProgressMonitor monitor, boolean doAuthenticate, boolean fastFail) throws OsmTransferException {
         StringBuffer responseBody = new StringBuffer();
         int retries = fastFail ? 0 : getMaxRetries();
+        boolean streaming = responseReader != null;
 
-        while(true) { // the retry loop
-            try {
-                URL url = new URL(new URL(getBaseUrl()), urlSuffix);
-                System.out.print(requestMethod + " " + url + "... ");
-                // fix #5369, see http://www.tikalk.com/java/forums/httpurlconnection-disable-keep-alive
-                activeConnection = Utils.openHttpConnection(url, false);
-                activeConnection.setConnectTimeout(fastFail ? 1000 : Main.pref.getInteger("socket.timeout.connect",15)*1000);
-                if (fastFail) {
-                    activeConnection.setReadTimeout(1000);
-                }
-                activeConnection.setRequestMethod(requestMethod);
-                if (doAuthenticate) {
-                    addAuth(activeConnection);
-                }
-
-                if (requestMethod.equals("PUT") || requestMethod.equals("POST") || requestMethod.equals("DELETE")) {
-                    activeConnection.setDoOutput(true);
-                    activeConnection.setRequestProperty("Content-type", "text/xml");
-                    OutputStream out = activeConnection.getOutputStream();
-
-                    // It seems that certain bits of the Ruby API are very unhappy upon
-                    // receipt of a PUT/POST message without a Content-length header,
-                    // even if the request has no payload.
-                    // Since Java will not generate a Content-length header unless
-                    // we use the output stream, we create an output stream for PUT/POST
-                    // even if there is no payload.
-                    if (requestBody != null) {
-                        BufferedWriter bwr = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
-                        bwr.write(requestBody);
-                        bwr.flush();
+        URL url;
+        try {
+            url = new URL(new URL(getBaseUrl()), urlSuffix);
+        } catch (MalformedURLException e) {
+            throw new OsmTransferException(e);
+        }
+        HttpTransport.Exchange exchange = beginRequest(requestMethod, url, getBaseUrl());
+        try {
+            while(true) { // the retry loop
+                try {
+                    System.out.print(requestMethod + " " + url + "... ");
+                    HttpURLConnection connection = openConnection(exchange, url);
+                    connection.setConnectTimeout(fastFail ? 1000 : Main.pref.getInteger("socket.timeout.connect",15)*1000);
+                    if (fastFail) {
+                        connection.setReadTimeout(1000);
+                    }
+                    connection.setRequestMethod(requestMethod);
+                    if (doAuthenticate) {
+                        addAuth(connection);
                     }
-                    Utils.close(out);
-                }
 
-                activeConnection.connect();
-                System.out.println(activeConnection.getResponseMessage());
-                int retCode = activeConnection.getResponseCode();
+                    if (requestMethod.equals("PUT") || requestMethod.equals("POST") || requestMethod.equals("DELETE")) {
+                        connection.setDoOutput(true);
+                        connection.setRequestProperty("Content-type", "text/xml");
+                        if (contentEncoding != null) {
+                            connection.setRequestProperty("Content-Encoding", contentEncoding);
+                        }
+                        if (streaming && requestBody != null) {
+                            // not buffered again by the connection
+                            connection.setFixedLengthStreamingMode(requestBody.length);
+                        }
+                        OutputStream out = connection.getOutputStream();
+
+                        // It seems that certain bits of the Ruby API are very unhappy upon
+                        // receipt of a PUT/POST message without a Content-length header,
+                        // even if the request has no payload.
+                        // Since Java will not generate a Content-length header unless
+                        // we use the output stream, we create an output stream for PUT/POST
+                        // even if there is no payload.
+                        if (requestBody != null) {
+                            out.write(requestBody);
+                            out.flush();
+                            exchange.sent(requestBody.length);
+                        }
+                        Utils.close(out);
+                    }
 
-                if (retCode >= 500) {
-                    if (retries-- > 0) {
-                        sleepAndListen(retries, monitor);
-                        System.out.println(tr("Starting retry {0} of {1}.", getMaxRetries() - retries,getMaxRetries()));
-                        continue;
+                    connection.connect();
+                    System.out.println(connection.getResponseMessage());
+                    int retCode = connection.getResponseCode();
+                    exchange.responded(retCode);
+
+                    if (retCode >= 500) {
+                        if (retries-- > 0) {
+                            sleepAndListen(retries, monitor);
+                            System.out.println(tr("Starting retry {0} of {1}.", getMaxRetries() - retries,getMaxRetries()));
+                            continue;
+                        }
                     }
-                }
 
-                // populate return fields.
-                responseBody.setLength(0);
+                    // populate return fields.
+                    responseBody.setLength(0);
 
-                // If the API returned an error code like 403 forbidden, getInputStream
-                // will fail with an IOException.
-                InputStream i = null;
-                try {
-                    i = activeConnection.getInputStream();
-                } catch (IOException ioe) {
-                    i = activeConnection.getErrorStream();
-                }
-                if (i != null) {
-                    // the input stream can be null if both the input and the error stream
-                    // are null. Seems to be the case if the OSM server replies a 401
-                    // Unauthorized, see #3887.
-                    //
-                    BufferedReader in = new BufferedReader(new InputStreamReader(i));
-                    String s;
-                    while((s = in.readLine()) != null) {
-                        responseBody.append(s);
-                        responseBody.append("\n");
+                    // If the API returned an error code like 403 forbidden, getInputStream
+                    // will fail with an IOException.
+                    InputStream i = null;
+                    try {
+                        i = connection.getInputStream();
+                    } catch (IOException ioe) {
+                        i = connection.getErrorStream();
                     }
-                }
-                String errorHeader = null;
-                // Look for a detailed error message from the server
-                if (activeConnection.getHeaderField("Error") != null) {
-                    errorHeader = activeConnection.getHeaderField("Error");
-                    System.err.println("Error header: " + errorHeader);
-                } else if (retCode != 200 && responseBody.length()>0) {
-                    System.err.println("Error body: " + responseBody);
-                }
-                activeConnection.disconnect();
-
-                errorHeader = errorHeader == null? null : errorHeader.trim();
-                String errorBody = responseBody.length() == 0? null : responseBody.toString().trim();
-                switch(retCode) {
-                case HttpURLConnection.HTTP_OK:
-                    return responseBody.toString();
-                case HttpURLConnection.HTTP_GONE:
-                    throw new OsmApiPrimitiveGoneException(errorHeader, errorBody);
-                case HttpURLConnection.HTTP_CONFLICT:
-                    if (ChangesetClosedException.errorHeaderMatchesPattern(errorHeader))
-                        throw new ChangesetClosedException(errorBody, ChangesetClosedException.Source.UPLOAD_DATA);
-                    else
+                    if (i != null) {
+                        i = exchange.meter(i);
+                    }
+                    if (retCode == HttpURLConnection.HTTP_OK && responseReader != null && i != null) {
+                        try {
+                            responseReader.read(i);
+                        } finally {
+                            Utils.close(i);
+                        }
+                        return null;
+                    }
+                    if (i != null) {
+                        // the input stream can be null if both the input and the error stream
+                        // are null. Seems to be the case if the OSM server replies a 401
+                        // Unauthorized, see #3887.
+                        //
+                        BufferedReader in = new BufferedReader(new InputStreamReader(i));
+                        String s;
+                        while((s = in.readLine()) != null) {
+                            responseBody.append(s);
+                            responseBody.append("\n");
+                        }
+                    }
+                    String errorHeader = null;
+                    // Look for a detailed error message from the server
+                    if (connection.getHeaderField("Error") != null) {
+                        errorHeader = connection.getHeaderField("Error");
+                        System.err.println("Error header: " + errorHeader);
+                    } else if (retCode != 200 && responseBody.length()>0) {
+                        System.err.println("Error body: " + responseBody);
+                    }
+                    Utils.close(i);
+
+                    errorHeader = errorHeader == null? null : errorHeader.trim();
+                    String errorBody = responseBody.length() == 0? null : responseBody.toString().trim();
+                    switch(retCode) {
+                    case HttpURLConnection.HTTP_OK:
+                        return responseBody.toString();
+                    case HttpURLConnection.HTTP_GONE:
+                        throw new OsmApiPrimitiveGoneException(errorHeader, errorBody);
+                    case HttpURLConnection.HTTP_CONFLICT:
+                        if (ChangesetClosedException.errorHeaderMatchesPattern(errorHeader))
+                            throw new ChangesetClosedException(errorBody, ChangesetClosedException.Source.UPLOAD_DATA);
+                        else
+                            throw new OsmApiException(retCode, errorHeader, errorBody);
+                    case HttpURLConnection.HTTP_FORBIDDEN:
+                        OsmApiException e = new OsmApiException(retCode, errorHeader, errorBody);
+                        e.setAccessedUrl(connection.getURL().toString());
+                        throw e;
+                    default:
                         throw new OsmApiException(retCode, errorHeader, errorBody);
-                case HttpURLConnection.HTTP_FORBIDDEN:
-                    OsmApiException e = new OsmApiException(retCode, errorHeader, errorBody);
-                    e.setAccessedUrl(activeConnection.getURL().toString());
+                    }
+                } catch (UnknownHostException e) {
+                    throw new OsmTransferException(e);
+                } catch (HttpRetryException e) {
+                    // the request has to be sent again, e.g. to authenticate at a proxy, which the
+                    // connection only does for requests it buffered
+                    if (streaming) {
+                        streaming = false;
+                        continue;
+                    }
+                    throw new OsmTransferException(e);
+                } catch (SocketTimeoutException e) {
+                    if (retries-- > 0) {
+                        continue;
+                    }
+                    throw new OsmTransferException(e);
+                } catch (ConnectException e) {
+                    if (retries-- > 0) {
+                        continue;
+                    }
+                    throw new OsmTransferException(e);
+                } catch(IOException e){
+                    throw new OsmTransferException(e);
+                } catch(OsmTransferCanceledException e){
+                    throw e;
+                } catch(OsmTransferException e) {
                     throw e;
-                default:
-                    throw new OsmApiException(retCode, errorHeader, errorBody);
-                }
-            } catch (UnknownHostException e) {
-                throw new OsmTransferException(e);
-            } catch (SocketTimeoutException e) {
-                if (retries-- > 0) {
-                    continue;
-                }
-                throw new OsmTransferException(e);
-            } catch (ConnectException e) {
-                if (retries-- > 0) {
-                    continue;
                 }
-                throw new OsmTransferException(e);
-            } catch(IOException e){
-                throw new OsmTransferException(e);
-            } catch(OsmTransferCanceledException e){
-                throw e;
-            } catch(OsmTransferException e) {
-                throw e;
             }
+        } finally {
+            // a request is finished when its response is read, this only finishes failed ones
+            finishRequest(exchange, true);
         }
     }
 
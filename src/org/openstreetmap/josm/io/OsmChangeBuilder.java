@@ -31,8 +31,20 @@ public class OsmChangeBuilder {
     }
 
     public OsmChangeBuilder(Changeset changeset, String apiVersion) {
+        this(changeset, apiVersion, null);
+    }
+
+    /**
+     * Constructs a new {@code OsmChangeBuilder} writing the document to <code>out</code>
+     * instead of building it in memory.
+     *
+     * @param changeset the changeset
+     * @param apiVersion the API version. Defaults to {@link #DEFAULT_API_VERSION} if null.
+     * @param out the output of the document. If null, the document is built in memory, see {@link #getDocument()}.
+     */
+    public OsmChangeBuilder(Changeset changeset, String apiVersion, PrintWriter out) {
         this.apiVersion = apiVersion == null ? DEFAULT_API_VERSION : apiVersion;
-        writer = new PrintWriter(swriter = new StringWriter());
+        writer = out != null ? out : new PrintWriter(swriter = new StringWriter());
         osmwriter = OsmWriterFactory.createOsmWriter(writer, false, apiVersion);
         osmwriter.setChangeset(changeset);
         osmwriter.setIsOsmChange(true);
@@ -129,7 +141,12 @@ public class OsmChangeBuilder {
         writer.println("</osmChange>");
     }
 
+    /**
+     * Replies the document built in memory.
+     *
+     * @return the document, or null if it has been written to the output given in the constructor
+     */
     public String getDocument() {
-        return swriter.toString();
+        return swriter != null ? swriter.toString() : null;
     }
 }
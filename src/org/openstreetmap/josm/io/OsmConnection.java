@@ -3,7 +3,9 @@ package org.openstreetmap.josm.io;
 
 import static org.openstreetmap.josm.tools.I18n.tr;
 
+import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.net.URL;
 import java.net.Authenticator.RequestorType;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
@@ -31,6 +33,8 @@ import org.openstreetmap.josm.tools.Base64;
 public class OsmConnection {
     protected boolean cancel = false;
     protected HttpURLConnection activeConnection;
+    /** The request in progress, only used to {@link #cancel()} it */
+    protected HttpTransport.Exchange activeExchange;
     protected OAuthParameters oauthParameters;
 
     /**
@@ -57,11 +61,66 @@ public class OsmConnection {
         } catch (InterruptedException ex) {
         }
 
+        HttpTransport.Exchange exchange;
         synchronized (this) {
             if (activeConnection != null) {
                 activeConnection.disconnect();
             }
+            exchange = activeExchange;
         }
+        if (exchange != null) {
+            exchange.finish(true);
+        }
+    }
+
+    /**
+     * Starts a request through the {@link HttpTransport}, waiting for a free connection to the host.
+     * The request has to be finished by the caller, see {@link #finishRequest(HttpTransport.Exchange, boolean)}.
+     * Several requests may be in progress at the same time, {@link #activeExchange} is the last one started.
+     *
+     * @param requestMethod the request method
+     * @param url the URL
+     * @param baseUrl the base URL of the API, used to name the endpoint in the metrics. May be null.
+     * @return the request
+     * @throws OsmTransferCanceledException if the thread is interrupted while waiting
+     */
+    protected HttpTransport.Exchange beginRequest(String requestMethod, URL url, String baseUrl) throws OsmTransferCanceledException {
+        HttpTransport.Exchange exchange = HttpTransport.begin(requestMethod, url, baseUrl);
+        synchronized (this) {
+            activeExchange = exchange;
+        }
+        return exchange;
+    }
+
+    /**
+     * Opens the connection of a request, see {@link HttpTransport.Exchange#openConnection(URL)}.
+     *
+     * @param exchange the request, as replied by {@link #beginRequest(String, URL, String)}
+     * @param url the URL
+     * @return the connection, also assigned to {@link #activeConnection}
+     * @throws IOException if an I/O exception occurs
+     */
+    protected HttpURLConnection openConnection(HttpTransport.Exchange exchange, URL url) throws IOException {
+        HttpURLConnection con = exchange.openConnection(url);
+        synchronized (this) {
+            activeConnection = con;
+        }
+        return con;
+    }
+
+    /**
+     * Finishes a request, see {@link HttpTransport.Exchange#finish(boolean)}.
+     *
+     * @param exchange the request, as replied by {@link #beginRequest(String, URL, String)}
+     * @param failed true if the request failed
+     */
+    protected void finishRequest(HttpTransport.Exchange exchange, boolean failed) {
+        synchronized (this) {
+            if (activeExchange == exchange) {
+                activeExchange = null;
+            }
+        }
+        exchange.finish(failed);
     }
 
     /**
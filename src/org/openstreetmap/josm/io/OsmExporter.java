@@ -55,6 +55,25 @@ public class OsmExporter extends FileExporter {
         return new FileOutputStream(file);
     }
 
+    /**
+     * Writes the data of the layer to the stream and closes it.
+     * @param out the stream, wrapped with gzip or bzip if necessary
+     * @param layer the layer to write
+     * @throws IOException if writing fails
+     */
+    protected void doSave(OutputStream out, OsmDataLayer layer) throws IOException {
+        Writer writer = new OutputStreamWriter(out, "UTF-8");
+
+        OsmWriter w = OsmWriterFactory.createOsmWriter(new PrintWriter(writer), false, layer.data.getVersion());
+        layer.data.getReadLock().lock();
+        try {
+            w.writeLayer(layer);
+        } finally {
+            Utils.close(w);
+            layer.data.getReadLock().unlock();
+        }
+    }
+
     private void save(File file, OsmDataLayer layer, boolean noBackup) {
         File tmpFile = null;
         try {
@@ -67,17 +86,7 @@ public class OsmExporter extends FileExporter {
             }
 
             // create outputstream and wrap it with gzip or bzip, if necessary
-            OutputStream out = getOutputStream(file);
-            Writer writer = new OutputStreamWriter(out, "UTF-8");
-
-            OsmWriter w = OsmWriterFactory.createOsmWriter(new PrintWriter(writer), false, layer.data.getVersion());
-            layer.data.getReadLock().lock();
-            try {
-                w.writeLayer(layer);
-            } finally {
-                Utils.close(w);
-                layer.data.getReadLock().unlock();
-            }
+            doSave(getOutputStream(file), layer);
             // FIXME - how to close?
             if (noBackup || !Main.pref.getBoolean("save.keepbackup", false)) {
                 if (tmpFile != null) {
@@ -13,7 +13,11 @@ import javax.swing.JOptionPane;
 
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.actions.ExtensionFileFilter;
+import org.openstreetmap.josm.data.osm.CompactDataSet;
 import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
+import org.openstreetmap.josm.gui.Notification;
+import org.openstreetmap.josm.gui.layer.CompactDataLayer;
 import org.openstreetmap.josm.gui.layer.OsmDataLayer;
 import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
@@ -25,6 +29,14 @@ public class OsmImporter extends FileImporter {
     public static final ExtensionFileFilter FILE_FILTER = new ExtensionFileFilter(
             "osm,xml", "osm", tr("OSM Server Files") + " (*.osm *.xml)");
 
+    /**
+     * Files of at least this size (in MB) are loaded into a {@link CompactDataLayer}
+     * instead of an {@link OsmDataLayer}. A negative value (the default) disables the
+     * compact storage, as the compact layer is read only and neither rendered with the
+     * map styles nor validated.
+     */
+    public static final IntegerProperty PROP_COMPACT_MIN_SIZE = new IntegerProperty("osm.compact-import.min-size", -1);
+
     public static class OsmImporterData {
 
         private OsmDataLayer layer;
@@ -87,6 +99,22 @@ public class OsmImporter extends FileImporter {
      * @param pm handler for progress monitoring and canceling
      */
     protected void importData(InputStream in, final File associatedFile, ProgressMonitor pm) throws IllegalDataException {
+        if (associatedFile != null && useCompactStorage(associatedFile)) {
+            final CompactDataLayer layer = loadCompactLayer(in, associatedFile, pm);
+            GuiHelper.runInEDT(new Runnable() {
+                @Override
+                public void run() {
+                    Main.main.addLayer(layer);
+                    new Notification(
+                            tr("''{0}'' was opened as read only layer. Use ''Edit visible area'' to edit parts of it.",
+                                    associatedFile.getName()))
+                            .setIcon(JOptionPane.INFORMATION_MESSAGE)
+                            .setDuration(Notification.TIME_LONG)
+                            .show();
+                }
+            });
+            return;
+        }
         final OsmImporterData data = loadLayer(in, associatedFile,
                 associatedFile == null ? OsmDataLayer.createNewName() : associatedFile.getName(), pm);
 
@@ -118,7 +146,31 @@ public class OsmImporter extends FileImporter {
         return new OsmImporterData(layer, postLayerTask);
     }
 
+    /**
+     * Replies true, if the given file is large enough to be loaded into a {@link CompactDataSet}.
+     * @param file the file
+     * @return true, if the file is loaded into a {@link CompactDataLayer}
+     * @see #PROP_COMPACT_MIN_SIZE
+     */
+    protected boolean useCompactStorage(File file) {
+        int minSize = PROP_COMPACT_MIN_SIZE.get();
+        return minSize >= 0 && file.length() >= minSize * 1024L * 1024L;
+    }
+
+    /**
+     * Loads a compact data layer from InputStream.
+     * @param in input stream
+     * @param associatedFile filename of data
+     * @param progressMonitor handler for progress monitoring and canceling
+     */
+    public CompactDataLayer loadCompactLayer(InputStream in, File associatedFile, ProgressMonitor progressMonitor) throws IllegalDataException {
+        CompactDataSet data = CompactOsmReader.parseCompactDataSet(in, progressMonitor);
+        return new CompactDataLayer(data, associatedFile.getName(), associatedFile);
+    }
+
     protected DataSet parseDataSet(InputStream in, ProgressMonitor progressMonitor) throws IllegalDataException {
+        if (ParallelOsmReader.PROP_PARALLEL.get())
+            return ParallelOsmReader.parseDataSet(in, progressMonitor);
         return OsmReader.parseDataSet(in, progressMonitor);
     }
 
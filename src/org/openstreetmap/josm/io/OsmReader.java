@@ -26,6 +26,7 @@ import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.NodeData;
 import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
 import org.openstreetmap.josm.data.osm.PrimitiveData;
+import org.openstreetmap.josm.data.osm.PrimitiveId;
 import org.openstreetmap.josm.data.osm.Relation;
 import org.openstreetmap.josm.data.osm.RelationData;
 import org.openstreetmap.josm.data.osm.RelationMemberData;
@@ -239,7 +240,7 @@ public class OsmReader extends AbstractReader {
         return w;
     }
 
-    private long parseWayNode(Way w) throws XMLStreamException {
+    protected long parseWayNode(PrimitiveId w) throws XMLStreamException {
         if (parser.getAttributeValue(null, "ref") == null) {
             throwException(
                     tr("Missing mandatory attribute ''{0}'' on <nd> of way {1}.", "ref", w.getUniqueId())
@@ -286,7 +287,7 @@ public class OsmReader extends AbstractReader {
         return r;
     }
 
-    private RelationMemberData parseRelationMember(Relation r) throws XMLStreamException {
+    protected RelationMemberData parseRelationMember(PrimitiveId r) throws XMLStreamException {
         String role = null;
         OsmPrimitiveType type = null;
         long id = 0;
@@ -343,7 +344,7 @@ public class OsmReader extends AbstractReader {
         }
     }
 
-    private void parseTag(Tagged t) throws XMLStreamException {
+    protected void parseTag(Tagged t) throws XMLStreamException {
         String key = parser.getAttributeValue(null, "k");
         String value = parser.getAttributeValue(null, "v");
         if (key == null || value == null) {
@@ -409,7 +410,7 @@ public class OsmReader extends AbstractReader {
     /**
      * Read out the common attributes and put them into current OsmPrimitive.
      */
-    private void readCommon(PrimitiveData current) throws XMLStreamException {
+    protected void readCommon(PrimitiveData current) throws XMLStreamException {
         current.setId(getLong("id"));
         if (current.getUniqueId() == 0) {
             throwException(tr("Illegal object with ID=0."));
@@ -18,7 +18,6 @@ import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.gpx.GpxData;
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
-import org.openstreetmap.josm.tools.Utils;
 
 /**
  * This DataReader reads directly from the REST API of the osm server.
@@ -70,6 +69,8 @@ public abstract class OsmServerReader extends OsmConnection {
      * @throws OsmTransferException thrown if data transfer errors occur
      */
     protected InputStream getInputStreamRaw(String urlStr, ProgressMonitor progressMonitor) throws OsmTransferException {
+        HttpTransport.Exchange exchange = null;
+        boolean success = false;
         try {
             URL url = null;
             try {
@@ -77,79 +78,114 @@ public abstract class OsmServerReader extends OsmConnection {
             } catch(MalformedURLException e) {
                 throw new OsmTransferException(e);
             }
-            try {
-                // fix #7640, see http://www.tikalk.com/java/forums/httpurlconnection-disable-keep-alive
-                activeConnection = Utils.openHttpConnection(url, false);
-            } catch(Exception e) {
-                throw new OsmTransferException(tr("Failed to open connection to API {0}.", url.toExternalForm()), e);
-            }
-            if (cancel) {
-                activeConnection.disconnect();
-                return null;
-            }
+            exchange = beginRequest("GET", url, getBaseUrl());
+            int retries = Math.max(0, HttpTransport.PROP_READ_RETRIES.get());
+            int retry = 0;
+            while (true) {
+                HttpURLConnection connection;
+                try {
+                    connection = openConnection(exchange, url);
+                } catch(Exception e) {
+                    throw new OsmTransferException(tr("Failed to open connection to API {0}.", url.toExternalForm()), e);
+                }
+                if (cancel)
+                    return null;
 
-            if (doAuthenticate) {
-                addAuth(activeConnection);
-            }
-            if (cancel)
-                throw new OsmTransferCanceledException();
-            if (Main.pref.getBoolean("osm-server.use-compression", true)) {
-                activeConnection.setRequestProperty("Accept-Encoding", "gzip, deflate");
-            }
+                if (doAuthenticate) {
+                    addAuth(connection);
+                }
+                if (cancel)
+                    throw new OsmTransferCanceledException();
+                if (Main.pref.getBoolean("osm-server.use-compression", true)) {
+                    connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+                }
 
-            activeConnection.setConnectTimeout(Main.pref.getInteger("socket.timeout.connect",15)*1000);
+                connection.setConnectTimeout(Main.pref.getInteger("socket.timeout.connect",15)*1000);
 
-            try {
-                System.out.println("GET " + url);
-                activeConnection.connect();
-            } catch (Exception e) {
-                e.printStackTrace();
-                OsmTransferException ote = new OsmTransferException(tr("Could not connect to the OSM server. Please check your internet connection."), e);
-                ote.setUrl(url.toString());
-                throw ote;
-            }
-            try {
-                if (activeConnection.getResponseCode() == HttpURLConnection.HTTP_UNAUTHORIZED)
-                    throw new OsmApiException(HttpURLConnection.HTTP_UNAUTHORIZED,null,null);
+                try {
+                    System.out.println("GET " + url);
+                    connection.connect();
+                } catch (Exception e) {
+                    if (retry < retries) {
+                        waitForRetry(++retry, null);
+                        continue;
+                    }
+                    e.printStackTrace();
+                    OsmTransferException ote = new OsmTransferException(tr("Could not connect to the OSM server. Please check your internet connection."), e);
+                    ote.setUrl(url.toString());
+                    throw ote;
+                }
+                try {
+                    exchange.responded(connection.getResponseCode());
+                    if (HttpTransport.isRetryable(connection.getResponseCode()) && retry < retries) {
+                        waitForRetry(++retry, connection.getHeaderField("Retry-After"));
+                        continue;
+                    }
 
-                if (activeConnection.getResponseCode() == HttpURLConnection.HTTP_PROXY_AUTH)
-                    throw new OsmTransferCanceledException();
+                    if (connection.getResponseCode() == HttpURLConnection.HTTP_UNAUTHORIZED)
+                        throw new OsmApiException(HttpURLConnection.HTTP_UNAUTHORIZED,null,null);
+
+                    if (connection.getResponseCode() == HttpURLConnection.HTTP_PROXY_AUTH)
+                        throw new OsmTransferCanceledException();
 
-                String encoding = activeConnection.getContentEncoding();
-                if (activeConnection.getResponseCode() != HttpURLConnection.HTTP_OK) {
-                    String errorHeader = activeConnection.getHeaderField("Error");
-                    StringBuilder errorBody = new StringBuilder();
-                    try
-                    {
-                        InputStream i = FixEncoding(activeConnection.getErrorStream(), encoding);
-                        if (i != null) {
-                            BufferedReader in = new BufferedReader(new InputStreamReader(i));
-                            String s;
-                            while((s = in.readLine()) != null) {
-                                errorBody.append(s);
-                                errorBody.append("\n");
+                    String encoding = connection.getContentEncoding();
+                    if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                        String errorHeader = connection.getHeaderField("Error");
+                        StringBuilder errorBody = new StringBuilder();
+                        try
+                        {
+                            InputStream i = FixEncoding(connection.getErrorStream(), encoding);
+                            if (i != null) {
+                                BufferedReader in = new BufferedReader(new InputStreamReader(i));
+                                String s;
+                                while((s = in.readLine()) != null) {
+                                    errorBody.append(s);
+                                    errorBody.append("\n");
+                                }
                             }
                         }
-                    }
-                    catch(Exception e) {
-                        errorBody.append(tr("Reading error text failed."));
+                        catch(Exception e) {
+                            errorBody.append(tr("Reading error text failed."));
+                        }
+
+                        throw new OsmApiException(connection.getResponseCode(), errorHeader, errorBody.toString(), url.toString());
                     }
 
-                    throw new OsmApiException(activeConnection.getResponseCode(), errorHeader, errorBody.toString(), url.toString());
+                    InputStream in = FixEncoding(exchange.meter(new ProgressInputStream(connection, progressMonitor)), encoding);
+                    success = true;
+                    return in;
+                } catch(Exception e) {
+                    if (e instanceof OsmTransferException)
+                        throw (OsmTransferException)e;
+                    else
+                        throw new OsmTransferException(e);
                 }
-
-                return FixEncoding(new ProgressInputStream(activeConnection, progressMonitor), encoding);
-            } catch(Exception e) {
-                if (e instanceof OsmTransferException)
-                    throw (OsmTransferException)e;
-                else
-                    throw new OsmTransferException(e);
             }
         } finally {
+            if (!success && exchange != null) {
+                finishRequest(exchange, true);
+            }
             progressMonitor.invalidate();
         }
     }
 
+    /**
+     * Waits before a request is retried, see {@link HttpTransport#getBackoff(int, String)}.
+     */
+    private void waitForRetry(int retry, String retryAfter) throws OsmTransferCanceledException {
+        long delay = HttpTransport.getBackoff(retry, retryAfter);
+        System.out.println(tr("Waiting {0} seconds before retry {1}.", delay / 1000, retry));
+        try {
+            for (long waited = 0; waited < delay; waited += 100) {
+                if (cancel)
+                    throw new OsmTransferCanceledException();
+                Thread.sleep(100);
+            }
+        } catch (InterruptedException e) {
+            throw new OsmTransferCanceledException();
+        }
+    }
+
     private InputStream FixEncoding(InputStream stream, String encoding) throws IOException
     {
         if ("gzip".equalsIgnoreCase(encoding)) {
@@ -10,6 +10,11 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.openstreetmap.josm.data.osm.Changeset;
 import org.openstreetmap.josm.data.osm.IPrimitive;
@@ -18,6 +23,7 @@ import org.openstreetmap.josm.gui.io.UploadStrategySpecification;
 import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 import org.openstreetmap.josm.tools.CheckParameterUtil;
+import org.openstreetmap.josm.tools.Utils;
 
 /**
  * Class that uploads all changes to the osm server.
@@ -138,7 +144,8 @@ public class OsmServerWriter {
     }
 
     /**
-     * Upload all changes in one diff upload
+     * Upload all changes in diff uploads of <code>chunkSize</code> primitives. The request of the next chunk
+     * is prepared while a chunk is uploaded, unless it refers to new primitives of the chunk.
      *
      * @param primitives the collection of primitives to upload
      * @param progressMonitor  the progress monitor
@@ -149,35 +156,62 @@ public class OsmServerWriter {
     protected void uploadChangesInChunks(Collection<? extends IPrimitive> primitives, ProgressMonitor progressMonitor, int chunkSize) throws OsmTransferException, IllegalArgumentException {
         if (chunkSize <=0)
             throw new IllegalArgumentException(tr("Value >0 expected for parameter ''{0}'', got {1}", "chunkSize", chunkSize));
+        ExecutorService preparer = null;
         try {
             progressMonitor.beginTask(tr("Starting to upload in chunks..."));
-            List<IPrimitive> chunk = new ArrayList<IPrimitive>(chunkSize);
+            List<List<IPrimitive>> chunks = new ArrayList<List<IPrimitive>>();
             Iterator<? extends IPrimitive> it = primitives.iterator();
-            int numChunks = (int)Math.ceil((double)primitives.size() / (double)chunkSize);
-            int i= 0;
             while(it.hasNext()) {
-                i++;
-                if (canceled) return;
-                int j = 0;
-                chunk.clear();
-                while(it.hasNext() && j < chunkSize) {
-                    if (canceled) return;
-                    j++;
+                List<IPrimitive> chunk = new ArrayList<IPrimitive>(chunkSize);
+                while(it.hasNext() && chunk.size() < chunkSize) {
                     chunk.add(it.next());
                 }
+                chunks.add(chunk);
+            }
+            int numChunks = chunks.size();
+            preparer = Executors.newSingleThreadExecutor(Utils.newThreadFactory("upload-request-preparer-%d", Thread.NORM_PRIORITY));
+            final Changeset changeset = api.getChangeset();
+            Future<DiffUploadRequest> next = null;
+            for (int i = 0; i < numChunks; i++) {
+                if (canceled) return;
+                List<IPrimitive> chunk = chunks.get(i);
+                DiffUploadRequest request = next != null ? getPrepared(next) : new DiffUploadRequest(chunk, changeset);
+                next = null;
+                if (i + 1 < numChunks && DiffUploadRequest.isSelfContained(chunks.get(i + 1))) {
+                    final List<IPrimitive> nextChunk = chunks.get(i + 1);
+                    next = preparer.submit(new Callable<DiffUploadRequest>() {
+                        @Override
+                        public DiffUploadRequest call() {
+                            return new DiffUploadRequest(nextChunk, changeset);
+                        }
+                    });
+                }
                 progressMonitor.setCustomText(
                         trn("({0}/{1}) Uploading {2} object...",
                                 "({0}/{1}) Uploading {2} objects...",
-                                chunk.size(), i, numChunks, chunk.size()));
-                processed.addAll(api.uploadDiff(chunk, progressMonitor.createSubTaskMonitor(ProgressMonitor.ALL_TICKS, false)));
+                                chunk.size(), i + 1, numChunks, chunk.size()));
+                processed.addAll(api.uploadDiff(request, progressMonitor.createSubTaskMonitor(ProgressMonitor.ALL_TICKS, false)));
             }
         } catch(OsmTransferException e) {
             throw e;
         } finally {
+            if (preparer != null) {
+                preparer.shutdownNow();
+            }
             progressMonitor.finishTask();
         }
     }
 
+    private static DiffUploadRequest getPrepared(Future<DiffUploadRequest> request) throws OsmTransferException {
+        try {
+            return request.get();
+        } catch (InterruptedException e) {
+            throw new OsmTransferCanceledException();
+        } catch (ExecutionException e) {
+            throw new OsmTransferException(e.getCause());
+        }
+    }
+
     /**
      * Send the dataset to the server.
      *
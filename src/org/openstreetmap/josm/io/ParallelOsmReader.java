@@ -0,0 +1,308 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.NodeData;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.PrimitiveData;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationData;
+import org.openstreetmap.josm.data.osm.RelationMemberData;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.osm.WayData;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * High-throughput variant of {@link OsmReader} for large files.
+ *
+ * The input is read ahead (and thus decompressed) on a separate thread, see
+ * {@link ReadAheadInputStream}. The XML is parsed into {@link PrimitiveData} on the calling
+ * thread, and the primitives are built from batches of parsed data on a worker pool, which
+ * includes projecting the node coordinates. References between primitives are resolved
+ * through an {@link ExternalIdIndex}.
+ *
+ * The resulting data set is the same as the one of {@link OsmReader}, except for the
+ * internal ids assigned to new primitives, which do not follow the file order.
+ */
+public class ParallelOsmReader extends OsmReader {
+
+    /**
+     * Use this reader to open OSM files.
+     */
+    public static final BooleanProperty PROP_PARALLEL = new BooleanProperty("osm.reader.parallel", true);
+
+    private static final int BATCH_SIZE = 4096;
+
+    private static ExecutorService builderPool;
+
+    /**
+     * Parsed primitives of one batch, and the primitives built from them.
+     */
+    private static class Batch implements Callable<Batch> {
+        final List<PrimitiveData> data = new ArrayList<PrimitiveData>(BATCH_SIZE);
+        /** external ids of the data at the same position */
+        final long[] ids = new long[BATCH_SIZE];
+        /** way nodes or relation members of the data at the same position, null for nodes */
+        final List<Object> references = new ArrayList<Object>(BATCH_SIZE);
+        OsmPrimitive[] primitives;
+
+        void add(PrimitiveData d, Object refs) {
+            ids[data.size()] = d.getUniqueId();
+            data.add(d);
+            references.add(refs);
+        }
+
+        @Override
+        public Batch call() {
+            primitives = new OsmPrimitive[data.size()];
+            for (int i = 0; i < primitives.length; i++) {
+                primitives[i] = createPrimitive(data.get(i));
+            }
+            data.clear();
+            return this;
+        }
+    }
+
+    /**
+     * Creates a primitive from parsed data, without references to other primitives. Can be
+     * called on any thread.
+     * @param d the parsed data
+     * @return the new primitive
+     */
+    static OsmPrimitive createPrimitive(PrimitiveData d) {
+        OsmPrimitive osm;
+        if (d instanceof NodeData) {
+            Node n = new Node(d.getId(), d.getVersion());
+            n.setVisible(d.isVisible());
+            n.load(d);
+            // fill the east/north cache, instead of on the first access
+            n.getEastNorth();
+            osm = n;
+        } else if (d instanceof WayData) {
+            osm = new Way(d.getId(), d.getVersion());
+            osm.setVisible(d.isVisible());
+            osm.load(d);
+        } else {
+            osm = new Relation(d.getId(), d.getVersion());
+            osm.setVisible(d.isVisible());
+            osm.load(d);
+        }
+        return osm;
+    }
+
+    private final int maxPendingBatches = 2 * Runtime.getRuntime().availableProcessors();
+    private final LinkedList<Future<Batch>> pending = new LinkedList<Future<Batch>>();
+    private Batch batch = new Batch();
+
+    private final ExternalIdIndex index = new ExternalIdIndex();
+
+    private long[] nodeIdBuffer = new long[256];
+
+    /**
+     * constructor (for private and subclasses use only)
+     *
+     * @see #parseDataSet(InputStream, ProgressMonitor)
+     */
+    protected ParallelOsmReader() {
+    }
+
+    private static synchronized ExecutorService getBuilderPool() {
+        if (builderPool == null) {
+            builderPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    Utils.newThreadFactory("osm-reader-%d", Thread.NORM_PRIORITY));
+        }
+        return builderPool;
+    }
+
+    @Override
+    protected void parse() throws XMLStreamException {
+        super.parse();
+        submit();
+        while (!pending.isEmpty()) {
+            collect();
+        }
+    }
+
+    private void add(PrimitiveData d, Object refs) throws XMLStreamException {
+        batch.add(d, refs);
+        if (batch.data.size() >= BATCH_SIZE) {
+            submit();
+            while (pending.size() >= maxPendingBatches || (!pending.isEmpty() && pending.getFirst().isDone())) {
+                collect();
+            }
+        }
+    }
+
+    private void submit() {
+        if (!batch.data.isEmpty()) {
+            pending.add(getBuilderPool().submit(batch));
+            batch = new Batch();
+        }
+    }
+
+    /**
+     * Registers the primitives of the oldest pending batch, batches are collected in file order.
+     */
+    private void collect() throws XMLStreamException {
+        Batch b = null;
+        try {
+            b = pending.removeFirst().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throwException(tr("Reading was canceled"));
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        for (int i = 0; i < b.primitives.length; i++) {
+            index.add(b.ids[i], b.primitives[i], b.references.get(i));
+        }
+    }
+
+    @Override
+    protected Node parseNode() throws XMLStreamException {
+        NodeData nd = new NodeData();
+        String lat = parser.getAttributeValue(null, "lat");
+        String lon = parser.getAttributeValue(null, "lon");
+        if (lat != null && lon != null) {
+            nd.setCoor(new LatLon(Double.parseDouble(lat), Double.parseDouble(lon)));
+        }
+        readCommon(nd);
+        while (true) {
+            int event = parser.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (parser.getLocalName().equals("tag")) {
+                    parseTag(nd);
+                } else {
+                    parseUnknown();
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+        }
+        add(nd, null);
+        return null;
+    }
+
+    @Override
+    protected Way parseWay() throws XMLStreamException {
+        WayData wd = new WayData();
+        readCommon(wd);
+        int count = 0;
+        while (true) {
+            int event = parser.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (parser.getLocalName().equals("nd")) {
+                    if (count == nodeIdBuffer.length) {
+                        nodeIdBuffer = Arrays.copyOf(nodeIdBuffer, 2 * count);
+                    }
+                    nodeIdBuffer[count++] = parseWayNode(wd);
+                } else if (parser.getLocalName().equals("tag")) {
+                    parseTag(wd);
+                } else {
+                    parseUnknown();
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+        }
+        if (wd.isDeleted() && count > 0) {
+            System.out.println(tr("Deleted way {0} contains nodes", wd.getUniqueId()));
+            count = 0;
+        }
+        add(wd, Arrays.copyOf(nodeIdBuffer, count));
+        return null;
+    }
+
+    @Override
+    protected Relation parseRelation() throws XMLStreamException {
+        RelationData rd = new RelationData();
+        readCommon(rd);
+        List<RelationMemberData> members = new ArrayList<RelationMemberData>();
+        while (true) {
+            int event = parser.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (parser.getLocalName().equals("member")) {
+                    members.add(parseRelationMember(rd));
+                } else if (parser.getLocalName().equals("tag")) {
+                    parseTag(rd);
+                } else {
+                    parseUnknown();
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+        }
+        if (rd.isDeleted() && !members.isEmpty()) {
+            System.out.println(tr("Deleted relation {0} contains members", rd.getUniqueId()));
+            members.clear();
+        }
+        add(rd, members.toArray(new RelationMemberData[members.size()]));
+        return null;
+    }
+
+    @Override
+    protected void processNodesAfterParsing() {
+        index.addNodes(ds);
+    }
+
+    @Override
+    protected void processWaysAfterParsing() throws IllegalDataException {
+        index.addWays(ds);
+    }
+
+    @Override
+    protected void processRelationsAfterParsing() throws IllegalDataException {
+        index.addRelations(ds);
+    }
+
+    /**
+     * Parse the given input source and return the dataset.
+     *
+     * @param source the source input stream. Must not be null.
+     * @param progressMonitor  the progress monitor. If null, {@link NullProgressMonitor#INSTANCE} is assumed
+     *
+     * @return the dataset with the parsed data
+     * @throws IllegalDataException thrown if the an error was found while parsing the data from the source
+     * @throws IllegalArgumentException thrown if source is null
+     */
+    public static DataSet parseDataSet(InputStream source, ProgressMonitor progressMonitor) throws IllegalDataException {
+        ParallelOsmReader reader = new ParallelOsmReader();
+        if (source == null)
+            return reader.doParseDataSet(source, progressMonitor);
+        ReadAheadInputStream in = new ReadAheadInputStream(source);
+        try {
+            return reader.doParseDataSet(in, progressMonitor);
+        } finally {
+            reader.cancelPending();
+            Utils.close(in);
+        }
+    }
+
+    private void cancelPending() {
+        for (Future<Batch> f : pending) {
+            f.cancel(true);
+        }
+        pending.clear();
+    }
+}
@@ -0,0 +1,194 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * A cache of the models parsed from sources like map styles, presets and validator rules.
+ * <p>
+ * The model of a source is stored in a binary file, written by a {@link Codec}, together with the
+ * SHA-1 hash of the content it was parsed from. As long as the content of the source does not change,
+ * the model is read from this file instead of parsing the source again.
+ * <p>
+ * An entry is only valid for the same version of the codec, so the version has to be increased
+ * whenever the format written by the codec or the parsed model changes. Invalid or unreadable entries
+ * are ignored and replaced by the next {@link #put}.
+ *
+ * @param <T> the type of the parsed model
+ */
+public class ParsedSourceCache<T> {
+
+    /** Enables the cache */
+    public static final BooleanProperty PROP_ENABLED = new BooleanProperty("cache.parsed-sources.enabled", true);
+
+    private static final int MAGIC = 0x4a505343;
+    private static final int FORMAT_VERSION = 1;
+    private static final String TMP_FILE_SUFFIX = ".tmp";
+
+    /**
+     * Writes and reads the parsed model of a source.
+     * @param <T> the type of the parsed model
+     */
+    public interface Codec<T> {
+
+        /**
+         * Writes a model.
+         * @param model the model
+         * @param out the output
+         * @throws IOException if an I/O error occurs or the model cannot be written
+         */
+        void write(T model, DataOutputStream out) throws IOException;
+
+        /**
+         * Reads a model written by {@link #write}.
+         * @param in the input
+         * @return the model
+         * @throws IOException if an I/O error occurs or the data is invalid
+         */
+        T read(DataInputStream in) throws IOException;
+    }
+
+    private final String name;
+    private final int version;
+    private final Codec<T> codec;
+
+    /**
+     * Constructs a new {@code ParsedSourceCache}.
+     * @param name the name of the cache, the name of its directory in the cache directory of JOSM
+     * @param version the version of the codec
+     * @param codec the codec writing and reading the models
+     */
+    public ParsedSourceCache(String name, int version, Codec<T> codec) {
+        this.name = name;
+        this.version = version;
+        this.codec = codec;
+    }
+
+    /**
+     * Reads the content of a source.
+     * @param in the input stream of the source, closed by this method
+     * @return the content
+     * @throws IOException if an I/O error occurs
+     */
+    public static byte[] readContent(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Utils.copyStream(in, out);
+            return out.toByteArray();
+        } finally {
+            Utils.close(in);
+        }
+    }
+
+    private static byte[] sha1(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private File getFile(String source) {
+        if (source == null || Main.pref == null || !PROP_ENABLED.get())
+            return null;
+        try {
+            File dir = new File(new File(Main.pref.getCacheDirectory(), "parsed"), name);
+            return new File(dir, Utils.toHexString(sha1(source.getBytes("UTF-8"))) + ".bin");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Replies the cached model of a source.
+     * @param source the URL of the source
+     * @param content the current content of the source
+     * @return the model parsed from the same content, or <code>null</code> if it is not in the cache
+     */
+    public T get(String source, byte[] content) {
+        File file = getFile(source);
+        if (file == null || !file.isFile())
+            return null;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || in.readInt() != version
+                        || !source.equals(in.readUTF()))
+                    return null;
+                byte[] hash = new byte[in.readUnsignedByte()];
+                in.readFully(hash);
+                if (!Arrays.equals(hash, sha1(content)))
+                    return null;
+                return codec.read(in);
+            } finally {
+                Utils.close(in);
+            }
+        } catch (IOException e) {
+            System.err.println("Warning: ignoring invalid cache entry " + file + ": " + e);
+            return null;
+        } catch (RuntimeException e) {
+            System.err.println("Warning: ignoring invalid cache entry " + file + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the model of a source. Errors are only reported on the console, the source is
+     * parsed again the next time.
+     * @param source the URL of the source
+     * @param content the content the model was parsed from
+     * @param model the model
+     */
+    public void put(String source, byte[] content, T model) {
+        File file = getFile(source);
+        if (file == null)
+            return;
+        File tmp = null;
+        try {
+            File dir = file.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs())
+                throw new IOException("Cannot create directory " + dir);
+            // written to a temporary file, so that a concurrent get never sees an incomplete entry
+            tmp = File.createTempFile("parsed", TMP_FILE_SUFFIX, dir);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                byte[] hash = sha1(content);
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(version);
+                out.writeUTF(source);
+                out.writeByte(hash.length);
+                out.write(hash);
+                codec.write(model, out);
+            } finally {
+                out.close();
+            }
+            file.delete();
+            if (!tmp.renameTo(file))
+                throw new IOException("Cannot rename " + tmp + " to " + file);
+            tmp = null;
+        } catch (IOException e) {
+            System.err.println("Warning: failed to cache the parsed content of " + source + ": " + e.getMessage());
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.swing.JOptionPane;
+
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.gui.layer.Layer;
+import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * Exporter for the binary OSM PBF format, see {@link PbfWriter}.
+ *
+ * The format has no place for deleted primitives and the modified state, so layers with
+ * local modifications are not exported. Otherwise the layer would be marked as saved
+ * although pending deletions and edits were lost.
+ */
+public class PbfExporter extends OsmExporter {
+
+    public PbfExporter() {
+        super(PbfImporter.FILE_FILTER);
+    }
+
+    @Override
+    public void exportData(File file, Layer layer, boolean noBackup) throws IOException {
+        if (layer instanceof OsmDataLayer && ((OsmDataLayer) layer).data.isModified()) {
+            JOptionPane.showMessageDialog(
+                    Main.parent,
+                    tr("<html>Layer ''{0}'' contains modified or deleted objects.<br>"
+                            + "The PBF format cannot store these changes, please save the layer as OSM file instead.</html>",
+                            layer.getName()),
+                    tr("Warning"),
+                    JOptionPane.WARNING_MESSAGE
+            );
+            throw new IOException(tr("Cannot save modified data in PBF format."));
+        }
+        super.exportData(file, layer, noBackup);
+    }
+
+    @Override
+    protected void doSave(OutputStream out, OsmDataLayer layer) throws IOException {
+        PbfWriter w = new PbfWriter(out);
+        layer.data.getReadLock().lock();
+        try {
+            w.writeData(layer.data);
+        } finally {
+            Utils.close(w);
+            layer.data.getReadLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.io.File;
+import java.io.InputStream;
+
+import org.openstreetmap.josm.actions.ExtensionFileFilter;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+
+/**
+ * Importer for the binary OSM PBF format, see {@link PbfReader}.
+ */
+public class PbfImporter extends OsmImporter {
+
+    public static final ExtensionFileFilter FILE_FILTER = new ExtensionFileFilter(
+            "osm.pbf,pbf", "osm.pbf", tr("OSM PBF Files") + " (*.osm.pbf *.pbf)");
+
+    public PbfImporter() {
+        super(FILE_FILTER);
+    }
+
+    /**
+     * The compact storage can only be filled from OSM XML by {@link CompactOsmReader}.
+     */
+    @Override
+    protected boolean useCompactStorage(File file) {
+        return false;
+    }
+
+    @Override
+    protected DataSet parseDataSet(InputStream in, ProgressMonitor progressMonitor) throws IllegalDataException {
+        return PbfReader.parseDataSet(in, progressMonitor);
+    }
+}
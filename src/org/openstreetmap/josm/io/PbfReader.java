@@ -0,0 +1,744 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.DataSource;
+import org.openstreetmap.josm.data.osm.NodeData;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
+import org.openstreetmap.josm.data.osm.PrimitiveData;
+import org.openstreetmap.josm.data.osm.RelationData;
+import org.openstreetmap.josm.data.osm.RelationMemberData;
+import org.openstreetmap.josm.data.osm.User;
+import org.openstreetmap.josm.data.osm.WayData;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.tools.CheckParameterUtil;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * Reader for the binary OSM PBF format, see <a href="http://wiki.openstreetmap.org/wiki/PBF_Format">PBF Format</a>.
+ *
+ * The file is a sequence of blobs. The blobs are read on the calling thread, and the data
+ * blobs are decompressed and decoded into primitives on a worker pool. Dense nodes are decoded
+ * directly from the packed arrays of the blob, without intermediate arrays. The primitives of
+ * the blobs are registered in file order and their references are resolved through an
+ * {@link ExternalIdIndex}.
+ *
+ * The protocol buffer messages are decoded by hand, there is no dependency on a protobuf library.
+ */
+public class PbfReader extends AbstractReader {
+
+    /** The maximum size of a blob header, as required by the format */
+    private static final int MAX_BLOB_HEADER_SIZE = 64 * 1024;
+    /** The maximum size of a blob, as required by the format */
+    private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+
+    private static final List<String> SUPPORTED_FEATURES = Arrays.asList(
+            "OsmSchema-V0.6", "DenseNodes", "HistoricalInformation");
+
+    private static ExecutorService decoderPool;
+
+    private final int maxPendingBlocks = 2 * Runtime.getRuntime().availableProcessors();
+    private final LinkedList<Future<Block>> pending = new LinkedList<Future<Block>>();
+    private final ExternalIdIndex index = new ExternalIdIndex();
+    private volatile boolean cancel;
+
+    /**
+     * constructor (for private and subclasses use only)
+     *
+     * @see #parseDataSet(InputStream, ProgressMonitor)
+     */
+    protected PbfReader() {
+    }
+
+    private static synchronized ExecutorService getDecoderPool() {
+        if (decoderPool == null) {
+            decoderPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    Utils.newThreadFactory("pbf-decoder-%d", Thread.NORM_PRIORITY));
+        }
+        return decoderPool;
+    }
+
+    /**
+     * Decoder of protocol buffer messages in a byte array.
+     */
+    private static final class Input {
+        private final byte[] buf;
+        private int pos;
+        private final int limit;
+
+        Input(byte[] buf, int offset, int limit) {
+            this.buf = buf;
+            this.pos = offset;
+            this.limit = limit;
+        }
+
+        boolean hasMore() {
+            return pos < limit;
+        }
+
+        long readVarint() throws IllegalDataException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= limit)
+                    throw new IllegalDataException(tr("Truncated PBF message."));
+                byte b = buf[pos++];
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0)
+                    return value;
+            }
+            throw new IllegalDataException(tr("Malformed varint in PBF message."));
+        }
+
+        long readSint() throws IllegalDataException {
+            long v = readVarint();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        int readTag() throws IllegalDataException {
+            return (int) readVarint();
+        }
+
+        private int readLength() throws IllegalDataException {
+            long len = readVarint();
+            if (len < 0 || len > limit - pos)
+                throw new IllegalDataException(tr("Truncated PBF message."));
+            return (int) len;
+        }
+
+        /**
+         * Reads a length-delimited field, that is an embedded message or a packed array.
+         */
+        Input readMessage() throws IllegalDataException {
+            int len = readLength();
+            Input m = new Input(buf, pos, pos + len);
+            pos += len;
+            return m;
+        }
+
+        byte[] readBytes() throws IllegalDataException {
+            int len = readLength();
+            pos += len;
+            return Arrays.copyOfRange(buf, pos - len, pos);
+        }
+
+        String readString() throws IllegalDataException {
+            int len = readLength();
+            pos += len;
+            try {
+                return new String(buf, pos - len, len, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        void skip(int tag) throws IllegalDataException {
+            switch (tag & 7) {
+            case 0: readVarint(); break;
+            case 1: pos += 8; break;
+            case 2: pos += readLength(); break;
+            case 5: pos += 4; break;
+            default: throw new IllegalDataException(tr("Unsupported wire type {0} in PBF message.", tag & 7));
+            }
+        }
+    }
+
+    /**
+     * Decompresses a blob.
+     * @param blob the encoded blob message
+     * @return the raw data of the blob
+     */
+    private static byte[] decompress(byte[] blob) throws IllegalDataException {
+        Input in = new Input(blob, 0, blob.length);
+        byte[] raw = null;
+        Input zlib = null;
+        int rawSize = 0;
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            switch (tag >>> 3) {
+            case 1: raw = in.readBytes(); break;
+            case 2: rawSize = (int) in.readVarint(); break;
+            case 3: zlib = in.readMessage(); break;
+            default: in.skip(tag);
+            }
+        }
+        if (raw != null)
+            return raw;
+        if (zlib == null)
+            throw new IllegalDataException(tr("Unsupported compression of PBF blob."));
+        if (rawSize < 0 || rawSize > MAX_BLOB_SIZE)
+            throw new IllegalDataException(tr("Illegal size {0} of PBF blob.", rawSize));
+        byte[] data = new byte[rawSize];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(zlib.buf, zlib.pos, zlib.limit - zlib.pos);
+            int len = 0;
+            while (len < rawSize && !inflater.finished()) {
+                int n = inflater.inflate(data, len, rawSize - len);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                len += n;
+            }
+            if (len != rawSize)
+                throw new IllegalDataException(tr("Truncated PBF blob."));
+        } catch (DataFormatException e) {
+            throw new IllegalDataException(e);
+        } finally {
+            inflater.end();
+        }
+        return data;
+    }
+
+    /**
+     * A data blob, and the primitives decoded from it.
+     */
+    private static class Block implements Callable<Block> {
+        private byte[] blob;
+
+        final List<OsmPrimitive> primitives = new ArrayList<OsmPrimitive>();
+        /** external ids of the primitives at the same position */
+        long[] ids = new long[1024];
+        /** way nodes or relation members of the primitives at the same position, null for nodes */
+        final List<Object> references = new ArrayList<Object>();
+        /** user ids and user name string ids of the primitives at the same position, users are created on the calling thread */
+        long[] uids = new long[1024];
+        int[] userSids = new int[1024];
+        String[] strings;
+
+        private int granularity = 100;
+        private long latOffset;
+        private long lonOffset;
+        private int dateGranularity = 1000;
+
+        /* the info of the current primitive */
+        private int version;
+        private long timestamp;
+        private long changeset;
+        private long uid;
+        private int userSid;
+        private boolean visible;
+
+        private long[] refBuffer = new long[256];
+
+        Block(byte[] blob) {
+            this.blob = blob;
+        }
+
+        @Override
+        public Block call() throws IllegalDataException {
+            byte[] data = decompress(blob);
+            blob = null;
+            Input in = new Input(data, 0, data.length);
+            List<Input> groups = new ArrayList<Input>();
+            // the block parameters follow the groups, which can only be decoded afterwards
+            while (in.hasMore()) {
+                int tag = in.readTag();
+                switch (tag >>> 3) {
+                case 1: readStringTable(in.readMessage()); break;
+                case 2: groups.add(in.readMessage()); break;
+                case 17: granularity = (int) in.readVarint(); break;
+                case 18: dateGranularity = (int) in.readVarint(); break;
+                case 19: latOffset = in.readVarint(); break;
+                case 20: lonOffset = in.readVarint(); break;
+                default: in.skip(tag);
+                }
+            }
+            if (strings == null) {
+                strings = new String[] {""};
+            }
+            for (Input group : groups) {
+                while (group.hasMore()) {
+                    int tag = group.readTag();
+                    switch (tag >>> 3) {
+                    case 1: readNode(group.readMessage()); break;
+                    case 2: readDenseNodes(group.readMessage()); break;
+                    case 3: readWay(group.readMessage()); break;
+                    case 4: readRelation(group.readMessage()); break;
+                    default: group.skip(tag);
+                    }
+                }
+            }
+            return this;
+        }
+
+        private void readStringTable(Input in) throws IllegalDataException {
+            List<String> list = new ArrayList<String>();
+            while (in.hasMore()) {
+                int tag = in.readTag();
+                if (tag >>> 3 == 1) {
+                    list.add(in.readString());
+                } else {
+                    in.skip(tag);
+                }
+            }
+            strings = list.toArray(new String[list.size()]);
+        }
+
+        private String getString(long sid) throws IllegalDataException {
+            if (sid < 0 || sid >= strings.length)
+                throw new IllegalDataException(tr("Illegal string id {0} in PBF block.", sid));
+            return strings[(int) sid];
+        }
+
+        private void add(long id, OsmPrimitive osm, Object refs) {
+            int pos = primitives.size();
+            if (pos == ids.length) {
+                ids = Arrays.copyOf(ids, 2 * pos);
+                uids = Arrays.copyOf(uids, 2 * pos);
+                userSids = Arrays.copyOf(userSids, 2 * pos);
+            }
+            ids[pos] = id;
+            uids[pos] = uid;
+            userSids[pos] = userSid;
+            primitives.add(osm);
+            references.add(refs);
+        }
+
+        private void resetInfo() {
+            version = 0;
+            timestamp = 0;
+            changeset = 0;
+            uid = 0;
+            userSid = 0;
+            visible = true;
+        }
+
+        private void readInfo(Input in) throws IllegalDataException {
+            while (in.hasMore()) {
+                int tag = in.readTag();
+                switch (tag >>> 3) {
+                case 1: version = (int) in.readVarint(); break;
+                case 2: timestamp = in.readVarint(); break;
+                case 3: changeset = in.readVarint(); break;
+                case 4: uid = (int) in.readVarint(); break;
+                case 5: userSid = (int) in.readVarint(); break;
+                case 6: visible = in.readVarint() != 0; break;
+                default: in.skip(tag);
+                }
+            }
+        }
+
+        /**
+         * Sets the id and the info of the current primitive, like {@link OsmReader} does for the attributes.
+         */
+        private void setCommon(PrimitiveData d, long id) throws IllegalDataException {
+            if (id == 0)
+                throw new IllegalDataException(tr("Illegal object with ID=0."));
+            d.setId(id);
+            // files without metadata have no versions
+            d.setVersion(id > 0 && version > 0 ? version : 0);
+            d.setTimestamp(new Date(timestamp * dateGranularity));
+            d.setChangesetId(id > 0 && changeset > 0 ? (int) changeset : 0);
+            d.setVisible(visible);
+        }
+
+        private Map<String, String> readTags(Input keys, Input vals) throws IllegalDataException {
+            if (keys == null || vals == null || !keys.hasMore())
+                return null;
+            Map<String, String> tags = new HashMap<String, String>();
+            while (keys.hasMore()) {
+                tags.put(getString(keys.readVarint()), getString(vals.readVarint()));
+            }
+            return tags;
+        }
+
+        private LatLon getCoor(long lat, long lon) {
+            // the division of exact values is correctly rounded, so the coordinates of the
+            // original decimal degrees are reproduced for the default granularity
+            return new LatLon((latOffset + granularity * lat) / 1e9, (lonOffset + granularity * lon) / 1e9);
+        }
+
+        private void readNode(Input in) throws IllegalDataException {
+            resetInfo();
+            long id = 0;
+            long lat = 0;
+            long lon = 0;
+            Input keys = null;
+            Input vals = null;
+            while (in.hasMore()) {
+                int tag = in.readTag();
+                switch (tag >>> 3) {
+                case 1: id = in.readSint(); break;
+                case 2: keys = in.readMessage(); break;
+                case 3: vals = in.readMessage(); break;
+                case 4: readInfo(in.readMessage()); break;
+                case 8: lat = in.readSint(); break;
+                case 9: lon = in.readSint(); break;
+                default: in.skip(tag);
+                }
+            }
+            NodeData nd = new NodeData();
+            setCommon(nd, id);
+            nd.setCoor(getCoor(lat, lon));
+            nd.setKeys(readTags(keys, vals));
+            add(id, ParallelOsmReader.createPrimitive(nd), null);
+        }
+
+        private void readDenseNodes(Input in) throws IllegalDataException {
+            Input ids = null;
+            Input lats = null;
+            Input lons = null;
+            Input keysVals = null;
+            Input versions = null;
+            Input timestamps = null;
+            Input changesets = null;
+            Input uids = null;
+            Input userSids = null;
+            Input visibles = null;
+            while (in.hasMore()) {
+                int tag = in.readTag();
+                switch (tag >>> 3) {
+                case 1: ids = in.readMessage(); break;
+                case 5:
+                    Input info = in.readMessage();
+                    while (info.hasMore()) {
+                        int infoTag = info.readTag();
+                        switch (infoTag >>> 3) {
+                        case 1: versions = info.readMessage(); break;
+                        case 2: timestamps = info.readMessage(); break;
+                        case 3: changesets = info.readMessage(); break;
+                        case 4: uids = info.readMessage(); break;
+                        case 5: userSids = info.readMessage(); break;
+                        case 6: visibles = info.readMessage(); break;
+                        default: info.skip(infoTag);
+                        }
+                    }
+                    break;
+                case 8: lats = in.readMessage(); break;
+                case 9: lons = in.readMessage(); break;
+                case 10: keysVals = in.readMessage(); break;
+                default: in.skip(tag);
+                }
+            }
+            if (ids == null)
+                return;
+            if (lats == null || lons == null)
+                throw new IllegalDataException(tr("Missing coordinates of dense nodes in PBF block."));
+            // the packed arrays are read in parallel, the deltas are summed up on the way
+            long id = 0;
+            long lat = 0;
+            long lon = 0;
+            long timestampSum = 0;
+            long changesetSum = 0;
+            long uidSum = 0;
+            int userSidSum = 0;
+            while (ids.hasMore()) {
+                resetInfo();
+                id += ids.readSint();
+                lat += lats.readSint();
+                lon += lons.readSint();
+                if (versions != null && timestamps != null && changesets != null && uids != null && userSids != null) {
+                    version = (int) versions.readVarint();
+                    timestamp = timestampSum += timestamps.readSint();
+                    changeset = changesetSum += changesets.readSint();
+                    uid = uidSum += uids.readSint();
+                    userSid = userSidSum += (int) userSids.readSint();
+                }
+                if (visibles != null) {
+                    visible = visibles.readVarint() != 0;
+                }
+                Map<String, String> tags = null;
+                if (keysVals != null) {
+                    long key;
+                    while ((key = keysVals.readVarint()) != 0) {
+                        if (tags == null) {
+                            tags = new HashMap<String, String>();
+                        }
+                        tags.put(getString(key), getString(keysVals.readVarint()));
+                    }
+                }
+                NodeData nd = new NodeData();
+                setCommon(nd, id);
+                nd.setCoor(getCoor(lat, lon));
+                nd.setKeys(tags);
+                add(id, ParallelOsmReader.createPrimitive(nd), null);
+            }
+        }
+
+        private void readWay(Input in) throws IllegalDataException {
+            resetInfo();
+            long id = 0;
+            Input keys = null;
+            Input vals = null;
+            Input refs = null;
+            while (in.hasMore()) {
+                int tag = in.readTag();
+                switch (tag >>> 3) {
+                case 1: id = in.readVarint(); break;
+                case 2: keys = in.readMessage(); break;
+                case 3: vals = in.readMessage(); break;
+                case 4: readInfo(in.readMessage()); break;
+                case 8: refs = in.readMessage(); break;
+                default: in.skip(tag);
+                }
+            }
+            WayData wd = new WayData();
+            setCommon(wd, id);
+            wd.setKeys(readTags(keys, vals));
+            int count = 0;
+            long ref = 0;
+            while (refs != null && refs.hasMore()) {
+                if (count == refBuffer.length) {
+                    refBuffer = Arrays.copyOf(refBuffer, 2 * count);
+                }
+                ref += refs.readSint();
+                refBuffer[count++] = ref;
+            }
+            add(id, ParallelOsmReader.createPrimitive(wd), Arrays.copyOf(refBuffer, count));
+        }
+
+        private void readRelation(Input in) throws IllegalDataException {
+            resetInfo();
+            long id = 0;
+            Input keys = null;
+            Input vals = null;
+            Input roles = null;
+            Input memberIds = null;
+            Input types = null;
+            while (in.hasMore()) {
+                int tag = in.readTag();
+                switch (tag >>> 3) {
+                case 1: id = in.readVarint(); break;
+                case 2: keys = in.readMessage(); break;
+                case 3: vals = in.readMessage(); break;
+                case 4: readInfo(in.readMessage()); break;
+                case 8: roles = in.readMessage(); break;
+                case 9: memberIds = in.readMessage(); break;
+                case 10: types = in.readMessage(); break;
+                default: in.skip(tag);
+                }
+            }
+            RelationData rd = new RelationData();
+            setCommon(rd, id);
+            rd.setKeys(readTags(keys, vals));
+            List<RelationMemberData> members = new ArrayList<RelationMemberData>();
+            long memberId = 0;
+            while (memberIds != null && roles != null && types != null && memberIds.hasMore()) {
+                memberId += memberIds.readSint();
+                String role = getString(roles.readVarint());
+                OsmPrimitiveType type;
+                switch ((int) types.readVarint()) {
+                case 0: type = OsmPrimitiveType.NODE; break;
+                case 1: type = OsmPrimitiveType.WAY; break;
+                case 2: type = OsmPrimitiveType.RELATION; break;
+                default: throw new IllegalDataException(tr("Illegal member type in relation {0}.", id));
+                }
+                members.add(new RelationMemberData(role, type, memberId));
+            }
+            add(id, ParallelOsmReader.createPrimitive(rd), members.toArray(new RelationMemberData[members.size()]));
+        }
+    }
+
+    private void parse(InputStream source) throws IOException, IllegalDataException {
+        DataInputStream in = new DataInputStream(source);
+        boolean header = false;
+        while (!cancel) {
+            int headerSize;
+            try {
+                headerSize = in.readInt();
+            } catch (EOFException e) {
+                break;
+            }
+            if (headerSize < 0 || headerSize > MAX_BLOB_HEADER_SIZE)
+                throw new IllegalDataException(tr("Illegal size {0} of PBF blob header.", headerSize));
+            byte[] buf = new byte[headerSize];
+            in.readFully(buf);
+            Input blobHeader = new Input(buf, 0, buf.length);
+            String type = null;
+            int dataSize = 0;
+            while (blobHeader.hasMore()) {
+                int tag = blobHeader.readTag();
+                switch (tag >>> 3) {
+                case 1: type = blobHeader.readString(); break;
+                case 3: dataSize = (int) blobHeader.readVarint(); break;
+                default: blobHeader.skip(tag);
+                }
+            }
+            if (dataSize < 0 || dataSize > MAX_BLOB_SIZE)
+                throw new IllegalDataException(tr("Illegal size {0} of PBF blob.", dataSize));
+            byte[] blob = new byte[dataSize];
+            in.readFully(blob);
+            if ("OSMHeader".equals(type)) {
+                parseHeader(decompress(blob));
+                header = true;
+            } else if ("OSMData".equals(type)) {
+                if (!header)
+                    throw new IllegalDataException(tr("Missing header block in PBF file."));
+                pending.add(getDecoderPool().submit(new Block(blob)));
+                while (pending.size() >= maxPendingBlocks || (!pending.isEmpty() && pending.getFirst().isDone())) {
+                    collect();
+                }
+            }
+            // other blob types are skipped, as required by the format
+        }
+        if (cancel) {
+            cancel = false;
+            throw new IllegalDataException(tr("Reading was canceled"));
+        }
+        while (!pending.isEmpty()) {
+            collect();
+        }
+    }
+
+    private void parseHeader(byte[] data) throws IllegalDataException {
+        Input in = new Input(data, 0, data.length);
+        Input bbox = null;
+        String program = null;
+        String source = null;
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            switch (tag >>> 3) {
+            case 1: bbox = in.readMessage(); break;
+            case 4:
+                String feature = in.readString();
+                if (!SUPPORTED_FEATURES.contains(feature))
+                    throw new IllegalDataException(tr("PBF file requires the unsupported feature ''{0}''.", feature));
+                break;
+            case 16: program = in.readString(); break;
+            case 17: source = in.readString(); break;
+            default: in.skip(tag);
+            }
+        }
+        ds.setVersion("0.6");
+        if (bbox != null) {
+            long left = 0, right = 0, top = 0, bottom = 0;
+            while (bbox.hasMore()) {
+                int tag = bbox.readTag();
+                switch (tag >>> 3) {
+                case 1: left = bbox.readSint(); break;
+                case 2: right = bbox.readSint(); break;
+                case 3: top = bbox.readSint(); break;
+                case 4: bottom = bbox.readSint(); break;
+                default: bbox.skip(tag);
+                }
+            }
+            Bounds bounds = new Bounds(bottom / 1e9, left / 1e9, top / 1e9, right / 1e9);
+            ds.dataSources.add(new DataSource(bounds, source != null ? source : program));
+        }
+    }
+
+    /**
+     * Registers the primitives of the oldest pending block, blocks are collected in file order.
+     */
+    private void collect() throws IllegalDataException {
+        Block b = null;
+        try {
+            b = pending.removeFirst().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalDataException(tr("Reading was canceled"));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IllegalDataException)
+                throw (IllegalDataException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+        for (int i = 0; i < b.primitives.size(); i++) {
+            OsmPrimitive osm = b.primitives.get(i);
+            String userName = b.strings[b.userSids[i]];
+            if (b.uids[i] > 0) {
+                osm.setUser(User.createOsmUser(b.uids[i], userName.isEmpty() ? null : userName));
+            } else if (!userName.isEmpty()) {
+                osm.setUser(User.createLocalUser(userName));
+            }
+            index.add(b.ids[i], osm, b.references.get(i));
+        }
+    }
+
+    @Override
+    protected void processNodesAfterParsing() {
+        index.addNodes(ds);
+    }
+
+    @Override
+    protected void processWaysAfterParsing() throws IllegalDataException {
+        index.addWays(ds);
+    }
+
+    @Override
+    protected void processRelationsAfterParsing() throws IllegalDataException {
+        index.addRelations(ds);
+    }
+
+    protected DataSet doParseDataSet(InputStream source, ProgressMonitor progressMonitor) throws IllegalDataException {
+        if (progressMonitor == null) {
+            progressMonitor = NullProgressMonitor.INSTANCE;
+        }
+        ProgressMonitor.CancelListener cancelListener = new ProgressMonitor.CancelListener() {
+            @Override public void operationCanceled() {
+                cancel = true;
+            }
+        };
+        progressMonitor.addCancelListener(cancelListener);
+        CheckParameterUtil.ensureParameterNotNull(source, "source");
+        try {
+            progressMonitor.beginTask(tr("Prepare OSM data..."), 2);
+            progressMonitor.indeterminateSubTask(tr("Parsing OSM data..."));
+            parse(new BufferedInputStream(source));
+            progressMonitor.worked(1);
+
+            progressMonitor.indeterminateSubTask(tr("Preparing data set..."));
+            prepareDataSet();
+            progressMonitor.worked(1);
+
+            // iterate over registered postprocessors and give them each a chance
+            // to modify the dataset we have just loaded.
+            if (OsmReader.postprocessors != null) {
+                for (OsmServerReadPostprocessor pp : OsmReader.postprocessors) {
+                    pp.postprocessDataSet(getDataSet(), progressMonitor);
+                }
+            }
+            return getDataSet();
+        } catch (IllegalDataException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalDataException(e);
+        } finally {
+            for (Future<Block> f : pending) {
+                f.cancel(true);
+            }
+            pending.clear();
+            progressMonitor.finishTask();
+            progressMonitor.removeCancelListener(cancelListener);
+        }
+    }
+
+    /**
+     * Parse the given input source and return the dataset.
+     *
+     * @param source the source input stream. Must not be null.
+     * @param progressMonitor  the progress monitor. If null, {@link NullProgressMonitor#INSTANCE} is assumed
+     *
+     * @return the dataset with the parsed data
+     * @throws IllegalDataException thrown if the an error was found while parsing the data from the source
+     * @throws IllegalArgumentException thrown if source is null
+     */
+    public static DataSet parseDataSet(InputStream source, ProgressMonitor progressMonitor) throws IllegalDataException {
+        return new PbfReader().doParseDataSet(source, progressMonitor);
+    }
+}
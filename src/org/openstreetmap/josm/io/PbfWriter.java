@@ -0,0 +1,404 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.DataSource;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.data.osm.User;
+import org.openstreetmap.josm.data.osm.Way;
+
+/**
+ * Writer for the binary OSM PBF format, see {@link PbfReader}.
+ *
+ * Nodes are written as dense nodes, in blocks of at most {@link #BLOCK_SIZE} primitives sorted
+ * by id. The format has no equivalent of the <code>action</code> attribute of OSM files, so
+ * deleted and incomplete primitives are not written and the modified state is lost. New
+ * primitives keep their negative ids.
+ */
+public class PbfWriter implements Closeable {
+
+    /** The maximum number of primitives of a block */
+    public static final int BLOCK_SIZE = 8000;
+
+    /** The granularity of coordinates in nanodegrees, the default of the format */
+    private static final int GRANULARITY = 100;
+    /** The granularity of timestamps in milliseconds, the default of the format */
+    private static final int DATE_GRANULARITY = 1000;
+
+    private static final Comparator<OsmPrimitive> BY_ID = new Comparator<OsmPrimitive>() {
+        @Override
+        public int compare(OsmPrimitive a, OsmPrimitive b) {
+            long ida = a.getUniqueId();
+            long idb = b.getUniqueId();
+            return ida < idb ? -1 : ida == idb ? 0 : 1;
+        }
+    };
+
+    private final DataOutputStream out;
+    private final Deflater deflater = new Deflater();
+
+    /**
+     * Encoder of protocol buffer messages into a growing byte array.
+     */
+    private static final class Output {
+        private byte[] buf = new byte[256];
+        private int size;
+
+        private void ensureCapacity(int n) {
+            if (size + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(2 * buf.length, size + n));
+            }
+        }
+
+        void writeVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7fL) != 0) {
+                buf[size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buf[size++] = (byte) value;
+        }
+
+        void writeSint(long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        void writeVarint(int field, long value) {
+            writeVarint(field << 3);
+            writeVarint(value);
+        }
+
+        void writeSint(int field, long value) {
+            writeVarint(field << 3);
+            writeSint(value);
+        }
+
+        void writeBytes(int field, byte[] b, int len) {
+            writeVarint((field << 3) | 2);
+            writeVarint(len);
+            ensureCapacity(len);
+            System.arraycopy(b, 0, buf, size, len);
+            size += len;
+        }
+
+        void writeString(int field, String s) {
+            try {
+                byte[] b = s.getBytes("UTF-8");
+                writeBytes(field, b, b.length);
+            } catch (UnsupportedEncodingException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        /**
+         * Writes an embedded message or a packed array, nothing if it is empty.
+         */
+        void writeMessage(int field, Output message) {
+            if (message.size > 0) {
+                writeBytes(field, message.buf, message.size);
+            }
+        }
+    }
+
+    /**
+     * The string table of a block, the empty string has always id 0.
+     */
+    private static final class StringTable {
+        private final Map<String, Integer> ids = new HashMap<String, Integer>();
+        private final Output table = new Output();
+
+        StringTable() {
+            get("");
+        }
+
+        int get(String s) {
+            Integer id = ids.get(s);
+            if (id == null) {
+                id = ids.size();
+                ids.put(s, id);
+                table.writeString(1, s);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Constructs a new {@code PbfWriter}.
+     * @param out the stream to write to
+     */
+    public PbfWriter(OutputStream out) {
+        this.out = new DataOutputStream(out);
+    }
+
+    /**
+     * Writes the header and the primitives of the data set. The caller has to hold the read lock
+     * of the data set.
+     * @param ds the data set
+     * @throws IOException if writing fails
+     */
+    public void writeData(DataSet ds) throws IOException {
+        writeHeader(ds);
+        List<Node> nodes = sorted(ds.getNodes());
+        for (int i = 0; i < nodes.size(); i += BLOCK_SIZE) {
+            writeNodes(nodes.subList(i, Math.min(nodes.size(), i + BLOCK_SIZE)));
+        }
+        List<Way> ways = sorted(ds.getWays());
+        for (int i = 0; i < ways.size(); i += BLOCK_SIZE) {
+            writeWays(ways.subList(i, Math.min(ways.size(), i + BLOCK_SIZE)));
+        }
+        List<Relation> relations = sorted(ds.getRelations());
+        for (int i = 0; i < relations.size(); i += BLOCK_SIZE) {
+            writeRelations(relations.subList(i, Math.min(relations.size(), i + BLOCK_SIZE)));
+        }
+        out.flush();
+    }
+
+    private static <T extends OsmPrimitive> List<T> sorted(Collection<T> primitives) {
+        List<T> list = new ArrayList<T>(primitives.size());
+        for (T osm : primitives) {
+            if (!osm.isDeleted() && !osm.isIncomplete() && osm.isVisible()) {
+                list.add(osm);
+            }
+        }
+        Collections.sort(list, BY_ID);
+        return list;
+    }
+
+    private void writeHeader(DataSet ds) throws IOException {
+        Output header = new Output();
+        Bounds bounds = null;
+        String origin = null;
+        for (DataSource src : ds.dataSources) {
+            if (bounds == null) {
+                bounds = new Bounds(src.bounds);
+                origin = src.origin;
+            } else {
+                bounds.extend(src.bounds);
+            }
+        }
+        if (bounds != null) {
+            Output bbox = new Output();
+            bbox.writeSint(1, Math.round(bounds.getMin().lon() * 1e9));
+            bbox.writeSint(2, Math.round(bounds.getMax().lon() * 1e9));
+            bbox.writeSint(3, Math.round(bounds.getMax().lat() * 1e9));
+            bbox.writeSint(4, Math.round(bounds.getMin().lat() * 1e9));
+            header.writeMessage(1, bbox);
+        }
+        header.writeString(4, "OsmSchema-V0.6");
+        header.writeString(4, "DenseNodes");
+        header.writeString(16, "JOSM");
+        if (origin != null) {
+            header.writeString(17, origin);
+        }
+        writeBlob("OSMHeader", header);
+    }
+
+    private void writeNodes(List<Node> nodes) throws IOException {
+        StringTable strings = new StringTable();
+        Output ids = new Output();
+        Output versions = new Output();
+        Output timestamps = new Output();
+        Output changesets = new Output();
+        Output uids = new Output();
+        Output userSids = new Output();
+        Output lats = new Output();
+        Output lons = new Output();
+        Output keysVals = new Output();
+        long lastId = 0, lastLat = 0, lastLon = 0, lastTimestamp = 0, lastChangeset = 0, lastUid = 0;
+        int lastUserSid = 0;
+        boolean tagged = false;
+        for (Node n : nodes) {
+            LatLon coor = n.getCoor();
+            if (coor == null) {
+                continue;
+            }
+            long lat = Math.round(coor.lat() * 1e9 / GRANULARITY);
+            long lon = Math.round(coor.lon() * 1e9 / GRANULARITY);
+            ids.writeSint(n.getUniqueId() - lastId);
+            lats.writeSint(lat - lastLat);
+            lons.writeSint(lon - lastLon);
+            lastId = n.getUniqueId();
+            lastLat = lat;
+            lastLon = lon;
+
+            long timestamp = getTimestamp(n);
+            long uid = getUid(n.getUser());
+            int userSid = strings.get(getUserName(n.getUser()));
+            versions.writeVarint(n.getVersion());
+            timestamps.writeSint(timestamp - lastTimestamp);
+            changesets.writeSint(n.getChangesetId() - lastChangeset);
+            uids.writeSint(uid - lastUid);
+            userSids.writeSint(userSid - lastUserSid);
+            lastTimestamp = timestamp;
+            lastChangeset = n.getChangesetId();
+            lastUid = uid;
+            lastUserSid = userSid;
+
+            if (n.hasKeys()) {
+                tagged = true;
+                for (Map.Entry<String, String> e : n.getKeys().entrySet()) {
+                    keysVals.writeVarint(strings.get(e.getKey()));
+                    keysVals.writeVarint(strings.get(e.getValue()));
+                }
+            }
+            keysVals.writeVarint(0);
+        }
+        Output denseInfo = new Output();
+        denseInfo.writeMessage(1, versions);
+        denseInfo.writeMessage(2, timestamps);
+        denseInfo.writeMessage(3, changesets);
+        denseInfo.writeMessage(4, uids);
+        denseInfo.writeMessage(5, userSids);
+        Output dense = new Output();
+        dense.writeMessage(1, ids);
+        dense.writeMessage(5, denseInfo);
+        dense.writeMessage(8, lats);
+        dense.writeMessage(9, lons);
+        if (tagged) {
+            dense.writeMessage(10, keysVals);
+        }
+        Output group = new Output();
+        group.writeMessage(2, dense);
+        writeBlock(strings, group);
+    }
+
+    private void writeWays(List<Way> ways) throws IOException {
+        StringTable strings = new StringTable();
+        Output group = new Output();
+        for (Way w : ways) {
+            Output way = new Output();
+            way.writeVarint(1, w.getUniqueId());
+            writeTags(way, w, strings);
+            writeInfo(way, w, strings);
+            Output refs = new Output();
+            long lastRef = 0;
+            for (int i = 0; i < w.getNodesCount(); i++) {
+                long ref = w.getNodeId(i);
+                refs.writeSint(ref - lastRef);
+                lastRef = ref;
+            }
+            way.writeMessage(8, refs);
+            group.writeMessage(3, way);
+        }
+        writeBlock(strings, group);
+    }
+
+    private void writeRelations(List<Relation> relations) throws IOException {
+        StringTable strings = new StringTable();
+        Output group = new Output();
+        for (Relation r : relations) {
+            Output relation = new Output();
+            relation.writeVarint(1, r.getUniqueId());
+            writeTags(relation, r, strings);
+            writeInfo(relation, r, strings);
+            Output roles = new Output();
+            Output memberIds = new Output();
+            Output types = new Output();
+            long lastId = 0;
+            for (RelationMember m : r.getMembers()) {
+                long id = m.getUniqueId();
+                roles.writeVarint(strings.get(m.getRole()));
+                memberIds.writeSint(id - lastId);
+                lastId = id;
+                types.writeVarint(m.isNode() ? 0 : m.isWay() ? 1 : 2);
+            }
+            relation.writeMessage(8, roles);
+            relation.writeMessage(9, memberIds);
+            relation.writeMessage(10, types);
+            group.writeMessage(4, relation);
+        }
+        writeBlock(strings, group);
+    }
+
+    private static void writeTags(Output message, OsmPrimitive osm, StringTable strings) {
+        if (!osm.hasKeys())
+            return;
+        Output keys = new Output();
+        Output vals = new Output();
+        for (Map.Entry<String, String> e : osm.getKeys().entrySet()) {
+            keys.writeVarint(strings.get(e.getKey()));
+            vals.writeVarint(strings.get(e.getValue()));
+        }
+        message.writeMessage(2, keys);
+        message.writeMessage(3, vals);
+    }
+
+    private static void writeInfo(Output message, OsmPrimitive osm, StringTable strings) {
+        Output info = new Output();
+        info.writeVarint(1, osm.getVersion());
+        info.writeVarint(2, getTimestamp(osm));
+        info.writeVarint(3, osm.getChangesetId());
+        info.writeVarint(4, getUid(osm.getUser()));
+        info.writeVarint(5, strings.get(getUserName(osm.getUser())));
+        message.writeMessage(4, info);
+    }
+
+    private static long getTimestamp(OsmPrimitive osm) {
+        return osm.isTimestampEmpty() ? 0 : osm.getTimestamp().getTime() / DATE_GRANULARITY;
+    }
+
+    private static long getUid(User user) {
+        // local users are written by name only
+        return user == null || user.getId() < 0 ? 0 : user.getId();
+    }
+
+    private static String getUserName(User user) {
+        return user == null || user.getName() == null ? "" : user.getName();
+    }
+
+    private void writeBlock(StringTable strings, Output group) throws IOException {
+        Output block = new Output();
+        block.writeMessage(1, strings.table);
+        block.writeMessage(2, group);
+        writeBlob("OSMData", block);
+    }
+
+    private void writeBlob(String type, Output data) throws IOException {
+        deflater.reset();
+        deflater.setInput(data.buf, 0, data.size);
+        deflater.finish();
+        Output compressed = new Output();
+        byte[] chunk = new byte[64 * 1024];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(chunk);
+            compressed.ensureCapacity(n);
+            System.arraycopy(chunk, 0, compressed.buf, compressed.size, n);
+            compressed.size += n;
+        }
+        Output blob = new Output();
+        blob.writeVarint(2, data.size);
+        blob.writeBytes(3, compressed.buf, compressed.size);
+        Output header = new Output();
+        header.writeString(1, type);
+        header.writeVarint(3, blob.size);
+        out.writeInt(header.size);
+        out.write(header.buf, 0, header.size);
+        out.write(blob.buf, 0, blob.size);
+    }
+
+    @Override
+    public void close() throws IOException {
+        deflater.end();
+        out.close();
+    }
+}
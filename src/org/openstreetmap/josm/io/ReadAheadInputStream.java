@@ -0,0 +1,142 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads another input stream ahead on a separate thread. Expensive streams, like the
+ * decompressing ones of <code>.osm.bz2</code> and <code>.osm.gz</code> files, are then read
+ * while the consumer of this stream is busy parsing the previous blocks.
+ *
+ * At most a fixed number of blocks are buffered. The stream must be closed to stop the
+ * thread if it is not read to the end.
+ *
+ * The underlying stream is only used by the read-ahead thread, which also closes it, as
+ * streams like {@link java.util.zip.GZIPInputStream} must not be closed during a read.
+ * Closing this stream only signals the thread, the underlying stream is closed as soon
+ * as the thread stops.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final int BLOCKS = 16;
+    private static final byte[] EOF = new byte[0];
+
+    private final InputStream in;
+    private final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<byte[]>(BLOCKS);
+    private final Thread reader;
+    private volatile boolean closed;
+    private volatile IOException exception;
+
+    private byte[] block;
+    private int pos;
+
+    /**
+     * Starts to read the given stream.
+     * @param in the stream to read
+     */
+    public ReadAheadInputStream(InputStream in) {
+        this.in = in;
+        this.reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readAhead();
+            }
+        }, "read-ahead");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void readAhead() {
+        try {
+            while (!closed) {
+                byte[] b = new byte[BLOCK_SIZE];
+                int len = 0;
+                int n = 0;
+                while (len < b.length && (n = in.read(b, len, b.length - len)) != -1) {
+                    len += n;
+                }
+                if (len > 0 && !put(len < b.length ? Arrays.copyOf(b, len) : b))
+                    return;
+                if (n == -1)
+                    break;
+            }
+        } catch (IOException e) {
+            exception = e;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                if (exception == null) {
+                    exception = e;
+                }
+            }
+        }
+        put(EOF);
+    }
+
+    private boolean put(byte[] b) {
+        try {
+            while (!closed) {
+                if (blocks.offer(b, 100, TimeUnit.MILLISECONDS))
+                    return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private boolean nextBlock() throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+        if (block == EOF)
+            return false;
+        if (block == null || pos == block.length) {
+            try {
+                block = blocks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e.toString());
+            }
+            pos = 0;
+            if (block == EOF) {
+                if (exception != null)
+                    throw exception;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextBlock())
+            return -1;
+        return block[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!nextBlock())
+            return -1;
+        int n = Math.min(len, block.length - pos);
+        System.arraycopy(block, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        // wakes up the thread if it waits for space in the queue
+        blocks.clear();
+    }
+}
@@ -1,27 +1,37 @@
 // License: GPL. For details, see LICENSE file.
 package org.openstreetmap.josm.io.imagery;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.ProjectionBounds;
 import org.openstreetmap.josm.data.imagery.GeorefImage.State;
+import org.openstreetmap.josm.data.imagery.WmsCache;
+import org.openstreetmap.josm.data.projection.Projection;
 import org.openstreetmap.josm.gui.MapView;
 import org.openstreetmap.josm.gui.layer.WMSLayer;
 
-abstract public class Grabber implements Runnable {
+/**
+ * Grabs the images of a WMS layer. The grabber of a layer has no state of its own apart
+ * from being canceled, its methods are called by the threads of the {@link WMSGrabberPool}
+ * for the different stages of a request.
+ */
+abstract public class Grabber {
     protected final MapView mv;
     protected final WMSLayer layer;
-    private final boolean localOnly;
 
-    protected ProjectionBounds b;
     protected volatile boolean canceled;
 
-    Grabber(MapView mv, WMSLayer layer, boolean localOnly) {
+    Grabber(MapView mv, WMSLayer layer) {
         this.mv = mv;
         this.layer = layer;
-        this.localOnly = localOnly;
     }
 
-    abstract void fetch(WMSRequest request, int attempt) throws Exception; // the image fetch code
+    abstract byte[] fetch(WMSRequest request, int attempt) throws Exception; // the image fetch code
 
     int width(){
         return layer.getBaseImageWidth();
@@ -30,38 +40,21 @@ abstract public class Grabber implements Runnable {
         return layer.getBaseImageHeight();
     }
 
-    @Override
-    public void run() {
-        while (true) {
-            if (canceled)
-                return;
-            WMSRequest request = layer.getRequest(localOnly);
-            if (request == null)
-                return;
-            this.b = layer.getBounds(request);
-            if (request.isPrecacheOnly()) {
-                if (!layer.cache.hasExactMatch(Main.getProjection(), request.getPixelPerDegree(), b.minEast, b.minNorth)) {
-                    attempt(request);
-                }
-            } else {
-                if(!loadFromCache(request)){
-                    attempt(request);
-                }
-            }
-            layer.finishRequest(request);
-        }
-    }
-
-    protected void attempt(WMSRequest request){ // try to fetch the image
+    /**
+     * Tries to download the image of a request.
+     * @param request the request
+     * @return the downloaded image data, or <code>null</code> if the download failed
+     * (the request is then finished with {@link State#FAILED}), was canceled or is no longer needed
+     */
+    protected byte[] attempt(WMSRequest request){ // try to fetch the image
         int maxTries = 5; // n tries for every image
         for (int i = 1; i <= maxTries; i++) {
             if (canceled)
-                return;
+                return null;
             try {
                 if (!request.isPrecacheOnly() && !layer.requestIsVisible(request))
-                    return;
-                fetch(request, i);
-                break; // break out of the retry loop
+                    return null;
+                return fetch(request, i);
             } catch (Exception e) {
                 try { // sleep some time and then ask the server again
                     Thread.sleep(random(1000, 2000));
@@ -73,14 +66,52 @@ abstract public class Grabber implements Runnable {
                 }
             }
         }
+        return null;
     }
 
     public static int random(int min, int max) {
         return (int)(Math.random() * ((max+1)-min) ) + min;
     }
 
+    /**
+     * Decodes a downloaded image.
+     * @param data the image data
+     * @return the image, normalized by {@link WMSLayer#normalizeImage}
+     * @throws IOException if the data is not a supported image
+     */
+    protected BufferedImage decode(byte[] data) throws IOException {
+        BufferedImage img = ImageIO.read(new ByteArrayInputStream(data));
+        if (img == null)
+            throw new IOException("Unsupported image format");
+        return layer.normalizeImage(img);
+    }
+
+    /**
+     * Replies whether the image of a request is in the cache.
+     * @param request the request
+     * @return <code>true</code> if the cache contains the image of the request
+     */
+    public boolean isCached(WMSRequest request) {
+        ProjectionBounds b = layer.getBounds(request);
+        return layer.cache.hasExactMatch(Main.getProjection(), request.getPixelPerDegree(), b.minEast, b.minNorth);
+    }
+
     abstract public boolean loadFromCache(WMSRequest request);
 
+    /**
+     * Saves a downloaded image to a cache.
+     * @param cache the cache, the one of the layer when the image was requested
+     * @param projection the projection the image was requested for
+     * @param request the request
+     * @param img the decoded image, <code>null</code> if the image was not decoded
+     * @param data the downloaded image data
+     * @throws IOException if an I/O error occurs
+     */
+    protected void saveToCache(WmsCache cache, Projection projection, WMSRequest request, BufferedImage img, byte[] data) throws IOException {
+        ProjectionBounds b = layer.getBounds(request);
+        cache.saveToCache(layer.isOverlapEnabled()?img:null, new ByteArrayInputStream(data), projection, request.getPixelPerDegree(), b.minEast, b.minNorth);
+    }
+
     public void cancel() {
         canceled = true;
     }
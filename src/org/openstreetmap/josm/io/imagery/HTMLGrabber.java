@@ -1,8 +1,6 @@
 // License: GPL. For details, see LICENSE file.
 package org.openstreetmap.josm.io.imagery;
 
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URL;
@@ -10,9 +8,6 @@ import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.StringTokenizer;
 
-import javax.imageio.ImageIO;
-
-import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.preferences.StringProperty;
 import org.openstreetmap.josm.gui.MapView;
 import org.openstreetmap.josm.gui.layer.WMSLayer;
@@ -21,12 +16,12 @@ import org.openstreetmap.josm.tools.Utils;
 public class HTMLGrabber extends WMSGrabber {
     public static final StringProperty PROP_BROWSER = new StringProperty("imagery.wms.browser", "webkit-image {0}");
 
-    public HTMLGrabber(MapView mv, WMSLayer layer, boolean localOnly) {
-        super(mv, layer, localOnly);
+    public HTMLGrabber(MapView mv, WMSLayer layer) {
+        super(mv, layer);
     }
 
     @Override
-    protected BufferedImage grab(WMSRequest request, URL url, int attempt) throws IOException {
+    protected byte[] grab(WMSRequest request, URL url, int attempt) throws IOException {
         String urlstring = url.toExternalForm();
 
         System.out.println("Grabbing HTML " + (attempt > 1? "(attempt " + attempt + ") ":"") + url);
@@ -48,11 +43,6 @@ public class HTMLGrabber extends WMSGrabber {
 
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         Utils.copyStream(browser.getInputStream(), baos);
-        ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
-        BufferedImage img = layer.normalizeImage(ImageIO.read(bais));
-        bais.reset();
-        layer.cache.saveToCache(layer.isOverlapEnabled()?img:null, bais, Main.getProjection(), request.getPixelPerDegree(), b.minEast, b.minNorth);
-
-        return img;
+        return baos.toByteArray();
     }
 }
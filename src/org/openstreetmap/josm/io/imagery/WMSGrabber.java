@@ -3,7 +3,6 @@ package org.openstreetmap.josm.io.imagery;
 
 import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -22,9 +21,8 @@ import java.util.Map.Entry;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.imageio.ImageIO;
-
 import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.ProjectionBounds;
 import org.openstreetmap.josm.data.coor.EastNorth;
 import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.imagery.GeorefImage.State;
@@ -42,8 +40,8 @@ public class WMSGrabber extends Grabber {
     private ImageryInfo info;
     private Map<String, String> props = new HashMap<String, String>();
 
-    public WMSGrabber(MapView mv, WMSLayer layer, boolean localOnly) {
-        super(mv, layer, localOnly);
+    public WMSGrabber(MapView mv, WMSLayer layer) {
+        super(mv, layer);
         this.info = layer.getInfo();
         this.baseURL = info.getUrl();
         if(layer.getInfo().getCookies() != null && !layer.getInfo().getCookies().isEmpty()) {
@@ -61,14 +59,15 @@ public class WMSGrabber extends Grabber {
     }
 
     @Override
-    void fetch(WMSRequest request, int attempt) throws Exception{
+    byte[] fetch(WMSRequest request, int attempt) throws Exception{
         URL url = null;
         try {
+            ProjectionBounds b = layer.getBounds(request);
             url = getURL(
                     b.minEast, b.minNorth,
                     b.maxEast, b.maxNorth,
                     width(), height());
-            request.finish(State.IMAGE, grab(request, url, attempt));
+            return grab(request, url, attempt);
 
         } catch(Exception e) {
             e.printStackTrace();
@@ -135,6 +134,7 @@ public class WMSGrabber extends Grabber {
 
     @Override
     public boolean loadFromCache(WMSRequest request) {
+        ProjectionBounds b = layer.getBounds(request);
         BufferedImage cached = layer.cache.getExactMatch(Main.getProjection(), request.getPixelPerDegree(), b.minEast, b.minNorth);
 
         if (cached != null) {
@@ -156,7 +156,11 @@ public class WMSGrabber extends Grabber {
         return false;
     }
 
-    protected BufferedImage grab(WMSRequest request, URL url, int attempt) throws IOException, OsmTransferException {
+    /**
+     * Downloads an image. The image is decoded and cached by the other stages of the {@link WMSGrabberPool}.
+     * @return the image data
+     */
+    protected byte[] grab(WMSRequest request, URL url, int attempt) throws IOException, OsmTransferException {
         System.out.println("Grabbing WMS " + (attempt > 1? "(attempt " + attempt + ") ":"") + url);
 
         HttpURLConnection conn = Utils.openHttpConnection(url);
@@ -178,12 +182,7 @@ public class WMSGrabber extends Grabber {
         } finally {
             Utils.close(is);
         }
-
-        ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
-        BufferedImage img = layer.normalizeImage(ImageIO.read(bais));
-        bais.reset();
-        layer.cache.saveToCache(layer.isOverlapEnabled()?img:null, bais, Main.getProjection(), request.getPixelPerDegree(), b.minEast, b.minNorth);
-        return img;
+        return baos.toByteArray();
     }
 
     protected String readException(URLConnection conn) throws IOException {
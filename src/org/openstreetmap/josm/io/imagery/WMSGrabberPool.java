@@ -0,0 +1,261 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io.imagery;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.imagery.GeorefImage.State;
+import org.openstreetmap.josm.data.imagery.WmsCache;
+import org.openstreetmap.josm.data.projection.Projection;
+import org.openstreetmap.josm.gui.layer.WMSLayer;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * The threads grabbing the images of all WMS layers. The work on a request is split in stages,
+ * so that a slow stage does not hold up the others:
+ * <ul>
+ * <li>the cache threads load the images found in the cache,</li>
+ * <li>the download threads, {@link WMSLayer#PROP_SIMULTANEOUS_CONNECTIONS} of them, fetch the other images,</li>
+ * <li>the decoder threads decode the downloaded images,</li>
+ * <li>a single thread writes the downloaded images to the cache, after they are shown.</li>
+ * </ul>
+ * The cache and download threads serve the requests of all layers in the order of their priority,
+ * see {@link WMSLayer#peekRequest}: the visible tiles closest to the mouse cursor first, the tiles
+ * of precache tasks last.
+ */
+public final class WMSGrabberPool {
+
+    private static WMSGrabberPool instance;
+
+    /**
+     * Replies the unique instance of the pool, starting its threads on the first call.
+     * @return the unique instance
+     */
+    public static synchronized WMSGrabberPool getInstance() {
+        if (instance == null) {
+            instance = new WMSGrabberPool();
+        }
+        return instance;
+    }
+
+    private static class Job {
+        final Grabber grabber;
+        final WMSRequest request;
+
+        Job(Grabber grabber, WMSRequest request) {
+            this.grabber = grabber;
+            this.request = request;
+        }
+    }
+
+    private final List<Grabber> grabbers = new ArrayList<Grabber>();
+    private final Lock lock = new ReentrantLock();
+    private final Condition requestAdded = lock.newCondition();
+    private final ExecutorService decoder;
+    private final ExecutorService cacheWriter;
+    private int downloadThreadCount;
+    private int runningDownloadThreads;
+
+    private WMSGrabberPool() {
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        decoder = Executors.newFixedThreadPool(threads, Utils.newThreadFactory("wms-decoder-%d", Thread.NORM_PRIORITY));
+        cacheWriter = Executors.newSingleThreadExecutor(Utils.newThreadFactory("wms-cache-writer-%d", Thread.NORM_PRIORITY));
+        for (int i = 0; i < threads; i++) {
+            startThread("wms-cache-" + i, true);
+        }
+    }
+
+    private void startThread(String name, final boolean localOnly) {
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    Job job = takeRequest(localOnly);
+                    if (job == null)
+                        return;
+                    try {
+                        grab(job.grabber, job.request);
+                    } catch (RuntimeException e) {
+                        // the thread serves all layers, don't let one broken request end it
+                        e.printStackTrace();
+                        job.grabber.layer.finishRequest(job.request);
+                    }
+                }
+            }
+        }, name);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Adds a layer to the layers served by the pool.
+     * @param grabber the grabber of the layer
+     */
+    public void register(Grabber grabber) {
+        lock.lock();
+        try {
+            grabbers.add(grabber);
+            updateDownloadThreads();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a layer from the layers served by the pool. The requests of the layer
+     * already being processed are finished.
+     * @param grabber the grabber of the layer
+     */
+    public void unregister(Grabber grabber) {
+        lock.lock();
+        try {
+            grabbers.remove(grabber);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wakes up the waiting threads after a request has been added to the queue of a layer.
+     */
+    public void requestAdded() {
+        lock.lock();
+        try {
+            requestAdded.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adjusts the number of download threads to {@link WMSLayer#PROP_SIMULTANEOUS_CONNECTIONS}.
+     */
+    public void updateDownloadThreads() {
+        lock.lock();
+        try {
+            downloadThreadCount = Math.max(1, WMSLayer.PROP_SIMULTANEOUS_CONNECTIONS.get());
+            while (runningDownloadThreads < downloadThreadCount) {
+                startThread("wms-download-" + runningDownloadThreads, false);
+                runningDownloadThreads++;
+            }
+            // the surplus threads end when they look for their next request
+            requestAdded.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the most important request of all layers and marks it as being processed.
+     * @param localOnly if <code>true</code>, only the requests whose image is in the cache are taken
+     * @return the request, or <code>null</code> if the calling download thread has to end
+     */
+    private Job takeRequest(boolean localOnly) {
+        lock.lock();
+        try {
+            while (true) {
+                if (!localOnly && runningDownloadThreads > downloadThreadCount) {
+                    runningDownloadThreads--;
+                    return null;
+                }
+                Grabber best = null;
+                WMSRequest bestRequest = null;
+                for (Grabber grabber : grabbers) {
+                    WMSRequest request = grabber.layer.peekRequest(localOnly);
+                    if (request != null && (best == null || compare(grabber, request, best, bestRequest) < 0)) {
+                        best = grabber;
+                        bestRequest = request;
+                    }
+                }
+                if (best != null) {
+                    best.layer.startRequest(bestRequest);
+                    return new Job(best, bestRequest);
+                }
+                requestAdded.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static int compare(Grabber g1, WMSRequest r1, Grabber g2, WMSRequest r2) {
+        // the requests of hidden layers come last, they are only needed if the layer is shown again
+        boolean visible1 = g1.layer.isVisible();
+        boolean visible2 = g2.layer.isVisible();
+        if (visible1 != visible2)
+            return visible1 ? -1 : 1;
+        return r1.compareTo(r2);
+    }
+
+    /**
+     * Processes a request in a cache or download thread: loads the image from the cache, or downloads it
+     * and passes it on to the decoder threads.
+     */
+    private void grab(final Grabber grabber, final WMSRequest request) {
+        // the projection and the cache may change while the image is downloaded
+        final Projection projection = Main.getProjection();
+        final WmsCache cache = grabber.layer.cache;
+        boolean cached = request.isPrecacheOnly() ? grabber.isCached(request) : grabber.loadFromCache(request);
+        final byte[] data = cached ? null : grabber.attempt(request);
+        if (data == null) {
+            grabber.layer.finishRequest(request);
+            return;
+        }
+        decoder.execute(new Runnable() {
+            @Override
+            public void run() {
+                decode(grabber, request, projection, cache, data);
+            }
+        });
+    }
+
+    /**
+     * Decodes a downloaded image in a decoder thread and passes it on to the cache writer thread.
+     */
+    private void decode(final Grabber grabber, final WMSRequest request, final Projection projection, final WmsCache cache, final byte[] data) {
+        BufferedImage img = null;
+        // the image of a precache request is not shown, only the raw data is cached without overlap
+        if (!request.isPrecacheOnly() || grabber.layer.isOverlapEnabled()) {
+            try {
+                img = grabber.decode(data);
+            } catch (IOException e) {
+                e.printStackTrace();
+                request.finish(State.FAILED, null);
+                grabber.layer.finishRequest(request);
+                return;
+            }
+        }
+        if (!request.isPrecacheOnly()) {
+            request.finish(State.IMAGE, img);
+            grabber.layer.finishRequest(request);
+        }
+        final BufferedImage image = img;
+        cacheWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (cache != null) {
+                        grabber.saveToCache(cache, projection, request, image, data);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Unable to save image to wms cache");
+                    e.printStackTrace();
+                } finally {
+                    // a precache task is done when its images are in the cache
+                    if (request.isPrecacheOnly()) {
+                        request.finish(State.IMAGE, image);
+                        grabber.layer.finishRequest(request);
+                    }
+                }
+            }
+        });
+    }
+}
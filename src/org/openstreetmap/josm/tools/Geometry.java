@@ -8,7 +8,9 @@ import java.awt.geom.Path2D;
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
@@ -19,7 +21,6 @@ import org.openstreetmap.josm.command.ChangeCommand;
 import org.openstreetmap.josm.command.Command;
 import org.openstreetmap.josm.data.coor.EastNorth;
 import org.openstreetmap.josm.data.coor.LatLon;
-import org.openstreetmap.josm.data.osm.BBox;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.NodePositionComparator;
 import org.openstreetmap.josm.data.osm.Way;
@@ -51,7 +52,6 @@ public class Geometry {
         int n = ways.size();
         @SuppressWarnings("unchecked")
         ArrayList<Node>[] newNodes = new ArrayList[n];
-        BBox[] wayBounds = new BBox[n];
         boolean[] changedWays = new boolean[n];
 
         Set<Node> intersectionNodes = new LinkedHashSet<Node>();
@@ -59,17 +59,19 @@ public class Geometry {
         //copy node arrays for local usage.
         for (int pos = 0; pos < n; pos ++) {
             newNodes[pos] = new ArrayList<Node>(ways.get(pos).getNodes());
-            wayBounds[pos] = getNodesBounds(newNodes[pos]);
             changedWays[pos] = false;
         }
 
+        //find the pairs of ways which touch each other, the other ways can not intersect
+        Set<Long> touchingWays = getTouchingWays(Arrays.asList(newNodes));
+
         //iterate over all way pairs and introduce the intersections
         Comparator<Node> coordsComparator = new NodePositionComparator();
         for (int seg1Way = 0; seg1Way < n; seg1Way ++) {
             for (int seg2Way = seg1Way; seg2Way < n; seg2Way ++) {
 
-                //do not waste time on bounds that do not intersect
-                if (!wayBounds[seg1Way].intersects(wayBounds[seg2Way])) {
+                //do not waste time on ways that do not touch
+                if (seg1Way != seg2Way && !touchingWays.contains((long) seg1Way << 32 | seg2Way)) {
                     continue;
                 }
 
@@ -194,13 +196,46 @@ public class Geometry {
         return intersectionNodes;
     }
 
-    private static BBox getNodesBounds(ArrayList<Node> nodes) {
-
-        BBox bounds = new BBox(nodes.get(0));
-        for(Node n: nodes) {
-            bounds.add(n.getCoor());
+    /**
+     * Finds the pairs of ways which have at least one point in common, with {@link #findSegmentIntersections}.
+     * @param ways the nodes of the ways
+     * @return the pairs of different ways, as the lower way index shifted left by 32 bits or'ed with the higher one
+     */
+    public static Set<Long> getTouchingWays(List<? extends List<Node>> ways) {
+        int count = 0;
+        for (List<Node> nodes : ways) {
+            count += Math.max(0, nodes.size() - 1);
         }
-        return bounds;
+        double[] coords = new double[4 * count];
+        final int[] owner = new int[count];
+        int k = 0;
+        for (int i = 0; i < ways.size(); i++) {
+            EastNorth last = null;
+            for (Node n : ways.get(i)) {
+                EastNorth en = n.getEastNorth();
+                if (last != null) {
+                    coords[4 * k] = last.east();
+                    coords[4 * k + 1] = last.north();
+                    coords[4 * k + 2] = en.east();
+                    coords[4 * k + 3] = en.north();
+                    owner[k++] = i;
+                }
+                last = en;
+            }
+        }
+        final Set<Long> pairs = new HashSet<Long>();
+        findSegmentIntersections(coords, new SegmentIntersectionHandler() {
+            @Override
+            public boolean intersection(int first, int second) {
+                int a = Math.min(owner[first], owner[second]);
+                int b = Math.max(owner[first], owner[second]);
+                if (a != b) {
+                    pairs.add((long) a << 32 | b);
+                }
+                return true;
+            }
+        });
+        return pairs;
     }
 
     /**
@@ -299,6 +334,271 @@ public class Geometry {
         }
     }
 
+    /**
+     * Receives the pairs of intersecting segments found by {@link Geometry#findSegmentIntersections}.
+     */
+    public interface SegmentIntersectionHandler {
+        /**
+         * Called for each pair of segments which have at least one point in common.
+         * @param first the index of one segment
+         * @param second the index of the other segment
+         * @return {@code false} to stop the search
+         */
+        boolean intersection(int first, int second);
+    }
+
+    /**
+     * Finds all pairs of intersecting segments with a plane sweep.
+     * <p>
+     * The segments are swept in the order of their smallest x coordinate. The segments spanning the
+     * sweep line are kept in an interval tree over their y extent, so that each segment is only compared
+     * with the segments near it. Unlike a grid, the cost depends neither on the length of the segments
+     * nor on the density of an area.
+     * <p>
+     * The segments are closed: touching segments, segments with a common end point and overlapping
+     * collinear segments intersect, like in {@link Line2D#linesIntersect}.
+     *
+     * @param coords the coordinates of the segments, {@code x1, y1, x2, y2} for each segment
+     * @param handler the handler of the intersecting pairs, called in no particular order
+     */
+    public static void findSegmentIntersections(double[] coords, SegmentIntersectionHandler handler) {
+        new SegmentSweep(coords).run(handler);
+    }
+
+    /**
+     * The state of {@link Geometry#findSegmentIntersections}.
+     * <p>
+     * The sweep works on the bounding boxes of the segments. Segments much longer than the average
+     * are covered by several boxes along the segment, so that a long diagonal segment is not compared
+     * with all segments in its bounding box.
+     */
+    private static class SegmentSweep {
+        private final double[] coords;
+        /** The number of boxes */
+        private final int n;
+        /** The segment of each box */
+        private final int[] owner;
+        /** The segments covered by several boxes, which may be found intersecting more than once */
+        private final boolean[] split;
+        private final double[] minX;
+        private final double[] maxX;
+        /** The rank of the lowest and highest y coordinate of each box among all y coordinates */
+        private final int[] lo;
+        private final int[] hi;
+        /** The number of leaves of the interval tree, a power of two */
+        private final int size;
+        /** The greatest highest rank of the active boxes below each tree node, -1 if there are none */
+        private final int[] maxHi;
+        /** The active boxes by their lowest rank */
+        private final int[][] leaves;
+        private final int[] leafSizes;
+        /** The reported pairs of segments with several boxes */
+        private final Set<Long> reported = new HashSet<Long>();
+
+        SegmentSweep(double[] coords) {
+            this.coords = coords;
+            int segments = coords.length / 4;
+            double total = 0;
+            for (int i = 0; i < segments; i++) {
+                total += extent(i);
+            }
+            double limit = 4 * total / Math.max(1, segments);
+            split = new boolean[segments];
+            int boxes = 0;
+            for (int i = 0; i < segments; i++) {
+                split[i] = extent(i) > limit;
+                boxes += split[i] ? (int) Math.ceil(extent(i) / limit) : 1;
+            }
+            n = boxes;
+            owner = new int[n];
+            minX = new double[n];
+            maxX = new double[n];
+            double[] minY = new double[n];
+            double[] maxY = new double[n];
+            int b = 0;
+            for (int i = 0; i < segments; i++) {
+                double x1 = coords[4 * i];
+                double y1 = coords[4 * i + 1];
+                double x2 = coords[4 * i + 2];
+                double y2 = coords[4 * i + 3];
+                int pieces = split[i] ? (int) Math.ceil(extent(i) / limit) : 1;
+                // the boxes overlap a little to cover the segment despite rounding
+                double margin = split[i] ? 4 * Math.ulp(Math.max(Math.max(Math.abs(x1), Math.abs(x2)),
+                        Math.max(Math.abs(y1), Math.abs(y2)))) : 0;
+                for (int k = 0; k < pieces; k++, b++) {
+                    double ax = k == 0 ? x1 : x1 + (x2 - x1) * k / pieces;
+                    double ay = k == 0 ? y1 : y1 + (y2 - y1) * k / pieces;
+                    double bx = k == pieces - 1 ? x2 : x1 + (x2 - x1) * (k + 1) / pieces;
+                    double by = k == pieces - 1 ? y2 : y1 + (y2 - y1) * (k + 1) / pieces;
+                    owner[b] = i;
+                    minX[b] = Math.min(ax, bx) - margin;
+                    maxX[b] = Math.max(ax, bx) + margin;
+                    // adding 0.0 turns -0.0 into 0.0, which are different for sorting and searching
+                    minY[b] = Math.min(ay, by) - margin + 0.0;
+                    maxY[b] = Math.max(ay, by) + margin + 0.0;
+                }
+            }
+            double[] ys = new double[2 * n];
+            System.arraycopy(minY, 0, ys, 0, n);
+            System.arraycopy(maxY, 0, ys, n, n);
+            Arrays.sort(ys);
+            int m = 0;
+            for (int i = 0; i < ys.length; i++) {
+                if (m == 0 || ys[i] != ys[m - 1]) {
+                    ys[m++] = ys[i];
+                }
+            }
+            lo = new int[n];
+            hi = new int[n];
+            for (int i = 0; i < n; i++) {
+                lo[i] = Arrays.binarySearch(ys, 0, m, minY[i]);
+                hi[i] = Arrays.binarySearch(ys, 0, m, maxY[i]);
+            }
+            int s = 1;
+            while (s < m) {
+                s <<= 1;
+            }
+            size = s;
+            maxHi = new int[2 * size];
+            Arrays.fill(maxHi, -1);
+            leaves = new int[m][];
+            leafSizes = new int[m];
+        }
+
+        private double extent(int i) {
+            return Math.max(Math.abs(coords[4 * i + 2] - coords[4 * i]), Math.abs(coords[4 * i + 3] - coords[4 * i + 1]));
+        }
+
+        void run(SegmentIntersectionHandler handler) {
+            int[] byMinX = sortedIndices(minX);
+            int[] byMaxX = sortedIndices(maxX);
+            int expired = 0;
+            for (int q : byMinX) {
+                double x = minX[q];
+                // all boxes ending before the sweep line have been inserted before
+                while (expired < n && maxX[byMaxX[expired]] < x) {
+                    remove(byMaxX[expired++]);
+                }
+                if (!query(1, 0, size - 1, q, handler))
+                    return;
+                insert(q);
+            }
+        }
+
+        /**
+         * Compares the segment of a box with the segments of the active boxes below a tree node
+         * whose y extent it overlaps.
+         */
+        private boolean query(int node, int l, int r, int q, SegmentIntersectionHandler handler) {
+            if (l > hi[q] || maxHi[node] < lo[q])
+                return true;
+            if (l == r) {
+                int[] leaf = leaves[l];
+                int t = owner[q];
+                for (int k = 0; k < leafSizes[l]; k++) {
+                    int s = owner[leaf[k]];
+                    if (hi[leaf[k]] >= lo[q] && s != t && Line2D.linesIntersect(
+                            coords[4 * s], coords[4 * s + 1], coords[4 * s + 2], coords[4 * s + 3],
+                            coords[4 * t], coords[4 * t + 1], coords[4 * t + 2], coords[4 * t + 3])
+                            && (!split[s] && !split[t] || reported.add((long) Math.min(s, t) << 32 | Math.max(s, t)))
+                            && !handler.intersection(s, t))
+                        return false;
+                }
+                return true;
+            }
+            int mid = (l + r) >>> 1;
+            return query(2 * node, l, mid, q, handler) && query(2 * node + 1, mid + 1, r, q, handler);
+        }
+
+        private void insert(int s) {
+            int l = lo[s];
+            if (leaves[l] == null) {
+                leaves[l] = new int[4];
+            } else if (leafSizes[l] == leaves[l].length) {
+                leaves[l] = Arrays.copyOf(leaves[l], 2 * leafSizes[l]);
+            }
+            leaves[l][leafSizes[l]++] = s;
+            for (int node = size + l; node >= 1 && maxHi[node] < hi[s]; node >>= 1) {
+                maxHi[node] = hi[s];
+            }
+        }
+
+        private void remove(int s) {
+            int l = lo[s];
+            int[] leaf = leaves[l];
+            int max = -1;
+            for (int k = 0; k < leafSizes[l]; k++) {
+                if (leaf[k] == s) {
+                    leaf[k--] = leaf[--leafSizes[l]];
+                } else {
+                    max = Math.max(max, hi[leaf[k]]);
+                }
+            }
+            int node = size + l;
+            maxHi[node] = max;
+            for (node >>= 1; node >= 1; node >>= 1) {
+                int value = Math.max(maxHi[2 * node], maxHi[2 * node + 1]);
+                if (maxHi[node] == value) {
+                    break;
+                }
+                maxHi[node] = value;
+            }
+        }
+
+        private static int[] sortedIndices(double[] key) {
+            int[] idx = new int[key.length];
+            for (int i = 0; i < idx.length; i++) {
+                idx[i] = i;
+            }
+            sort(idx, key, 0, idx.length);
+            return idx;
+        }
+
+        /**
+         * Sorts the indices from {@code from} (inclusive) to {@code to} (exclusive) by their keys.
+         */
+        private static void sort(int[] idx, double[] key, int from, int to) {
+            while (to - from > 16) {
+                double a = key[idx[from]];
+                double b = key[idx[(from + to) >>> 1]];
+                double c = key[idx[to - 1]];
+                double pivot = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+                int i = from;
+                int j = to - 1;
+                while (i <= j) {
+                    while (key[idx[i]] < pivot) {
+                        i++;
+                    }
+                    while (key[idx[j]] > pivot) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        int t = idx[i];
+                        idx[i++] = idx[j];
+                        idx[j--] = t;
+                    }
+                }
+                // recurse into the smaller part
+                if (j + 1 - from < to - i) {
+                    sort(idx, key, from, j + 1);
+                    from = i;
+                } else {
+                    sort(idx, key, i, to);
+                    to = j + 1;
+                }
+            }
+            for (int i = from + 1; i < to; i++) {
+                int t = idx[i];
+                int j = i;
+                while (j > from && key[idx[j - 1]] > key[t]) {
+                    idx[j] = idx[j - 1];
+                    j--;
+                }
+                idx[j] = t;
+            }
+        }
+    }
+
     /**
      * Finds the intersection of two lines of infinite length.
      * @return EastNorth null if no intersection was found, the coordinates of the intersection otherwise
@@ -0,0 +1,144 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs initialization tasks in parallel, each task as soon as the tasks it depends on are finished.
+ * <p>
+ * Tasks can be added while others are already running, e.g. the tasks independent of the main menu
+ * are started before the menu is built. The duration of each task is recorded by the {@link StartupProfiler}.
+ * If a task fails, the tasks depending on it are not run and {@link #await()} throws the failure.
+ */
+public class InitializationGraph {
+
+    /**
+     * A task of the graph, to be passed as dependency of later tasks.
+     */
+    public static final class Task {
+        private final String name;
+        private final Callable<Void> callable;
+        private final List<Task> dependents = new ArrayList<Task>();
+        private int pendingDependencies;
+        private boolean finished;
+        private boolean failed;
+
+        private Task(String name, Callable<Void> callable) {
+            this.name = name;
+            this.callable = callable;
+        }
+
+        /**
+         * Replies the name of the task.
+         * @return the name of the task
+         */
+        public String getName() {
+            return name;
+        }
+    }
+
+    private final Executor executor;
+    private int unfinished;
+    private Throwable failure;
+
+    /**
+     * Constructs a new {@code InitializationGraph}.
+     * @param executor the executor running the tasks
+     */
+    public InitializationGraph(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Adds a task. It is started as soon as the given tasks are finished, or at once if they already are.
+     * @param name the name of the task, as shown in the startup profile
+     * @param callable the initialization code
+     * @param dependencies the tasks that have to be finished before the task is started
+     * @return the task, to be used as dependency of other tasks
+     */
+    public synchronized Task add(String name, Callable<Void> callable, Task... dependencies) {
+        Task task = new Task(name, callable);
+        unfinished++;
+        boolean skip = false;
+        for (Task dependency : dependencies) {
+            if (dependency.failed) {
+                skip = true;
+            } else if (!dependency.finished) {
+                task.pendingDependencies++;
+                dependency.dependents.add(task);
+            }
+        }
+        if (skip) {
+            finished(task, true);
+        } else if (task.pendingDependencies == 0) {
+            submit(task);
+        }
+        return task;
+    }
+
+    private void submit(final Task task) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Throwable error = null;
+                StartupProfiler.Phase phase = StartupProfiler.begin(task.name);
+                try {
+                    task.callable.call();
+                } catch (Throwable e) {
+                    error = e;
+                } finally {
+                    phase.end();
+                }
+                synchronized (InitializationGraph.this) {
+                    if (error != null && failure == null) {
+                        failure = error;
+                    }
+                    finished(task, error != null);
+                }
+            }
+        });
+    }
+
+    private void finished(Task task, boolean failed) {
+        task.finished = true;
+        task.failed = failed;
+        unfinished--;
+        for (Task dependent : task.dependents) {
+            if (failed) {
+                // the dependents of a failed task are not run, they are finished once all their dependencies are
+                dependent.failed = true;
+            }
+            if (--dependent.pendingDependencies == 0) {
+                if (dependent.failed) {
+                    finished(dependent, true);
+                } else {
+                    submit(dependent);
+                }
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Waits until all tasks added so far are finished.
+     * @throws RuntimeException if a task failed, with the failure as cause
+     */
+    public synchronized void await() {
+        boolean interrupted = false;
+        while (unfinished > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null)
+            throw new RuntimeException(failure);
+    }
+}
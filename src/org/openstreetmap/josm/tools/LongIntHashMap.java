@@ -0,0 +1,200 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.tools;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from primitive {@code long} keys to primitive {@code int} values.
+ *
+ * Uses open addressing with linear probing, so an entry costs 12 bytes divided by the
+ * load factor instead of the ~80 bytes of a {@code HashMap<Long, Integer>} entry. Meant
+ * for large id to index mappings, e.g. OSM ids to array positions.
+ *
+ * Not thread safe.
+ */
+public class LongIntHashMap {
+
+    /** Value replied by {@link #get(long)}, {@link #put(long, int)} and {@link #remove(long)} for missing keys. */
+    public static final int NO_VALUE = -1;
+
+    private static final long FREE = Long.MIN_VALUE;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private int threshold;
+    /* Long.MIN_VALUE marks free slots, so this key is stored separately */
+    private boolean hasFreeKey;
+    private int freeKeyValue;
+
+    /**
+     * Constructs a new, empty {@code LongIntHashMap}.
+     */
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    /**
+     * Constructs a new, empty {@code LongIntHashMap} able to hold the given number of
+     * entries without resizing.
+     * @param expectedSize the expected number of entries
+     */
+    public LongIntHashMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, FREE);
+        values = new int[capacity];
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int indexOf(long key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != FREE) {
+            if (keys[i] == key)
+                return i;
+            i = (i + 1) & mask;
+        }
+        return -(i + 1);
+    }
+
+    /**
+     * Replies the value mapped to the given key.
+     * @param key the key
+     * @return the value, or {@link #NO_VALUE} if the key is not mapped
+     */
+    public int get(long key) {
+        if (key == FREE)
+            return hasFreeKey ? freeKeyValue : NO_VALUE;
+        int i = indexOf(key);
+        return i >= 0 ? values[i] : NO_VALUE;
+    }
+
+    /**
+     * Replies true if the given key is mapped.
+     * @param key the key
+     * @return true if the key is mapped
+     */
+    public boolean containsKey(long key) {
+        return key == FREE ? hasFreeKey : indexOf(key) >= 0;
+    }
+
+    /**
+     * Maps the given key to the given value.
+     * @param key the key
+     * @param value the value
+     * @return the previous value, or {@link #NO_VALUE} if the key was not mapped
+     */
+    public int put(long key, int value) {
+        if (key == FREE) {
+            int old = hasFreeKey ? freeKeyValue : NO_VALUE;
+            if (!hasFreeKey) {
+                hasFreeKey = true;
+                size++;
+            }
+            freeKeyValue = value;
+            return old;
+        }
+        int i = indexOf(key);
+        if (i >= 0) {
+            int old = values[i];
+            values[i] = value;
+            return old;
+        }
+        i = -i - 1;
+        keys[i] = key;
+        values[i] = value;
+        if (++size > threshold) {
+            rehash(keys.length << 1);
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * Removes the mapping of the given key.
+     * @param key the key
+     * @return the removed value, or {@link #NO_VALUE} if the key was not mapped
+     */
+    public int remove(long key) {
+        if (key == FREE) {
+            if (!hasFreeKey)
+                return NO_VALUE;
+            hasFreeKey = false;
+            size--;
+            return freeKeyValue;
+        }
+        int i = indexOf(key);
+        if (i < 0)
+            return NO_VALUE;
+        int old = values[i];
+        size--;
+        // shift back the following entries of the probe sequence, so no tombstones are needed
+        int mask = keys.length - 1;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (keys[j] == FREE) {
+                break;
+            }
+            int home = hash(keys[j]) & mask;
+            if ((j > i && (home <= i || home > j)) || (j < i && home <= i && home > j)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = FREE;
+        return old;
+    }
+
+    /**
+     * Replies the number of mappings.
+     * @return the number of mappings
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all mappings.
+     */
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        size = 0;
+        hasFreeKey = false;
+    }
+
+    /**
+     * Replies the approximate number of bytes used by the internal tables.
+     * @return the approximate memory footprint in bytes
+     */
+    public long getMemoryFootprint() {
+        return keys.length * 12L;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                int j = -indexOf(oldKeys[i]) - 1;
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.tools;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Measures the duration of the phases of the startup of JOSM.
+ * <p>
+ * The phases are always measured, this costs next to nothing. If the system property
+ * {@code josm.startup.profile} is set, the report is printed when the startup is finished.
+ * If its value is a file name, the report is also written to that file as tab separated
+ * values, one line per phase, for comparing several startups in a spreadsheet.
+ */
+public final class StartupProfiler {
+
+    /** The system property enabling the report */
+    public static final String PROPERTY = "josm.startup.profile";
+
+    private static final long START = System.nanoTime();
+    private static final List<Phase> phases = new ArrayList<Phase>();
+
+    private StartupProfiler() {
+        // Hide default constructor for utils classes
+    }
+
+    /**
+     * A measured phase of the startup.
+     */
+    public static final class Phase {
+        private final String name;
+        private final String thread;
+        private final long start;
+        private long end = -1;
+
+        private Phase(String name) {
+            this.name = name;
+            this.thread = Thread.currentThread().getName();
+            this.start = System.nanoTime();
+        }
+
+        /**
+         * Ends the phase. Only the first call has an effect.
+         */
+        public void end() {
+            synchronized (phases) {
+                if (end < 0) {
+                    end = System.nanoTime();
+                }
+            }
+        }
+
+        /**
+         * Replies the name of the phase.
+         * @return the name of the phase
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Replies the name of the thread the phase was run in.
+         * @return the name of the thread
+         */
+        public String getThread() {
+            return thread;
+        }
+
+        /**
+         * Replies the start of the phase.
+         * @return the start in milliseconds since the start of JOSM
+         */
+        public long getStart() {
+            return (start - START) / 1000000;
+        }
+
+        /**
+         * Replies the duration of the phase.
+         * @return the duration in milliseconds, or -1 if the phase is not finished
+         */
+        public long getDuration() {
+            synchronized (phases) {
+                return end < 0 ? -1 : (end - start) / 1000000;
+            }
+        }
+    }
+
+    /**
+     * Starts a phase. The phase has to be ended with {@link Phase#end()}, usually in a finally block.
+     * @param name the name of the phase
+     * @return the started phase
+     */
+    public static Phase begin(String name) {
+        Phase phase = new Phase(name);
+        synchronized (phases) {
+            phases.add(phase);
+        }
+        return phase;
+    }
+
+    /**
+     * Replies the phases measured so far, ordered by their start.
+     * @return the phases
+     */
+    public static List<Phase> getPhases() {
+        List<Phase> result;
+        synchronized (phases) {
+            result = new ArrayList<Phase>(phases);
+        }
+        Collections.sort(result, new Comparator<Phase>() {
+            @Override
+            public int compare(Phase p1, Phase p2) {
+                return p1.start < p2.start ? -1 : p1.start == p2.start ? 0 : 1;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Writes the report: one line per phase with its start and duration in milliseconds, its thread and its name.
+     * Phases run in parallel have overlapping times and different threads.
+     * @param out the writer
+     * @param tabSeparated if <code>true</code>, the report is written as tab separated values with a header line,
+     * otherwise as aligned columns
+     */
+    public static void writeReport(PrintWriter out, boolean tabSeparated) {
+        String format = tabSeparated ? "%s\t%s\t%s\t%s%n" : "%8s %8s  %-20s %s%n";
+        out.printf(format, "start", "duration", "thread", "phase");
+        for (Phase phase : getPhases()) {
+            long duration = phase.getDuration();
+            out.printf(format, phase.getStart(), duration < 0 ? "-" : duration, phase.getThread(), phase.getName());
+        }
+        out.flush();
+    }
+
+    /**
+     * Called when the startup is finished. Prints and exports the report if enabled by {@link #PROPERTY}.
+     */
+    public static void finish() {
+        String target = System.getProperty(PROPERTY);
+        if (target == null)
+            return;
+        System.out.println("Startup finished after " + (System.nanoTime() - START) / 1000000 + " ms:");
+        writeReport(new PrintWriter(System.out), false);
+        if (target.length() > 0 && !"true".equals(target)) {
+            try {
+                PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(target)), "UTF-8"));
+                try {
+                    writeReport(out, true);
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                System.err.println("Unable to write the startup profile to " + target + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -32,6 +32,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.ZipFile;
 
 import org.openstreetmap.josm.Main;
@@ -690,4 +692,24 @@ public class Utils {
         return all.toString();
     }
 
+    /**
+     * Creates a new {@link ThreadFactory} which creates threads with names according to {@code nameFormat}.
+     * The threads are daemon threads, so that they do not prevent JOSM from exiting.
+     * @param nameFormat a {@link String#format(String, Object...)} compatible name format; its first argument is a unique thread index
+     * @param threadPriority the priority of the created threads, see {@link Thread#setPriority(int)}
+     * @return a new {@link ThreadFactory}
+     */
+    public static ThreadFactory newThreadFactory(final String nameFormat, final int threadPriority) {
+        return new ThreadFactory() {
+            private final AtomicLong count = new AtomicLong(0);
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, String.format(nameFormat, count.getAndIncrement()));
+                thread.setDaemon(true);
+                thread.setPriority(threadPriority);
+                return thread;
+            }
+        };
+    }
+
 }
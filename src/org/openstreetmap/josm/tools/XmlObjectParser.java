@@ -3,14 +3,18 @@ package org.openstreetmap.josm.tools;
 
 import static org.openstreetmap.josm.tools.I18n.tr;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.Reader;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Stack;
@@ -24,6 +28,7 @@ import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.ValidatorHandler;
 
 import org.openstreetmap.josm.io.MirroredInputStream;
+import org.openstreetmap.josm.io.ParsedSourceCache;
 import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
@@ -31,6 +36,7 @@ import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
 import org.xml.sax.helpers.DefaultHandler;
 import org.xml.sax.helpers.XMLFilterImpl;
 
@@ -268,6 +274,182 @@ public class XmlObjectParser implements Iterable<Object> {
         }
     }
 
+    /**
+     * The events of a parsed XML document the objects are created from: the elements with their
+     * attributes and the text. {@link #replay} creates the same objects from a recording as parsing
+     * the document, without running the XML parser. Used to cache parsed documents, see
+     * {@link ParsedSourceCache}.
+     */
+    public static final class Recording {
+        private static final int START = 0;
+        private static final int END = 1;
+        private static final int TEXT = 2;
+
+        /** Writes and reads recordings */
+        public static final ParsedSourceCache.Codec<Recording> CODEC = new ParsedSourceCache.Codec<Recording>() {
+            @Override
+            public void write(Recording recording, DataOutputStream out) throws IOException {
+                // the names of the elements and attributes are repeated a lot, they are written only once
+                Map<String, Integer> names = new HashMap<String, Integer>();
+                out.writeInt(recording.types.size());
+                Iterator<String> strings = recording.strings.iterator();
+                for (int type : recording.types) {
+                    out.writeByte(type);
+                    if (type == TEXT) {
+                        writeLongString(strings.next(), out);
+                        continue;
+                    }
+                    writeName(strings.next(), names, out);
+                    if (type == START) {
+                        int n = Integer.parseInt(strings.next());
+                        out.writeShort(n);
+                        for (int i = 0; i < n; i++) {
+                            writeName(strings.next(), names, out);
+                            writeLongString(strings.next(), out);
+                        }
+                    }
+                }
+            }
+
+            @Override
+            public Recording read(DataInputStream in) throws IOException {
+                Recording recording = new Recording();
+                List<String> names = new ArrayList<String>();
+                for (int i = in.readInt(); i > 0; i--) {
+                    int type = in.readUnsignedByte();
+                    recording.types.add(type);
+                    if (type == TEXT) {
+                        recording.strings.add(readLongString(in));
+                        continue;
+                    } else if (type != START && type != END)
+                        throw new IOException("Invalid event " + type);
+                    recording.strings.add(readName(names, in));
+                    if (type == START) {
+                        int n = in.readUnsignedShort();
+                        recording.strings.add(Integer.toString(n));
+                        for (int j = 0; j < n; j++) {
+                            recording.strings.add(readName(names, in));
+                            recording.strings.add(readLongString(in));
+                        }
+                    }
+                }
+                return recording;
+            }
+
+            private void writeName(String name, Map<String, Integer> names, DataOutputStream out) throws IOException {
+                Integer index = names.get(name);
+                if (index != null) {
+                    out.writeInt(index);
+                } else {
+                    out.writeInt(-1);
+                    out.writeUTF(name);
+                    names.put(name, names.size());
+                }
+            }
+
+            private String readName(List<String> names, DataInputStream in) throws IOException {
+                int index = in.readInt();
+                if (index < 0) {
+                    String name = in.readUTF();
+                    names.add(name);
+                    return name;
+                } else if (index < names.size())
+                    return names.get(index);
+                throw new IOException("Invalid name " + index);
+            }
+
+            private void writeLongString(String s, DataOutputStream out) throws IOException {
+                // writeUTF is limited to 64 KB
+                byte[] bytes = s.getBytes("UTF-8");
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            private String readLongString(DataInputStream in) throws IOException {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return new String(bytes, "UTF-8");
+            }
+        };
+
+        /** The types of the events */
+        private final List<Integer> types = new ArrayList<Integer>();
+        /** The strings of the events: the name and the number of attributes followed by their names and values, or the text */
+        private final List<String> strings = new ArrayList<String>();
+        private final StringBuilder text = new StringBuilder();
+
+        private void flushText() {
+            if (text.length() > 0) {
+                types.add(TEXT);
+                strings.add(text.toString());
+                text.setLength(0);
+            }
+        }
+
+        private void startElement(String qname, Attributes a) {
+            flushText();
+            types.add(START);
+            strings.add(qname);
+            strings.add(Integer.toString(a.getLength()));
+            for (int i = 0; i < a.getLength(); i++) {
+                strings.add(a.getQName(i));
+                strings.add(a.getValue(i));
+            }
+        }
+
+        private void endElement(String qname) {
+            flushText();
+            types.add(END);
+            strings.add(qname);
+        }
+    }
+
+    /**
+     * Passes the events of the XML parser on to the handler creating the objects and records them.
+     */
+    private static class RecordingHandler extends DefaultHandler {
+        private final DefaultHandler handler;
+        private final Recording recording;
+
+        RecordingHandler(DefaultHandler handler, Recording recording) {
+            this.handler = handler;
+            this.recording = recording;
+        }
+
+        @Override
+        public void setDocumentLocator(Locator locator) {
+            handler.setDocumentLocator(locator);
+        }
+
+        @Override
+        public void startElement(String ns, String lname, String qname, Attributes a) throws SAXException {
+            recording.startElement(qname, a);
+            handler.startElement(ns, lname, qname, a);
+        }
+
+        @Override
+        public void endElement(String ns, String lname, String qname) throws SAXException {
+            recording.endElement(qname);
+            handler.endElement(ns, lname, qname);
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            recording.text.append(ch, start, length);
+            handler.characters(ch, start, length);
+        }
+
+        @Override
+        public void error(SAXParseException e) throws SAXException {
+            handler.error(e);
+        }
+
+        @Override
+        public void fatalError(SAXParseException e) throws SAXException {
+            handler.fatalError(e);
+        }
+    }
+
     private Map<String, Entry> mapping = new HashMap<String, Entry>();
     private DefaultHandler parser;
 
@@ -316,6 +498,50 @@ public class XmlObjectParser implements Iterable<Object> {
         }
     }
 
+    /**
+     * Parses a document like {@link #start(Reader)} and records it.
+     * @param in the document
+     * @param recording the recording, filled by this method
+     * @return this parser, iterating over the created objects
+     * @throws SAXException if the document is invalid
+     */
+    public Iterable<Object> start(final Reader in, Recording recording) throws SAXException {
+        try {
+            return start(in, new RecordingHandler(parser, recording));
+        } catch (IOException e) {
+            throw new SAXException(e);
+        } finally {
+            recording.flushText();
+        }
+    }
+
+    /**
+     * Creates the objects of a recorded document, without parsing it again.
+     * @param recording the recording
+     * @return this parser, iterating over the created objects
+     * @throws SAXException if an object cannot be created
+     */
+    public Iterable<Object> replay(Recording recording) throws SAXException {
+        Iterator<String> strings = recording.strings.iterator();
+        for (int type : recording.types) {
+            String s = strings.next();
+            if (type == Recording.TEXT) {
+                parser.characters(s.toCharArray(), 0, s.length());
+            } else if (type == Recording.END) {
+                parser.endElement("", s, s);
+            } else {
+                AttributesImpl a = new AttributesImpl();
+                for (int n = Integer.parseInt(strings.next()); n > 0; n--) {
+                    String name = strings.next();
+                    a.addAttribute("", name, name, "CDATA", strings.next());
+                }
+                parser.startElement("", s, s, a);
+            }
+        }
+        queueIterator = queue.iterator();
+        return this;
+    }
+
     public Iterable<Object> startWithValidation(final Reader in, String namespace, String schemaSource) throws SAXException {
         try {
             SchemaFactory factory =  SchemaFactory.newInstance("http://www.w3.org/2001/XMLSchema");
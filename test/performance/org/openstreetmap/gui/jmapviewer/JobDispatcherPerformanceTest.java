@@ -0,0 +1,201 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.gui.jmapviewer;
+
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.gui.jmapviewer.interfaces.TileCache;
+import org.openstreetmap.gui.jmapviewer.interfaces.TileLoaderListener;
+import org.openstreetmap.gui.jmapviewer.interfaces.TileSource;
+import org.openstreetmap.gui.jmapviewer.tilesources.TMSTileSource;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Replays a pan and zoom trace against a local stub tile server and reports the time until the
+ * last screen of the trace is fully loaded, with the tile jobs run in LIFO order like before
+ * and with the viewport-aware order of {@link JobDispatcher}.
+ */
+public class JobDispatcherPerformanceTest {
+
+    /** The response time of the stub server in milliseconds */
+    private static final int SERVER_DELAY = 300;
+    /** The time in milliseconds between two steps of the trace */
+    private static final int STEP_DELAY = 50;
+    private static final int SCREEN_WIDTH = 8;
+    private static final int SCREEN_HEIGHT = 5;
+
+    private static HttpServer server;
+    private static final AtomicInteger requests = new AtomicInteger();
+    private static final AtomicInteger running = new AtomicInteger();
+    private static final AtomicInteger maxRunning = new AtomicInteger();
+
+    /**
+     * Starts the stub tile server, answering every request with the same tile after a delay.
+     * @throws IOException if the server cannot be started
+     */
+    @BeforeClass
+    public static void startServer() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB), "png", out);
+        final byte[] png = out.toByteArray();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                int r = running.incrementAndGet();
+                while (true) {
+                    int max = maxRunning.get();
+                    if (r <= max || maxRunning.compareAndSet(max, r)) {
+                        break;
+                    }
+                }
+                try {
+                    Thread.sleep(SERVER_DELAY);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                exchange.getResponseHeaders().add("Content-Type", "image/png");
+                exchange.sendResponseHeaders(200, png.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(png);
+                os.close();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        JobDispatcher.setMaxWorkers(25);
+        JobDispatcher.getInstance().setLIFO(true);
+    }
+
+    /**
+     * Stops the stub tile server.
+     */
+    @AfterClass
+    public static void stopServer() {
+        server.stop(0);
+    }
+
+    /**
+     * A map view requesting the tiles of the screen, like TMSLayer does.
+     */
+    private static class Replay implements TileLoaderListener {
+        final TileSource source = new TMSTileSource("stub", "http://127.0.0.1:" + server.getAddress().getPort(), 0, 18);
+        final OsmTileLoader loader = new OsmTileLoader(this);
+        final Map<String, Tile> tiles = new HashMap<String, Tile>();
+        final List<Tile> screen = new ArrayList<Tile>();
+        final boolean useViewport;
+
+        Replay(boolean useViewport) {
+            this.useViewport = useViewport;
+        }
+
+        void show(int zoom, int x0, int y0) {
+            screen.clear();
+            for (int x = x0; x < x0 + SCREEN_WIDTH; x++) {
+                for (int y = y0; y < y0 + SCREEN_HEIGHT; y++) {
+                    String key = Tile.getTileKey(source, x, y, zoom);
+                    Tile tile = tiles.get(key);
+                    if (tile == null) {
+                        tile = new Tile(source, x, y, zoom);
+                        tiles.put(key, tile);
+                        JobDispatcher.getInstance().addJob(loader.createTileLoaderJob(tile));
+                    }
+                    screen.add(tile);
+                }
+            }
+            if (useViewport) {
+                JobDispatcher.getInstance().setViewport(
+                        new TileViewport(source, zoom, x0, y0, x0 + SCREEN_WIDTH - 1, y0 + SCREEN_HEIGHT - 1));
+            }
+        }
+
+        synchronized boolean isScreenLoaded() {
+            for (Tile tile : screen) {
+                if (!tile.isLoaded())
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        public synchronized void tileLoadingFinished(Tile tile, boolean success) {
+        }
+
+        @Override
+        public TileCache getTileCache() {
+            return null;
+        }
+    }
+
+    /**
+     * Replays the trace: a fast pan at zoom 15, a zoom in, a pan at zoom 16 and a zoom out
+     * to a screen whose tiles were requested during the first pan.
+     * @return the time in milliseconds until the last screen is loaded
+     */
+    private static long replay(Replay replay) throws InterruptedException {
+        int x = 17000;
+        int y = 11000;
+        for (int i = 0; i < 20; i++) {
+            replay.show(15, x + 2 * i, y + i / 4);
+            Thread.sleep(STEP_DELAY);
+        }
+        x = 2 * (x + 40);
+        y = 2 * (y + 5);
+        for (int i = 0; i < 10; i++) {
+            replay.show(16, x + i, y);
+            Thread.sleep(STEP_DELAY);
+        }
+        replay.show(15, x / 2 - 4, y / 2);
+        long start = System.currentTimeMillis();
+        while (!replay.isScreenLoaded()) {
+            Thread.sleep(5);
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    private static void run(String name, boolean useViewport, int maxJobsPerHost) throws InterruptedException {
+        JobDispatcher.setMaxJobsPerHost(maxJobsPerHost);
+        requests.set(0);
+        maxRunning.set(0);
+        long time = replay(new Replay(useViewport));
+        int loaded = requests.get();
+        JobDispatcher.getInstance().cancelOutstandingJobs();
+        while (running.get() > 0) {
+            Thread.sleep(10);
+        }
+        System.out.println(name + ": last screen loaded after " + time + " ms, " + loaded
+                + " tiles requested by then, at most " + maxRunning.get() + " concurrent requests");
+    }
+
+    @Test
+    public void testPanTrace() throws Exception {
+        // warm up
+        run("warm up", true, Integer.MAX_VALUE);
+        run("LIFO", false, Integer.MAX_VALUE);
+        run("viewport", true, Integer.MAX_VALUE);
+        run("LIFO, 8 per host", false, 8);
+        run("viewport, 8 per host", true, 8);
+        assertTrue(maxRunning.get() <= 8);
+    }
+}
@@ -0,0 +1,103 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.projection.Projections;
+
+/**
+ * Compares {@link QuadBuckets} and {@link PackedRTree} on large synthetic data sets.
+ * The number of nodes can be set with -Djosm.perf.nodes=N (default 2 000 000).
+ */
+public class SpatialIndexPerformanceTest {
+
+    private static final int NODE_COUNT = Integer.getInteger("josm.perf.nodes", 2000000);
+    private static final int SEARCH_COUNT = 20000;
+
+    private static List<Node> nodes;
+    private static List<Way> ways;
+    private static BBox[] searches;
+
+    @BeforeClass
+    public static void init() {
+        Main.pref = new Preferences();
+        Main.setProjection(Projections.getProjectionByCode("EPSG:3857")); // Mercator
+        Random random = new Random(12345);
+        nodes = new ArrayList<Node>(NODE_COUNT);
+        // Clustered like real data: a few dense "cities" in a 10x10 degree extract
+        double[][] cities = new double[50][];
+        for (int i = 0; i < cities.length; i++) {
+            cities[i] = new double[] {random.nextDouble() * 10, random.nextDouble() * 10, 0.01 + random.nextDouble() * 0.3};
+        }
+        for (int i = 0; i < NODE_COUNT; i++) {
+            double[] city = cities[random.nextInt(cities.length)];
+            double lat = Math.max(0, Math.min(10, city[0] + random.nextGaussian() * city[2]));
+            double lon = Math.max(0, Math.min(10, city[1] + random.nextGaussian() * city[2]));
+            nodes.add(new Node(new LatLon(lat, lon)));
+        }
+        // Short ways starting at every fifth node
+        ways = new ArrayList<Way>(NODE_COUNT / 5);
+        for (int i = 0; i < NODE_COUNT; i += 5) {
+            LatLon start = nodes.get(i).getCoor();
+            Node end = new Node(new LatLon(start.lat() + random.nextDouble() * 0.002, start.lon() + random.nextDouble() * 0.002));
+            Way w = new Way();
+            w.setNodes(Arrays.asList(nodes.get(i), end));
+            ways.add(w);
+        }
+        searches = new BBox[SEARCH_COUNT];
+        for (int i = 0; i < SEARCH_COUNT; i++) {
+            double[] city = cities[random.nextInt(cities.length)];
+            double lat = city[0] + random.nextGaussian() * city[2];
+            double lon = city[1] + random.nextGaussian() * city[2];
+            double size = 0.001 + random.nextDouble() * 0.02;
+            searches[i] = new BBox(lon, lat, lon + size, lat + size);
+        }
+    }
+
+    private static <T extends OsmPrimitive> void run(String name, SpatialIndex<T> index, List<T> content) {
+        System.gc();
+        Runtime rt = Runtime.getRuntime();
+        long memBefore = rt.totalMemory() - rt.freeMemory();
+        long start = System.nanoTime();
+        for (T o : content) {
+            index.add(o);
+        }
+        index.buildIndex();
+        long built = System.nanoTime();
+        System.gc();
+        long memAfter = rt.totalMemory() - rt.freeMemory();
+        long found = 0;
+        long searchStart = System.nanoTime();
+        for (BBox bbox : searches) {
+            found += index.search(bbox).size();
+        }
+        long end = System.nanoTime();
+        System.out.println(String.format("%-22s %9d objects: build %7.1f ms, %d searches %7.1f ms (%d hits), ~%d MB",
+                name, content.size(), (built - start) / 1e6, searches.length, (end - searchStart) / 1e6, found,
+                (memAfter - memBefore) / (1024 * 1024)));
+    }
+
+    @Test
+    public void testNodes() {
+        for (int i = 0; i < 2; i++) { // first round is warm up
+            run("QuadBuckets<Node>", new QuadBuckets<Node>(), nodes);
+            run("PackedRTree<Node>", new PackedRTree<Node>(), nodes);
+        }
+    }
+
+    @Test
+    public void testWays() {
+        for (int i = 0; i < 2; i++) {
+            run("QuadBuckets<Way>", new QuadBuckets<Way>(), ways);
+            run("PackedRTree<Way>", new PackedRTree<Way>(), ways);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collection;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.actions.search.SearchCompiler;
+import org.openstreetmap.josm.actions.search.SearchCompiler.Match;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.projection.Projections;
+
+/**
+ * Compares a search for a rare tag with a full scan of the data set and with a {@link TagIndex} lookup.
+ */
+public class TagIndexPerformanceTest {
+
+    private static final int NODES = 500000;
+    private static final int ITERATIONS = 10;
+
+    private static DataSet ds;
+
+    @BeforeClass
+    public static void load() {
+        Main.pref = new Preferences();
+        Main.setProjection(Projections.getProjectionByCode("EPSG:3857")); // Mercator
+        ds = new DataSet();
+        ds.beginUpdate();
+        try {
+            for (int i = 0; i < NODES; i++) {
+                Node n = new Node(new LatLon(i % 1000 / 100.0, i / 1000 / 100.0));
+                n.put("amenity", i % 10000 == 0 ? "school" : "bench");
+                n.put("ref", Integer.toString(i % 1000));
+                ds.addPrimitive(n);
+            }
+        } finally {
+            ds.endUpdate();
+        }
+    }
+
+    @Test
+    public void testRareTag() throws Exception {
+        Match m = SearchCompiler.optimize(SearchCompiler.compile("amenity=school", false, false));
+
+        long start = System.nanoTime();
+        int scanned = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            scanned = 0;
+            for (OsmPrimitive osm : ds.allNonDeletedCompletePrimitives()) {
+                if (m.match(osm)) {
+                    scanned++;
+                }
+            }
+        }
+        long scanTime = (System.nanoTime() - start) / ITERATIONS;
+
+        start = System.nanoTime();
+        ds.getTagIndex().getKeys();
+        long buildTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int indexed = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            indexed = 0;
+            Collection<OsmPrimitive> candidates = SearchCompiler.getIndexedCandidates(m, ds);
+            for (OsmPrimitive osm : candidates) {
+                if (m.match(osm)) {
+                    indexed++;
+                }
+            }
+        }
+        long indexTime = (System.nanoTime() - start) / ITERATIONS;
+
+        assertEquals(scanned, indexed);
+        System.out.println(String.format("%d primitives, %d matches: full scan %.2f ms, index %.3f ms (built in %d ms)",
+                NODES, indexed, scanTime / 1e6, indexTime / 1e6, buildTime / 1000000));
+    }
+}
@@ -0,0 +1,88 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.mappaint.mapcss;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.gui.mappaint.MultiCascade;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.io.OsmReader;
+
+/**
+ * Measures style computation for real data with the MapCSS style sheets in styles/,
+ * with and without {@link MapCSSRuleIndex}.
+ */
+public class MapCSSStyleSourcePerformanceTest {
+
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int ITERATIONS = 10;
+
+    private static List<OsmPrimitive> primitives;
+    private static List<File> styles;
+
+    @BeforeClass
+    public static void load() throws Exception {
+        Main.pref = new Preferences() {
+            @Override
+            public void save() {
+                // keep the test preferences untouched
+            }
+        };
+        Main.setProjection(Projections.getProjectionByCode("EPSG:3857")); // Mercator
+        DataSet ds = OsmReader.parseDataSet(new FileInputStream("data_nodist/neubrandenburg.osm"), NullProgressMonitor.INSTANCE);
+        primitives = new ArrayList<OsmPrimitive>(ds.allPrimitives());
+        styles = new ArrayList<File>();
+        for (File dir : new File("styles").listFiles()) {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    if (f.getName().endsWith(".mapcss")) {
+                        styles.add(f);
+                    }
+                }
+            }
+        }
+    }
+
+    private static long run(MapCSSStyleSource source, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (OsmPrimitive osm : primitives) {
+                source.apply(new MultiCascade(), osm, 10, null, false);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static MapCSSStyleSource loadStyle(File style, boolean index) {
+        Main.pref.put(MapCSSStyleSource.PROP_RULE_INDEX.getKey(), index);
+        MapCSSStyleSource source = new MapCSSStyleSource(style.getPath(), style.getName(), null);
+        source.loadStyleSource();
+        return source;
+    }
+
+    @Test
+    public void testApply() {
+        for (File style : styles) {
+            MapCSSStyleSource linear = loadStyle(style, false);
+            MapCSSStyleSource indexed = loadStyle(style, true);
+            run(linear, WARMUP_ITERATIONS);
+            run(indexed, WARMUP_ITERATIONS);
+            long linearTime = run(linear, ITERATIONS);
+            long indexedTime = run(indexed, ITERATIONS);
+            System.out.println(String.format("%s (%d rules, %d primitives): linear %d ms, indexed %d ms per pass, %.1fx",
+                    style.getName(), linear.rules.size(), primitives.size(),
+                    linearTime / ITERATIONS / 1000000, indexedTime / ITERATIONS / 1000000,
+                    (double) linearTime / indexedTime));
+        }
+    }
+}
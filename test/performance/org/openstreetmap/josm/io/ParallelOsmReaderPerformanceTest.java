@@ -0,0 +1,64 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+
+/**
+ * Compares the reading time of {@link OsmReader} and {@link ParallelOsmReader}.
+ */
+public class ParallelOsmReaderPerformanceTest {
+
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int ITERATIONS = 10;
+
+    private static byte[] data;
+
+    @BeforeClass
+    public static void load() throws Exception {
+        Main.pref = new Preferences();
+        Main.setProjection(Projections.getProjectionByCode("EPSG:3857")); // Mercator
+        File file = new File("data_nodist/neubrandenburg.osm");
+        data = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int len = 0;
+            while (len < data.length) {
+                len += in.read(data, len, data.length - len);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long run(boolean parallel, int iterations) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            if (parallel) {
+                ParallelOsmReader.parseDataSet(new ByteArrayInputStream(data), NullProgressMonitor.INSTANCE);
+            } else {
+                OsmReader.parseDataSet(new ByteArrayInputStream(data), NullProgressMonitor.INSTANCE);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        run(false, WARMUP_ITERATIONS);
+        run(true, WARMUP_ITERATIONS);
+        long sequential = run(false, ITERATIONS);
+        long parallel = run(true, ITERATIONS);
+        System.out.println(String.format("%d KiB on %d processors: OsmReader %d ms, ParallelOsmReader %d ms",
+                data.length / 1024, Runtime.getRuntime().availableProcessors(),
+                sequential / ITERATIONS / 1000000, parallel / ITERATIONS / 1000000));
+    }
+}
@@ -0,0 +1,76 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+
+/**
+ * Compares the reading time of the same data as XML with {@link ParallelOsmReader} and as PBF with {@link PbfReader}.
+ */
+public class PbfReaderPerformanceTest {
+
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int ITERATIONS = 10;
+
+    private static byte[] xml;
+    private static byte[] pbf;
+
+    @BeforeClass
+    public static void load() throws Exception {
+        Main.pref = new Preferences();
+        Main.setProjection(Projections.getProjectionByCode("EPSG:3857")); // Mercator
+        File file = new File("data_nodist/neubrandenburg.osm");
+        xml = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int len = 0;
+            while (len < xml.length) {
+                len += in.read(xml, len, xml.length - len);
+            }
+        } finally {
+            in.close();
+        }
+        DataSet ds = OsmReader.parseDataSet(new ByteArrayInputStream(xml), NullProgressMonitor.INSTANCE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PbfWriter w = new PbfWriter(out);
+        try {
+            w.writeData(ds);
+        } finally {
+            w.close();
+        }
+        pbf = out.toByteArray();
+    }
+
+    private static long run(boolean binary, int iterations) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            if (binary) {
+                PbfReader.parseDataSet(new ByteArrayInputStream(pbf), NullProgressMonitor.INSTANCE);
+            } else {
+                ParallelOsmReader.parseDataSet(new ByteArrayInputStream(xml), NullProgressMonitor.INSTANCE);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        run(false, WARMUP_ITERATIONS);
+        run(true, WARMUP_ITERATIONS);
+        long xmlTime = run(false, ITERATIONS);
+        long pbfTime = run(true, ITERATIONS);
+        System.out.println(String.format("XML %d KiB in %d ms, PBF %d KiB in %d ms",
+                xml.length / 1024, xmlTime / ITERATIONS / 1000000,
+                pbf.length / 1024, pbfTime / ITERATIONS / 1000000));
+    }
+}
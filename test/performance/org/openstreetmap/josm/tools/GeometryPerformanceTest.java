@@ -0,0 +1,152 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.tools;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.data.validation.util.ValUtil;
+
+/**
+ * Compares the plane sweep of {@link Geometry#findSegmentIntersections} with the grid of cells
+ * formerly used by the crossing ways test, on a synthetic country-scale highway network.
+ * Run with a heap of at least 2 GB.
+ */
+public class GeometryPerformanceTest {
+
+    /** The size of the network in metres */
+    private static final double EXTENT = 300000;
+    /** The number of streets in each direction */
+    private static final int STREETS = 700;
+    /** The number of long segments, like motorways or ferry routes without intermediate nodes */
+    private static final int LONG_SEGMENTS = 500;
+    /** The grid detail of the validator with Mercator, 100 m cells */
+    private static final double GRID_DETAIL = 0.01;
+
+    private static final int ITERATIONS = 3;
+
+    private static List<Node[]> segments;
+    private static double[] coords;
+
+    /**
+     * Creates a grid of slightly curved streets, with a node at each junction and between junctions,
+     * and long segments crossing the whole network.
+     */
+    @BeforeClass
+    public static void createNetwork() {
+        Main.pref = new Preferences();
+        Main.setProjection(Projections.getProjectionByCode("EPSG:3857")); // Mercator
+        Random random = new Random(42);
+        double step = EXTENT / STREETS;
+        segments = new ArrayList<Node[]>();
+        for (int dir = 0; dir < 2; dir++) {
+            for (int i = 0; i < STREETS; i++) {
+                Node last = null;
+                for (int j = 0; j < 2 * STREETS; j++) {
+                    double along = j * step / 2;
+                    double across = i * step + (j % 2 == 0 ? 0 : random.nextDouble() * step / 4);
+                    Node n = new Node(dir == 0 ? new EastNorth(along, across) : new EastNorth(across, along));
+                    if (last != null) {
+                        segments.add(new Node[] {last, n});
+                    }
+                    last = n;
+                }
+            }
+        }
+        for (int i = 0; i < LONG_SEGMENTS; i++) {
+            segments.add(new Node[] {
+                    new Node(new EastNorth(random.nextDouble() * EXTENT, random.nextDouble() * EXTENT)),
+                    new Node(new EastNorth(random.nextDouble() * EXTENT, random.nextDouble() * EXTENT))});
+        }
+        coords = new double[4 * segments.size()];
+        for (int i = 0; i < segments.size(); i++) {
+            EastNorth en1 = segments.get(i)[0].getEastNorth();
+            EastNorth en2 = segments.get(i)[1].getEastNorth();
+            coords[4 * i] = en1.east();
+            coords[4 * i + 1] = en1.north();
+            coords[4 * i + 2] = en2.east();
+            coords[4 * i + 3] = en2.north();
+        }
+    }
+
+    private static int sweep() {
+        // the coordinates are copied from the nodes like in the crossing ways test
+        double[] copy = new double[4 * segments.size()];
+        for (int i = 0; i < segments.size(); i++) {
+            EastNorth en1 = segments.get(i)[0].getEastNorth();
+            EastNorth en2 = segments.get(i)[1].getEastNorth();
+            copy[4 * i] = en1.east();
+            copy[4 * i + 1] = en1.north();
+            copy[4 * i + 2] = en2.east();
+            copy[4 * i + 3] = en2.north();
+        }
+        final int[] count = new int[1];
+        Geometry.findSegmentIntersections(copy, new Geometry.SegmentIntersectionHandler() {
+            @Override
+            public boolean intersection(int first, int second) {
+                count[0]++;
+                return true;
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * Hashes the segments into the grid cells they cross and compares the segments of each cell.
+     */
+    private static int grid() {
+        Map<Point2D, List<Integer>> cells = new HashMap<Point2D, List<Integer>>();
+        Set<Long> pairs = new HashSet<Long>();
+        for (int s = 0; s < segments.size(); s++) {
+            for (Point2D cell : ValUtil.getSegmentCells(segments.get(s)[0], segments.get(s)[1], GRID_DETAIL)) {
+                List<Integer> cellSegments = cells.get(cell);
+                if (cellSegments == null) {
+                    cellSegments = new ArrayList<Integer>();
+                    cells.put(cell, cellSegments);
+                }
+                for (int t : cellSegments) {
+                    if (Line2D.linesIntersect(coords[4 * s], coords[4 * s + 1], coords[4 * s + 2], coords[4 * s + 3],
+                            coords[4 * t], coords[4 * t + 1], coords[4 * t + 2], coords[4 * t + 3])) {
+                        pairs.add((long) t << 32 | s);
+                    }
+                }
+                cellSegments.add(s);
+            }
+        }
+        return pairs.size();
+    }
+
+    @Test
+    public void testFindSegmentIntersections() {
+        int expected = sweep();
+        assertEquals(expected, grid());
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sweep();
+        }
+        long sweepTime = (System.nanoTime() - start) / ITERATIONS;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            grid();
+        }
+        long gridTime = (System.nanoTime() - start) / ITERATIONS;
+        System.out.println(String.format("%d segments, %d intersecting pairs: plane sweep %d ms, grid %d ms",
+                segments.size(), expected, sweepTime / 1000000, gridTime / 1000000));
+    }
+}
@@ -0,0 +1,126 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.gui.jmapviewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.openstreetmap.gui.jmapviewer.interfaces.TileSource;
+import org.openstreetmap.gui.jmapviewer.tilesources.OsmTileSource;
+
+/**
+ * Unit tests of {@link ConcurrentTileCache} class.
+ */
+public class ConcurrentTileCacheTest {
+
+    /** The size of a decoded 256x256 ARGB tile */
+    private static final long TILE_BYTES = 256 * 256 * 4;
+
+    private static final TileSource SOURCE = new OsmTileSource.Mapnik();
+
+    private static Tile createTile(int x, int y, int zoom) {
+        Tile tile = new Tile(SOURCE, x, y, zoom, new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB));
+        tile.setLoaded(true);
+        return tile;
+    }
+
+    @Test
+    public void testByteBudget() {
+        ConcurrentTileCache cache = new ConcurrentTileCache(10 * TILE_BYTES);
+        for (int i = 0; i < 10; i++) {
+            cache.addTile(createTile(i, 0, 10));
+        }
+        assertEquals(10, cache.getTileCount());
+        assertEquals(10 * TILE_BYTES, cache.getUsedBytes());
+        // the first tile is the most recently used one now
+        assertNotNull(cache.getTile(SOURCE, 0, 0, 10));
+        cache.addTile(createTile(10, 0, 10));
+        assertTrue(cache.getUsedBytes() <= 9 * TILE_BYTES);
+        assertNotNull(cache.getTile(SOURCE, 0, 0, 10));
+        assertNotNull(cache.getTile(SOURCE, 10, 0, 10));
+        assertNull(cache.getTile(SOURCE, 1, 0, 10));
+
+        // replacing a tile does not count it twice
+        cache.addTile(createTile(10, 0, 10));
+        assertEquals(cache.getTileCount() * TILE_BYTES, cache.getUsedBytes());
+
+        cache.clear();
+        assertEquals(0, cache.getTileCount());
+        assertEquals(0, cache.getUsedBytes());
+    }
+
+    @Test
+    public void testAddTileIfAbsent() {
+        ConcurrentTileCache cache = new ConcurrentTileCache(10 * TILE_BYTES);
+        Tile tile = createTile(1, 2, 10);
+        assertNull(cache.addTileIfAbsent(tile));
+        assertSame(tile, cache.addTileIfAbsent(createTile(1, 2, 10)));
+        assertSame(tile, cache.getTile(SOURCE, 1, 2, 10));
+        assertEquals(1, cache.getTileCount());
+        assertEquals(TILE_BYTES, cache.getUsedBytes());
+    }
+
+    @Test
+    public void testViewportEvictedLast() {
+        ConcurrentTileCache cache = new ConcurrentTileCache(20 * TILE_BYTES);
+        // the viewport tiles and the tile covering them at a lower zoom level are the oldest ones
+        for (int x = 4; x < 8; x++) {
+            cache.addTile(createTile(x, 4, 10));
+        }
+        cache.addTile(createTile(1, 1, 8));
+        cache.setViewport(new TileViewport(SOURCE, 10, 4, 4, 7, 4));
+        for (int x = 0; x < 20; x++) {
+            cache.addTile(createTile(x, 100, 10));
+        }
+        for (int x = 4; x < 8; x++) {
+            assertNotNull(cache.getTile(SOURCE, x, 4, 10));
+        }
+        assertNotNull(cache.getTile(SOURCE, 1, 1, 8));
+        assertNull(cache.getTile(SOURCE, 0, 100, 10));
+        assertTrue(cache.getUsedBytes() <= 20 * TILE_BYTES);
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final ConcurrentTileCache cache = new ConcurrentTileCache(50 * TILE_BYTES);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < 4; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int i = 0; i < 2000; i++) {
+                            int x = (i * 7 + thread) % 200;
+                            if (cache.getTile(SOURCE, x, thread, 12) == null) {
+                                cache.addTileIfAbsent(createTile(x, thread, 12));
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> f : futures) {
+                f.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(cache.getTileCount() * TILE_BYTES, cache.getUsedBytes());
+        // an eviction may have been skipped while another thread was evicting
+        cache.setMaxBytes(50 * TILE_BYTES);
+        assertTrue(cache.getUsedBytes() <= 50 * TILE_BYTES);
+    }
+}
@@ -0,0 +1,92 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.gui.jmapviewer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openstreetmap.gui.jmapviewer.MappedTileStore.StoredTile;
+
+/**
+ * Unit tests of {@link MappedTileStore} class.
+ */
+public class MappedTileStoreTest {
+
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    private static byte[] data(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + seed);
+        }
+        return data;
+    }
+
+    @Test
+    public void testPutGetReopen() throws IOException {
+        MappedTileStore store = new MappedTileStore(dir.getRoot(), 1 << 30);
+        assertNull(store.get(12, 5, 7));
+        store.put(12, 5, 7, data(1000, 1), Collections.singletonMap("etag", "abc"), 1000);
+        store.put(12, 5, 8, data(500, 2), null, 2000);
+        store.put(14, 0, 0, null, Collections.singletonMap("tile-info", "no-tile"), 3000);
+        // the replaced version of the first tile stays in the segment until a compaction
+        store.put(12, 5, 7, data(800, 3), Collections.singletonMap("etag", "def"), 4000);
+        store.touch(12, 5, 8, 5000);
+        assertEquals(3, store.getTileCount());
+
+        // a new store of the same directory finds the latest version of each tile
+        MappedTileStore reopened = new MappedTileStore(dir.getRoot(), 1 << 30);
+        assertEquals(3, reopened.getTileCount());
+        StoredTile t = reopened.get(12, 5, 7);
+        assertArrayEquals(data(800, 3), t.data);
+        assertEquals("def", t.metadata.get("etag"));
+        assertEquals(4000, t.timestamp);
+        t = reopened.get(12, 5, 8);
+        assertArrayEquals(data(500, 2), t.data);
+        assertTrue(t.metadata.isEmpty());
+        assertEquals(5000, t.timestamp);
+        t = reopened.get(14, 0, 0);
+        assertNull(t.data);
+        assertEquals("no-tile", t.metadata.get("tile-info"));
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        long maxSize = 100 * 10000;
+        MappedTileStore store = new MappedTileStore(dir.getRoot(), maxSize);
+        for (int i = 0; i < 300; i++) {
+            store.put(16, i, 0, data(10000, i), null, i);
+            // tile 0 is checked against the server again and again and is kept
+            store.touch(16, 0, 0, i);
+            assertTrue(store.getSize() <= maxSize);
+        }
+        assertNotNull(store.get(16, 0, 0));
+        assertNull(store.get(16, 1, 0));
+        assertArrayEquals(data(10000, 299), store.get(16, 299, 0).data);
+
+        store.compact();
+        assertTrue(store.getSize() <= maxSize / 4 * 3);
+        assertArrayEquals(data(10000, 299), store.get(16, 299, 0).data);
+        assertEquals(store.getTileCount(), new MappedTileStore(dir.getRoot(), maxSize).getTileCount());
+    }
+
+    @Test
+    public void testClear() throws IOException {
+        MappedTileStore store = new MappedTileStore(dir.getRoot(), 1 << 30);
+        store.put(3, 1, 2, data(100, 0), null, 0);
+        assertEquals(1, store.getSegmentFiles().length);
+        store.clear();
+        assertEquals(0, store.getTileCount());
+        assertNull(store.get(3, 1, 2));
+        assertEquals(0, new MappedTileStore(dir.getRoot(), 1 << 30).getTileCount());
+    }
+}
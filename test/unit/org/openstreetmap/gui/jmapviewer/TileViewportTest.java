@@ -0,0 +1,77 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.gui.jmapviewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.ref.WeakReference;
+
+import org.junit.Test;
+import org.openstreetmap.gui.jmapviewer.interfaces.TileSource;
+import org.openstreetmap.gui.jmapviewer.tilesources.OsmTileSource;
+
+/**
+ * Unit tests of {@link TileViewport} class.
+ */
+public class TileViewportTest {
+
+    private static final TileSource SOURCE = new OsmTileSource.Mapnik();
+
+    private static final TileViewport VIEWPORT = new TileViewport(SOURCE, 10, 4, 4, 7, 5);
+
+    @Test
+    public void testCovers() {
+        assertTrue(VIEWPORT.covers(new Tile(SOURCE, 4, 4, 10)));
+        assertTrue(VIEWPORT.covers(new Tile(SOURCE, 7, 5, 10)));
+        assertFalse(VIEWPORT.covers(new Tile(SOURCE, 8, 5, 10)));
+        // the tiles of lower zoom levels covering the range
+        assertTrue(VIEWPORT.covers(new Tile(SOURCE, 3, 2, 9)));
+        assertTrue(VIEWPORT.covers(new Tile(SOURCE, 0, 0, 7)));
+        assertFalse(VIEWPORT.covers(new Tile(SOURCE, 4, 2, 9)));
+        // the tiles of higher zoom levels are not needed as placeholders
+        assertFalse(VIEWPORT.covers(new Tile(SOURCE, 8, 8, 11)));
+        assertFalse(VIEWPORT.covers(new Tile(new OsmTileSource.CycleMap(), 4, 4, 10)));
+    }
+
+    @Test
+    public void testIntersects() {
+        assertTrue(VIEWPORT.intersects(new Tile(SOURCE, 5, 5, 10)));
+        assertTrue(VIEWPORT.intersects(new Tile(SOURCE, 2, 2, 9)));
+        assertTrue(VIEWPORT.intersects(new Tile(SOURCE, 8, 8, 11)));
+        assertTrue(VIEWPORT.intersects(new Tile(SOURCE, 15, 11, 11)));
+        assertFalse(VIEWPORT.intersects(new Tile(SOURCE, 16, 11, 11)));
+        assertFalse(VIEWPORT.intersects(new Tile(SOURCE, 7, 6, 10)));
+    }
+
+    @Test
+    public void testDistance() {
+        // the centre of the range is at (6, 5) in tiles of zoom 10
+        assertEquals(Math.hypot(0.5, 0.5), VIEWPORT.distance(new Tile(SOURCE, 5, 4, 10)), 1e-9);
+        assertEquals(1, VIEWPORT.distance(new Tile(SOURCE, 3, 2, 9)), 1e-9);
+        assertEquals(Math.hypot(10.5, 0.5), VIEWPORT.distance(new Tile(SOURCE, 16, 5, 10)), 1e-9);
+    }
+
+    @Test
+    public void testEquals() {
+        assertEquals(VIEWPORT, new TileViewport(SOURCE, 10, 4, 4, 7, 5));
+        assertEquals(VIEWPORT.hashCode(), new TileViewport(SOURCE, 10, 4, 4, 7, 5).hashCode());
+        assertFalse(VIEWPORT.equals(new TileViewport(SOURCE, 10, 4, 4, 7, 6)));
+        assertFalse(VIEWPORT.equals(new TileViewport(new OsmTileSource.Mapnik(), 10, 4, 4, 7, 5)));
+    }
+
+    @Test
+    public void testSourceNotReferenced() throws InterruptedException {
+        TileSource source = new OsmTileSource.Mapnik();
+        TileViewport viewport = new TileViewport(source, 10, 4, 4, 7, 5);
+        WeakReference<TileSource> ref = new WeakReference<TileSource>(source);
+        source = null;
+        for (int i = 0; i < 10 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(ref.get());
+        assertNull(viewport.getSource());
+    }
+}
@@ -0,0 +1,140 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.actions.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.actions.search.SearchCompiler.And;
+import org.openstreetmap.josm.actions.search.SearchCompiler.Match;
+import org.openstreetmap.josm.actions.search.SearchCompiler.Or;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.io.OsmReader;
+
+/**
+ * Unit tests of {@link SearchCompiler#optimize}, {@link SearchCompiler#getIndexedCandidates} and
+ * {@link SearchCompiler#match(Match, List)}.
+ */
+public class SearchCompilerTest {
+
+    private static DataSet ds;
+    private static List<OsmPrimitive> primitives;
+
+    /**
+     * Setup test.
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        Main.pref = new Preferences() {
+            @Override
+            public void save() {
+                // keep the test preferences untouched
+            }
+        };
+        Main.setProjection(Projections.getProjectionByCode("EPSG:3857")); // Mercator
+        ds = OsmReader.parseDataSet(new FileInputStream("data_nodist/neubrandenburg.osm"), NullProgressMonitor.INSTANCE);
+        primitives = new ArrayList<OsmPrimitive>(ds.allPrimitives());
+    }
+
+    @Test
+    public void testReorder() throws Exception {
+        Match m = SearchCompiler.optimize(SearchCompiler.compile("child(type:relation) name:a type:way", false, false));
+        assertTrue(m instanceof And);
+        assertTrue(((And) m).getLhs().toString().startsWith("type="));
+        Match rhs = ((And) m).getRhs();
+        assertTrue(rhs instanceof And);
+        assertEquals("name=a", ((And) rhs).getLhs().toString());
+        assertTrue(((And) rhs).getRhs().toString().startsWith("child("));
+
+        m = SearchCompiler.optimize(SearchCompiler.compile("(parent(highway=*) | modified) -new", false, false));
+        assertTrue(m instanceof And);
+        assertEquals("!new", ((And) m).getLhs().toString());
+        Match or = ((And) m).getRhs();
+        assertTrue(or instanceof Or);
+        assertEquals("modified", ((Or) or).getLhs().toString());
+    }
+
+    /**
+     * Without a map view, the view bounds are unknown.
+     */
+    @Test
+    public void testMatchBounds() throws Exception {
+        assertNull(SearchCompiler.getMatchBounds(SearchCompiler.optimize(SearchCompiler.compile("inview", false, false))));
+        assertNull(SearchCompiler.getMatchBounds(SearchCompiler.optimize(SearchCompiler.compile("building=*", false, false))));
+        assertNull(SearchCompiler.getMatchBounds(SearchCompiler.optimize(SearchCompiler.compile("-inview", false, false))));
+    }
+
+    @Test
+    public void testSameResults() throws Exception {
+        String[] searches = {
+                "highway=* type:way",
+                "child(type:relation) name:a",
+                "parent(amenity=*) | building=* modified",
+                "-(type:node untagged) nodes:3-10",
+                "(building | landuse) ^ closed",
+                "role:outer | role:inner",
+        };
+        for (String search : searches) {
+            Match compiled = SearchCompiler.compile(search, false, false);
+            Match optimized = SearchCompiler.optimize(compiled);
+            assertNotNull(optimized);
+            boolean[] expected = new boolean[primitives.size()];
+            int found = 0;
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = compiled.match(primitives.get(i));
+                if (expected[i]) {
+                    found++;
+                }
+            }
+            assertTrue(search, found > 0);
+            assertEquals(search, Arrays.toString(expected), Arrays.toString(SearchCompiler.match(optimized, primitives)));
+        }
+    }
+
+    @Test
+    public void testIndexedCandidates() throws Exception {
+        assertNull(SearchCompiler.getIndexedCandidates(SearchCompiler.compile("name:a", false, false), ds));
+        assertNull(SearchCompiler.getIndexedCandidates(SearchCompiler.compile("highway=* | modified", false, false), ds));
+        String[] searches = {
+                "highway=residential",
+                "building=* type:way",
+                "amenity=* | shop=*",
+                "highway=* name=*",
+        };
+        for (String search : searches) {
+            Match m = SearchCompiler.optimize(SearchCompiler.compile(search, false, false));
+            Set<OsmPrimitive> expected = new HashSet<OsmPrimitive>();
+            for (OsmPrimitive osm : ds.allNonDeletedCompletePrimitives()) {
+                if (m.match(osm)) {
+                    expected.add(osm);
+                }
+            }
+            assertTrue(search, !expected.isEmpty());
+            Collection<OsmPrimitive> candidates = SearchCompiler.getIndexedCandidates(m, ds);
+            assertNotNull(search, candidates);
+            Set<OsmPrimitive> found = new HashSet<OsmPrimitive>();
+            for (OsmPrimitive osm : candidates) {
+                if (m.match(osm)) {
+                    found.add(osm);
+                }
+            }
+            assertEquals(search, expected, found);
+        }
+    }
+}
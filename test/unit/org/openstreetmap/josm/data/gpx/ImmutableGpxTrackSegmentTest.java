@@ -0,0 +1,187 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.gpx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.projection.Projections;
+
+/**
+ * Unit tests of {@link ImmutableGpxTrackSegment} class and its indexes.
+ */
+public class ImmutableGpxTrackSegmentTest {
+
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        Main.pref = new Preferences();
+        Main.setProjection(Projections.getProjectionByCode("EPSG:3857")); // Mercator
+    }
+
+    /**
+     * Creates a random walk of way points, one per second.
+     */
+    private static List<WayPoint> createWayPoints(int count, long seed) {
+        Random random = new Random(seed);
+        List<WayPoint> wpts = new ArrayList<WayPoint>(count);
+        double lat = 48.0;
+        double lon = 11.0;
+        for (int i = 0; i < count; i++) {
+            lat += (random.nextDouble() - 0.5) * 0.001;
+            lon += (random.nextDouble() - 0.3) * 0.001;
+            WayPoint wpt = new WayPoint(new LatLon(lat, lon));
+            wpt.time = 1000000000 + i;
+            wpts.add(wpt);
+        }
+        return wpts;
+    }
+
+    @Test
+    public void testTimeIndex() {
+        List<WayPoint> wpts = createWayPoints(1000, 1);
+        ImmutableGpxTrackSegment seg = new ImmutableGpxTrackSegment(wpts);
+        assertTrue(seg.hasTimeIndex());
+        assertEquals(wpts, seg.getWayPoints());
+        assertEquals(0, seg.getIndexOfTime(0));
+        assertEquals(0, seg.getIndexOfTime(1000000000));
+        assertEquals(500, seg.getIndexOfTime(1000000499.5));
+        assertEquals(500, seg.getIndexOfTime(1000000500));
+        assertEquals(1000, seg.getIndexOfTime(1000001000));
+        assertEquals(1000000999, seg.getTime(999), 0);
+
+        wpts.get(500).time = 0;
+        assertFalse(new ImmutableGpxTrackSegment(wpts).hasTimeIndex());
+        wpts.get(500).time = 999999999;
+        assertFalse(new ImmutableGpxTrackSegment(wpts).hasTimeIndex());
+    }
+
+    @Test
+    public void testChunks() {
+        assertEquals(1, new ImmutableGpxTrackSegment(createWayPoints(1, 2)).getChunkCount());
+        assertEquals(1, new ImmutableGpxTrackSegment(createWayPoints(ImmutableGpxTrackSegment.CHUNK_SIZE + 1, 2)).getChunkCount());
+        assertEquals(2, new ImmutableGpxTrackSegment(createWayPoints(ImmutableGpxTrackSegment.CHUNK_SIZE + 2, 2)).getChunkCount());
+
+        List<WayPoint> wpts = createWayPoints(1000, 3);
+        ImmutableGpxTrackSegment seg = new ImmutableGpxTrackSegment(wpts);
+        assertEquals(16, seg.getChunkCount());
+        EastNorth p = Main.getProjection().latlon2eastNorth(new LatLon(48.01, 11.1));
+        for (int i = 0; i < wpts.size(); i++) {
+            double distanceSq = p.distanceSq(wpts.get(i).getEastNorth());
+            if (i > 0) {
+                assertTrue(seg.getChunkDistanceSq((i - 1) / ImmutableGpxTrackSegment.CHUNK_SIZE, p) <= distanceSq);
+            }
+            if (i < wpts.size() - 1) {
+                assertTrue(seg.getChunkDistanceSq(i / ImmutableGpxTrackSegment.CHUNK_SIZE, p) <= distanceSq);
+            }
+        }
+        assertEquals(0, seg.getChunkDistanceSq(0, wpts.get(10).getEastNorth()), 0);
+    }
+
+    @Test
+    public void testNearestPointOnTrack() {
+        List<WayPoint> wpts = createWayPoints(5000, 4);
+        GpxData indexed = new GpxData();
+        indexed.tracks.add(new ImmutableGpxTrack(Collections.<Collection<WayPoint>>singleton(wpts),
+                new HashMap<String, Object>()));
+        // the same track without the index
+        final ImmutableGpxTrackSegment seg = (ImmutableGpxTrackSegment) indexed.tracks.iterator().next().getSegments().iterator().next();
+        final GpxTrackSegment plain = new GpxTrackSegment() {
+            @Override
+            public Bounds getBounds() {
+                return seg.getBounds();
+            }
+
+            @Override
+            public Collection<WayPoint> getWayPoints() {
+                return seg.getWayPoints();
+            }
+
+            @Override
+            public double length() {
+                return seg.length();
+            }
+
+            @Override
+            public int getUpdateCount() {
+                return 0;
+            }
+        };
+        GpxData scanned = new GpxData();
+        scanned.tracks.add(new ImmutableGpxTrack(Collections.<Collection<WayPoint>>emptyList(), new HashMap<String, Object>()) {
+            @Override
+            public Collection<GpxTrackSegment> getSegments() {
+                return Collections.singleton(plain);
+            }
+        });
+
+        Bounds bounds = seg.getBounds();
+        Random random = new Random(5);
+        int found = 0;
+        for (int i = 0; i < 200; i++) {
+            LatLon ll = new LatLon(bounds.getMin().lat() + random.nextDouble() * (bounds.getMax().lat() - bounds.getMin().lat()),
+                    bounds.getMin().lon() + random.nextDouble() * (bounds.getMax().lon() - bounds.getMin().lon()));
+            EastNorth p = Main.getProjection().latlon2eastNorth(ll);
+            WayPoint expected = scanned.nearestPointOnTrack(p, 100);
+            WayPoint actual = indexed.nearestPointOnTrack(p, 100);
+            if (expected == null) {
+                assertNull(actual);
+            } else {
+                found++;
+                assertEquals(expected.getCoor(), actual.getCoor());
+                assertEquals(expected.time, actual.time, 0);
+            }
+        }
+        assertTrue(found > 0);
+    }
+
+    @Test
+    public void testWayPointAttributes() {
+        Map<String, Object> expected = new HashMap<String, Object>();
+        Map<String, Object> attr = new WayPoint(new LatLon(0, 0)).attr;
+        assertTrue(attr.isEmpty());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(expected.put("key" + i, i), attr.put("key" + i, i));
+        }
+        assertEquals(expected.put("key3", "three"), attr.put("key3", "three"));
+        assertEquals(expected.remove("key5"), attr.remove("key5"));
+        assertEquals(expected.remove("key5"), attr.remove("key5"));
+        assertEquals(expected, attr);
+        assertEquals(expected.hashCode(), attr.hashCode());
+
+        for (Iterator<Map.Entry<String, Object>> it = attr.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, Object> e = it.next();
+            if (e.getKey().equals("key7")) {
+                it.remove();
+            } else if (e.getKey().equals("key8")) {
+                e.setValue(8.5);
+            }
+        }
+        expected.remove("key7");
+        expected.put("key8", 8.5);
+        assertEquals(expected, attr);
+
+        WayPoint copy = new WayPoint(new WayPoint(new LatLon(0, 0)));
+        copy.attr.putAll(attr);
+        assertEquals(expected, copy.attr);
+        attr.clear();
+        assertTrue(attr.isEmpty());
+        assertEquals(expected, copy.attr);
+    }
+}
@@ -0,0 +1,213 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.imagery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.projection.Projection;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.fixtures.CacheDirRule;
+
+/**
+ * Unit tests of {@link WmsCache} class.
+ */
+public class WmsCacheTest {
+
+    private static final int TILE_SIZE = 50;
+    private static final double PPD = 10000;
+    private static final double PARTIAL_PPD = 1;
+
+    @Rule
+    public CacheDirRule cacheDir = new CacheDirRule();
+
+    private Projection projection;
+
+    @Before
+    public void setUp() {
+        Main.pref = new Preferences();
+        projection = Projections.getProjectionByCode("EPSG:3857");
+    }
+
+    private static byte[] png(Color color) throws IOException {
+        BufferedImage img = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(color);
+        g.fillRect(0, 0, TILE_SIZE, TILE_SIZE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(img, "png", out);
+        return out.toByteArray();
+    }
+
+    private static double east(int x) {
+        return x * TILE_SIZE / PPD;
+    }
+
+    private static double partialEast(int x) {
+        return x * TILE_SIZE / PARTIAL_PPD;
+    }
+
+    private static void findTmpFiles(File dir, List<File> result) {
+        for (File file : dir.listFiles()) {
+            if (file.isDirectory()) {
+                findTmpFiles(file, result);
+            } else if (file.getName().endsWith(".tmp")) {
+                result.add(file);
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentSave() throws Exception {
+        final WmsCache cache = new WmsCache("http://localhost/wms", TILE_SIZE);
+        final byte[] data = png(Color.RED);
+        final AtomicBoolean done = new AtomicBoolean();
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        List<Thread> writers = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final int row = t;
+            writers.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int x = 0; x < 25; x++) {
+                            cache.saveToCache(null, new ByteArrayInputStream(data), projection, PPD, east(x), east(row));
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            });
+        }
+        // reads the saved tiles while the others are written, a listed tile is always complete
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                while (!done.get()) {
+                    for (int x = 0; x < 25; x++) {
+                        if (cache.hasExactMatch(projection, PPD, east(x), east(0))
+                                && cache.getExactMatch(projection, PPD, east(x), east(0)) == null) {
+                            synchronized (errors) {
+                                errors.add(new AssertionError("Incomplete tile " + x));
+                            }
+                        }
+                    }
+                }
+            }
+        };
+        reader.start();
+        for (Thread t : writers) {
+            t.start();
+        }
+        for (Thread t : writers) {
+            t.join();
+        }
+        done.set(true);
+        reader.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+
+        for (int row = 0; row < 4; row++) {
+            for (int x = 0; x < 25; x++) {
+                assertNotNull(cache.getExactMatch(projection, PPD, east(x), east(row)));
+            }
+        }
+        List<File> tmpFiles = new ArrayList<File>();
+        findTmpFiles(cacheDir.getRoot(), tmpFiles);
+        assertTrue(tmpFiles.isEmpty());
+    }
+
+    @Test
+    public void testReplace() throws IOException {
+        WmsCache cache = new WmsCache("http://localhost/wms", TILE_SIZE);
+        cache.saveToCache(null, new ByteArrayInputStream(png(Color.RED)), projection, PPD, 0, 0);
+        assertEquals(Color.RED.getRGB(), cache.getExactMatch(projection, PPD, 0, 0).getRGB(1, 1));
+        cache.saveToCache(null, new ByteArrayInputStream(png(Color.BLUE)), projection, PPD, 0, 0);
+        assertEquals(Color.BLUE.getRGB(), cache.getExactMatch(projection, PPD, 0, 0).getRGB(1, 1));
+    }
+
+    @Test
+    public void testLeftOverTmpFileRemoved() throws IOException {
+        WmsCache cache = new WmsCache("http://localhost/wms", TILE_SIZE);
+        cache.saveToCache(null, new ByteArrayInputStream(png(Color.RED)), projection, PPD, 0, 0);
+        List<File> files = new ArrayList<File>();
+        findTmpFiles(cacheDir.getRoot(), files);
+        assertTrue(files.isEmpty());
+        // a file of an interrupted save, next to the directories of the projections
+        File tmpFile = new File(cacheDir.getRoot(), "wms/1/tile123.tmp");
+        assertTrue(tmpFile.createNewFile());
+        new WmsCache("http://localhost/wms", TILE_SIZE).loadIndex();
+        assertFalse(tmpFile.exists());
+    }
+
+    @Test
+    public void testIndexReopen() throws IOException {
+        WmsCache cache = new WmsCache("http://localhost/wms", TILE_SIZE);
+        cache.loadIndex();
+        byte[] data = png(Color.RED);
+        for (int x = 0; x < 10; x++) {
+            cache.saveToCache(null, new ByteArrayInputStream(data), projection, PPD, east(x), 0);
+        }
+        cache.saveToCache(null, new ByteArrayInputStream(data), projection, PPD / 2, 0, 0);
+        // replaced and removed entries are journaled as well
+        cache.saveToCache(null, new ByteArrayInputStream(png(Color.BLUE)), projection, PPD, east(3), 0);
+        cache.cleanSmallFiles(0);
+
+        // the index is up to date without saving it
+        WmsCache reopened = new WmsCache("http://localhost/wms", TILE_SIZE);
+        reopened.loadIndex();
+        assertEquals(cache.getTotalFileSize(), reopened.getTotalFileSize());
+        for (int x = 0; x < 10; x++) {
+            assertTrue(reopened.hasExactMatch(projection, PPD, east(x), 0));
+        }
+        assertTrue(reopened.hasExactMatch(projection, PPD / 2, 0, 0));
+        assertFalse(reopened.hasExactMatch(projection, PPD, east(10), 0));
+        assertEquals(Color.BLUE.getRGB(), reopened.getExactMatch(projection, PPD, east(3), 0).getRGB(1, 1));
+
+        reopened.saveIndex();
+        reopened = new WmsCache("http://localhost/wms", TILE_SIZE);
+        reopened.loadIndex();
+        assertEquals(cache.getTotalFileSize(), reopened.getTotalFileSize());
+        assertTrue(reopened.hasExactMatch(projection, PPD, east(9), 0));
+    }
+
+    @Test
+    public void testPartialMatch() throws IOException {
+        // the requested tile is shrunk by a border of 1% of the tile size in projected units,
+        // which is wider than a tile at PPD, so a lower resolution is used here
+        WmsCache cache = new WmsCache("http://localhost/wms", TILE_SIZE);
+        cache.loadIndex();
+        // a tile at twice the resolution covers a quarter of the requested tile
+        cache.saveToCache(null, new ByteArrayInputStream(png(Color.RED)), projection, 2 * PARTIAL_PPD, partialEast(1), partialEast(1));
+        // too far away and of a too low resolution
+        cache.saveToCache(null, new ByteArrayInputStream(png(Color.RED)), projection, 2 * PARTIAL_PPD, partialEast(4), partialEast(4));
+        cache.saveToCache(null, new ByteArrayInputStream(png(Color.RED)), projection, PARTIAL_PPD / 10, 0, 0);
+        BufferedImage img = cache.getPartialMatch(projection, PARTIAL_PPD, partialEast(1), partialEast(1));
+        assertNotNull(img);
+        // the lower left quarter is drawn
+        assertEquals(Color.RED.getRGB(), img.getRGB(1, TILE_SIZE - 2));
+        assertEquals(0, img.getRGB(TILE_SIZE - 2, 1));
+        assertNull(cache.getPartialMatch(projection, PARTIAL_PPD, partialEast(10), partialEast(10)));
+    }
+}
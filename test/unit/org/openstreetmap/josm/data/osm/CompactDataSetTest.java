@@ -0,0 +1,227 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.io.CompactOsmReader;
+
+/**
+ * Unit tests of {@link CompactDataSet} class.
+ */
+public class CompactDataSetTest {
+
+    private static final String OSM =
+        "<osm version='0.6' generator='test'>\n" +
+        "  <bounds minlat='0' minlon='0' maxlat='2' maxlon='2'/>\n" +
+        "  <way id='10' version='1'>\n" +
+        "    <nd ref='1'/><nd ref='2'/><nd ref='3'/><nd ref='1'/>\n" +
+        "    <tag k='building' v='yes'/>\n" +
+        "  </way>\n" +
+        "  <node id='1' version='2' lat='0.5' lon='0.5'><tag k='name' v='One'/></node>\n" +
+        "  <node id='2' version='1' lat='0.5' lon='1.5'/>\n" +
+        "  <node id='3' version='1' lat='1.5' lon='1.5'/>\n" +
+        "  <node id='4' version='1' lat='1.8' lon='0.2'/>\n" +
+        "  <way id='11' version='1'>\n" +
+        "    <nd ref='3'/><nd ref='4'/>\n" +
+        "  </way>\n" +
+        "  <relation id='20' version='1'>\n" +
+        "    <member type='way' ref='10' role='outer'/>\n" +
+        "    <member type='node' ref='4' role=''/>\n" +
+        "    <tag k='type' v='multipolygon'/>\n" +
+        "  </relation>\n" +
+        "</osm>";
+
+    /**
+     * Setup test.
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        Main.pref = new Preferences();
+        Main.setProjection(Projections.getProjectionByCode("EPSG:3857")); // Mercator
+    }
+
+    private static CompactDataSet parse() throws Exception {
+        return CompactOsmReader.parseCompactDataSet(new ByteArrayInputStream(OSM.getBytes("UTF-8")), NullProgressMonitor.INSTANCE);
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        CompactDataSet store = parse();
+        assertEquals(4, store.getNodesCount());
+        assertEquals(2, store.getWaysCount());
+        assertEquals(1, store.getRelations().size());
+        assertEquals(1, store.dataSources.size());
+
+        INode n = store.getNodeById(1);
+        assertEquals(2, n.getVersion());
+        assertEquals("One", n.getName());
+        assertEquals(0.5, n.getCoor().lat(), 1e-7);
+        assertFalse(n.isIncomplete());
+        assertEquals(n, store.getNodeById(1));
+        assertEquals(n.getPrimitiveId(), new SimplePrimitiveId(1, OsmPrimitiveType.NODE));
+
+        IWay w = store.getWayById(10);
+        assertEquals(4, w.getNodesCount());
+        assertEquals(3, w.getNodeId(2));
+        assertTrue(w.isClosed());
+        assertEquals("yes", w.get("building"));
+        assertFalse(store.getWayById(11).isClosed());
+        assertNull(store.getWayById(12));
+    }
+
+    @Test
+    public void testViewsWriteThrough() throws Exception {
+        CompactDataSet store = parse();
+        INode n = store.getNodeById(2);
+        n.put("highway", "crossing");
+        n.setCoor(new LatLon(0.25, 1.25));
+        n.setModified(true);
+
+        INode other = store.getNodeById(2);
+        assertEquals("crossing", other.get("highway"));
+        assertEquals(0.25, other.getCoor().lat(), 1e-7);
+        assertTrue(other.isModified());
+        assertTrue(other.isVisible());
+    }
+
+    @Test
+    public void testIncompleteNodes() {
+        CompactDataSet store = new CompactDataSet();
+        WayData wd = new WayData();
+        wd.setId(1);
+        wd.setNodes(Arrays.asList(5L, 6L));
+        store.addWay(wd);
+        assertEquals(2, store.getNodesCount());
+        assertTrue(store.getNodeById(5).isIncomplete());
+        assertNull(store.getNodeById(5).getCoor());
+
+        NodeData nd = new NodeData();
+        nd.setId(5);
+        nd.setCoor(new LatLon(1, 2));
+        assertEquals(store.getWayNodeIndex(0, 0), store.addNode(nd));
+        assertFalse(store.getNodeById(5).isIncomplete());
+        assertEquals(2, store.getNodesCount());
+    }
+
+    @Test
+    public void testTimestampAfter2038() {
+        CompactDataSet store = new CompactDataSet();
+        NodeData nd = new NodeData();
+        nd.setId(5);
+        nd.setCoor(new LatLon(1, 2));
+        store.addNode(nd);
+        Date date = new Date(3000000000000L); // 2065
+        store.getNodeById(5).setTimestamp(date);
+        assertEquals(date, store.getNodeById(5).getTimestamp());
+    }
+
+    @Test
+    public void testBounds() throws Exception {
+        Bounds bounds = parse().getBounds();
+        assertEquals(new Bounds(0.5, 0.2, 1.8, 1.5), bounds);
+        assertNull(new CompactDataSet().getBounds());
+    }
+
+    @Test
+    public void testSearchWays() throws Exception {
+        CompactDataSet store = parse();
+        // way 10 has index 0, way 11 index 1
+        assertArrayEquals(new int[] {0}, store.searchWays(new Bounds(0, 0, 1, 1)));
+        assertArrayEquals(new int[] {1}, store.searchWays(new Bounds(1.6, 0, 2, 1)));
+        assertEquals(new Bounds(0.5, 0.5, 1.5, 1.5), store.getWayBounds(0));
+
+        // the index follows changes
+        store.getNodeById(4).setCoor(new LatLon(0.1, 0.1));
+        assertArrayEquals(new int[] {1}, store.searchWays(new Bounds(0, 0, 0.2, 0.2)));
+        store.getWayById(10).setDeleted(true);
+        assertArrayEquals(new int[] {1}, store.searchWays(new Bounds(0.4, 0.4, 0.6, 0.6)));
+    }
+
+    @Test
+    public void testSearchManyWays() {
+        CompactDataSet store = new CompactDataSet();
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            NodeData nd = new NodeData();
+            nd.setId(i + 1);
+            nd.setCoor(new LatLon(random.nextDouble() * 10, random.nextDouble() * 10));
+            store.addNode(nd);
+        }
+        for (int i = 0; i < 2000; i++) {
+            WayData wd = new WayData();
+            wd.setId(i + 1);
+            wd.setNodes(Arrays.asList(1L + random.nextInt(5000), 1L + random.nextInt(5000)));
+            store.addWay(wd);
+        }
+        for (int k = 0; k < 20; k++) {
+            double lat = random.nextDouble() * 10;
+            double lon = random.nextDouble() * 10;
+            Bounds bounds = new Bounds(lat, lon, lat + random.nextDouble(), lon + random.nextDouble());
+            List<Integer> expected = new ArrayList<Integer>();
+            for (int w = 0; w < store.getWaysCount(); w++) {
+                if (store.getWayBounds(w).intersects(bounds)) {
+                    expected.add(w);
+                }
+            }
+            List<Integer> found = new ArrayList<Integer>();
+            for (int w : store.searchWays(bounds)) {
+                found.add(w);
+            }
+            Collections.sort(found);
+            assertEquals(expected, found);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateNode() {
+        CompactDataSet store = new CompactDataSet();
+        NodeData nd = new NodeData();
+        nd.setId(5);
+        nd.setCoor(new LatLon(1, 2));
+        store.addNode(nd);
+        store.addNode(nd);
+    }
+
+    @Test
+    public void testToDataSet() throws Exception {
+        CompactDataSet store = parse();
+        // contains node 1 only
+        DataSet ds = store.toDataSet(new Bounds(0, 0, 1, 1));
+
+        Way building = (Way) ds.getPrimitiveById(10, OsmPrimitiveType.WAY);
+        assertNotNull(building);
+        assertEquals(4, building.getNodesCount());
+        assertTrue(building.isClosed());
+        assertFalse(building.isIncomplete());
+        assertEquals("One", building.firstNode().getName());
+        assertEquals(0.5, building.getNode(1).getCoor().lon() - 1, 1e-7);
+        assertNull(ds.getPrimitiveById(11, OsmPrimitiveType.WAY));
+
+        Relation r = (Relation) ds.getPrimitiveById(20, OsmPrimitiveType.RELATION);
+        assertEquals(2, r.getMembersCount());
+        assertEquals(building, r.getMember(0).getMember());
+        assertTrue(r.getMember(1).getMember().isIncomplete());
+        assertEquals(1, ds.dataSources.size());
+    }
+}
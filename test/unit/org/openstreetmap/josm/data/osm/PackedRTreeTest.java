@@ -0,0 +1,179 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm;
+
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.io.OsmReader;
+
+public class PackedRTreeTest {
+
+    @BeforeClass
+    public static void init() {
+        Main.pref = new Preferences();
+        Main.setProjection(Projections.getProjectionByCode("EPSG:3857")); // Mercator
+    }
+
+    @After
+    public void resetPreferences() {
+        Main.pref = new Preferences();
+    }
+
+    private static List<Node> randomNodes(Random random, int count) {
+        List<Node> result = new ArrayList<Node>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(new Node(new LatLon(random.nextDouble() * 10, random.nextDouble() * 10)));
+        }
+        return result;
+    }
+
+    private static Set<Node> bruteForce(Iterable<Node> nodes, BBox bbox) {
+        Set<Node> result = new HashSet<Node>();
+        for (Node n : nodes) {
+            if (n.getBBox().intersects(bbox)) {
+                result.add(n);
+            }
+        }
+        return result;
+    }
+
+    private static void checkSearches(Random random, PackedRTree<Node> tree, List<Node> expected) {
+        for (int i = 0; i < 50; i++) {
+            double lat = random.nextDouble() * 10;
+            double lon = random.nextDouble() * 10;
+            BBox bbox = new BBox(lon, lat, lon + random.nextDouble() * 2, lat + random.nextDouble() * 2);
+            Assert.assertEquals(bruteForce(expected, bbox), new HashSet<Node>(tree.search(bbox)));
+        }
+    }
+
+    @Test
+    public void testBulkLoadAndSearch() {
+        Random random = new Random(42);
+        List<Node> nodes = randomNodes(random, 5000);
+        PackedRTree<Node> tree = new PackedRTree<Node>();
+        tree.addAll(nodes);
+        tree.buildIndex();
+        Assert.assertEquals(5000, tree.size());
+        Assert.assertEquals(4, tree.getHeight());
+        checkSearches(random, tree, nodes);
+    }
+
+    @Test
+    public void testIncrementalInsertAndRemove() {
+        Random random = new Random(4711);
+        List<Node> nodes = randomNodes(random, 2000);
+        PackedRTree<Node> tree = new PackedRTree<Node>(4);
+        for (Node n : nodes) {
+            tree.add(n);
+            tree.buildIndex();
+        }
+        checkSearches(random, tree, nodes);
+        for (Iterator<Node> it = nodes.iterator(); it.hasNext();) {
+            Node n = it.next();
+            if (random.nextBoolean()) {
+                Assert.assertTrue(tree.remove(n));
+                Assert.assertFalse(tree.contains(n));
+                it.remove();
+            }
+        }
+        Assert.assertEquals(nodes.size(), tree.size());
+        checkSearches(random, tree, nodes);
+        for (Node n : nodes) {
+            Assert.assertTrue(tree.contains(n));
+        }
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        PackedRTree<Node> tree = new PackedRTree<Node>();
+        tree.addAll(randomNodes(new Random(1), 1000));
+        int count = 0;
+        for (Iterator<Node> it = tree.iterator(); it.hasNext();) {
+            it.next();
+            if (count++ % 2 == 0) {
+                it.remove();
+            }
+        }
+        Assert.assertEquals(1000, count);
+        Assert.assertEquals(500, tree.size());
+        Assert.assertEquals(500, new ArrayList<Node>(tree).size());
+    }
+
+    @Test
+    public void testDataSetWithRTree() throws Exception {
+        Main.pref = new Preferences() {
+            @Override
+            public synchronized String get(String key, String def) {
+                return DataSet.PREF_SPATIAL_INDEX.equals(key) ? "rtree" : super.get(key, def);
+            }
+        };
+        DataSet ds = OsmReader.parseDataSet(new FileInputStream("data_nodist/restriction.osm"), NullProgressMonitor.INSTANCE);
+        BBox all = new BBox(-180, -90, 180, 90);
+        Assert.assertEquals(ds.getNodes().size(), ds.searchNodes(all).size());
+        Assert.assertEquals(ds.getWays().size(), ds.searchWays(all).size());
+        Assert.assertEquals(ds.getRelations().size(), ds.searchRelations(all).size());
+
+        for (Node n: ds.getNodes()) {
+            n.setCoor(new LatLon(10, 10));
+        }
+        Assert.assertEquals(ds.getWays().size(), ds.searchWays(new BBox(9.9, 9.9, 10.1, 10.1)).size());
+        Assert.assertTrue(ds.searchNodes(new BBox(0, 0, 1, 1)).isEmpty());
+
+        for (OsmPrimitive o: new ArrayList<OsmPrimitive>(ds.allPrimitives())) {
+            ds.removePrimitive(o);
+        }
+        Assert.assertTrue(ds.searchNodes(all).isEmpty());
+        Assert.assertTrue(ds.searchWays(all).isEmpty());
+        Assert.assertTrue(ds.searchRelations(all).isEmpty());
+    }
+
+    /**
+     * Relations are added without members and reindexed when their members are set.
+     */
+    @Test
+    public void testRelationMembersSet() {
+        Main.pref = new Preferences() {
+            @Override
+            public synchronized String get(String key, String def) {
+                return DataSet.PREF_SPATIAL_INDEX.equals(key) ? "rtree" : super.get(key, def);
+            }
+        };
+        DataSet ds = new DataSet();
+        List<Relation> relations = new ArrayList<Relation>();
+        for (int i = 0; i < 100; i++) {
+            Node n = new Node(new LatLon(i * 0.1, i * 0.1));
+            ds.addPrimitive(n);
+            Relation r = new Relation();
+            ds.addPrimitive(r);
+            r.addMember(new RelationMember("", n));
+            relations.add(r);
+        }
+        ds.buildSpatialIndex();
+        for (Relation r : relations) {
+            Node n = new Node(new LatLon(50, 50));
+            ds.addPrimitive(n);
+            r.addMember(new RelationMember("", n));
+        }
+        Assert.assertEquals(100, ds.searchRelations(new BBox(49.9, 49.9, 50.1, 50.1)).size());
+        Assert.assertEquals(new HashSet<Relation>(relations.subList(0, 21)),
+                new HashSet<Relation>(ds.searchRelations(new BBox(1, 1, 2, 2))));
+        for (Relation r : relations) {
+            ds.removePrimitive(r);
+        }
+        Assert.assertTrue(ds.searchRelations(new BBox(-180, -90, 180, 90)).isEmpty());
+    }
+}
@@ -0,0 +1,132 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.projection.Projections;
+
+/**
+ * Unit tests of {@link TagIndex} class.
+ */
+public class TagIndexTest {
+
+    /**
+     * Setup test.
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        Main.pref = new Preferences();
+        Main.setProjection(Projections.getProjectionByCode("EPSG:3857")); // Mercator
+    }
+
+    private static Node node(DataSet ds, String key, String value) {
+        Node n = new Node(new LatLon(0, 0));
+        n.put(key, value);
+        ds.addPrimitive(n);
+        return n;
+    }
+
+    private static <T> HashSet<T> set(Collection<? extends T> c) {
+        return new HashSet<T>(c);
+    }
+
+    @Test
+    public void testLookup() {
+        DataSet ds = new DataSet();
+        Node school = node(ds, "amenity", "school");
+        Node pub = node(ds, "amenity", "pub");
+        node(ds, "building", "yes");
+        TagIndex index = ds.getTagIndex();
+
+        assertEquals(set(Arrays.asList(school)), set(index.getPrimitives("amenity", "school")));
+        assertEquals(set(Arrays.asList(school, pub)), set(index.getPrimitives("amenity")));
+        assertTrue(index.getPrimitives("amenity", "bar").isEmpty());
+        assertTrue(index.getPrimitives("shop").isEmpty());
+        assertEquals(set(Arrays.asList("school", "pub")), set(index.getValues("amenity")));
+        assertEquals(set(Arrays.asList("amenity", "building")), set(index.getKeys()));
+    }
+
+    @Test
+    public void testUpdate() {
+        DataSet ds = new DataSet();
+        Node school = node(ds, "amenity", "school");
+        TagIndex index = ds.getTagIndex();
+        assertEquals(1, index.getPrimitives("amenity").size());
+
+        Node pub = node(ds, "amenity", "pub");
+        assertEquals(set(Arrays.asList(pub)), set(index.getPrimitives("amenity", "pub")));
+
+        school.put("amenity", "college");
+        assertTrue(index.getPrimitives("amenity", "school").isEmpty());
+        assertEquals(set(Arrays.asList(school)), set(index.getPrimitives("amenity", "college")));
+
+        pub.setDeleted(true);
+        assertTrue(index.getPrimitives("amenity", "pub").isEmpty());
+        pub.setDeleted(false);
+        assertEquals(set(Arrays.asList(pub)), set(index.getPrimitives("amenity", "pub")));
+
+        ds.removePrimitive(school);
+        assertEquals(set(Arrays.asList(pub)), set(index.getPrimitives("amenity")));
+    }
+
+    /**
+     * Large changes are only announced by a {@link org.openstreetmap.josm.data.osm.event.DataChangedEvent}.
+     */
+    @Test
+    public void testBulkUpdate() {
+        DataSet ds = new DataSet();
+        TagIndex index = ds.getTagIndex();
+        assertTrue(index.getKeys().isEmpty());
+        ds.beginUpdate();
+        try {
+            for (int i = 0; i < 2000; i++) {
+                node(ds, "ref", Integer.toString(i % 10));
+            }
+        } finally {
+            ds.endUpdate();
+        }
+        assertEquals(2000, index.getPrimitives("ref").size());
+        assertEquals(200, index.getPrimitives("ref", "7").size());
+    }
+
+    /**
+     * The id assigned on upload changes the hash code of a primitive.
+     */
+    @Test
+    public void testIdChange() {
+        DataSet ds = new DataSet();
+        Node pub = node(ds, "amenity", "pub");
+        TagIndex index = ds.getTagIndex();
+        assertEquals(1, index.getPrimitives("amenity").size());
+        ds.beginUpdate();
+        try {
+            pub.setOsmId(42, 1);
+        } finally {
+            ds.endUpdate();
+        }
+        assertEquals(set(Arrays.asList(pub)), set(index.getPrimitives("amenity", "pub")));
+        ds.removePrimitive(pub);
+        assertTrue(index.getPrimitives("amenity").isEmpty());
+        assertTrue(index.getPrimitives("amenity", "pub").isEmpty());
+    }
+
+    @Test
+    public void testRemoveTagIndex() {
+        DataSet ds = new DataSet();
+        TagIndex index = ds.getTagIndex();
+        ds.removeTagIndex();
+        node(ds, "amenity", "pub");
+        assertTrue(ds.getTagIndex() != index);
+        assertEquals(1, ds.getTagIndex().getPrimitives("amenity").size());
+    }
+}
@@ -0,0 +1,96 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+
+/**
+ * Unit tests of {@link TagSetStorage} class.
+ */
+public class TagSetStorageTest {
+
+    /**
+     * Setup test.
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        Main.pref = new Preferences();
+    }
+
+    @Test
+    public void testSharedArrays() {
+        Node n1 = new Node();
+        n1.put("building", "yes");
+        n1.put("addr:housenumber", new String("1"));
+        Node n2 = new Node();
+        Map<String, String> tags = new HashMap<String, String>();
+        tags.put("addr:housenumber", new String("1"));
+        tags.put(new String("building"), "yes");
+        n2.setKeys(tags);
+
+        assertSame(n1.keys, n2.keys);
+        assertTrue(n1.hasSameTags(n2));
+        assertNull(TagSetStorage.intern(new HashMap<String, String>()));
+    }
+
+    @Test
+    public void testCopyOnWrite() {
+        Node n1 = new Node();
+        n1.put("building", "yes");
+        Node n2 = new Node();
+        n2.put("building", "yes");
+        String[] shared = n1.keys;
+
+        n1.put("building", "house");
+        assertEquals("yes", n2.get("building"));
+        assertEquals(Arrays.asList("building", "yes"), Arrays.asList(shared));
+        assertFalse(n1.hasSameTags(n2));
+
+        n1.remove("building");
+        assertNull(n1.keys);
+        assertEquals("yes", n2.get("building"));
+    }
+
+    @Test
+    public void testSameTagsNotShared() {
+        Node n1 = new Node();
+        n1.put("building", "yes");
+        Node n2 = new Node();
+        n2.keys = new String[] {"building", new String("yes")};
+        assertTrue(n1.hasSameTags(n2));
+    }
+
+    @Test
+    public void testUnusedTagSetsCollected() throws Exception {
+        WeakReference<String[]> ref = new WeakReference<String[]>(
+                TagSetStorage.intern(new String[] {"TagSetStorageTest", Long.toString(System.nanoTime())}));
+        for (int i = 0; i < 20 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(ref.get());
+    }
+
+    @Test
+    public void testMemorySaved() {
+        Node n1 = new Node();
+        n1.put("building", "yes");
+        assertEquals(0, TagSetStorage.getMemorySaved(Arrays.asList(n1)));
+        Node n2 = new Node();
+        n2.put("building", "yes");
+        assertTrue(TagSetStorage.getMemorySaved(Arrays.asList(n1, n2)) > 0);
+    }
+}
@@ -0,0 +1,139 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm.visitor.paint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.gui.NavigatableComponent;
+
+/**
+ * Unit tests of {@link RenderTileCache} class.
+ */
+public class RenderTileCacheTest {
+
+    private static final int WIDTH = 1024;
+    private static final int HEIGHT = 256;
+
+    private DataSet ds;
+    private NavigatableComponent nc;
+    private RenderTileCache cache;
+    private Way west;
+    private Way east;
+
+    /**
+     * Setup test.
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        Main.pref = new Preferences() {
+            @Override
+            public void save() {
+                // the renderer factory stores the active renderer, keep the test preferences untouched
+            }
+        };
+        Main.setProjection(Projections.getProjectionByCode("EPSG:3857")); // Mercator
+        // stores the default renderer in the preferences, which would clear the cache while painting
+        MapRendererFactory.getInstance();
+    }
+
+    @Before
+    public void setUp() {
+        nc = new NavigatableComponent();
+        nc.setBounds(0, 0, WIDTH, HEIGHT);
+        nc.zoomTo(new EastNorth(1000000, 6000000), 1);
+
+        ds = new DataSet();
+        west = createWay(20, 60);
+        east = createWay(960, 1000);
+        cache = new RenderTileCache(ds);
+    }
+
+    @After
+    public void tearDown() {
+        cache.destroy();
+    }
+
+    private Way createWay(int x1, int x2) {
+        Node n1 = new Node(nc.getLatLon(x1, HEIGHT / 2));
+        Node n2 = new Node(nc.getLatLon(x2, HEIGHT / 2));
+        Way w = new Way();
+        w.addNode(n1);
+        w.addNode(n2);
+        w.put("highway", "residential");
+        ds.addPrimitive(n1);
+        ds.addPrimitive(n2);
+        ds.addPrimitive(w);
+        return w;
+    }
+
+    private void paint() {
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setClip(0, 0, WIDTH, HEIGHT);
+        cache.paint(g, nc, false, false);
+        g.dispose();
+    }
+
+    /**
+     * Moving a node only drops the tiles around the old and new position of its way.
+     */
+    @Test
+    public void testNodeMoved() {
+        paint();
+        int tiles = cache.getTileCount();
+        assertTrue(tiles > 0);
+        paint();
+        assertEquals(tiles, cache.getTileCount());
+
+        Node n = east.firstNode();
+        n.setEastNorth(n.getEastNorth().add(0, 10));
+        assertTrue(cache.getTileCount() > 0);
+        assertTrue(cache.getTileCount() < tiles);
+
+        paint();
+        assertEquals(tiles, cache.getTileCount());
+    }
+
+    /**
+     * Changing tags only drops the tiles touched by the primitive.
+     */
+    @Test
+    public void testTagsChanged() {
+        paint();
+        int tiles = cache.getTileCount();
+        west.put("name", "West");
+        assertTrue(cache.getTileCount() > 0);
+        assertTrue(cache.getTileCount() < tiles);
+    }
+
+    /**
+     * Zooming in and out again reuses the tiles, although the scale is not exactly the same.
+     */
+    @Test
+    public void testZoomBack() {
+        // the upper border of the view is on a tile border, which would make rounding errors visible
+        nc.zoomTo(nc.getCenter().add(100, 100));
+        paint();
+        nc.zoomToFactor(Math.sqrt(2));
+        paint();
+        int tiles = cache.getTileCount();
+        nc.zoomToFactor(1 / Math.sqrt(2));
+        nc.zoomToFactor(1 + 1e-9);
+        paint();
+        assertEquals(tiles, cache.getTileCount());
+    }
+}
@@ -0,0 +1,134 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.data.validation.tests.CrossingWays;
+import org.openstreetmap.josm.data.validation.tests.UntaggedNode;
+
+/**
+ * Unit tests of {@link IncrementalValidator} class.
+ */
+public class IncrementalValidatorTest {
+
+    /**
+     * Setup test.
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        Main.pref = new Preferences() {
+            @Override
+            public void save() {
+            }
+        };
+        Main.setProjection(Projections.getProjectionByCode("EPSG:3857")); // Mercator
+        OsmValidator.griddetail = 0.01;
+    }
+
+    private static Collection<org.openstreetmap.josm.data.validation.Test> createTests() {
+        return Arrays.<org.openstreetmap.josm.data.validation.Test>asList(new CrossingWays(), new UntaggedNode());
+    }
+
+    private static Way createWay(DataSet ds, LatLon a, LatLon b) {
+        Node n1 = new Node(a);
+        Node n2 = new Node(b);
+        ds.addPrimitive(n1);
+        ds.addPrimitive(n2);
+        Way w = new Way();
+        w.setNodes(Arrays.asList(n1, n2));
+        w.put("highway", "residential");
+        ds.addPrimitive(w);
+        return w;
+    }
+
+    private static List<TestError> revalidate(DataSet ds, List<TestError> errors, OsmPrimitive... changed) {
+        Set<OsmPrimitive> affected = IncrementalValidator.getAffectedPrimitives(ds, Arrays.asList(changed));
+        return IncrementalValidator.mergeErrors(errors, affected, IncrementalValidator.validate(createTests(), affected));
+    }
+
+    private static List<Integer> codes(List<TestError> errors) {
+        List<Integer> result = new ArrayList<Integer>();
+        for (TestError e : errors) {
+            result.add(e.getCode());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    @Test
+    public void testNeighbours() {
+        DataSet ds = new DataSet();
+        Way w1 = createWay(ds, new LatLon(0, 0), new LatLon(0, 0.001));
+        Way w2 = createWay(ds, new LatLon(0.0002, 0.0005), new LatLon(0.0003, 0.0005));
+        Way far = createWay(ds, new LatLon(1, 1), new LatLon(1, 1.001));
+        Set<OsmPrimitive> affected = IncrementalValidator.getAffectedPrimitives(ds, Collections.singleton(w2.getNode(0)));
+        assertTrue(affected.contains(w2));
+        assertTrue(affected.contains(w1));
+        assertTrue(affected.containsAll(w1.getNodes()));
+        assertFalse(affected.contains(far));
+        assertFalse(affected.contains(far.getNode(0)));
+    }
+
+    @Test
+    public void testSameErrorsAsFullValidation() {
+        DataSet ds = new DataSet();
+        createWay(ds, new LatLon(0, 0), new LatLon(0, 0.001));
+        Way w2 = createWay(ds, new LatLon(0.0002, 0.0005), new LatLon(0.0003, 0.0005));
+        Node lonely = new Node(new LatLon(1, 1));
+        ds.addPrimitive(lonely);
+        List<TestError> errors = ValidationEngine.runTests(createTests(), ds.allNonDeletedPrimitives(), false, null);
+        assertEquals(1, errors.size());
+
+        // move a node of the second way across the first one
+        Node n = w2.getNode(0);
+        n.setCoor(new LatLon(-0.0002, 0.0005));
+        errors = revalidate(ds, errors, n);
+        List<TestError> full = ValidationEngine.runTests(createTests(), ds.allNonDeletedPrimitives(), false, null);
+        assertEquals(2, full.size());
+        assertEquals(codes(full), codes(errors));
+        assertTrue(errors.get(0).getPrimitives().contains(lonely));
+
+        // and back again
+        n.setCoor(new LatLon(0.0002, 0.0005));
+        errors = revalidate(ds, errors, n);
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0).getPrimitives().contains(lonely));
+
+        // the error of a deleted primitive is dropped
+        lonely.setDeleted(true);
+        errors = revalidate(ds, errors, lonely);
+        assertTrue(errors.isEmpty());
+    }
+
+    @Test
+    public void testDeletedWhileValidating() {
+        DataSet ds = new DataSet();
+        Node lonely = new Node(new LatLon(1, 1));
+        ds.addPrimitive(lonely);
+        Set<OsmPrimitive> affected = IncrementalValidator.getAffectedPrimitives(ds, Collections.singleton(lonely));
+        List<TestError> revalidated = IncrementalValidator.validate(createTests(), affected);
+        assertEquals(1, revalidated.size());
+        // deleted after the tests, before the results are published
+        lonely.setDeleted(true);
+        assertTrue(IncrementalValidator.mergeErrors(Collections.<TestError>emptyList(), affected, revalidated).isEmpty());
+    }
+}
@@ -0,0 +1,118 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.data.validation.tests.DeprecatedTags;
+import org.openstreetmap.josm.data.validation.tests.DuplicateNode;
+import org.openstreetmap.josm.data.validation.tests.DuplicatedWayNodes;
+import org.openstreetmap.josm.data.validation.tests.UntaggedNode;
+
+/**
+ * Unit tests of {@link ValidationEngine} class.
+ */
+public class ValidationEngineTest {
+
+    private static DataSet ds;
+
+    /**
+     * A partitionable test which reports each node with a <code>fixme</code> tag.
+     */
+    private static class FixmeTest extends org.openstreetmap.josm.data.validation.Test {
+        FixmeTest() {
+            super("fixme");
+        }
+
+        @Override
+        public boolean isPartitionable() {
+            return true;
+        }
+
+        @Override
+        public void visit(Node n) {
+            if (n.hasKey("fixme")) {
+                errors.add(new TestError(this, Severity.OTHER, "fixme", 1, n));
+            }
+        }
+    }
+
+    /**
+     * Setup test.
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        Main.pref = new Preferences() {
+            @Override
+            public void save() {
+            }
+        };
+        Main.setProjection(Projections.getProjectionByCode("EPSG:3857")); // Mercator
+        ds = new DataSet();
+        Node last = null;
+        for (int i = 0; i < 20000; i++) {
+            Node n = new Node(new LatLon(i % 100 / 1000.0, i / 100 / 1000.0));
+            if (i % 7 == 0) {
+                n.put("fixme", "check");
+            }
+            if (i % 11 == 0) {
+                n.put("highway", "ford");
+            }
+            if (i % 1000 == 1) {
+                // duplicate of the previous node
+                n.setCoor(last.getCoor());
+            }
+            ds.addPrimitive(n);
+            if (i % 3 == 0 && last != null) {
+                Way w = new Way();
+                w.setNodes(Arrays.asList(last, n, n));
+                w.put("highway", "track");
+                ds.addPrimitive(w);
+            }
+            last = n;
+        }
+    }
+
+    private static Collection<org.openstreetmap.josm.data.validation.Test> createTests() {
+        return Arrays.<org.openstreetmap.josm.data.validation.Test>asList(
+                new FixmeTest(), new DeprecatedTags(), new UntaggedNode(), new DuplicateNode(), new DuplicatedWayNodes());
+    }
+
+    private static List<String> run(boolean parallel) {
+        ValidationEngine.PROP_PARALLEL.put(parallel);
+        List<OsmPrimitive> primitives = new ArrayList<OsmPrimitive>(ds.allPrimitives());
+        List<String> result = new ArrayList<String>();
+        for (TestError e : ValidationEngine.runTests(createTests(), primitives, false, null)) {
+            result.add(e.getTester().getName() + " " + e.getMessage() + " " + e.getPrimitives());
+        }
+        return result;
+    }
+
+    @Test
+    public void testSameErrors() {
+        List<String> sequential = run(false);
+        List<String> parallel = run(true);
+        assertTrue(sequential.size() > 20000 / 7);
+        assertEquals(sequential, parallel);
+    }
+
+    @Test
+    public void testDeterministic() {
+        assertEquals(run(true), run(true));
+    }
+}
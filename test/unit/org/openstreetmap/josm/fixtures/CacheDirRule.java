@@ -0,0 +1,24 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.fixtures;
+
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * A temporary folder used as JOSM cache directory (system property <code>josm.cache</code>)
+ * while the tests run. Use it as <code>@Rule</code> for an empty cache in each test, or as
+ * <code>@ClassRule</code> for one cache shared by the tests of a class.
+ */
+public class CacheDirRule extends TemporaryFolder {
+
+    @Override
+    protected void before() throws Throwable {
+        super.before();
+        System.setProperty("josm.cache", getRoot().getAbsolutePath());
+    }
+
+    @Override
+    protected void after() {
+        System.clearProperty("josm.cache");
+        super.after();
+    }
+}
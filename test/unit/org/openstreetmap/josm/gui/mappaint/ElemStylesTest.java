@@ -0,0 +1,123 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.mappaint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.gui.NavigatableComponent;
+import org.openstreetmap.josm.gui.mappaint.StyleCache.StyleList;
+import org.openstreetmap.josm.gui.mappaint.mapcss.MapCSSStyleSource;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.io.OsmReader;
+
+/**
+ * Unit tests of {@link ElemStyles} class.
+ */
+public class ElemStylesTest {
+
+    private static final double SCALE = 10;
+    private static final int THREADS = 4;
+
+    /**
+     * Setup test.
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        Main.pref = new Preferences() {
+            @Override
+            public void save() {
+                // keep the test preferences untouched
+            }
+        };
+        Main.setProjection(Projections.getProjectionByCode("EPSG:3857")); // Mercator
+    }
+
+    private static ElemStyles load(String file) throws Exception {
+        StringBuilder css = new StringBuilder();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                css.append(line).append('\n');
+            }
+        } finally {
+            in.close();
+        }
+        MapCSSStyleSource source = new MapCSSStyleSource(css.toString());
+        source.loadStyleSource();
+        ElemStyles styles = new ElemStyles();
+        styles.add(source);
+        styles.setDrawMultipolygon(true);
+        return styles;
+    }
+
+    /**
+     * The styles computed by several threads at once must be the same as the ones computed by one thread.
+     */
+    @Test
+    public void testParallelSameAsSequential() throws Exception {
+        DataSet ds = OsmReader.parseDataSet(new FileInputStream("data_nodist/neubrandenburg.osm"), NullProgressMonitor.INSTANCE);
+        final ElemStyles styles = load("styles/standard/potlatch2.mapcss");
+        final NavigatableComponent nc = new NavigatableComponent();
+        List<OsmPrimitive> primitives = new ArrayList<OsmPrimitive>(ds.allPrimitives());
+
+        Map<OsmPrimitive, StyleList> sequential = new HashMap<OsmPrimitive, StyleList>();
+        for (OsmPrimitive osm : primitives) {
+            sequential.put(osm, styles.get(osm, SCALE, nc));
+        }
+        assertFalse(sequential.isEmpty());
+
+        styles.clearCached();
+        // like the renderer, style the multipolygons first, their styles are cached when their ways are styled
+        for (Relation r : ds.getRelations()) {
+            if (r.isMultipolygon()) {
+                styles.get(r, SCALE, nc);
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        Map<OsmPrimitive, StyleList> parallel = new HashMap<OsmPrimitive, StyleList>();
+        try {
+            List<Future<Map<OsmPrimitive, StyleList>>> futures = new ArrayList<Future<Map<OsmPrimitive, StyleList>>>();
+            for (int t = 0; t < THREADS; t++) {
+                final List<OsmPrimitive> slice = primitives.subList(
+                        t * primitives.size() / THREADS, (t + 1) * primitives.size() / THREADS);
+                futures.add(executor.submit(new Callable<Map<OsmPrimitive, StyleList>>() {
+                    @Override
+                    public Map<OsmPrimitive, StyleList> call() {
+                        Map<OsmPrimitive, StyleList> result = new HashMap<OsmPrimitive, StyleList>();
+                        for (OsmPrimitive osm : slice) {
+                            result.put(osm, styles.get(osm, SCALE, nc));
+                        }
+                        return result;
+                    }
+                }));
+            }
+            for (Future<Map<OsmPrimitive, StyleList>> f : futures) {
+                parallel.putAll(f.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(sequential, parallel);
+    }
+}
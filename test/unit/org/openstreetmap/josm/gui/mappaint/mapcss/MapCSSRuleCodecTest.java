@@ -0,0 +1,152 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.mappaint.mapcss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.gui.mappaint.Cascade;
+import org.openstreetmap.josm.gui.mappaint.MultiCascade;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.io.OsmReader;
+
+/**
+ * Unit tests of {@link MapCSSRuleCodec} class.
+ */
+public class MapCSSRuleCodecTest {
+
+    /**
+     * Setup test.
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        Main.pref = new Preferences() {
+            @Override
+            public void save() {
+                // keep the test preferences untouched
+            }
+        };
+        Main.setProjection(Projections.getProjectionByCode("EPSG:3857")); // Mercator
+    }
+
+    private static MapCSSStyleSource load(String css) {
+        MapCSSStyleSource source = new MapCSSStyleSource(css);
+        source.loadStyleSource();
+        assertEquals(0, source.getErrors().size());
+        // the title of the source is shown by icon references
+        source.title = "test";
+        return source;
+    }
+
+    /**
+     * Writes and reads the rules of a style.
+     */
+    private static MapCSSStyleSource copy(MapCSSStyleSource source) throws IOException {
+        MapCSSRuleCodec codec = new MapCSSRuleCodec();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        codec.write(source.rules, out);
+        out.close();
+        List<MapCSSRule> rules = codec.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        // not loaded, the rules are applied without index
+        MapCSSStyleSource copy = new MapCSSStyleSource("");
+        copy.title = source.title;
+        copy.rules.addAll(rules);
+        return copy;
+    }
+
+    private static String applyAll(MapCSSStyleSource source, Iterable<? extends OsmPrimitive> primitives) {
+        StringBuilder sb = new StringBuilder();
+        for (OsmPrimitive osm : primitives) {
+            MultiCascade mc = new MultiCascade();
+            source.apply(mc, osm, 10, null, false);
+            sb.append(osm.getUniqueId()).append(mc.range);
+            for (Entry<String, Cascade> e : mc.getLayers()) {
+                sb.append(e.getKey()).append(e.getValue()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        MapCSSStyleSource source = load(
+                "node[amenity=pub][name=~/^The/][!fixme] { icon-image: \"pub.png\"; text: auto; z-index: +2; }\n" +
+                "way|z14-[highway][width>2]:closed::casing { width: eval(tag(\"width\") * 2 + 1); dashes: 2,3; }\n" +
+                "way[oneway?] { color: #ff000080; text: name; font-size: cond(has_tag_key(\"ref\"), 12, 10); }\n" +
+                "way[eval(length(tag(\"name\")) > 3)][eval(has_tag_key(\"ref\") && (has_tag_key(\"x\") || (!has_tag_key(\"y\"))))] { text: eval(\"static\"); }\n" +
+                "relation[type=route] >[role=forward] way, relation >[index=1] node { color: red; }\n" +
+                "node < way[highway] { symbol-shape: circle; }\n" +
+                "* { unknown-function: foo(1); raw: some unquoted text; }\n");
+
+        Node n = new Node(new LatLon(53.5, 13.2));
+        n.put("amenity", "pub");
+        n.put("name", "The Pub");
+        Way w = new Way();
+        w.put("highway", "primary");
+        w.put("width", "3");
+        w.put("oneway", "yes");
+        w.put("name", "Main Street");
+        w.put("ref", "B1");
+        w.addNode(n);
+        w.addNode(new Node(new LatLon(53.6, 13.3)));
+        w.addNode(n);
+        Relation r = new Relation();
+        r.put("type", "route");
+        r.addMember(new RelationMember("forward", w));
+        r.addMember(new RelationMember("", n));
+        DataSet ds = new DataSet();
+        ds.addPrimitive(w.getNode(1));
+        ds.addPrimitive(n);
+        ds.addPrimitive(w);
+        ds.addPrimitive(r);
+
+        MapCSSStyleSource copy = copy(source);
+        assertEquals(source.rules.size(), copy.rules.size());
+        String expected = applyAll(source, ds.allPrimitives());
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, applyAll(copy, ds.allPrimitives()));
+    }
+
+    /**
+     * The copy of the default style computes the same styles.
+     */
+    @Test
+    public void testDefaultStyle() throws Exception {
+        DataSet ds = OsmReader.parseDataSet(new FileInputStream("data_nodist/neubrandenburg.osm"), NullProgressMonitor.INSTANCE);
+        StringBuilder css = new StringBuilder();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream("styles/standard/potlatch2.mapcss"), "UTF-8"));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                css.append(line).append('\n');
+            }
+        } finally {
+            in.close();
+        }
+        MapCSSStyleSource source = load(css.toString());
+        assertEquals(applyAll(source, ds.allPrimitives()), applyAll(copy(source), ds.allPrimitives()));
+    }
+}
@@ -0,0 +1,124 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.mappaint.mapcss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.BitSet;
+import java.util.Map.Entry;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.gui.mappaint.Cascade;
+import org.openstreetmap.josm.gui.mappaint.MultiCascade;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.io.OsmReader;
+
+/**
+ * Unit tests of {@link MapCSSRuleIndex} class.
+ */
+public class MapCSSRuleIndexTest {
+
+    /**
+     * Setup test.
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        Main.pref = new Preferences() {
+            @Override
+            public void save() {
+                // keep the test preferences untouched
+            }
+        };
+        Main.setProjection(Projections.getProjectionByCode("EPSG:3857")); // Mercator
+    }
+
+    private static MapCSSStyleSource load(String css, boolean index) {
+        Main.pref.put(MapCSSStyleSource.PROP_RULE_INDEX.getKey(), index);
+        MapCSSStyleSource source = new MapCSSStyleSource(css);
+        source.loadStyleSource();
+        return source;
+    }
+
+    @Test
+    public void testCandidates() {
+        MapCSSStyleSource source = load(
+                "node[amenity=pub] { icon-image: \"pub.png\"; }\n" +
+                "way[highway][highway!=footway] { width: 2; }\n" +
+                "way[!highway] { width: 1; }\n" +
+                "area[building], relation[type=route] > way { color: red; }\n" +
+                "* { text: name; }\n", true);
+        MapCSSRuleIndex index = new MapCSSRuleIndex(source.rules);
+
+        Node pub = new Node();
+        pub.put("amenity", "pub");
+        assertEquals(bits(0, 5), index.getCandidates(pub));
+        assertEquals(bits(5), index.getCandidates(new Node()));
+
+        Way road = new Way();
+        road.put("highway", "primary");
+        assertEquals(bits(1, 2, 4, 5), index.getCandidates(road));
+        Way building = new Way();
+        building.put("building", "yes");
+        assertEquals(bits(2, 3, 4, 5), index.getCandidates(building));
+
+        Relation r = new Relation();
+        r.put("building", "yes");
+        assertEquals(bits(3), index.getCandidates(r));
+    }
+
+    private static BitSet bits(int... indexes) {
+        BitSet result = new BitSet();
+        for (int i : indexes) {
+            result.set(i);
+        }
+        return result;
+    }
+
+    private static String applyAll(MapCSSStyleSource source, DataSet ds) {
+        StringBuilder sb = new StringBuilder();
+        for (OsmPrimitive osm : ds.allPrimitives()) {
+            MultiCascade mc = new MultiCascade();
+            source.apply(mc, osm, 10, null, false);
+            sb.append(osm.getUniqueId()).append(mc.range);
+            for (Entry<String, Cascade> e : mc.getLayers()) {
+                sb.append(e.getKey()).append(e.getValue()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The styles computed with the index must be the same as without.
+     */
+    @Test
+    public void testSameStyles() throws Exception {
+        DataSet ds = OsmReader.parseDataSet(new FileInputStream("data_nodist/neubrandenburg.osm"), NullProgressMonitor.INSTANCE);
+        StringBuilder css = new StringBuilder();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream("styles/standard/potlatch2.mapcss"), "UTF-8"));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                css.append(line).append('\n');
+            }
+        } finally {
+            in.close();
+        }
+        String linear = applyAll(load(css.toString(), false), ds);
+        String indexed = applyAll(load(css.toString(), true), ds);
+        assertFalse(linear.isEmpty());
+        assertTrue(linear.equals(indexed));
+    }
+}
@@ -1,14 +1,19 @@
 // License: GPL. For details, see LICENSE file.
 package org.openstreetmap.josm.gui.tagging;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import org.junit.Assert;
 import org.junit.BeforeClass;
+import org.junit.ClassRule;
 import org.junit.Test;
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.fixtures.CacheDirRule;
 import org.xml.sax.SAXException;
 
 /**
@@ -19,6 +24,12 @@ public class TaggingPresetReaderTest {
      * path to test data root directory
      */
     private static String testdataroot;
+
+    /**
+     * cache directory of the parsed presets
+     */
+    @ClassRule
+    public static CacheDirRule cacheDir = new CacheDirRule();
     
     @BeforeClass
     public static void setUpClass() {
@@ -63,4 +74,28 @@ public class TaggingPresetReaderTest {
         Assert.assertTrue("Entry is not checkbox", item instanceof TaggingPresetItems.Check);
     }
 
+    private static List<String> describe(Collection<TaggingPreset> presets) {
+        List<String> result = new ArrayList<String>();
+        for (TaggingPreset p : presets) {
+            StringBuilder sb = new StringBuilder(p.getRawName()).append(p.types);
+            for (TaggingPresetItem item : p.data) {
+                sb.append(' ').append(item.getClass().getSimpleName());
+            }
+            result.add(sb.toString());
+        }
+        return result;
+    }
+
+    /**
+     * The presets replayed from the cache are the same as the parsed ones.
+     */
+    @Test
+    public void testCachedPresets() throws Exception {
+        List<String> parsed = describe(TaggingPresetReader.readAll("data/defaultpresets.xml", false));
+        Assert.assertTrue("No cache entries", new File(cacheDir.getRoot(), "parsed/presets").list().length > 0);
+        List<String> cached = describe(TaggingPresetReader.readAll("data/defaultpresets.xml", false));
+        Assert.assertFalse(parsed.isEmpty());
+        Assert.assertEquals(parsed, cached);
+    }
+
 }
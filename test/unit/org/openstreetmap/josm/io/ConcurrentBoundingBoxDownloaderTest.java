@@ -0,0 +1,196 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.fixtures.CacheDirRule;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Unit tests of {@link ConcurrentBoundingBoxDownloader} class, against a stub API with artificial latency.
+ */
+public class ConcurrentBoundingBoxDownloaderTest {
+
+    /** latency of the stub API in milliseconds */
+    private static final int LATENCY = 200;
+    /** the stub API rejects bounding boxes with more nodes */
+    private static final int MAX_NODES = 30;
+
+    private static HttpServer server;
+    @ClassRule
+    public static CacheDirRule cacheDir = new CacheDirRule();
+
+    private static final AtomicInteger requests = new AtomicInteger();
+    private static final AtomicInteger rejected = new AtomicInteger();
+    private static final AtomicInteger active = new AtomicInteger();
+    private static final AtomicInteger maxActive = new AtomicInteger();
+
+    /**
+     * The stub API, serving the nodes of a 10x10 grid with a spacing of 0.01 degrees starting at 0.005/0.005.
+     */
+    private static class StubApi implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            int n = active.incrementAndGet();
+            synchronized (maxActive) {
+                maxActive.set(Math.max(maxActive.get(), n));
+            }
+            try {
+                Thread.sleep(LATENCY);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                // the request counts as finished before the response is sent, the client may send the next one
+                // as soon as it has read the response
+                active.decrementAndGet();
+            }
+            String path = exchange.getRequestURI().getPath();
+            if (path.endsWith("/capabilities")) {
+                send(exchange, 200, "<osm version=\"0.6\" generator=\"stub\"><api>"
+                        + "<version minimum=\"0.6\" maximum=\"0.6\"/><area maximum=\"0.25\"/></api></osm>");
+            } else if (path.endsWith("/map")) {
+                requests.incrementAndGet();
+                String[] bbox = exchange.getRequestURI().getQuery().substring("bbox=".length()).split(",");
+                double minLon = Double.parseDouble(bbox[0]);
+                double minLat = Double.parseDouble(bbox[1]);
+                double maxLon = Double.parseDouble(bbox[2]);
+                double maxLat = Double.parseDouble(bbox[3]);
+                StringBuilder sb = new StringBuilder("<osm version=\"0.6\" generator=\"stub\">");
+                int count = 0;
+                for (int i = 0; i < 10; i++) {
+                    for (int j = 0; j < 10; j++) {
+                        double lat = 0.005 + 0.01 * i;
+                        double lon = 0.005 + 0.01 * j;
+                        if (lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon) {
+                            sb.append("<node id=\"").append(1 + 10 * i + j).append("\" version=\"1\" lat=\"")
+                            .append(lat).append("\" lon=\"").append(lon).append("\"/>");
+                            count++;
+                        }
+                    }
+                }
+                sb.append("</osm>");
+                if (count > MAX_NODES) {
+                    rejected.incrementAndGet();
+                    exchange.getResponseHeaders().add("Error", "You requested too many nodes");
+                    send(exchange, 400, "You requested too many nodes");
+                } else {
+                    send(exchange, 200, sb.toString());
+                }
+            } else {
+                send(exchange, 404, "");
+            }
+        }
+
+        private void send(HttpExchange exchange, int code, String body) throws IOException {
+            byte[] bytes = body.getBytes("UTF-8");
+            exchange.sendResponseHeaders(code, bytes.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(bytes);
+            out.close();
+        }
+    }
+
+    /**
+     * Starts the stub API.
+     * @throws IOException if the server cannot be started
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/", new StubApi());
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        Main.pref = new Preferences() {
+            @Override
+            public void save() {
+                // keep the test preferences untouched
+            }
+        };
+        // the platform is described in the user agent of the requests
+        Main.determinePlatformHook();
+        Main.setProjection(Projections.getProjectionByCode("EPSG:3857")); // Mercator
+        Main.pref.put("osm-server.url", "http://127.0.0.1:" + server.getAddress().getPort() + "/api");
+    }
+
+    /**
+     * Stops the stub API.
+     */
+    @AfterClass
+    public static void tearDownAfterClass() {
+        server.stop(0);
+    }
+
+    /**
+     * Resets the counters of the stub API.
+     */
+    @Before
+    public void setUp() {
+        requests.set(0);
+        rejected.set(0);
+        maxActive.set(0);
+        Main.pref.put(ConcurrentBoundingBoxDownloader.PROP_MAX_SPLIT_DEPTH.getKey(), null);
+    }
+
+    @Test
+    public void testDownload() throws OsmTransferException {
+        ConcurrentBoundingBoxDownloader downloader = new ConcurrentBoundingBoxDownloader(Arrays.asList(
+                new Bounds(0, 0, 0.05, 0.1), new Bounds(0.05, 0, 0.1, 0.1), new Bounds(0.04, 0.04, 0.06, 0.06)));
+        DataSet ds = downloader.parseOsm(NullProgressMonitor.INSTANCE);
+        assertEquals(100, ds.getNodes().size());
+        // the two large boxes are split into four parts each
+        assertEquals(2, rejected.get());
+        assertEquals(11, requests.get());
+        // concurrent requests, up to the limit per host
+        assertEquals(ConcurrentBoundingBoxDownloader.PROP_REQUESTS_PER_HOST.get().intValue(), maxActive.get());
+    }
+
+    @Test
+    public void testRejected() throws OsmTransferException {
+        Main.pref.putInteger(ConcurrentBoundingBoxDownloader.PROP_MAX_SPLIT_DEPTH.getKey(), 0);
+        ConcurrentBoundingBoxDownloader downloader = new ConcurrentBoundingBoxDownloader(Arrays.asList(
+                new Bounds(0, 0, 0.1, 0.1), new Bounds(0, 0, 0.01, 0.01)));
+        // the data of the small box is kept
+        DataSet ds = downloader.parseOsm(NullProgressMonitor.INSTANCE);
+        assertEquals(1, ds.getNodes().size());
+        assertEquals(1, downloader.getFailures().size());
+        OsmTransferException e = downloader.getFailures().get(0);
+        assertTrue(e instanceof OsmApiException);
+        assertEquals(400, ((OsmApiException) e).getResponseCode());
+    }
+
+    @Test
+    public void testAllRejected() {
+        Main.pref.putInteger(ConcurrentBoundingBoxDownloader.PROP_MAX_SPLIT_DEPTH.getKey(), 0);
+        try {
+            new ConcurrentBoundingBoxDownloader(Arrays.asList(new Bounds(0, 0, 0.1, 0.1)))
+                    .parseOsm(NullProgressMonitor.INSTANCE);
+            fail();
+        } catch (OsmTransferException e) {
+            assertTrue(e instanceof OsmApiException);
+            assertEquals(400, ((OsmApiException) e).getResponseCode());
+        }
+    }
+}
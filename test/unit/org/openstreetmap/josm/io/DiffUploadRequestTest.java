@@ -0,0 +1,101 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.Changeset;
+import org.openstreetmap.josm.data.osm.IPrimitive;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * Unit tests of {@link DiffUploadRequest} class.
+ */
+public class DiffUploadRequestTest {
+
+    /**
+     * Setup test.
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        Main.pref = new Preferences();
+        Main.setProjection(Projections.getProjectionByCode("EPSG:3857")); // Mercator
+    }
+
+    private static Node newNode(double lat, double lon) {
+        Node n = new Node(new LatLon(lat, lon));
+        n.put("name", "äöü");
+        return n;
+    }
+
+    @Test
+    public void testContent() throws IOException {
+        Changeset cs = new Changeset(1);
+        Node n1 = newNode(1, 2);
+        Node n2 = newNode(3, 4);
+        Way w = new Way();
+        w.setNodes(Arrays.asList(n1, n2));
+        Node deleted = new Node(5, 1);
+        deleted.setCoor(new LatLon(5, 6));
+        deleted.setDeleted(true);
+        List<IPrimitive> primitives = Arrays.<IPrimitive>asList(n1, n2, w, deleted);
+
+        OsmChangeBuilder builder = new OsmChangeBuilder(cs);
+        builder.start();
+        builder.append(primitives);
+        builder.finish();
+        byte[] expected = builder.getDocument().getBytes("UTF-8");
+
+        DiffUploadRequest request = new DiffUploadRequest(primitives, cs, false);
+        assertNull(request.getContentEncoding());
+        assertArrayEquals(expected, request.getContent());
+        assertEquals(primitives, request.getPrimitives());
+
+        DiffUploadRequest compressed = new DiffUploadRequest(primitives, cs, true);
+        assertEquals("gzip", compressed.getContentEncoding());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Utils.copyStream(new GZIPInputStream(new ByteArrayInputStream(compressed.getContent())), out);
+        assertArrayEquals(expected, out.toByteArray());
+    }
+
+    @Test
+    public void testSelfContained() {
+        Node n1 = newNode(1, 2);
+        Node n2 = newNode(3, 4);
+        Node existing = new Node(7, 1);
+        existing.setCoor(new LatLon(5, 6));
+        Way w = new Way();
+        w.setNodes(Arrays.asList(n1, n2, existing));
+        Relation r = new Relation();
+        r.addMember(new RelationMember("", w));
+
+        assertTrue(DiffUploadRequest.isSelfContained(Arrays.asList(n1, n2)));
+        assertTrue(DiffUploadRequest.isSelfContained(Arrays.asList(n1, n2, w, r)));
+        // refers to a new node of another request
+        assertFalse(DiffUploadRequest.isSelfContained(Arrays.asList(n2, w)));
+        assertFalse(DiffUploadRequest.isSelfContained(Arrays.asList(r)));
+        // deleted primitives are written without their nodes
+        w.setDeleted(true);
+        assertTrue(DiffUploadRequest.isSelfContained(Arrays.asList(w)));
+    }
+}
@@ -0,0 +1,272 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.tools.Utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Unit tests of {@link HttpTransport} class, against a stub API.
+ */
+public class HttpTransportTest {
+
+    /** the body of the responses of the stub API */
+    private static final byte[] BODY = new byte[10000];
+
+    private static HttpServer server;
+    private static String baseUrl;
+
+    /** the client ports of the connections the stub API was contacted from */
+    private static final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+    /** the number of requests the stub API will answer with 503 */
+    private static final AtomicInteger unavailable = new AtomicInteger();
+
+    /**
+     * The stub API, answering all requests with {@link #BODY}.
+     */
+    private static class StubApi implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            byte[] body = BODY;
+            int code = 200;
+            if (unavailable.getAndDecrement() > 0) {
+                exchange.getResponseHeaders().add("Retry-After", "0");
+                body = new byte[0];
+                code = 503;
+            }
+            exchange.sendResponseHeaders(code, body.length == 0 ? -1 : body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+    }
+
+    /**
+     * A reader of the stub API.
+     */
+    private static class Reader extends OsmServerReader {
+        @Override
+        public DataSet parseOsm(ProgressMonitor progressMonitor) throws OsmTransferException {
+            return null;
+        }
+
+        public byte[] read(String path, boolean completely) throws OsmTransferException, IOException {
+            InputStream in = getInputStreamRaw(baseUrl + path, NullProgressMonitor.INSTANCE);
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                if (completely) {
+                    Utils.copyStream(in, out);
+                } else {
+                    out.write(in.read());
+                }
+                return out.toByteArray();
+            } finally {
+                Utils.close(in);
+            }
+        }
+    }
+
+    /**
+     * Starts the stub API.
+     * @throws IOException if the server cannot be started
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() throws IOException {
+        for (int i = 0; i < BODY.length; i++) {
+            BODY[i] = (byte) i;
+        }
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/", new StubApi());
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        Main.pref = new Preferences() {
+            @Override
+            public void save() {
+                // keep the test preferences untouched
+            }
+        };
+        // the platform is described in the user agent of the requests
+        Main.determinePlatformHook();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/api";
+        Main.pref.put("osm-server.url", baseUrl);
+        Main.pref.put("osm-server.use-compression", false);
+    }
+
+    /**
+     * Stops the stub API.
+     */
+    @AfterClass
+    public static void tearDownAfterClass() {
+        server.stop(0);
+    }
+
+    /**
+     * Resets the metrics and the stub API.
+     */
+    @Before
+    public void setUp() {
+        HttpTransport.resetMetrics();
+        clientPorts.clear();
+        unavailable.set(0);
+    }
+
+    private static HttpTransport.EndpointMetrics getMetrics(String endpoint) {
+        for (HttpTransport.EndpointMetrics m : HttpTransport.getMetrics()) {
+            if (m.getEndpoint().equals(endpoint))
+                return m;
+        }
+        throw new AssertionError("No metrics of " + endpoint);
+    }
+
+    @Test
+    public void testKeepAlive() throws Exception {
+        Reader reader = new Reader();
+        for (int id = 1; id <= 3; id++) {
+            assertArrayEquals(BODY, reader.read("/node/" + id, true));
+        }
+        // the rest of the response is skipped, the connection is reused anyway
+        assertEquals(1, reader.read("/node/4/history", false).length);
+        assertArrayEquals(BODY, new Reader().read("/node/5/history", true));
+        assertEquals(1, clientPorts.size());
+
+        HttpTransport.EndpointMetrics node = getMetrics("GET node/{id}");
+        assertEquals(3, node.getRequests());
+        assertEquals(0, node.getFailures());
+        assertEquals(3 * BODY.length, node.getBytesReceived());
+        int[] histogram = node.getLatencyHistogram();
+        assertEquals(HttpTransport.LATENCY_BUCKETS.length + 1, histogram.length);
+        int count = 0;
+        for (int c : histogram) {
+            count += c;
+        }
+        assertEquals(3, count);
+        HttpTransport.EndpointMetrics history = getMetrics("GET node/{id}/history");
+        assertEquals(2, history.getRequests());
+        assertEquals(2 * BODY.length, history.getBytesReceived());
+    }
+
+    @Test
+    public void testNoKeepAlive() throws Exception {
+        Main.pref.put(HttpTransport.PROP_KEEP_ALIVE.getKey(), false);
+        try {
+            Reader reader = new Reader();
+            for (int id = 1; id <= 3; id++) {
+                assertArrayEquals(BODY, reader.read("/way/" + id, true));
+            }
+            assertEquals(3, clientPorts.size());
+        } finally {
+            Main.pref.put(HttpTransport.PROP_KEEP_ALIVE.getKey(), null);
+        }
+    }
+
+    /**
+     * A stale connection would silently send a non-idempotent request again.
+     */
+    @Test
+    public void testNoKeepAliveForUploads() throws Exception {
+        URL url = new URL(baseUrl + "/changeset/create");
+        HttpTransport.Exchange put = HttpTransport.begin("PUT", url, baseUrl);
+        assertEquals("close", put.openConnection(url).getRequestProperty("Connection"));
+        put.finish(false);
+        HttpTransport.Exchange get = HttpTransport.begin("GET", url, baseUrl);
+        assertNull(get.openConnection(url).getRequestProperty("Connection"));
+        get.finish(false);
+    }
+
+    @Test
+    public void testRetry() throws Exception {
+        unavailable.set(1);
+        assertArrayEquals(BODY, new Reader().read("/relation/1/full", true));
+        HttpTransport.EndpointMetrics m = getMetrics("GET relation/{id}/full");
+        assertEquals(1, m.getRequests());
+        assertEquals(1, m.getRetries());
+        assertEquals(0, m.getFailures());
+
+        Main.pref.putInteger(HttpTransport.PROP_READ_RETRIES.getKey(), 1);
+        unavailable.set(2);
+        try {
+            new Reader().read("/relation/2/full", true);
+            throw new AssertionError("Expected 503");
+        } catch (OsmApiException e) {
+            assertEquals(503, e.getResponseCode());
+        } finally {
+            Main.pref.put(HttpTransport.PROP_READ_RETRIES.getKey(), null);
+        }
+        m = getMetrics("GET relation/{id}/full");
+        assertEquals(2, m.getRequests());
+        assertEquals(2, m.getRetries());
+        assertEquals(1, m.getFailures());
+    }
+
+    @Test
+    public void testEndpoint() throws Exception {
+        String api = "http://api.openstreetmap.org/api";
+        assertEquals("GET 0.6/node/{id}/ways", HttpTransport.getEndpoint("GET", new URL(api + "/0.6/node/123/ways"), api));
+        assertEquals("PUT 0.6/changeset/create", HttpTransport.getEndpoint("PUT", new URL(api + "/0.6/changeset/create"), api + "/"));
+        assertEquals("GET 0.6/map", HttpTransport.getEndpoint("GET", new URL(api + "/0.6/map?bbox=1,2,3,4"), api));
+        assertEquals("GET example.org/trace/{id}/data", HttpTransport.getEndpoint("GET", new URL("http://example.org/trace/42/data"), api));
+        assertEquals("GET 0.6/node/12a", HttpTransport.getEndpoint("GET", new URL(api + "/0.6/node/12a"), api));
+    }
+
+    @Test
+    public void testBackoff() {
+        assertEquals(1000, HttpTransport.getBackoff(1, null));
+        assertEquals(2000, HttpTransport.getBackoff(2, null));
+        assertEquals(16000, HttpTransport.getBackoff(5, null));
+        assertEquals(30000, HttpTransport.getBackoff(6, null));
+        assertEquals(30000, HttpTransport.getBackoff(100, null));
+        assertEquals(5000, HttpTransport.getBackoff(1, "5"));
+        assertEquals(2000, HttpTransport.getBackoff(2, "1"));
+        assertEquals(30000, HttpTransport.getBackoff(1, "3600"));
+        assertEquals(1000, HttpTransport.getBackoff(1, "Fri, 31 Dec 1999 23:59:59 GMT"));
+        assertTrue(HttpTransport.isRetryable(503));
+        assertTrue(HttpTransport.isRetryable(429));
+        assertFalse(HttpTransport.isRetryable(500));
+        assertFalse(HttpTransport.isRetryable(404));
+    }
+
+    @Test
+    public void testReport() throws Exception {
+        new Reader().read("/changeset/1", true);
+        List<HttpTransport.EndpointMetrics> metrics = HttpTransport.getMetrics();
+        assertEquals(1, metrics.size());
+        StringWriter out = new StringWriter();
+        HttpTransport.writeReport(new PrintWriter(out));
+        String[] lines = out.toString().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[1].trim().endsWith("GET changeset/{id}"));
+    }
+}
@@ -0,0 +1,201 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
+import org.openstreetmap.josm.data.osm.PrimitiveId;
+import org.openstreetmap.josm.data.osm.SimplePrimitiveId;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.fixtures.CacheDirRule;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Unit tests of {@link MultiFetchServerObjectReader} class, against a stub API.
+ */
+public class MultiFetchServerObjectReaderStubApiTest {
+
+    /** the ids of the nodes unknown to the stub API */
+    private static final Set<Long> UNKNOWN = new HashSet<Long>(Arrays.asList(17L, 500L, 501L, 998L));
+
+    private static HttpServer server;
+    private static String serverUrl;
+    @ClassRule
+    public static CacheDirRule cacheDir = new CacheDirRule();
+
+    /** the sizes of the multi fetch requests, in order */
+    private static final List<Integer> requestSizes = Collections.synchronizedList(new ArrayList<Integer>());
+    /** the max. length of the request URLs */
+    private static int maxUrlLength;
+    /** the latency of the stub API in milliseconds */
+    private static volatile int latency;
+
+    /**
+     * The stub API, serving the nodes with ids up to 10000, except {@link #UNKNOWN}.
+     */
+    private static class StubApi implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath();
+            if (path.endsWith("/capabilities")) {
+                send(exchange, 200, "<osm version=\"0.6\" generator=\"stub\"><api>"
+                        + "<version minimum=\"0.6\" maximum=\"0.6\"/></api></osm>");
+            } else if (path.endsWith("/nodes")) {
+                synchronized (requestSizes) {
+                    maxUrlLength = Math.max(maxUrlLength, (serverUrl + exchange.getRequestURI().toString()).length()
+                            - "/api".length());
+                }
+                try {
+                    Thread.sleep(latency);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                String[] ids = exchange.getRequestURI().getQuery().substring("nodes=".length()).split(",");
+                requestSizes.add(ids.length);
+                StringBuilder sb = new StringBuilder("<osm version=\"0.6\" generator=\"stub\">");
+                for (String s : ids) {
+                    long id = Long.parseLong(s);
+                    if (UNKNOWN.contains(id) || id > 10000) {
+                        send(exchange, 404, "");
+                        return;
+                    }
+                    sb.append("<node id=\"").append(id).append("\" version=\"1\" visible=\"true\" lat=\"1.0\" lon=\"2.0\"/>");
+                }
+                sb.append("</osm>");
+                send(exchange, 200, sb.toString());
+            } else {
+                send(exchange, 404, "");
+            }
+        }
+
+        private void send(HttpExchange exchange, int code, String body) throws IOException {
+            byte[] bytes = body.getBytes("UTF-8");
+            exchange.sendResponseHeaders(code, bytes.length == 0 ? -1 : bytes.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(bytes);
+            out.close();
+        }
+    }
+
+    /**
+     * Starts the stub API.
+     * @throws IOException if the server cannot be started
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/", new StubApi());
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        Main.pref = new Preferences() {
+            @Override
+            public void save() {
+                // keep the test preferences untouched
+            }
+        };
+        // the platform is described in the user agent of the requests
+        Main.determinePlatformHook();
+        Main.setProjection(Projections.getProjectionByCode("EPSG:3857")); // Mercator
+        serverUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/api";
+        Main.pref.put("osm-server.url", serverUrl);
+    }
+
+    /**
+     * Stops the stub API.
+     */
+    @AfterClass
+    public static void tearDownAfterClass() {
+        server.stop(0);
+    }
+
+    /**
+     * Resets the preferences and the stub API.
+     */
+    @Before
+    public void setUp() {
+        requestSizes.clear();
+        maxUrlLength = 0;
+        latency = 0;
+        Main.pref.put(MultiFetchServerObjectReader.PROP_THREADS.getKey(), null);
+        Main.pref.put(MultiFetchServerObjectReader.PROP_MAX_URL_LENGTH.getKey(), null);
+        Main.pref.put(MultiFetchServerObjectReader.PROP_TARGET_LATENCY.getKey(), null);
+    }
+
+    private static DataSet fetchNodes(long minId, long maxId, MultiFetchServerObjectReader reader) throws OsmTransferException {
+        for (long id = minId; id <= maxId; id++) {
+            reader.append(new Node(id));
+        }
+        return reader.parseOsm(NullProgressMonitor.INSTANCE);
+    }
+
+    @Test
+    public void testMainApi() {
+        assertTrue(MultiFetchServerObjectReader.isMainApi(OsmApi.DEFAULT_API_URL));
+        assertTrue(MultiFetchServerObjectReader.isMainApi("https://api.openstreetmap.org/api"));
+        assertFalse(MultiFetchServerObjectReader.isMainApi(serverUrl));
+        assertFalse(MultiFetchServerObjectReader.isMainApi("http://api.openstreetmap.org.example.com/api"));
+    }
+
+    @Test
+    public void testUnknownIds() throws OsmTransferException {
+        Main.pref.putInteger(MultiFetchServerObjectReader.PROP_THREADS.getKey(), 4);
+        MultiFetchServerObjectReader reader = new MultiFetchServerObjectReader();
+        DataSet ds = fetchNodes(1, 1000, reader);
+        assertEquals(1000 - UNKNOWN.size(), ds.getNodes().size());
+        Set<PrimitiveId> missing = new HashSet<PrimitiveId>();
+        for (long id : UNKNOWN) {
+            missing.add(new SimplePrimitiveId(id, OsmPrimitiveType.NODE));
+        }
+        assertEquals(missing, reader.getMissingPrimitives());
+        // the packages with unknown ids are split in halves, instead of fetching each of their nodes
+        assertTrue(requestSizes.toString(), requestSizes.size() < 100);
+    }
+
+    @Test
+    public void testGrowingPackages() throws OsmTransferException {
+        Main.pref.putInteger(MultiFetchServerObjectReader.PROP_MAX_URL_LENGTH.getKey(), 2000);
+        DataSet ds = fetchNodes(1001, 5000, new MultiFetchServerObjectReader());
+        assertEquals(4000, ds.getNodes().size());
+        assertEquals(200, requestSizes.get(0).intValue());
+        // doubled up to the URL length limit: 5 characters per id
+        assertEquals(2000, maxUrlLength, 5);
+        assertTrue(requestSizes.toString(), Collections.max(requestSizes) > 300);
+        assertTrue(requestSizes.toString(), requestSizes.size() < 20);
+    }
+
+    @Test
+    public void testShrinkingPackages() throws OsmTransferException {
+        Main.pref.putInteger(MultiFetchServerObjectReader.PROP_TARGET_LATENCY.getKey(), 10);
+        Main.pref.putInteger(MultiFetchServerObjectReader.PROP_THREADS.getKey(), 1);
+        latency = 20;
+        DataSet ds = fetchNodes(1001, 1500, new MultiFetchServerObjectReader());
+        assertEquals(500, ds.getNodes().size());
+        assertEquals(Arrays.asList(200, 100, 50, 25, 12, 10, 10), requestSizes.subList(0, 7));
+    }
+}
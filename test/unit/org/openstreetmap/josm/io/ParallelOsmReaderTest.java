@@ -0,0 +1,124 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+
+/**
+ * Unit tests of {@link ParallelOsmReader} class.
+ */
+public class ParallelOsmReaderTest {
+
+    /**
+     * Setup test.
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        Main.pref = new Preferences();
+        Main.setProjection(Projections.getProjectionByCode("EPSG:3857")); // Mercator
+    }
+
+    private static InputStream stream(String xml) throws Exception {
+        return new ByteArrayInputStream(xml.getBytes("UTF-8"));
+    }
+
+    private static void assertSamePrimitive(OsmPrimitive expected, OsmPrimitive actual) {
+        String msg = expected.toString();
+        assertNotNull(msg, actual);
+        assertEquals(msg, expected.getKeys(), actual.getKeys());
+        assertEquals(msg, expected.getVersion(), actual.getVersion());
+        assertEquals(msg, expected.isIncomplete(), actual.isIncomplete());
+        assertEquals(msg, expected.isDeleted(), actual.isDeleted());
+        assertEquals(msg, expected.isModified(), actual.isModified());
+        if (expected instanceof Node) {
+            assertEquals(msg, ((Node) expected).getCoor(), ((Node) actual).getCoor());
+        } else if (expected instanceof Way) {
+            assertEquals(msg, ((Way) expected).getNodesCount(), ((Way) actual).getNodesCount());
+            for (int i = 0; i < ((Way) expected).getNodesCount(); i++) {
+                assertEquals(msg, ((Way) expected).getNodeId(i), ((Way) actual).getNodeId(i));
+            }
+        } else {
+            Relation r1 = (Relation) expected;
+            Relation r2 = (Relation) actual;
+            assertEquals(msg, r1.getMembersCount(), r2.getMembersCount());
+            for (int i = 0; i < r1.getMembersCount(); i++) {
+                RelationMember m1 = r1.getMember(i);
+                RelationMember m2 = r2.getMember(i);
+                assertEquals(msg, m1.getRole(), m2.getRole());
+                assertEquals(msg, m1.getMember().getPrimitiveId(), m2.getMember().getPrimitiveId());
+            }
+        }
+    }
+
+    @Test
+    public void testSameDataSet() throws Exception {
+        DataSet expected = OsmReader.parseDataSet(new FileInputStream("data_nodist/neubrandenburg.osm"), NullProgressMonitor.INSTANCE);
+        DataSet actual = ParallelOsmReader.parseDataSet(new FileInputStream("data_nodist/neubrandenburg.osm"), NullProgressMonitor.INSTANCE);
+        assertEquals(expected.allPrimitives().size(), actual.allPrimitives().size());
+        assertEquals(expected.dataSources.size(), actual.dataSources.size());
+        for (OsmPrimitive osm : expected.allPrimitives()) {
+            assertSamePrimitive(osm, actual.getPrimitiveById(osm));
+        }
+    }
+
+    @Test
+    public void testReferences() throws Exception {
+        DataSet ds = ParallelOsmReader.parseDataSet(stream(
+                "<osm version='0.6'>\n" +
+                "<node id='-1' lat='1' lon='2'><tag k='name' v='new'/></node>\n" +
+                "<node id='1' version='1' changeset='1' lat='3' lon='4'/>\n" +
+                "<way id='-2'><nd ref='-1'/><nd ref='1'/><nd ref='2'/></way>\n" +
+                "<relation id='-3'><member type='way' ref='-2' role='outer'/><member type='relation' ref='5' role=''/></relation>\n" +
+                "</osm>"), null);
+        assertEquals(6, ds.allPrimitives().size());
+        Relation r = null;
+        for (Relation rel : ds.getRelations()) {
+            if (!rel.isIncomplete()) {
+                r = rel;
+            }
+        }
+        assertNotNull(r);
+        assertEquals(2, r.getMembersCount());
+        assertEquals("outer", r.getMember(0).getRole());
+        Way w = r.getMember(0).getWay();
+        assertEquals(3, w.getNodesCount());
+        assertEquals("new", w.getNode(0).get("name"));
+        assertTrue(w.getNode(2).isIncomplete());
+        assertTrue(r.getMember(1).getMember().isIncomplete());
+        assertEquals(5, r.getMember(1).getMember().getId());
+        assertNotNull(ds.getPrimitiveById(2, OsmPrimitiveType.NODE));
+    }
+
+    @Test
+    public void testMissingNewNode() throws Exception {
+        try {
+            ParallelOsmReader.parseDataSet(stream(
+                    "<osm version='0.6'>\n" +
+                    "<way id='-2'><nd ref='-1'/></way>\n" +
+                    "</osm>"), null);
+            fail("missing new node not detected");
+        } catch (IllegalDataException e) {
+            // expected
+        }
+    }
+}
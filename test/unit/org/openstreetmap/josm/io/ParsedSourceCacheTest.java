@@ -0,0 +1,83 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.fixtures.CacheDirRule;
+
+/**
+ * Unit tests of {@link ParsedSourceCache} class.
+ */
+public class ParsedSourceCacheTest {
+
+    private static final String SOURCE = "http://localhost/style.mapcss";
+
+    @Rule
+    public CacheDirRule cacheDir = new CacheDirRule();
+
+    /**
+     * A codec storing the parsed content, the content in upper case.
+     */
+    private static class UpperCaseCodec implements ParsedSourceCache.Codec<String> {
+        int reads;
+
+        @Override
+        public void write(String model, DataOutputStream out) throws IOException {
+            out.writeUTF(model);
+        }
+
+        @Override
+        public String read(DataInputStream in) throws IOException {
+            reads++;
+            return in.readUTF();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        Main.pref = new Preferences();
+    }
+
+    @Test
+    public void testGetPut() throws IOException {
+        UpperCaseCodec codec = new UpperCaseCodec();
+        ParsedSourceCache<String> cache = new ParsedSourceCache<String>("test", 1, codec);
+        byte[] content = "way { color: red; }".getBytes("UTF-8");
+        assertNull(cache.get(SOURCE, content));
+        cache.put(SOURCE, content, "WAY { COLOR: RED; }");
+        assertEquals("WAY { COLOR: RED; }", cache.get(SOURCE, content));
+        assertEquals(1, codec.reads);
+
+        // a changed source is parsed again
+        assertNull(cache.get(SOURCE, "way { color: blue; }".getBytes("UTF-8")));
+        assertNull(cache.get("http://localhost/other.mapcss", content));
+        assertEquals(1, codec.reads);
+
+        // the entries of another version of the codec are ignored
+        assertNull(new ParsedSourceCache<String>("test", 2, codec).get(SOURCE, content));
+        assertNull(cache.get(null, content));
+    }
+
+    @Test
+    public void testInvalidEntry() throws IOException {
+        ParsedSourceCache<String> cache = new ParsedSourceCache<String>("test", 1, new UpperCaseCodec() {
+            @Override
+            public String read(DataInputStream in) throws IOException {
+                throw new IOException("invalid");
+            }
+        });
+        byte[] content = "way { color: red; }".getBytes("UTF-8");
+        cache.put(SOURCE, content, "WAY { COLOR: RED; }");
+        assertNull(cache.get(SOURCE, content));
+    }
+}
@@ -0,0 +1,164 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.util.Arrays;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.DataSource;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+
+/**
+ * Unit tests of {@link PbfReader} and {@link PbfWriter} classes.
+ */
+public class PbfReaderTest {
+
+    /**
+     * Setup test.
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        Main.pref = new Preferences();
+        Main.setProjection(Projections.getProjectionByCode("EPSG:3857")); // Mercator
+    }
+
+    private static byte[] write(DataSet ds) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PbfWriter w = new PbfWriter(out);
+        try {
+            w.writeData(ds);
+        } finally {
+            w.close();
+        }
+        return out.toByteArray();
+    }
+
+    private static DataSet read(byte[] data) throws Exception {
+        return PbfReader.parseDataSet(new ByteArrayInputStream(data), NullProgressMonitor.INSTANCE);
+    }
+
+    private static void assertSamePrimitive(OsmPrimitive expected, OsmPrimitive actual) {
+        String msg = expected.toString();
+        assertNotNull(msg, actual);
+        assertEquals(msg, expected.getKeys(), actual.getKeys());
+        assertEquals(msg, expected.getVersion(), actual.getVersion());
+        assertEquals(msg, expected.getChangesetId(), actual.getChangesetId());
+        assertEquals(msg, expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(msg, expected.getUser(), actual.getUser());
+        assertEquals(msg, expected.isIncomplete(), actual.isIncomplete());
+        if (expected instanceof Node) {
+            assertEquals(msg, ((Node) expected).getCoor(), ((Node) actual).getCoor());
+        } else if (expected instanceof Way) {
+            assertEquals(msg, ((Way) expected).getNodesCount(), ((Way) actual).getNodesCount());
+            for (int i = 0; i < ((Way) expected).getNodesCount(); i++) {
+                assertEquals(msg, ((Way) expected).getNodeId(i), ((Way) actual).getNodeId(i));
+            }
+        } else {
+            Relation r1 = (Relation) expected;
+            Relation r2 = (Relation) actual;
+            assertEquals(msg, r1.getMembersCount(), r2.getMembersCount());
+            for (int i = 0; i < r1.getMembersCount(); i++) {
+                RelationMember m1 = r1.getMember(i);
+                RelationMember m2 = r2.getMember(i);
+                assertEquals(msg, m1.getRole(), m2.getRole());
+                assertEquals(msg, m1.getMember().getPrimitiveId(), m2.getMember().getPrimitiveId());
+            }
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        DataSet expected = OsmReader.parseDataSet(new FileInputStream("data_nodist/neubrandenburg.osm"), NullProgressMonitor.INSTANCE);
+        DataSet actual = read(write(expected));
+        assertEquals(expected.allPrimitives().size(), actual.allPrimitives().size());
+        // the format has a single bounding box
+        Bounds bounds = null;
+        for (DataSource src : expected.dataSources) {
+            if (bounds == null) {
+                bounds = new Bounds(src.bounds);
+            } else {
+                bounds.extend(src.bounds);
+            }
+        }
+        assertEquals(1, actual.dataSources.size());
+        assertEquals(bounds, actual.dataSources.iterator().next().bounds);
+        for (OsmPrimitive osm : expected.allPrimitives()) {
+            assertSamePrimitive(osm, actual.getPrimitiveById(osm));
+        }
+    }
+
+    @Test
+    public void testNewAndIncompletePrimitives() throws Exception {
+        DataSet ds = OsmReader.parseDataSet(new ByteArrayInputStream((
+                "<osm version='0.6'>\n" +
+                "<node id='-1' lat='1' lon='2'><tag k='name' v='new'/></node>\n" +
+                "<node id='1' version='1' changeset='1' lat='3' lon='4' action='delete'/>\n" +
+                "<way id='-2'><nd ref='-1'/><nd ref='2'/></way>\n" +
+                "<relation id='-3'><member type='way' ref='-2' role='outer'/><member type='relation' ref='5' role=''/></relation>\n" +
+                "</osm>").getBytes("UTF-8")), null);
+        DataSet actual = read(write(ds));
+        // the deleted node is not written
+        assertEquals(5, actual.allPrimitives().size());
+        Relation r = null;
+        for (Relation rel : actual.getRelations()) {
+            if (!rel.isIncomplete()) {
+                r = rel;
+            }
+        }
+        assertNotNull(r);
+        assertTrue(r.isNew());
+        Way w = r.getMember(0).getWay();
+        assertEquals("new", w.getNode(0).get("name"));
+        assertTrue(w.getNode(0).isNew());
+        assertTrue(w.getNode(1).isIncomplete());
+        assertTrue(r.getMember(1).getMember().isIncomplete());
+        assertEquals(5, r.getMember(1).getMember().getId());
+        assertNotNull(actual.getPrimitiveById(2, OsmPrimitiveType.NODE));
+    }
+
+    @Test
+    public void testNodeWithoutCoordinates() throws Exception {
+        DataSet ds = new DataSet();
+        Node n = new Node(1, 1);
+        n.setCoor(new LatLon(3, 4));
+        ds.addPrimitive(n);
+        n.setCoor(null);
+        ds.addPrimitive(new Node(new LatLon(1, 2)));
+        DataSet actual = read(write(ds));
+        assertEquals(1, actual.getNodes().size());
+        assertNull(actual.getPrimitiveById(1, OsmPrimitiveType.NODE));
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        DataSet ds = OsmReader.parseDataSet(new FileInputStream("data_nodist/neubrandenburg.osm"), NullProgressMonitor.INSTANCE);
+        byte[] data = write(ds);
+        try {
+            read(Arrays.copyOf(data, data.length / 2));
+            fail("truncated file not detected");
+        } catch (IllegalDataException e) {
+            // expected
+        }
+    }
+}
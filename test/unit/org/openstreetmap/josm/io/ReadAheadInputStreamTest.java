@@ -0,0 +1,78 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link ReadAheadInputStream} class.
+ */
+public class ReadAheadInputStreamTest {
+
+    /**
+     * An endless stream which records the thread closing it.
+     */
+    private static class EndlessStream extends InputStream {
+        final CountDownLatch closed = new CountDownLatch(1);
+        volatile Thread closingThread;
+
+        @Override
+        public int read() throws IOException {
+            return 'x';
+        }
+
+        @Override
+        public void close() throws IOException {
+            closingThread = Thread.currentThread();
+            closed.countDown();
+        }
+    }
+
+    @Test
+    public void testReadAll() throws IOException {
+        byte[] data = new byte[200 * 1000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        ReadAheadInputStream in = new ReadAheadInputStream(new ByteArrayInputStream(data));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] b = new byte[1000];
+        int n;
+        while ((n = in.read(b, 0, b.length)) != -1) {
+            out.write(b, 0, n);
+        }
+        assertEquals(-1, in.read());
+        in.close();
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    /**
+     * The underlying stream is closed by the read-ahead thread, not by the caller of close().
+     */
+    @Test
+    public void testCloseStopsReader() throws Exception {
+        EndlessStream source = new EndlessStream();
+        ReadAheadInputStream in = new ReadAheadInputStream(source);
+        assertEquals('x', in.read());
+        in.close();
+        assertTrue(source.closed.await(5, TimeUnit.SECONDS));
+        assertTrue(source.closingThread != Thread.currentThread());
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadAfterClose() throws IOException {
+        ReadAheadInputStream in = new ReadAheadInputStream(new EndlessStream());
+        in.close();
+        in.read();
+    }
+}
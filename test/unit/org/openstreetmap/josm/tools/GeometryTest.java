@@ -0,0 +1,90 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.geom.Line2D;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link Geometry} class.
+ */
+public class GeometryTest {
+
+    private static Set<Long> sweep(double[] coords) {
+        final Set<Long> pairs = new TreeSet<Long>();
+        Geometry.findSegmentIntersections(coords, new Geometry.SegmentIntersectionHandler() {
+            @Override
+            public boolean intersection(int first, int second) {
+                // each pair is reported once
+                assertTrue(pairs.add((long) Math.min(first, second) << 32 | Math.max(first, second)));
+                return true;
+            }
+        });
+        return pairs;
+    }
+
+    private static Set<Long> bruteForce(double[] coords) {
+        Set<Long> pairs = new TreeSet<Long>();
+        for (int i = 0; i < coords.length / 4; i++) {
+            for (int j = i + 1; j < coords.length / 4; j++) {
+                if (Line2D.linesIntersect(coords[4 * i], coords[4 * i + 1], coords[4 * i + 2], coords[4 * i + 3],
+                        coords[4 * j], coords[4 * j + 1], coords[4 * j + 2], coords[4 * j + 3])) {
+                    pairs.add((long) i << 32 | j);
+                }
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     * Random segments, on a coarse grid so that there are many common end points, touching, vertical,
+     * horizontal and collinear segments, or short segments mixed with a few long ones.
+     */
+    @Test
+    public void testFindSegmentIntersections() {
+        Random random = new Random(42);
+        for (int run = 0; run < 20; run++) {
+            int n = 50 + random.nextInt(500);
+            double[] coords = new double[4 * n];
+            for (int i = 0; i < n; i++) {
+                do {
+                    if (run % 2 == 0) {
+                        for (int k = 0; k < 4; k++) {
+                            coords[4 * i + k] = random.nextInt(20) - 10;
+                        }
+                    } else {
+                        int length = random.nextInt(10) == 0 ? 1000 : 20;
+                        coords[4 * i] = random.nextInt(1000) - 500;
+                        coords[4 * i + 1] = random.nextInt(1000) - 500;
+                        coords[4 * i + 2] = coords[4 * i] + random.nextInt(length) - length / 2;
+                        coords[4 * i + 3] = coords[4 * i + 1] + random.nextInt(length) - length / 2;
+                    }
+                    // Line2D.linesIntersect considers points to be on any line
+                } while (coords[4 * i] == coords[4 * i + 2] && coords[4 * i + 1] == coords[4 * i + 3]);
+            }
+            assertEquals(bruteForce(coords), sweep(coords));
+        }
+    }
+
+    @Test
+    public void testFindSegmentIntersectionsStop() {
+        double[] coords = {0, 0, 10, 10, 0, 10, 10, 0, 5, 0, 5, 10};
+        assertEquals(3, sweep(coords).size());
+        final int[] calls = new int[1];
+        Geometry.findSegmentIntersections(coords, new Geometry.SegmentIntersectionHandler() {
+            @Override
+            public boolean intersection(int first, int second) {
+                calls[0]++;
+                return false;
+            }
+        });
+        assertEquals(1, calls[0]);
+        assertEquals(0, sweep(new double[0]).size());
+    }
+}
@@ -0,0 +1,116 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link InitializationGraph} class.
+ */
+public class InitializationGraphTest {
+
+    private ExecutorService executor;
+    private List<String> log;
+
+    /**
+     * Creates the executor running the tasks.
+     */
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+        log = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    /**
+     * Stops the executor.
+     */
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private Callable<Void> logging(final String name) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                Thread.sleep(10);
+                log.add(name);
+                return null;
+            }
+        };
+    }
+
+    @Test
+    public void testDependencies() {
+        InitializationGraph graph = new InitializationGraph(executor);
+        InitializationGraph.Task a = graph.add("a", logging("a"));
+        InitializationGraph.Task b = graph.add("b", logging("b"), a);
+        graph.add("c", logging("c"), a, b);
+        graph.add("d", logging("d"));
+        graph.await();
+        assertEquals(4, log.size());
+        assertTrue(log.indexOf("a") < log.indexOf("b"));
+        assertTrue(log.indexOf("b") < log.indexOf("c"));
+        // a dependency finished before the task is added
+        graph.add("e", logging("e"), b);
+        graph.await();
+        assertEquals("e", log.get(4));
+    }
+
+    @Test
+    public void testParallel() throws InterruptedException {
+        // both tasks only finish if they run at the same time
+        final CountDownLatch latch = new CountDownLatch(2);
+        Callable<Void> task = new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                latch.countDown();
+                if (!latch.await(10, TimeUnit.SECONDS))
+                    throw new IllegalStateException("Not run in parallel");
+                return null;
+            }
+        };
+        InitializationGraph graph = new InitializationGraph(executor);
+        graph.add("a", task);
+        graph.add("b", task);
+        graph.await();
+    }
+
+    @Test
+    public void testFailure() {
+        final IllegalStateException error = new IllegalStateException();
+        InitializationGraph graph = new InitializationGraph(executor);
+        InitializationGraph.Task a = graph.add("a", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                throw error;
+            }
+        });
+        InitializationGraph.Task b = graph.add("b", logging("b"), a);
+        graph.add("c", logging("c"), b);
+        graph.add("d", logging("d"));
+        try {
+            graph.await();
+            fail();
+        } catch (RuntimeException e) {
+            assertSame(error, e.getCause());
+        }
+        // the dependents of the failed task are skipped, the others are run
+        assertEquals(Collections.singletonList("d"), log);
+    }
+}
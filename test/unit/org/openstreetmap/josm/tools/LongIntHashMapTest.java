@@ -0,0 +1,61 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link LongIntHashMap} class.
+ */
+public class LongIntHashMapTest {
+
+    @Test
+    public void testPutGetRemove() {
+        LongIntHashMap map = new LongIntHashMap();
+        assertEquals(LongIntHashMap.NO_VALUE, map.put(42, 1));
+        assertEquals(1, map.put(42, 2));
+        assertEquals(LongIntHashMap.NO_VALUE, map.put(Long.MIN_VALUE, 3));
+        assertEquals(2, map.size());
+        assertEquals(2, map.get(42));
+        assertEquals(3, map.get(Long.MIN_VALUE));
+        assertEquals(LongIntHashMap.NO_VALUE, map.get(43));
+        assertTrue(map.containsKey(Long.MIN_VALUE));
+        assertEquals(3, map.remove(Long.MIN_VALUE));
+        assertFalse(map.containsKey(Long.MIN_VALUE));
+        assertEquals(2, map.remove(42));
+        assertEquals(0, map.size());
+    }
+
+    /**
+     * Compares random operations with a {@link HashMap}, including removals in the
+     * middle of probe sequences.
+     */
+    @Test
+    public void testRandom() {
+        Random random = new Random(12345);
+        LongIntHashMap map = new LongIntHashMap();
+        Map<Long, Integer> reference = new HashMap<Long, Integer>();
+        for (int i = 0; i < 100000; i++) {
+            long key = random.nextInt(5000) - 2500;
+            if (random.nextInt(3) == 0) {
+                Integer old = reference.remove(key);
+                assertEquals(old == null ? LongIntHashMap.NO_VALUE : old, map.remove(key));
+            } else {
+                Integer old = reference.put(key, i);
+                assertEquals(old == null ? LongIntHashMap.NO_VALUE : old, map.put(key, i));
+            }
+        }
+        assertEquals(reference.size(), map.size());
+        for (long key = -2500; key < 2500; key++) {
+            Integer value = reference.get(key);
+            assertEquals(value == null ? LongIntHashMap.NO_VALUE : value, map.get(key));
+        }
+    }
+}